@@ -0,0 +1,271 @@
+// HydrologyNodeNetworkBenchmark - JMH benchmarks for node network construction, queries, and output
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cdss.domain.hydrology.network.HydrologyNode;
+import cdss.domain.hydrology.network.HydrologyNodeNetwork;
+
+/**
+JMH benchmarks for HydrologyNodeNetwork, using networks created by SyntheticNetworkGenerator.
+The network shape is controlled by the nodeCount, branchingFactor, mainStemLength, and nodeTypeMix parameters,
+which can be overridden on the JMH command line (e.g., -p nodeCount=50000 -p nodeTypeMix=DIV:50,FLO:50).
+Run with the "benchmark" target in conf/build.xml.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class HydrologyNodeNetworkBenchmark
+{
+
+/**
+Number of query nodes, selected randomly, that are cycled through by the query benchmarks.
+*/
+private static final int QUERY_COUNT = 64;
+
+/**
+Number of nodes in the network.
+*/
+@Param({"1000", "10000"})
+public int nodeCount;
+
+/**
+Maximum number of upstream nodes for a node.
+*/
+@Param({"2"})
+public int branchingFactor;
+
+/**
+Number of nodes on the main stem.
+*/
+@Param({"100"})
+public int mainStemLength;
+
+/**
+Node types and relative weights for nodes other than the END node and confluences, as a comma-separated list of
+Type:Weight pairs (see SyntheticNetworkGenerator.setNodeTypeMix(String)), or "Default" to use the generator's
+default mix, which is similar to StateMod networks.
+*/
+@Param({"Default"})
+public String nodeTypeMix;
+
+/**
+Network used by the query and output benchmarks.
+*/
+private HydrologyNodeNetwork __network;
+
+/**
+Nodes used as the starting point for queries.
+*/
+private HydrologyNode [] __queryNodes;
+
+/**
+Nodes downstream of the query nodes, used with getNodeSequence().
+*/
+private HydrologyNode [] __sequenceEndNodes;
+
+/**
+Identifiers of the query nodes, with different case to test case-independent lookup.
+*/
+private String [] __queryIds;
+
+/**
+Upstream nodes at which findUpstreamNodes() stops.
+*/
+private List<String> __stopIds;
+
+/**
+Position in the query arrays.
+*/
+private int __queryPosition = 0;
+
+/**
+Temporary files for output benchmarks.
+*/
+private File __xmlFile;
+private File __listFile;
+
+/**
+Generated nodes that have not been processed by calculateNetworkNodeData(), recreated for each invocation
+because processing connects the nodes.
+*/
+@State(Scope.Thread)
+public static class UnprocessedNodes
+{
+	/**
+	Generator with the same settings as the benchmark.
+	*/
+	private SyntheticNetworkGenerator __generator;
+
+	/**
+	Generated nodes.
+	*/
+	private List<HydrologyNode> __nodes;
+
+	@Setup(Level.Trial)
+	public void setupTrial ( HydrologyNodeNetworkBenchmark benchmark )
+	{	__generator = benchmark.createGenerator();
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation ()
+	{	__nodes = __generator.generate();
+	}
+}
+
+@Benchmark
+public HydrologyNodeNetwork calculateNetworkNodeData ( UnprocessedNodes unprocessed )
+{	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(unprocessed.__nodes, true);
+	return network;
+}
+
+/**
+Create a generator with the benchmark parameters.
+@return a new generator.
+*/
+private SyntheticNetworkGenerator createGenerator ()
+{	SyntheticNetworkGenerator generator = new SyntheticNetworkGenerator(nodeCount, branchingFactor, mainStemLength);
+	if ( !nodeTypeMix.equalsIgnoreCase("Default") ) {
+		generator.setNodeTypeMix(nodeTypeMix);
+	}
+	return generator;
+}
+
+@Benchmark
+public HydrologyNode findNode ()
+{	return __network.findNode(__queryIds[nextQuery()]);
+}
+
+@Benchmark
+public List<HydrologyNode> findUpstreamNodes ()
+{	List<HydrologyNode> foundNodes = new ArrayList<HydrologyNode>();
+	__network.findUpstreamNodes(foundNodes, __queryNodes[nextQuery()], true, null);
+	return foundNodes;
+}
+
+@Benchmark
+public List<HydrologyNode> findUpstreamNodesWithStops ()
+{	List<HydrologyNode> foundNodes = new ArrayList<HydrologyNode>();
+	__network.findUpstreamNodes(foundNodes, __queryNodes[nextQuery()], true, __stopIds);
+	return foundNodes;
+}
+
+@Benchmark
+public List<HydrologyNode> getNodeList ()
+{	return __network.getNodeList();
+}
+
+@Benchmark
+public List<HydrologyNode> getNodeSequence ()
+{	int i = nextQuery();
+	return __network.getNodeSequence(__queryNodes[i], __sequenceEndNodes[i]);
+}
+
+@Benchmark
+public void getNodesForType ( Blackhole blackhole )
+{	blackhole.consume(__network.getNodesForType(HydrologyNode.NODE_TYPE_DIV));
+	blackhole.consume(__network.getNodesForType(HydrologyNode.NODE_TYPE_FLOW));
+	blackhole.consume(__network.getNodesForType(HydrologyNode.NODE_TYPE_RES));
+}
+
+/**
+Return the position of the next query node.
+*/
+private int nextQuery ()
+{	int i = __queryPosition;
+	__queryPosition = (i + 1)%QUERY_COUNT;
+	return i;
+}
+
+@Setup(Level.Trial)
+public void setup ()
+throws Exception
+{	__network = createGenerator().generateNetwork();
+	List<HydrologyNode> nodes = __network.getNodeList();
+	Random random = new Random(nodeCount);
+	__queryNodes = new HydrologyNode[QUERY_COUNT];
+	__sequenceEndNodes = new HydrologyNode[QUERY_COUNT];
+	__queryIds = new String[QUERY_COUNT];
+	for ( int i = 0; i < QUERY_COUNT; i++ ) {
+		HydrologyNode node = nodes.get(random.nextInt(nodes.size()));
+		__queryNodes[i] = node;
+		__queryIds[i] = ((i%2) == 0) ? node.getCommonID() : node.getCommonID().toLowerCase();
+		// Use a node part of the way downstream for the end of the sequence.
+		HydrologyNode end = node;
+		for ( int j = random.nextInt(50); (j > 0) && (end.getDownstreamNode() != null); j-- ) {
+			end = end.getDownstreamNode();
+		}
+		__sequenceEndNodes[i] = end;
+	}
+	__stopIds = new ArrayList<String>();
+	for ( int i = 0; i < 10; i++ ) {
+		__stopIds.add(nodes.get(random.nextInt(nodes.size())).getCommonID());
+	}
+	__xmlFile = File.createTempFile("HydrologyNodeNetworkBenchmark", ".net");
+	__listFile = File.createTempFile("HydrologyNodeNetworkBenchmark", ".txt");
+}
+
+@TearDown(Level.Trial)
+public void tearDown ()
+{	__xmlFile.delete();
+	__listFile.delete();
+}
+
+@Benchmark
+public void writeListFile ()
+throws Exception
+{	HydrologyNodeNetwork.writeListFile(__listFile.getPath(), ",", false, __network.getNodeList(), null, false);
+}
+
+@Benchmark
+public void writeXML ()
+throws Exception
+{	__network.writeXML(__xmlFile.getPath());
+}
+
+}
@@ -0,0 +1,336 @@
+// SyntheticNetworkGenerator - generate node networks of a given size and shape for benchmarks
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cdss.domain.hydrology.network.HydrologyNode;
+import cdss.domain.hydrology.network.HydrologyNodeNetwork;
+
+/**
+Generate synthetic node networks for benchmarks.  A network has a main stem of a given length upstream of
+the END node, and tributaries are added until the network has the requested number of nodes.
+Each tributary starts with a confluence node and joins a randomly selected node that has fewer than the
+branching factor number of upstream nodes.  The other nodes are assigned types randomly using the node type mix.
+The same settings and seed always generate the same network so that benchmark results can be compared.
+*/
+public class SyntheticNetworkGenerator
+{
+
+/**
+Number of nodes to generate, including the END node.
+*/
+private int __nodeCount = 10000;
+
+/**
+Maximum number of upstream nodes for a node (the upstream node on the same reach and tributaries).
+*/
+private int __branchingFactor = 2;
+
+/**
+Number of nodes on the main stem, upstream of the END node.
+*/
+private int __mainStemLength = 100;
+
+/**
+Node types assigned to nodes other than the END node and confluences.
+*/
+private int [] __nodeTypes = {
+	HydrologyNode.NODE_TYPE_DIV,
+	HydrologyNode.NODE_TYPE_FLOW,
+	HydrologyNode.NODE_TYPE_ISF,
+	HydrologyNode.NODE_TYPE_RES,
+	HydrologyNode.NODE_TYPE_WELL,
+	HydrologyNode.NODE_TYPE_DIV_AND_WELL,
+	HydrologyNode.NODE_TYPE_OTHER,
+	HydrologyNode.NODE_TYPE_PLAN
+};
+
+/**
+Relative frequency of each type in __nodeTypes, similar to StateMod networks (mostly diversions and streamflow).
+*/
+private double [] __nodeTypeWeights = { 50, 15, 10, 8, 7, 4, 4, 2 };
+
+/**
+Fraction of nodes that are natural flow nodes.
+*/
+private double __naturalFlowFraction = 0.2;
+
+/**
+Seed for the random number generator.
+*/
+private long __seed = 1;
+
+/**
+Create a generator with default settings (10000 nodes, branching factor 2, main stem length 100).
+*/
+public SyntheticNetworkGenerator ()
+{
+}
+
+/**
+Create a generator.
+@param nodeCount number of nodes to generate, including the END node.
+@param branchingFactor maximum number of upstream nodes for a node (at least 1).
+@param mainStemLength number of nodes on the main stem, upstream of the END node.
+*/
+public SyntheticNetworkGenerator ( int nodeCount, int branchingFactor, int mainStemLength )
+{	setNodeCount(nodeCount);
+	setBranchingFactor(branchingFactor);
+	setMainStemLength(mainStemLength);
+}
+
+/**
+Create a node and connect it upstream of a downstream node.
+*/
+private HydrologyNode addNode ( List<HydrologyNode> nodes, HydrologyNode downstreamNode, int type, Random random )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setDescription("Node " + nodes.size());
+	node.setType(type);
+	if ( type != HydrologyNode.NODE_TYPE_CONFLUENCE ) {
+		node.setIsNaturalFlow(random.nextDouble() < __naturalFlowFraction);
+	}
+	node.setArea(random.nextInt(1000));
+	node.setPrecip(10 + random.nextInt(10));
+	node.setX(downstreamNode.getX() + random.nextDouble()*10);
+	node.setY(downstreamNode.getY() + random.nextDouble()*10 - 5);
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Generate the nodes of a network, which can be used with HydrologyNodeNetwork.calculateNetworkNodeData()
+with endFirst=true.  The nodes are not connected (only the upstream and downstream node identifiers are set).
+@return the generated nodes, with the END node first.
+*/
+public List<HydrologyNode> generate ()
+{	Random random = new Random(__seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>(__nodeCount);
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	// Number of upstream nodes for each node, by position in the list.
+	int [] upstreamCounts = new int[__nodeCount];
+	// Nodes that can have more upstream nodes.
+	int [] openNodes = new int[__nodeCount];
+	int openCount = 0;
+	HydrologyNode downstreamNode = end;
+	int downstreamPosition = 0;
+	for ( int i = 0; (i < __mainStemLength) && (nodes.size() < __nodeCount); i++ ) {
+		downstreamNode = addNode(nodes, downstreamNode, getRandomNodeType(random), random);
+		++upstreamCounts[downstreamPosition];
+		downstreamPosition = nodes.size() - 1;
+		openNodes[openCount++] = downstreamPosition;
+	}
+	int tributaryLength = Math.max(1, __mainStemLength/2);
+	while ( nodes.size() < __nodeCount ) {
+		// Join a tributary to a node that can have more upstream nodes.
+		downstreamPosition = -1;
+		while ( openCount > 0 ) {
+			int open = random.nextInt(openCount);
+			if ( upstreamCounts[openNodes[open]] < __branchingFactor ) {
+				downstreamPosition = openNodes[open];
+				break;
+			}
+			openNodes[open] = openNodes[--openCount];
+		}
+		if ( downstreamPosition < 0 ) {
+			// All nodes have the maximum number of upstream nodes - extend the last reach.
+			downstreamPosition = nodes.size() - 1;
+		}
+		++upstreamCounts[downstreamPosition];
+		downstreamNode = addNode(nodes, nodes.get(downstreamPosition), HydrologyNode.NODE_TYPE_CONFLUENCE, random);
+		downstreamPosition = nodes.size() - 1;
+		int length = 1 + random.nextInt(tributaryLength);
+		for ( int i = 0; (i < length) && (nodes.size() < __nodeCount); i++ ) {
+			downstreamNode = addNode(nodes, downstreamNode, getRandomNodeType(random), random);
+			++upstreamCounts[downstreamPosition];
+			downstreamPosition = nodes.size() - 1;
+			if ( __branchingFactor > 1 ) {
+				openNodes[openCount++] = downstreamPosition;
+			}
+		}
+	}
+	return nodes;
+}
+
+/**
+Generate a network.
+@return a network created from the generated nodes.
+*/
+public HydrologyNodeNetwork generateNetwork ()
+{	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(generate(), true);
+	return network;
+}
+
+/**
+Return the maximum number of upstream nodes for a node.
+@return the maximum number of upstream nodes for a node.
+*/
+public int getBranchingFactor ()
+{	return __branchingFactor;
+}
+
+/**
+Return the number of nodes on the main stem.
+@return the number of nodes on the main stem, upstream of the END node.
+*/
+public int getMainStemLength ()
+{	return __mainStemLength;
+}
+
+/**
+Return the fraction of nodes that are natural flow nodes.
+@return the fraction of nodes that are natural flow nodes.
+*/
+public double getNaturalFlowFraction ()
+{	return __naturalFlowFraction;
+}
+
+/**
+Return the number of nodes to generate.
+@return the number of nodes to generate, including the END node.
+*/
+public int getNodeCount ()
+{	return __nodeCount;
+}
+
+/**
+Return a random node type using the node type mix.
+*/
+private int getRandomNodeType ( Random random )
+{	double total = 0;
+	for ( int i = 0; i < __nodeTypeWeights.length; i++ ) {
+		total += __nodeTypeWeights[i];
+	}
+	double value = random.nextDouble()*total;
+	for ( int i = 0; i < __nodeTypes.length; i++ ) {
+		value -= __nodeTypeWeights[i];
+		if ( value < 0 ) {
+			return __nodeTypes[i];
+		}
+	}
+	return __nodeTypes[__nodeTypes.length - 1];
+}
+
+/**
+Return the seed for the random number generator.
+@return the seed for the random number generator.
+*/
+public long getSeed ()
+{	return __seed;
+}
+
+/**
+Set the maximum number of upstream nodes for a node.
+@param branchingFactor the maximum number of upstream nodes for a node (at least 1).
+*/
+public void setBranchingFactor ( int branchingFactor )
+{	__branchingFactor = Math.max(1, branchingFactor);
+}
+
+/**
+Set the number of nodes on the main stem.
+@param mainStemLength the number of nodes on the main stem, upstream of the END node.
+*/
+public void setMainStemLength ( int mainStemLength )
+{	__mainStemLength = Math.max(1, mainStemLength);
+}
+
+/**
+Set the fraction of nodes that are natural flow nodes.
+@param naturalFlowFraction the fraction of nodes that are natural flow nodes, 0 to 1.
+*/
+public void setNaturalFlowFraction ( double naturalFlowFraction )
+{	__naturalFlowFraction = naturalFlowFraction;
+}
+
+/**
+Set the number of nodes to generate.
+@param nodeCount the number of nodes to generate, including the END node.
+*/
+public void setNodeCount ( int nodeCount )
+{	__nodeCount = Math.max(1, nodeCount);
+}
+
+/**
+Set the node type mix.
+@param nodeTypes node types assigned to nodes other than the END node and confluences (HydrologyNode.NODE_TYPE_*).
+@param weights relative frequency of each node type.
+*/
+public void setNodeTypeMix ( int [] nodeTypes, double [] weights )
+{	if ( (nodeTypes.length == 0) || (nodeTypes.length != weights.length) ) {
+		throw new IllegalArgumentException ( "Number of node types (" + nodeTypes.length +
+			") and weights (" + weights.length + ") must be the same and greater than zero." );
+	}
+	__nodeTypes = nodeTypes.clone();
+	__nodeTypeWeights = weights.clone();
+}
+
+/**
+Set the node type mix from a string, for example from a benchmark parameter.
+@param nodeTypeMix comma-separated list of Type:Weight pairs, where the type is any string recognized by
+HydrologyNode.lookupType() (e.g., "DIV:50,FLO:30,RES:20").
+@exception IllegalArgumentException if the string cannot be parsed or a type is not recognized.
+*/
+public void setNodeTypeMix ( String nodeTypeMix )
+{	String [] pairs = nodeTypeMix.split(",");
+	int [] nodeTypes = new int[pairs.length];
+	double [] weights = new double[pairs.length];
+	for ( int i = 0; i < pairs.length; i++ ) {
+		String [] parts = pairs[i].split(":");
+		if ( parts.length != 2 ) {
+			throw new IllegalArgumentException ( "Node type mix \"" + pairs[i].trim() + "\" is not Type:Weight." );
+		}
+		nodeTypes[i] = HydrologyNode.lookupType(parts[0].trim());
+		if ( nodeTypes[i] < 0 ) {
+			throw new IllegalArgumentException ( "Node type \"" + parts[0].trim() + "\" is not recognized." );
+		}
+		try {
+			weights[i] = Double.parseDouble(parts[1].trim());
+		}
+		catch ( NumberFormatException e ) {
+			throw new IllegalArgumentException ( "Node type weight \"" + parts[1].trim() + "\" is not a number." );
+		}
+	}
+	setNodeTypeMix(nodeTypes, weights);
+}
+
+/**
+Set the seed for the random number generator.
+@param seed the seed for the random number generator.
+*/
+public void setSeed ( long seed )
+{	__seed = seed;
+}
+
+}
@@ -0,0 +1,726 @@
+// CompactNetwork - immutable compact copy of a HydrologyNodeNetwork, stored as arrays
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+/**
+Read-only compact copy of a HydrologyNodeNetwork, intended for analysis of large networks.
+Each node is identified by its index, which is its position in the network's computational order
+(the order of HydrologyNodeNetwork.getNodeList()), so that index 0 is the most upstream node and
+the END node is last.  Node data are stored in parallel arrays rather than HydrologyNode objects:
+<ul>
+<li>	topology as the downstream node index and the upstream node indices, stored in one array
+	with an offset for each node, in the order of HydrologyNode.getUpstreamNode(int)</li>
+<li>	node types and natural flow/import flags as bytes</li>
+<li>	coordinates and Makenet area/precipitation/water/proration factor as doubles</li>
+<li>	identifiers as indices into a string table that is shared by nodes with the same identifier</li>
+<li>	descriptions</li>
+</ul>
+The compact network is not updated when the original network changes - create a new instance after edits,
+or use a CompactNetworkBuilder to create a modified copy of a compact network.
+<p>
+A compact network is immutable: all data are set in the constructor and are never modified,
+and methods that return arrays return new arrays.  A compact network can therefore be used as a snapshot of a
+network that any number of threads query concurrently without synchronization.  For example, a server can
+keep the current snapshot in a volatile field or AtomicReference, which readers get without locking, while an editing
+thread uses a CompactNetworkBuilder to create the next snapshot and then replaces the current snapshot.
+*/
+public class CompactNetwork
+{
+
+/**
+Flag bits stored in __flags.
+*/
+static final byte FLAG_NATURAL_FLOW = 0x1;
+static final byte FLAG_IMPORT = 0x2;
+
+/**
+Number of nodes.
+*/
+private final int __nodeCount;
+
+/**
+Downstream node index for each node, -1 if the node has no downstream node (e.g., the END node).
+*/
+private final int [] __downstreamIndexes;
+
+/**
+Offsets into __upstreamIndexes for each node, with length __nodeCount + 1.
+*/
+private final int [] __upstreamOffsets;
+
+/**
+Upstream node indices for all nodes, grouped by node (see __upstreamOffsets).
+*/
+private final int [] __upstreamIndexes;
+
+/**
+Node types (HydrologyNode.NODE_TYPE_*).
+*/
+private final byte [] __types;
+
+/**
+Node flags (FLAG_*).
+*/
+private final byte [] __flags;
+
+/**
+Node coordinates.
+*/
+private final double [] __x;
+private final double [] __y;
+
+/**
+Makenet node data.
+*/
+private final double [] __area;
+private final double [] __precip;
+private final double [] __water;
+private final double [] __prorationFactor;
+
+/**
+Node descriptions.
+*/
+private final String [] __descriptions;
+
+/**
+Node identifiers, as indices into __strings.
+*/
+private final int [] __idStrings;
+
+/**
+String table for node identifiers, each distinct identifier occurring once.
+*/
+private final String [] __strings;
+
+/**
+Index of the first node (lowest index) for each case-insensitive node identifier.
+*/
+private final HydrologyNodeIdTable __idIndex;
+
+/**
+Node indices in upstream tree order, in which each node is followed by all the nodes upstream of it.
+The nodes upstream of node i, including node i, are at positions __upstreamTreeStart[i] to __upstreamTreeEnd[i] - 1.
+*/
+private final int [] __upstreamTreeOrder;
+private final int [] __upstreamTreeStart;
+private final int [] __upstreamTreeEnd;
+
+/**
+Node index of the parent of each node in the upstream tree (normally the downstream node), -1 for the first node
+in each tree.
+*/
+private final int [] __upstreamTreeParents;
+
+/**
+Construct a compact network from the nodes in a network, in computational order.
+Upstream nodes that are not in the computational order (which only occurs for invalid networks) are ignored.
+@param network network to copy.
+*/
+public CompactNetwork ( HydrologyNodeNetwork network )
+{	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	int n = nodes.length;
+	__nodeCount = n;
+	__downstreamIndexes = new int[n];
+	__upstreamOffsets = new int[n + 1];
+	__types = new byte[n];
+	__flags = new byte[n];
+	__x = new double[n];
+	__y = new double[n];
+	__area = new double[n];
+	__precip = new double[n];
+	__water = new double[n];
+	__prorationFactor = new double[n];
+	__descriptions = new String[n];
+
+	String [] ids = new String[n];
+	int upstreamCount = 0;
+	HydrologyNode node, downstreamNode;
+	for ( int i = 0; i < n; i++ ) {
+		node = nodes[i];
+		downstreamNode = node.getDownstreamNode();
+		__downstreamIndexes[i] = (downstreamNode == null) ? -1 : network.getComputationalIndex(downstreamNode);
+		upstreamCount += node.getNumUpstreamNodes();
+		__types[i] = (byte)node.getType();
+		if ( node.getIsNaturalFlow() ) {
+			__flags[i] |= FLAG_NATURAL_FLOW;
+		}
+		if ( node.getIsImport() ) {
+			__flags[i] |= FLAG_IMPORT;
+		}
+		__x[i] = node.getX();
+		__y[i] = node.getY();
+		__area[i] = node.getArea();
+		__precip[i] = node.getPrecip();
+		__water[i] = node.getWater();
+		__prorationFactor[i] = node.getProrationFactor();
+		__descriptions[i] = node.getDescription();
+		ids[i] = node.getCommonID();
+	}
+	IdentifierTable identifiers = new IdentifierTable(ids);
+	__idStrings = identifiers.__idStrings;
+	__strings = identifiers.__strings;
+	__idIndex = identifiers.__idIndex;
+
+	// Fill the upstream rows, ignoring upstream nodes that are not in the computational order.
+	int [] upstreamIndexes = new int[upstreamCount];
+	upstreamCount = 0;
+	HydrologyNode upstreamNode;
+	int upstreamIndex;
+	for ( int i = 0; i < n; i++ ) {
+		__upstreamOffsets[i] = upstreamCount;
+		node = nodes[i];
+		for ( int iUp = 0; iUp < node.getNumUpstreamNodes(); iUp++ ) {
+			upstreamNode = node.getUpstreamNode(iUp);
+			if ( upstreamNode != null ) {
+				upstreamIndex = network.getComputationalIndex(upstreamNode);
+				if ( upstreamIndex >= 0 ) {
+					upstreamIndexes[upstreamCount++] = upstreamIndex;
+				}
+			}
+		}
+	}
+	__upstreamOffsets[n] = upstreamCount;
+	if ( upstreamCount < upstreamIndexes.length ) {
+		__upstreamIndexes = new int[upstreamCount];
+		System.arraycopy(upstreamIndexes, 0, __upstreamIndexes, 0, upstreamCount);
+	}
+	else {
+		__upstreamIndexes = upstreamIndexes;
+	}
+
+	__upstreamTreeOrder = new int[n];
+	__upstreamTreeStart = new int[n];
+	__upstreamTreeEnd = new int[n];
+	__upstreamTreeParents = new int[n];
+	calculateUpstreamTree();
+}
+
+/**
+Construct a compact network from arrays, which are used directly (not copied) and must not be modified afterwards.
+This is used by CompactNetworkBuilder.  Null arrays are shared with the base network.
+@param base network that provides the arrays that are null, can be null if no arrays are null.
+@param nodeCount number of nodes.
+@param downstreamIndexes downstream node index for each node, or null to use the topology of the base network
+(in which case upstreamOffsets and upstreamIndexes must also be null).
+@param upstreamOffsets offsets into upstreamIndexes for each node, with length nodeCount + 1.
+@param upstreamIndexes upstream node indices for all nodes, grouped by node.
+@param types node types.
+@param flags node flags (FLAG_*).
+@param x node X coordinates.
+@param y node Y coordinates.
+@param area Makenet areas.
+@param precip Makenet precipitation.
+@param water Makenet water.
+@param prorationFactor proration factors.
+@param descriptions node descriptions.
+@param ids node identifiers, or null to use the identifiers of the base network.
+*/
+CompactNetwork ( CompactNetwork base, int nodeCount, int [] downstreamIndexes, int [] upstreamOffsets,
+	int [] upstreamIndexes, byte [] types, byte [] flags, double [] x, double [] y, double [] area, double [] precip,
+	double [] water, double [] prorationFactor, String [] descriptions, String [] ids )
+{	__nodeCount = nodeCount;
+	__types = (types == null) ? base.__types : types;
+	__flags = (flags == null) ? base.__flags : flags;
+	__x = (x == null) ? base.__x : x;
+	__y = (y == null) ? base.__y : y;
+	__area = (area == null) ? base.__area : area;
+	__precip = (precip == null) ? base.__precip : precip;
+	__water = (water == null) ? base.__water : water;
+	__prorationFactor = (prorationFactor == null) ? base.__prorationFactor : prorationFactor;
+	__descriptions = (descriptions == null) ? base.__descriptions : descriptions;
+	if ( ids == null ) {
+		__idStrings = base.__idStrings;
+		__strings = base.__strings;
+		__idIndex = base.__idIndex;
+	}
+	else {
+		IdentifierTable identifiers = new IdentifierTable(ids);
+		__idStrings = identifiers.__idStrings;
+		__strings = identifiers.__strings;
+		__idIndex = identifiers.__idIndex;
+	}
+	if ( downstreamIndexes == null ) {
+		// The topology is the same so the upstream tree is also the same.
+		__downstreamIndexes = base.__downstreamIndexes;
+		__upstreamOffsets = base.__upstreamOffsets;
+		__upstreamIndexes = base.__upstreamIndexes;
+		__upstreamTreeOrder = base.__upstreamTreeOrder;
+		__upstreamTreeStart = base.__upstreamTreeStart;
+		__upstreamTreeEnd = base.__upstreamTreeEnd;
+		__upstreamTreeParents = base.__upstreamTreeParents;
+	}
+	else {
+		__downstreamIndexes = downstreamIndexes;
+		__upstreamOffsets = upstreamOffsets;
+		__upstreamIndexes = upstreamIndexes;
+		__upstreamTreeOrder = new int[nodeCount];
+		__upstreamTreeStart = new int[nodeCount];
+		__upstreamTreeEnd = new int[nodeCount];
+		__upstreamTreeParents = new int[nodeCount];
+		calculateUpstreamTree();
+	}
+}
+
+/**
+Calculate the sum of values over each node and all the nodes upstream of it,
+for example to determine the contributing area at each node.
+The calculation processes upstream nodes before downstream nodes in the upstream tree order.
+@param values value for each node, by node index.
+@return the sum for each node, by node index.
+*/
+public double [] accumulate ( double [] values )
+{	if ( values.length != __nodeCount ) {
+		throw new IllegalArgumentException ( "Number of values (" + values.length +
+			") does not match the number of nodes (" + __nodeCount + ")." );
+	}
+	double [] sums = new double[__nodeCount];
+	accumulate ( values, sums, null, null, 0, __nodeCount );
+	return sums;
+}
+
+/**
+Calculate the sum, minimum and maximum of values over each node and the nodes upstream of it, for the nodes at
+a range of positions in the upstream tree order (see getUpstreamTreeOrder()).  The range must contain all the
+nodes upstream of each node in the range, for example the whole network or the subtree of a node
+(getUpstreamTreeStart() to getUpstreamTreeEnd()).  The results for a node whose downstream node is outside the
+range are not combined into the downstream node.
+Values that are NaN result in NaN for all downstream nodes in the range.
+@param values value for each node, by node index.
+@param sums array to set the sum for each node in the range, by node index.
+@param mins array to set the minimum for each node in the range, by node index, or null to not calculate.
+@param maxs array to set the maximum for each node in the range, by node index, or null to not calculate.
+@param start position of the first node in the upstream tree order.
+@param end position after the last node in the upstream tree order.
+*/
+void accumulate ( double [] values, double [] sums, double [] mins, double [] maxs, int start, int end )
+{	int node, parent;
+	for ( int pos = start; pos < end; pos++ ) {
+		node = __upstreamTreeOrder[pos];
+		sums[node] = values[node];
+		if ( mins != null ) {
+			mins[node] = values[node];
+		}
+		if ( maxs != null ) {
+			maxs[node] = values[node];
+		}
+	}
+	// Reverse upstream tree order visits each node after all of its upstream nodes.
+	for ( int pos = end - 1; pos >= start; pos-- ) {
+		node = __upstreamTreeOrder[pos];
+		parent = __upstreamTreeParents[node];
+		if ( (parent < 0) || (__upstreamTreeStart[parent] < start) ) {
+			continue;
+		}
+		sums[parent] += sums[node];
+		if ( mins != null ) {
+			mins[parent] = Math.min(mins[parent], mins[node]);
+		}
+		if ( maxs != null ) {
+			maxs[parent] = Math.max(maxs[parent], maxs[node]);
+		}
+	}
+}
+
+/**
+Calculate the upstream tree order by walking upstream from each node that has no downstream node.
+Any nodes not reached that way (nodes in a loop in an invalid network) are then walked from the first such node,
+without revisiting nodes.
+*/
+private void calculateUpstreamTree ()
+{	int n = __nodeCount;
+	boolean [] visited = new boolean[n];
+	int [] stack = new int[n];
+	int [] nextUpstream = new int[n];
+	int count = 0;
+	for ( int pass = 0; pass < 2; pass++ ) {
+		for ( int root = 0; root < n; root++ ) {
+			if ( visited[root] || ((pass == 0) && (__downstreamIndexes[root] >= 0)) ) {
+				continue;
+			}
+			int top = 0;
+			stack[0] = root;
+			nextUpstream[root] = __upstreamOffsets[root];
+			visited[root] = true;
+			__upstreamTreeParents[root] = -1;
+			__upstreamTreeStart[root] = count;
+			__upstreamTreeOrder[count++] = root;
+			while ( top >= 0 ) {
+				int node = stack[top];
+				if ( nextUpstream[node] < __upstreamOffsets[node + 1] ) {
+					int upstreamNode = __upstreamIndexes[nextUpstream[node]++];
+					if ( !visited[upstreamNode] ) {
+						visited[upstreamNode] = true;
+						__upstreamTreeParents[upstreamNode] = node;
+						stack[++top] = upstreamNode;
+						nextUpstream[upstreamNode] = __upstreamOffsets[upstreamNode];
+						__upstreamTreeStart[upstreamNode] = count;
+						__upstreamTreeOrder[count++] = upstreamNode;
+					}
+				}
+				else {
+					__upstreamTreeEnd[node] = count;
+					--top;
+				}
+			}
+		}
+	}
+}
+
+/**
+Return the node indices of a node and all the nodes upstream of it, with each node followed by the nodes upstream of it.
+@param index node index.
+@param includeNode if true, include the node itself as the first index.
+@return the node indices, guaranteed to be non-null.
+*/
+public int [] findUpstreamNodes ( int index, boolean includeNode )
+{	int start = __upstreamTreeStart[index];
+	if ( !includeNode ) {
+		++start;
+	}
+	int [] indexes = new int[__upstreamTreeEnd[index] - start];
+	System.arraycopy(__upstreamTreeOrder, start, indexes, 0, indexes.length);
+	return indexes;
+}
+
+/**
+Return the node indices of a node and all the nodes downstream of it, in downstream order.
+@param index node index.
+@param includeNode if true, include the node itself as the first index.
+@return the node indices, guaranteed to be non-null.
+*/
+public int [] findDownstreamNodes ( int index, boolean includeNode )
+{	int count = 0;
+	// Limit the number of nodes in case of a loop in an invalid network.
+	for ( int i = __downstreamIndexes[index]; (i >= 0) && (count < __nodeCount); i = __downstreamIndexes[i] ) {
+		++count;
+	}
+	int [] indexes = new int[includeNode ? (count + 1) : count];
+	int pos = 0;
+	if ( includeNode ) {
+		indexes[pos++] = index;
+	}
+	for ( int i = __downstreamIndexes[index]; pos < indexes.length; i = __downstreamIndexes[i] ) {
+		indexes[pos++] = i;
+	}
+	return indexes;
+}
+
+/**
+Returns the Makenet area for a node.
+@param index node index.
+@return the Makenet area.
+*/
+public double getArea ( int index )
+{	return __area[index];
+}
+
+/**
+Returns the node common identifier.
+@param index node index.
+@return the node common identifier, possibly null.
+*/
+public String getCommonID ( int index )
+{	int stringIndex = __idStrings[index];
+	return (stringIndex < 0) ? null : __strings[stringIndex];
+}
+
+/**
+Returns the node description.
+@param index node index.
+@return the node description, possibly null.
+*/
+public String getDescription ( int index )
+{	return __descriptions[index];
+}
+
+/**
+Return the index of the downstream node.
+@param index node index.
+@return the index of the downstream node, or -1 if the node has no downstream node.
+*/
+public int getDownstreamIndex ( int index )
+{	return __downstreamIndexes[index];
+}
+
+/**
+Return the downstream node index array, which must not be modified.
+@return the downstream node index array.
+*/
+int [] getDownstreamIndexes ()
+{	return __downstreamIndexes;
+}
+
+/**
+Return the index of the first node with an identifier, comparing identifiers ignoring case
+(the same as HydrologyNodeNetwork.findNode(String)).
+@param commonID node common identifier.
+@return the node index, or -1 if not found.
+*/
+public int getIndex ( String commonID )
+{	if ( commonID == null ) {
+		return -1;
+	}
+	return __idIndex.get(HydrologyNodeNetwork.getNodeIdKey(commonID));
+}
+
+/**
+Returns the node flags, used by CompactNetworkBuilder.
+@param index node index.
+@return the node flags (FLAG_*).
+*/
+byte getFlags ( int index )
+{	return __flags[index];
+}
+
+/**
+Returns whether the node is an import node.
+@param index node index.
+@return true if the node is an import node.
+*/
+public boolean getIsImport ( int index )
+{	return (__flags[index] & FLAG_IMPORT) != 0;
+}
+
+/**
+Returns whether the node is a natural flow node.
+@param index node index.
+@return true if the node is a natural flow node.
+*/
+public boolean getIsNaturalFlow ( int index )
+{	return (__flags[index] & FLAG_NATURAL_FLOW) != 0;
+}
+
+/**
+Return the number of nodes.
+@return the number of nodes.
+*/
+public int getNodeCount ()
+{	return __nodeCount;
+}
+
+/**
+Return the indices of the nodes of a type, in computational order.
+@param type node type (HydrologyNode.NODE_TYPE_*).
+@return the node indices, guaranteed to be non-null.
+*/
+public int [] getNodeIndexesForType ( int type )
+{	int count = 0;
+	for ( int i = 0; i < __nodeCount; i++ ) {
+		if ( __types[i] == type ) {
+			++count;
+		}
+	}
+	int [] indexes = new int[count];
+	count = 0;
+	for ( int i = 0; i < __nodeCount; i++ ) {
+		if ( __types[i] == type ) {
+			indexes[count++] = i;
+		}
+	}
+	return indexes;
+}
+
+/**
+Returns the Makenet precipitation for a node.
+@param index node index.
+@return the Makenet precipitation.
+*/
+public double getPrecip ( int index )
+{	return __precip[index];
+}
+
+/**
+Returns the proration factor for a node.
+@param index node index.
+@return the proration factor.
+*/
+public double getProrationFactor ( int index )
+{	return __prorationFactor[index];
+}
+
+/**
+Returns the node type.
+@param index node index.
+@return the node type (HydrologyNode.NODE_TYPE_*).
+*/
+public int getType ( int index )
+{	return __types[index];
+}
+
+/**
+Return the index of an upstream node.
+@param index node index.
+@param position position in the node's upstream nodes, 0 to getUpstreamNodeCount(index) - 1.
+@return the index of the upstream node.
+*/
+public int getUpstreamIndex ( int index, int position )
+{	return __upstreamIndexes[__upstreamOffsets[index] + position];
+}
+
+/**
+Return the upstream node index array, which must not be modified (see getUpstreamOffsets()).
+@return the upstream node index array.
+*/
+int [] getUpstreamIndexes ()
+{	return __upstreamIndexes;
+}
+
+/**
+Return the number of nodes immediately upstream of a node.
+@param index node index.
+@return the number of upstream nodes.
+*/
+public int getUpstreamNodeCount ( int index )
+{	return __upstreamOffsets[index + 1] - __upstreamOffsets[index];
+}
+
+/**
+Return the upstream offset array, which must not be modified.
+The upstream nodes of node i are at positions offsets[i] to offsets[i + 1] - 1 of getUpstreamIndexes().
+@return the upstream offset array.
+*/
+int [] getUpstreamOffsets ()
+{	return __upstreamOffsets;
+}
+
+/**
+Return the position after the last node upstream of a node in the upstream tree order (see getUpstreamTreeOrder()).
+@param index node index.
+@return the position after the last upstream node.
+*/
+int getUpstreamTreeEnd ( int index )
+{	return __upstreamTreeEnd[index];
+}
+
+/**
+Return the parent of a node in the upstream tree, which is the downstream node except for invalid networks.
+@param index node index.
+@return the index of the parent node, or -1 if the node is the first node in a tree.
+*/
+int getUpstreamTreeParent ( int index )
+{	return __upstreamTreeParents[index];
+}
+
+/**
+Return the node indices in upstream tree order, which must not be modified.
+A node and all the nodes upstream of it are at positions getUpstreamTreeStart(i) to getUpstreamTreeEnd(i) - 1.
+@return the node indices in upstream tree order.
+*/
+int [] getUpstreamTreeOrder ()
+{	return __upstreamTreeOrder;
+}
+
+/**
+Return the position of a node in the upstream tree order (see getUpstreamTreeOrder()).
+@param index node index.
+@return the position of the node in the upstream tree order.
+*/
+int getUpstreamTreeStart ( int index )
+{	return __upstreamTreeStart[index];
+}
+
+/**
+Returns the Makenet water (area * precip) for a node.
+@param index node index.
+@return the Makenet water.
+*/
+public double getWater ( int index )
+{	return __water[index];
+}
+
+/**
+Returns the node X coordinate.
+@param index node index.
+@return the node X coordinate.
+*/
+public double getX ( int index )
+{	return __x[index];
+}
+
+/**
+Returns the node Y coordinate.
+@param index node index.
+@return the node Y coordinate.
+*/
+public double getY ( int index )
+{	return __y[index];
+}
+
+/**
+Determine whether a node is upstream of another node.
+@param upstreamIndex index of the node that may be upstream.
+@param index index of the node to check.
+@return true if upstreamIndex is upstream of index, false if not or if the indices are the same.
+*/
+public boolean isUpstreamOf ( int upstreamIndex, int index )
+{	int upstreamStart = __upstreamTreeStart[upstreamIndex];
+	return (upstreamStart > __upstreamTreeStart[index]) && (upstreamStart < __upstreamTreeEnd[index]);
+}
+
+/**
+Node identifiers stored as indices into a string table, and the index of nodes by case-insensitive identifier.
+*/
+private static class IdentifierTable
+{
+	private final int [] __idStrings;
+	private final String [] __strings;
+	private final HydrologyNodeIdTable __idIndex;
+
+	/**
+	Create the table.
+	@param ids node identifiers, by node index, possibly null.
+	*/
+	private IdentifierTable ( String [] ids )
+	{	int n = ids.length;
+		__idStrings = new int[n];
+		__idIndex = new HydrologyNodeIdTable(n);
+		HydrologyNodeIdTable stringTable = new HydrologyNodeIdTable(n);
+		String [] strings = new String[n];
+		int stringCount = 0;
+		String id;
+		int stringIndex;
+		for ( int i = 0; i < n; i++ ) {
+			id = ids[i];
+			if ( id == null ) {
+				__idStrings[i] = -1;
+				continue;
+			}
+			stringIndex = stringTable.get(id);
+			if ( stringIndex < 0 ) {
+				stringIndex = stringCount++;
+				strings[stringIndex] = id;
+				stringTable.put(id, stringIndex);
+			}
+			__idStrings[i] = stringIndex;
+			String key = HydrologyNodeNetwork.getNodeIdKey(id);
+			if ( __idIndex.get(key) < 0 ) {
+				__idIndex.put(key, i);
+			}
+		}
+		__strings = new String[stringCount];
+		System.arraycopy(strings, 0, __strings, 0, stringCount);
+	}
+}
+
+}
@@ -0,0 +1,564 @@
+// CompactNetworkBuilder - create a modified copy of a CompactNetwork, copying only the data that change
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.Arrays;
+
+/**
+Create a modified copy of a CompactNetwork, which is immutable, for example to create the next snapshot of a network
+after edits while other threads continue to query the current snapshot.
+The builder is copy-on-write:  node data are copied from the base network only when they are first modified,
+and build() shares the data that were not modified with the base network.  Changing node attributes only copies
+the attribute that is changed, whereas adding or removing nodes copies all data because the node indices change.
+<p>
+Nodes are identified by their index in the base network.  Nodes that are added are given the indices after
+the last node.  The network created by build() has nodes in computational order (the same order as
+a CompactNetwork created from a HydrologyNodeNetwork), so indices may be different than in the builder.
+After build(), the builder uses the new network as its base, with the new network's indices.
+<p>
+A builder is not thread-safe and should be used by one thread, but the networks that it creates are immutable.
+*/
+public class CompactNetworkBuilder
+{
+
+/**
+Positions of the double attributes in __values.
+*/
+private static final int X = 0;
+private static final int Y = 1;
+private static final int AREA = 2;
+private static final int PRECIP = 3;
+private static final int WATER = 4;
+private static final int PRORATION_FACTOR = 5;
+private static final int VALUE_COUNT = 6;
+
+/**
+Network that provides the data that have not been modified.
+*/
+private CompactNetwork __base;
+
+/**
+Number of nodes, including removed nodes.
+*/
+private int __nodeCount;
+
+/**
+Length of the modified arrays, at least __nodeCount.
+*/
+private int __capacity;
+
+/**
+Modified node data, null if not modified.
+*/
+private byte [] __types;
+private byte [] __flags;
+private double [][] __values;
+private String [] __descriptions;
+private String [] __ids;
+
+/**
+Modified topology, null if nodes have not been added or removed.
+The upstream indices of each node are in the order of CompactNetwork.getUpstreamIndex().
+*/
+private int [] __downstreamIndexes;
+private int [][] __upstreamIndexes;
+private boolean [] __removed;
+
+/**
+Create a builder.
+@param base the network to modify, which is not changed.
+*/
+public CompactNetworkBuilder ( CompactNetwork base )
+{	setBase(base);
+}
+
+/**
+Add a node.  Similar to HydrologyNodeNetwork.addNode(), if the upstream node is an upstream node of the
+downstream node, the new node is inserted between them, and otherwise the new node is added as the last upstream
+node of the downstream node.
+@param commonID the node identifier.
+@param type the node type (HydrologyNode.NODE_TYPE_*).
+@param upstreamIndex index of the node that will be immediately upstream of the new node, or -1.
+@param downstreamIndex index of the node that will be immediately downstream of the new node.
+@param isNaturalFlow whether the node is a natural flow node.
+@param isImport whether the node is an import node.
+@return the index of the new node.
+*/
+public int addNode ( String commonID, int type, int upstreamIndex, int downstreamIndex, boolean isNaturalFlow,
+	boolean isImport )
+{	checkIndex(downstreamIndex);
+	if ( upstreamIndex >= 0 ) {
+		checkIndex(upstreamIndex);
+	}
+	copyAll();
+	if ( __nodeCount == __capacity ) {
+		setCapacity(Math.max(16, __capacity + (__capacity >> 1)));
+	}
+	int index = __nodeCount++;
+	__types[index] = (byte)type;
+	__flags[index] = (byte)((isNaturalFlow ? CompactNetwork.FLAG_NATURAL_FLOW : 0) |
+		(isImport ? CompactNetwork.FLAG_IMPORT : 0));
+	__ids[index] = commonID;
+	__descriptions[index] = "";
+	__downstreamIndexes[index] = downstreamIndex;
+	__upstreamIndexes[index] = new int[0];
+	int [] upstreamIndexes = __upstreamIndexes[downstreamIndex];
+	int position = -1;
+	for ( int i = 0; (upstreamIndex >= 0) && (i < upstreamIndexes.length); i++ ) {
+		if ( upstreamIndexes[i] == upstreamIndex ) {
+			position = i;
+			break;
+		}
+	}
+	if ( position >= 0 ) {
+		upstreamIndexes[position] = index;
+		__upstreamIndexes[index] = new int[] { upstreamIndex };
+		__downstreamIndexes[upstreamIndex] = index;
+	}
+	else {
+		upstreamIndexes = Arrays.copyOf(upstreamIndexes, upstreamIndexes.length + 1);
+		upstreamIndexes[upstreamIndexes.length - 1] = index;
+		__upstreamIndexes[downstreamIndex] = upstreamIndexes;
+	}
+	return index;
+}
+
+/**
+Create a network from the base network and the modifications.  The builder then uses the new network as its base.
+@return the new network.
+*/
+public CompactNetwork build ()
+{	CompactNetwork network;
+	if ( __downstreamIndexes == null ) {
+		// Nodes were not added or removed so share the topology and unmodified data with the base network.
+		network = new CompactNetwork(__base, __nodeCount, null, null, null, __types, __flags,
+			__values[X], __values[Y], __values[AREA], __values[PRECIP], __values[WATER], __values[PRORATION_FACTOR],
+			__descriptions, __ids);
+	}
+	else {
+		network = buildWithNewTopology();
+	}
+	setBase(network);
+	return network;
+}
+
+/**
+Create a network after nodes have been added or removed, with nodes in computational order.
+*/
+private CompactNetwork buildWithNewTopology ()
+{	// Determine the upstream tree order, which when reversed is the computational order
+	// (see CompactNetwork.calculateUpstreamTree()).
+	int [] order = new int[__nodeCount];
+	int [] stack = new int[__nodeCount];
+	int [] nextUpstream = new int[__nodeCount];
+	boolean [] visited = new boolean[__nodeCount];
+	int count = 0;
+	for ( int pass = 0; pass < 2; pass++ ) {
+		for ( int root = 0; root < __nodeCount; root++ ) {
+			if ( __removed[root] || visited[root] || ((pass == 0) && (__downstreamIndexes[root] >= 0)) ) {
+				continue;
+			}
+			int top = 0;
+			stack[0] = root;
+			nextUpstream[root] = 0;
+			visited[root] = true;
+			order[count++] = root;
+			while ( top >= 0 ) {
+				int node = stack[top];
+				if ( nextUpstream[node] < __upstreamIndexes[node].length ) {
+					int upstreamNode = __upstreamIndexes[node][nextUpstream[node]++];
+					if ( !visited[upstreamNode] ) {
+						visited[upstreamNode] = true;
+						stack[++top] = upstreamNode;
+						nextUpstream[upstreamNode] = 0;
+						order[count++] = upstreamNode;
+					}
+				}
+				else {
+					--top;
+				}
+			}
+		}
+	}
+	// newIndexes[i] is the index in the new network of builder node i.
+	int n = count;
+	int [] newIndexes = nextUpstream;
+	for ( int i = 0; i < n; i++ ) {
+		newIndexes[order[i]] = n - 1 - i;
+	}
+	int [] downstreamIndexes = new int[n];
+	int [] upstreamOffsets = new int[n + 1];
+	byte [] types = new byte[n];
+	byte [] flags = new byte[n];
+	double [][] values = new double[VALUE_COUNT][n];
+	String [] descriptions = new String[n];
+	String [] ids = new String[n];
+	int upstreamCount = 0;
+	int node, newIndex;
+	for ( int i = 0; i < n; i++ ) {
+		node = order[n - 1 - i];
+		upstreamCount += __upstreamIndexes[node].length;
+		downstreamIndexes[i] = (__downstreamIndexes[node] < 0) ? -1 : newIndexes[__downstreamIndexes[node]];
+		types[i] = __types[node];
+		flags[i] = __flags[node];
+		for ( int j = 0; j < VALUE_COUNT; j++ ) {
+			values[j][i] = __values[j][node];
+		}
+		descriptions[i] = __descriptions[node];
+		ids[i] = __ids[node];
+	}
+	int [] upstreamIndexes = new int[upstreamCount];
+	upstreamCount = 0;
+	for ( newIndex = 0; newIndex < n; newIndex++ ) {
+		upstreamOffsets[newIndex] = upstreamCount;
+		node = order[n - 1 - newIndex];
+		for ( int upstreamNode : __upstreamIndexes[node] ) {
+			upstreamIndexes[upstreamCount++] = newIndexes[upstreamNode];
+		}
+	}
+	upstreamOffsets[n] = upstreamCount;
+	return new CompactNetwork(null, n, downstreamIndexes, upstreamOffsets, upstreamIndexes, types, flags,
+		values[X], values[Y], values[AREA], values[PRECIP], values[WATER], values[PRORATION_FACTOR],
+		descriptions, ids);
+}
+
+/**
+Check that an index is for a node that exists.
+*/
+private void checkIndex ( int index )
+{	if ( (index < 0) || (index >= __nodeCount) || ((__removed != null) && __removed[index]) ) {
+		throw new IllegalArgumentException ( "Node index " + index + " does not exist." );
+	}
+}
+
+/**
+Copy all data from the base network, which is necessary before changing the topology.
+*/
+private void copyAll ()
+{	if ( __downstreamIndexes != null ) {
+		return;
+	}
+	int n = __nodeCount;
+	copyTypes();
+	copyFlags();
+	for ( int j = 0; j < VALUE_COUNT; j++ ) {
+		copyValues(j);
+	}
+	copyDescriptions();
+	copyIds();
+	__downstreamIndexes = new int[__capacity];
+	__upstreamIndexes = new int[__capacity][];
+	__removed = new boolean[__capacity];
+	for ( int i = 0; i < n; i++ ) {
+		__downstreamIndexes[i] = __base.getDownstreamIndex(i);
+		__upstreamIndexes[i] = new int[__base.getUpstreamNodeCount(i)];
+		for ( int j = 0; j < __upstreamIndexes[i].length; j++ ) {
+			__upstreamIndexes[i][j] = __base.getUpstreamIndex(i, j);
+		}
+	}
+}
+
+/**
+Copy the node descriptions from the base network, if not already copied.
+*/
+private void copyDescriptions ()
+{	if ( __descriptions == null ) {
+		__descriptions = new String[__capacity];
+		for ( int i = 0; i < __nodeCount; i++ ) {
+			__descriptions[i] = __base.getDescription(i);
+		}
+	}
+}
+
+/**
+Copy the node flags from the base network, if not already copied.
+*/
+private void copyFlags ()
+{	if ( __flags == null ) {
+		__flags = new byte[__capacity];
+		for ( int i = 0; i < __nodeCount; i++ ) {
+			__flags[i] = __base.getFlags(i);
+		}
+	}
+}
+
+/**
+Copy the node identifiers from the base network, if not already copied.
+*/
+private void copyIds ()
+{	if ( __ids == null ) {
+		__ids = new String[__capacity];
+		for ( int i = 0; i < __nodeCount; i++ ) {
+			__ids[i] = __base.getCommonID(i);
+		}
+	}
+}
+
+/**
+Copy the node types from the base network, if not already copied.
+*/
+private void copyTypes ()
+{	if ( __types == null ) {
+		__types = new byte[__capacity];
+		for ( int i = 0; i < __nodeCount; i++ ) {
+			__types[i] = (byte)__base.getType(i);
+		}
+	}
+}
+
+/**
+Copy a double attribute from the base network, if not already copied.
+@param value the attribute (X, Y, etc.).
+*/
+private void copyValues ( int value )
+{	if ( __values[value] != null ) {
+		return;
+	}
+	double [] values = new double[__capacity];
+	for ( int i = 0; i < __nodeCount; i++ ) {
+		switch ( value ) {
+			case X: values[i] = __base.getX(i); break;
+			case Y: values[i] = __base.getY(i); break;
+			case AREA: values[i] = __base.getArea(i); break;
+			case PRECIP: values[i] = __base.getPrecip(i); break;
+			case WATER: values[i] = __base.getWater(i); break;
+			case PRORATION_FACTOR: values[i] = __base.getProrationFactor(i); break;
+		}
+	}
+	__values[value] = values;
+}
+
+/**
+Return the base network, which provides the data that have not been modified.
+@return the base network.
+*/
+public CompactNetwork getBase ()
+{	return __base;
+}
+
+/**
+Return the number of node indices, including removed nodes, which is one more than the largest node index.
+@return the number of node indices.
+*/
+public int getNodeCount ()
+{	return __nodeCount;
+}
+
+/**
+Remove a node.  Similar to HydrologyNodeNetwork.deleteNode(), the nodes upstream of the removed node become
+upstream nodes of its downstream node, at the position of the removed node.
+@param index index of the node to remove, which must have a downstream node (the END node cannot be removed).
+*/
+public void removeNode ( int index )
+{	checkIndex(index);
+	copyAll();
+	int downstreamIndex = __downstreamIndexes[index];
+	if ( downstreamIndex < 0 ) {
+		throw new IllegalArgumentException ( "Node index " + index + " cannot be removed because it does not have " +
+			"a downstream node." );
+	}
+	int [] upstreamIndexes = __upstreamIndexes[index];
+	int [] downstreamUpstreamIndexes = __upstreamIndexes[downstreamIndex];
+	int [] newUpstreamIndexes = new int[downstreamUpstreamIndexes.length - 1 + upstreamIndexes.length];
+	int count = 0;
+	for ( int i = 0; i < downstreamUpstreamIndexes.length; i++ ) {
+		if ( downstreamUpstreamIndexes[i] == index ) {
+			for ( int j = 0; j < upstreamIndexes.length; j++ ) {
+				newUpstreamIndexes[count++] = upstreamIndexes[j];
+				__downstreamIndexes[upstreamIndexes[j]] = downstreamIndex;
+			}
+		}
+		else {
+			newUpstreamIndexes[count++] = downstreamUpstreamIndexes[i];
+		}
+	}
+	__upstreamIndexes[downstreamIndex] = newUpstreamIndexes;
+	__upstreamIndexes[index] = new int[0];
+	__downstreamIndexes[index] = -1;
+	__removed[index] = true;
+}
+
+/**
+Set the base network and discard all modifications.
+*/
+private void setBase ( CompactNetwork base )
+{	__base = base;
+	__nodeCount = base.getNodeCount();
+	__capacity = __nodeCount;
+	__types = null;
+	__flags = null;
+	__values = new double[VALUE_COUNT][];
+	__descriptions = null;
+	__ids = null;
+	__downstreamIndexes = null;
+	__upstreamIndexes = null;
+	__removed = null;
+}
+
+/**
+Set the Makenet area for a node.
+@param index node index.
+@param area the Makenet area.
+*/
+public void setArea ( int index, double area )
+{	setValue(AREA, index, area);
+}
+
+/**
+Increase the length of the modified arrays, which must all have been copied.
+*/
+private void setCapacity ( int capacity )
+{	__types = Arrays.copyOf(__types, capacity);
+	__flags = Arrays.copyOf(__flags, capacity);
+	for ( int j = 0; j < VALUE_COUNT; j++ ) {
+		__values[j] = Arrays.copyOf(__values[j], capacity);
+	}
+	__descriptions = Arrays.copyOf(__descriptions, capacity);
+	__ids = Arrays.copyOf(__ids, capacity);
+	__downstreamIndexes = Arrays.copyOf(__downstreamIndexes, capacity);
+	__upstreamIndexes = Arrays.copyOf(__upstreamIndexes, capacity);
+	__removed = Arrays.copyOf(__removed, capacity);
+	__capacity = capacity;
+}
+
+/**
+Set the node common identifier.
+@param index node index.
+@param commonID the node common identifier.
+*/
+public void setCommonID ( int index, String commonID )
+{	checkIndex(index);
+	copyIds();
+	__ids[index] = commonID;
+}
+
+/**
+Set the node description.
+@param index node index.
+@param description the node description.
+*/
+public void setDescription ( int index, String description )
+{	checkIndex(index);
+	copyDescriptions();
+	__descriptions[index] = description;
+}
+
+/**
+Set whether the node is an import node.
+@param index node index.
+@param isImport whether the node is an import node.
+*/
+public void setIsImport ( int index, boolean isImport )
+{	setFlag(index, CompactNetwork.FLAG_IMPORT, isImport);
+}
+
+/**
+Set whether the node is a natural flow node.
+@param index node index.
+@param isNaturalFlow whether the node is a natural flow node.
+*/
+public void setIsNaturalFlow ( int index, boolean isNaturalFlow )
+{	setFlag(index, CompactNetwork.FLAG_NATURAL_FLOW, isNaturalFlow);
+}
+
+/**
+Set or clear a node flag.
+*/
+private void setFlag ( int index, byte flag, boolean value )
+{	checkIndex(index);
+	copyFlags();
+	if ( value ) {
+		__flags[index] |= flag;
+	}
+	else {
+		__flags[index] &= ~flag;
+	}
+}
+
+/**
+Set the Makenet precipitation for a node.
+@param index node index.
+@param precip the Makenet precipitation.
+*/
+public void setPrecip ( int index, double precip )
+{	setValue(PRECIP, index, precip);
+}
+
+/**
+Set the proration factor for a node.
+@param index node index.
+@param prorationFactor the proration factor.
+*/
+public void setProrationFactor ( int index, double prorationFactor )
+{	setValue(PRORATION_FACTOR, index, prorationFactor);
+}
+
+/**
+Set the node type.
+@param index node index.
+@param type the node type (HydrologyNode.NODE_TYPE_*).
+*/
+public void setType ( int index, int type )
+{	checkIndex(index);
+	copyTypes();
+	__types[index] = (byte)type;
+}
+
+/**
+Set a double attribute for a node.
+*/
+private void setValue ( int value, int index, double v )
+{	checkIndex(index);
+	copyValues(value);
+	__values[value][index] = v;
+}
+
+/**
+Set the Makenet water for a node.
+@param index node index.
+@param water the Makenet water.
+*/
+public void setWater ( int index, double water )
+{	setValue(WATER, index, water);
+}
+
+/**
+Set the node X coordinate.
+@param index node index.
+@param x the node X coordinate.
+*/
+public void setX ( int index, double x )
+{	setValue(X, index, x);
+}
+
+/**
+Set the node Y coordinate.
+@param index node index.
+@param y the node Y coordinate.
+*/
+public void setY ( int index, double y )
+{	setValue(Y, index, y);
+}
+
+}
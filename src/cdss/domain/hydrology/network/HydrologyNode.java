@@ -26,6 +26,7 @@ NoticeEnd */
 package cdss.domain.hydrology.network;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 
 import RTi.DMI.DMIDataObject;
 import RTi.DMI.DMIUtil;
@@ -48,6 +49,7 @@ import RTi.Util.String.StringUtil;
 import java.awt.Font;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
 This class stores basic node information for use with HydroBase_NodeNetwork.
@@ -179,6 +181,23 @@ Whether to draw the node text (the label like station ID) or not.
 */
 private static boolean __drawText = true;
 
+/**
+Maximum number of nodes recorded in the attribute change log of a structure group before the log is reset
+(see attributeChanged()), after which networks rescan the node attributes rather than updating their indexes
+for each changed node.
+*/
+private static final int MAX_ATTRIBUTE_CHANGES = 1024;
+
+/**
+Source of structure versions (see StructureGroup), so that each version is used only once by all groups.
+*/
+private static final AtomicLong __structureVersionCounter = new AtomicLong(0);
+
+/**
+Lock used when merging structure groups, so that concurrent merges cannot create a loop of groups.
+*/
+private static final Object __structureGroupLock = new Object();
+
 /**
 Whether the node is being drawn in the WIS network display.
 */
@@ -470,6 +489,26 @@ Reservoirs also have a primary symbol of a circle, with a secondary symbol of an
 */
 private GRSymbol __secondarySymbol = null;
 
+/**
+Symbol definition that __symbol was taken from, if __symbol is the definition's shared symbol, in which case
+getSymbol() replaces __symbol with a copy before returning it.  Null if __symbol is not shared.
+*/
+private HydrologyNodeSymbolDefinition __symbolDefinition = null;
+
+/**
+Symbol definition determined by the last call to calculateNodeExtentForNetwork(), or null if the symbol must be
+determined again.  The definition is for the icon diameter at the time.
+*/
+private HydrologyNodeSymbolDefinition __extentSymbolDefinition = null;
+
+/**
+Node type and natural flow and import flags when __extentSymbolDefinition was determined, so that the symbol is
+only determined again if one of these or the icon diameter changes.
+*/
+private int __extentType = 0;
+private boolean __extentIsNaturalFlow = false;
+private boolean __extentIsImport = false;
+
 /**
 The wis num of the wis that this node is associated with.
 */
@@ -515,6 +554,38 @@ The ids of all the nodes immediately upstream of this node.
 */
 private List<String> __upstreamNodeIDs = null;
 
+/**
+The nodes at the absolute top and bottom of the system from this node, as last determined by
+HydrologyNodeNetwork.getUpstreamNode() and getDownstreamNode() with POSITION_ABSOLUTE.
+The values are only used if the corresponding version matches the current structure version.
+*/
+private HydrologyNode
+	__absoluteDownstreamNode = null,
+	__absoluteUpstreamNode = null;
+
+/**
+Structure versions when __absoluteDownstreamNode and __absoluteUpstreamNode were saved.
+*/
+private long
+	__absoluteDownstreamVersion = -1,
+	__absoluteUpstreamVersion = -1;
+
+/**
+Structure group for the node, or a group that it was merged into (see getStructureGroup()).
+*/
+private volatile StructureGroup __structureGroup = new StructureGroup();
+
+/**
+Spatial index that contains this node (see HydrologyNodeNetwork.findNodeAt()), which is updated when the
+node position or size changes, or null if the node is not in an index.
+*/
+private HydrologyNodeSpatialIndex __spatialIndex = null;
+
+/**
+Position of this node in __spatialIndex.
+*/
+private int __spatialIndexSlot = -1;
+
 /**
 Constructor.
 Constructs node and initializes to reasonable values(primarily empty strings and zero or -1 values.
@@ -552,6 +623,7 @@ public boolean addDownstreamNode(HydrologyNode downstream_node) {
 			List<HydrologyNode> downstreamUpstream = __downstream.getUpstreamNodes();
 			if (downstreamUpstream != null) {
 				downstreamUpstream.set(pos,downstream_node);
+				structureChanged(downstream_node);
 			}
 		}
 		// Connect the new downstream node to this node.
@@ -602,6 +674,7 @@ which is why it is used in lieu of the addUpstreamNode() method.
 */
 public void addUpstream(HydrologyNode node) {
 	__upstream.add(node);
+	structureChanged(node);
 }
 
 /**
@@ -624,6 +697,7 @@ public boolean addUpstreamNode(HydrologyNode upstream_node) {
 			__upstream = new Vector<HydrologyNode>();
 		}
 		__upstream.add(upstream_node);
+		structureChanged(upstream_node);
 
 		// Make so the upstream node has this node as its downstream node.
 		upstream_node.setDownstreamNode(this);
@@ -652,6 +726,32 @@ public void addUpstreamNodeID(String id) {
 	__upstreamNodeIDs.add(id);
 }
 
+/**
+Indicate that the identifier, type, natural flow or import flag of this node has changed.  The node is recorded in
+the attribute change log of its structure group, if a network has started the log, so that the network can update
+its indexes for the node without recalculating the computational order (see getAttributeChanges()).
+*/
+void attributeChanged() {
+	StructureGroup group = getStructureGroup();
+	synchronized (group) {
+		if (group.__changedNodes == null) {
+			// No network has started the log since it was last reset.
+			return;
+		}
+		if (group.__changeCount == group.__changedNodes.length) {
+			if (group.__changeCount >= MAX_ATTRIBUTE_CHANGES) {
+				// Too many changes to track individually.
+				group.resetAttributeChangeLog();
+				return;
+			}
+			HydrologyNode[] changedNodes = new HydrologyNode[group.__changedNodes.length*2];
+			System.arraycopy(group.__changedNodes, 0, changedNodes, 0, group.__changeCount);
+			group.__changedNodes = changedNodes;
+		}
+		group.__changedNodes[group.__changeCount++] = this;
+	}
+}
+
 /**
 Calculates the extent occupied by this node on the drawing area.
 @param da the drawing area on which to calculate bounds.
@@ -675,8 +775,19 @@ Calculates extent of this node when rendered in the Network editor display.
 @param da the drawing area on which to calculate bounds.
 */
 private void calculateNodeExtentForNetwork(GRJComponentDrawingArea da) {
+	if ((__extentSymbolDefinition != null) && (__extentType == __type) && (__extentIsNaturalFlow == __isNaturalFlow)
+		&& (__extentIsImport == __isImport) && (__extentSymbolDefinition.getIconDiameter() == getIconDiameter())) {
+		// The symbol is current, so only adjust the size as when the symbol is determined.
+		if (__extentSymbolDefinition.isHalfSize()) {
+			__width /= 2;
+			__height /= 2;
+		}
+		__boundsCalculated = true;
+		return;
+	}
 	__symText = null;
 	__symbol = null;
+	__symbolDefinition = null;
 	__nodeType = null;
 	if (__nodeType == null) {
 		switch (__type) {
@@ -742,22 +853,13 @@ private void calculateNodeExtentForNetwork(GRJComponentDrawingArea da) {
 		// Symbol has not been defined for the node so do it (and adjust the size if necessary).
 		setSymbolFromNodeType ( lookupType(__nodeType), true );
 	}
+	__extentSymbolDefinition = __symbolDefinition;
+	__extentType = __type;
+	__extentIsNaturalFlow = __isNaturalFlow;
+	__extentIsImport = __isImport;
 
-	String label = __label;
-
-	if (__symbol != null) {
-		//double width = getIconDiameter();
-		double height = getIconDiameter();
-
-		if (__label != null) {
-			GRLimits limits = GRDrawingAreaUtil.getTextExtents(da, label, GRUnits.DEVICE);
-			if (limits.getHeight() > height) {
-				height = limits.getHeight();
-			}
-			//width += 4 + limits.getWidth();
-		}
-	}
-
+	// The node label is positioned when the node is drawn and is not part of the node extent, so the label text
+	// extents are not needed here (the label height was previously calculated and then not used).
 	__boundsCalculated = true;
 }
 
@@ -853,6 +955,7 @@ private void calculateWISBounds(GRJComponentDrawingArea da) {
 
 	__height = getIconDiameter()*2/3 * mod;
 	__width = getIconDiameter()*2/3 * mod;
+	extentChanged();
 
 	__boundsCalculated = true;
 }
@@ -895,6 +998,7 @@ public boolean deleteUpstreamNode(HydrologyNode upstreamNode) {
 			if (upstreamNode.equals( __upstream.get(i))) {
 				// Found a match.  Delete the element.
 				__upstream.remove(i);
+				structureChanged();
 				return true;
 			}
 		}
@@ -934,12 +1038,10 @@ Draws this node on the network editor display.
 @param da the GRJComponentDrawingArea on which to draw the node.
 */
 private void drawNodeForNetwork(GRJComponentDrawingArea da) {
-	String routine = getClass().getSimpleName() + ".drawNodeForNetwork";
-
 	double symbolSize = 0;
 	// Symbol to be drawn as core.
 	// Others may be drawn to decorate and reservoir symbol orientation may be reset.
-	GRSymbolShapeType shapeType = GRSymbolShapeType.NONE;
+	GRSymbolShapeType shapeType = getDrawnShapeType();
 
 	// If there is a symbol to be drawn.
 	if (__symbol != null) {
@@ -951,93 +1053,13 @@ private void drawNodeForNetwork(GRJComponentDrawingArea da) {
 		}
 
 		symbolSize = __symbol.getSize();
-
-		if (__type == NODE_TYPE_RES) {
-			// Need special care with reservoirs to orient the symbol the proper way.
-			int labeldir = getLabelDirection()/10;
-			if (labeldir == 1) {
-				shapeType = GRSymbolShapeType.TRIANGLE_UP_FILLED;
-			}
-			else if (labeldir == 2) {
-				shapeType = GRSymbolShapeType.TRIANGLE_DOWN_FILLED;
-			}
-			else if (labeldir == 3) {
-				shapeType = GRSymbolShapeType.TRIANGLE_LEFT_FILLED;
-			}
-			else if (labeldir == 4) {
-				shapeType = GRSymbolShapeType.TRIANGLE_RIGHT_FILLED;
-			}
-			else {
-				shapeType = GRSymbolShapeType.TRIANGLE_RIGHT_FILLED;
-			}
-		}
-		else {
-			// The symbol does not need special attention.  Get it from the node data.
-			shapeType = __symbol.getShapeType();
-		}
 	}
 
 	if (__drawText) {
 		// There is a label (e.g., station ID) that needs to be drawn outside the symbol.
-		String label = null;
-		int labelPos = 0;
+		String label = getDrawnLabel();
+		int labelPos = getDrawnLabelPosition();
 		double labelAngle = 0;
-		if ( (__type == NODE_TYPE_BLANK) || (__type == NODE_TYPE_CONFLUENCE) ||
-			(__type == NODE_TYPE_XCONFLUENCE) ) {
-		   	// Do nothing.
-		}
-		else if (__type == NODE_TYPE_DIV
-		    || __type == NODE_TYPE_DIV_AND_WELL
-		    || __type == NODE_TYPE_WELL
-		    || __type == NODE_TYPE_IMPORT
-		    || __type == NODE_TYPE_FLOW
-		    || __type == NODE_TYPE_END
-		    || __type == NODE_TYPE_BASEFLOW
-		    || __type == NODE_TYPE_ISF
-		    || __type == NODE_TYPE_OTHER
-		    || __type == NODE_TYPE_RES
-		    || __type == NODE_TYPE_PLAN ) {
-			label = getNodeLabel( HydrologyNodeNetwork.LABEL_NODES_COMMONID);
-		}
-		else {
-			Message.printWarning(3, routine, "No text specified!");
-			label = "";
-		}
-
-		int dir = getLabelDirection();
-		dir = dir % 10;
-
-		if (dir == 1) {
-			labelPos = GRText.BOTTOM | GRText.CENTER_X;
-		}
-		else if (dir == 7) {
-			labelPos = GRText.BOTTOM | GRText.LEFT;
-		}
-		else if (dir == 4) {
-			labelPos = GRText.LEFT | GRText.CENTER_Y;
-		}
-		else if (dir == 8) {
-			labelPos = GRText.LEFT | GRText.TOP;
-		}
-		else if (dir == 2) {
-			labelPos = GRText.TOP | GRText.CENTER_X;
-		}
-		else if (dir == 5) {
-			labelPos = GRText.TOP | GRText.RIGHT;
-		}
-		else if (dir == 3) {
-			labelPos = GRText.RIGHT | GRText.CENTER_Y;
-		}
-		else if (dir == 6) {
-			labelPos = GRText.BOTTOM | GRText.RIGHT;
-		}
-		else if (dir == 9) {
-			labelPos = GRText.CENTER_X | GRText.CENTER_Y;
-		}
-		else {
-			labelPos = GRText.TOP | GRText.CENTER_X;
-		}
-
 		if (label == null) {
 			label = "";
 		}
@@ -1221,6 +1243,15 @@ private void drawNodeForWIS(GRJComponentDrawingArea da) {
 	}
 }
 
+/**
+Update the spatial index that contains the node after the node position or size changes.
+*/
+private void extentChanged() {
+	if (__spatialIndex != null) {
+		__spatialIndex.nodeChanged(this, __spatialIndexSlot);
+	}
+}
+
 /**
 Return a label to use for the specified node.
 @param lt Label type(see HydroBase_NodeNetwork.LABEL_NODES_*).
@@ -1254,6 +1285,30 @@ protected String getNodeLabel(int lt) {
 	return label;
 }
 
+/**
+Returns the saved node at the absolute bottom of the system from this node.
+@param version the current structure version (see getStructureVersion()).
+@return the saved node, or null if not saved for the version.
+*/
+HydrologyNode getAbsoluteDownstreamNode(long version) {
+	if (__absoluteDownstreamVersion == version) {
+		return __absoluteDownstreamNode;
+	}
+	return null;
+}
+
+/**
+Returns the saved node at the absolute top of the system from this node.
+@param version the current structure version (see getStructureVersion()).
+@return the saved node, or null if not saved for the version.
+*/
+HydrologyNode getAbsoluteUpstreamNode(long version) {
+	if (__absoluteUpstreamVersion == version) {
+		return __absoluteUpstreamNode;
+	}
+	return null;
+}
+
 /**
 Returns the makenet area.  Makenet-specific.
 @return the makenet area.
@@ -1278,6 +1333,39 @@ public Object getAssociatedObject() {
 	return __associatedObject;
 }
 
+/**
+Returns the number of entries in the attribute change log of this node's structure group.
+@return the number of entries in the attribute change log.
+*/
+int getAttributeChangeCount() {
+	StructureGroup group = getStructureGroup();
+	synchronized (group) {
+		return group.__changeCount;
+	}
+}
+
+/**
+Returns the nodes in this node's structure group whose identifier, type, natural flow or import flag has changed
+since a position in the attribute change log.  A node is listed once for each change.
+@param logVersion the log version returned by startAttributeChangeLog().
+@param changeCount the number of log entries returned by getAttributeChangeCount() when the caller last
+processed the log.
+@return the changed nodes, or null if the log has been reset since the log version was returned, in which case
+any node may have changed.
+*/
+HydrologyNode[] getAttributeChanges(long logVersion, int changeCount) {
+	StructureGroup group = getStructureGroup();
+	synchronized (group) {
+		if ((group.__changedNodes == null) || (group.__changeLogVersion != logVersion)
+			|| (changeCount > group.__changeCount)) {
+			return null;
+		}
+		HydrologyNode[] changedNodes = new HydrologyNode[group.__changeCount - changeCount];
+		System.arraycopy(group.__changedNodes, changeCount, changedNodes, 0, changedNodes.length);
+		return changedNodes;
+	}
+}
+
 /**
 Returns the node common id.
 @return the node common id.
@@ -1363,6 +1451,14 @@ public String getDownstreamNodeID() {
 	return __downstreamNodeID;
 }
 
+/**
+Returns whether the node text (the label like station ID) is drawn.
+@return whether the node text is drawn.
+*/
+static boolean getDrawText() {
+	return __drawText;
+}
+
 /**
 Returns the point at which network connections should be drawn for the node.
 Currently only returns the x, y values.
@@ -1375,6 +1471,103 @@ public double[] getDrawToPoint(GRJComponentDrawingArea da) {
 	return d;
 }
 
+/**
+Returns the label drawn next to the node symbol in the network editor display.
+@return the label, or null if no label is drawn for the node type.
+*/
+String getDrawnLabel() {
+	if ( (__type == NODE_TYPE_BLANK) || (__type == NODE_TYPE_CONFLUENCE) ||
+		(__type == NODE_TYPE_XCONFLUENCE) ) {
+	   	// Do nothing.
+		return null;
+	}
+	else if (__type == NODE_TYPE_DIV
+	    || __type == NODE_TYPE_DIV_AND_WELL
+	    || __type == NODE_TYPE_WELL
+	    || __type == NODE_TYPE_IMPORT
+	    || __type == NODE_TYPE_FLOW
+	    || __type == NODE_TYPE_END
+	    || __type == NODE_TYPE_BASEFLOW
+	    || __type == NODE_TYPE_ISF
+	    || __type == NODE_TYPE_OTHER
+	    || __type == NODE_TYPE_RES
+	    || __type == NODE_TYPE_PLAN ) {
+		return getNodeLabel( HydrologyNodeNetwork.LABEL_NODES_COMMONID);
+	}
+	else {
+		Message.printWarning(3, getClass().getSimpleName() + ".getDrawnLabel", "No text specified!");
+		return "";
+	}
+}
+
+/**
+Returns the position of the label relative to the node symbol (GRText position flags), from the label direction.
+@return the position of the label relative to the node symbol.
+*/
+int getDrawnLabelPosition() {
+	int dir = getLabelDirection();
+	dir = dir % 10;
+
+	if (dir == 1) {
+		return GRText.BOTTOM | GRText.CENTER_X;
+	}
+	else if (dir == 7) {
+		return GRText.BOTTOM | GRText.LEFT;
+	}
+	else if (dir == 4) {
+		return GRText.LEFT | GRText.CENTER_Y;
+	}
+	else if (dir == 8) {
+		return GRText.LEFT | GRText.TOP;
+	}
+	else if (dir == 2) {
+		return GRText.TOP | GRText.CENTER_X;
+	}
+	else if (dir == 5) {
+		return GRText.TOP | GRText.RIGHT;
+	}
+	else if (dir == 3) {
+		return GRText.RIGHT | GRText.CENTER_Y;
+	}
+	else if (dir == 6) {
+		return GRText.BOTTOM | GRText.RIGHT;
+	}
+	else if (dir == 9) {
+		return GRText.CENTER_X | GRText.CENTER_Y;
+	}
+	else {
+		return GRText.TOP | GRText.CENTER_X;
+	}
+}
+
+/**
+Returns the shape drawn for the node symbol, which for reservoirs is oriented using the label direction.
+@return the shape drawn for the node symbol, or GRSymbolShapeType.NONE if there is no symbol.
+*/
+GRSymbolShapeType getDrawnShapeType() {
+	if (__symbol == null) {
+		return GRSymbolShapeType.NONE;
+	}
+	if (__type == NODE_TYPE_RES) {
+		// Need special care with reservoirs to orient the symbol the proper way.
+		int labeldir = getLabelDirection()/10;
+		if (labeldir == 1) {
+			return GRSymbolShapeType.TRIANGLE_UP_FILLED;
+		}
+		else if (labeldir == 2) {
+			return GRSymbolShapeType.TRIANGLE_DOWN_FILLED;
+		}
+		else if (labeldir == 3) {
+			return GRSymbolShapeType.TRIANGLE_LEFT_FILLED;
+		}
+		else {
+			return GRSymbolShapeType.TRIANGLE_RIGHT_FILLED;
+		}
+	}
+	// The symbol does not need special attention.  Get it from the node data.
+	return __symbol.getShapeType();
+}
+
 /**
 Returns the height of the drawing area occupied by the node.
 @return the height of the drawing area occupied by the node.
@@ -1569,6 +1762,15 @@ public String getRiverNodeID() {
 	return __riverNodeID;
 }
 
+/**
+Return the secondary symbol drawn with the node (e.g., the circle around the end node X).
+@return the secondary symbol, or null if no secondary symbol is drawn.
+*/
+GRSymbol getSecondarySymbol ()
+{
+	return __secondarySymbol;
+}
+
 /**
 Returns the river node count.
 @return the river node count.
@@ -1577,6 +1779,14 @@ public int getSerial() {
 	return __serial;
 }
 
+/**
+Returns the spatial index that contains the node.
+@return the spatial index that contains the node, or null if the node is not in an index.
+*/
+HydrologyNodeSpatialIndex getSpatialIndex() {
+	return __spatialIndex;
+}
+
 /**
 Returns the structure stream mile.  WIS-specific.
 @return the structure stream mile.
@@ -1594,13 +1804,69 @@ public long getStreamNumber() {
 }
 
 /**
-Return the symbol used with the node.
+Returns the structure group for this node, which is the root of the groups that the node's group was merged into.
+@return the structure group for this node.
+*/
+private StructureGroup getStructureGroup() {
+	StructureGroup group = __structureGroup;
+	if (group.__parent == null) {
+		return group;
+	}
+	while (group.__parent != null) {
+		group = group.__parent;
+	}
+	// Point directly to the root so that the next lookup is fast.
+	__structureGroup = group;
+	return group;
+}
+
+/**
+Returns the structure version for this node, which changes whenever the upstream/downstream connections,
+tributary number or upstream order change on this node or any node connected to it, or a node type changes to
+or from NODE_TYPE_END (see StructureGroup), because these determine the computational order.
+HydrologyNodeNetwork compares this value with the value saved when its lookup indexes were built to determine
+whether the indexes need to be rebuilt (nodes are often reconnected directly by network editing code rather
+than through the network).  Changes to nodes that are not connected to this node do not change the version.
+Changes to the identifier, other type changes, and natural flow and import flag changes are instead recorded in
+the attribute change log (see getAttributeChanges()).
+@return the structure version.
+*/
+long getStructureVersion() {
+	return getStructureGroup().__version;
+}
+
+/**
+Return the symbol used with the node.  If the node uses the shared symbol for its type, the node is first given
+its own copy of the symbol, so that modifying the returned symbol does not change the symbol of other nodes.
 */
 public GRSymbol getSymbol ()
 {
+	if (__symbolDefinition != null) {
+		__symbol = __symbolDefinition.copySymbol();
+		__symbolDefinition = null;
+	}
 	return __symbol;
 }
 
+/**
+Return the symbol used with the node for drawing, without copying a shared symbol (see getSymbol()).
+The symbol must not be modified.
+@return the symbol used with the node, or null if no symbol is drawn.
+*/
+GRSymbol getSymbolForDrawing ()
+{
+	return __symbol;
+}
+
+/**
+Return the text drawn in the middle of the node symbol (e.g., "D" for diversion node).
+@return the text drawn in the middle of the node symbol, or null if no text is drawn.
+*/
+String getSymbolText ()
+{
+	return __symText;
+}
+
 /**
 Returns the label direction in a format that a proplist will know
 (one of the string values from GRText).
@@ -1868,6 +2134,8 @@ public int getUpstreamNodePosition(String commonID) {
 
 /**
 Returns the list of upstream nodes.  The internal list is returned (not a new reference).
+If the list is modified directly, call setUpstreamNodes() with the list afterwards so that
+network indexes and saved traversal results are updated.
 @return the list of upstream nodes.
 */
 public List<HydrologyNode> getUpstreamNodes() {
@@ -2087,6 +2355,7 @@ Inserts an upstream node into the list of upstream nodes.  Used by the network d
 */
 public void insertUpstreamNode(HydrologyNode node, int pos) {
 	__upstream.add(pos,node);
+	structureChanged(node);
 }
 
 /**
@@ -2098,6 +2367,7 @@ public void insertUpstreamNodes(List<HydrologyNode> nodes, int pos) {
 	for (int i = nodes.size() - 1; i >= 0; i--) {
 		__upstream.add(pos,nodes.get(i));
 	}
+	structureChanged(nodes);
 }
 
 /**
@@ -2144,6 +2414,14 @@ private void initialize() {
 	__isDryRiver = false;
 }
 
+/**
+Returns whether the node extent has been calculated for drawing (see calculateExtents()).
+@return whether the node extent has been calculated.
+*/
+boolean isBoundsCalculated() {
+	return __boundsCalculated;
+}
+
 /**
 Returns whether this node was read from the database or generated from a
 network during the latest invocation of the network drawing code.
@@ -2362,6 +2640,7 @@ Removes a node from the upstream of this node.  Used by the network drawing code
 */
 public void removeUpstreamNode(int pos) {
 	__upstream.remove(pos);
+	structureChanged();
 }
 
 /**
@@ -2371,6 +2650,7 @@ Replaces one of this node's upstream nodes with another node.  Used by the netwo
 */
 public void replaceUpstreamNode(HydrologyNode node, int pos) {
 	__upstream.set(pos,node);
+	structureChanged(node);
 }
 
 /**
@@ -2388,6 +2668,7 @@ The following resets are done:
 @param isImport indicates whether the node is an import node
 */
 public void resetNode(int type, boolean isNaturalFlow, boolean isImport ) {
+	int oldType = __type;
 	__type = type;
 	__boundsCalculated = false;
 	__isNaturalFlow = isNaturalFlow;
@@ -2395,6 +2676,29 @@ public void resetNode(int type, boolean isNaturalFlow, boolean isImport ) {
 	__nodeType = getTypeString(type, FULL);
 	__secondarySymbol = null;
 	setSymbolFromNodeType ( type, false );
+	// The symbol is for the given type rather than the network type string so determine it again for the extent.
+	__extentSymbolDefinition = null;
+	typeChanged(oldType);
+}
+
+/**
+Saves the node at the absolute bottom of the system from this node.
+@param node the node at the absolute bottom of the system.
+@param version the current structure version (see getStructureVersion()).
+*/
+void setAbsoluteDownstreamNode(HydrologyNode node, long version) {
+	__absoluteDownstreamNode = node;
+	__absoluteDownstreamVersion = version;
+}
+
+/**
+Saves the node at the absolute top of the system from this node.
+@param node the node at the absolute top of the system.
+@param version the current structure version (see getStructureVersion()).
+*/
+void setAbsoluteUpstreamNode(HydrologyNode node, long version) {
+	__absoluteUpstreamNode = node;
+	__absoluteUpstreamVersion = version;
 }
 
 /**
@@ -2447,6 +2751,7 @@ Sets the node's common id.
 public void setCommonID(String commonid) {
 	if (commonid != null) {
 		__commonID = commonid;
+		attributeChanged();
 	}
 }
 
@@ -2465,6 +2770,7 @@ Sets the diameter of the node in data units (for use in determining what points
 public void setDataDiameter(double diam) {
 	__width = diam;
 	__height = diam;
+	extentChanged();
 }
 
 /**
@@ -2523,6 +2829,7 @@ Sets the node immediately downstream from this node.
 */
 public void setDownstreamNode(HydrologyNode downstream) {
 	__downstream = downstream;
+	structureChanged(downstream);
 }
 
 /**
@@ -2594,6 +2901,7 @@ Sets whether this node is an import node or not.
 */
 public void setIsImport(boolean isImport) {
 	__isImport = isImport;
+	attributeChanged();
 }
 
 /**
@@ -2602,6 +2910,7 @@ Sets whether this node is a natural flow node or not.
 */
 public void setIsNaturalFlow(boolean isNaturalflow) {
 	__isNaturalFlow = isNaturalflow;
+	attributeChanged();
 }
 
 /**
@@ -2676,6 +2985,7 @@ Sets the type of node this is.
 */
 public void setNodeType(String nodeType) {
 	__nodeType = nodeType;
+	__extentSymbolDefinition = null;
 }
 
 /**
@@ -2690,6 +3000,7 @@ public void setPosition(double x, double y, double width, double height) {
 	__y = y;
 	__width = width;
 	__height = height;
+	extentChanged();
 }
 
 /**
@@ -2816,6 +3127,16 @@ public void setShowRights(boolean showRights) {
 	__showRights = showRights;
 }
 
+/**
+Sets the spatial index that contains the node, which is updated when the node position or size changes.
+@param spatialIndex the spatial index, or null if the node is not in an index.
+@param slot the position of the node in the spatial index.
+*/
+void setSpatialIndex(HydrologyNodeSpatialIndex spatialIndex, int slot) {
+	__spatialIndex = spatialIndex;
+	__spatialIndexSlot = slot;
+}
+
 /**
 Sets the structure stream mile.  WIS-specific.
 @param streamMile value to set the stream mile to.
@@ -2838,6 +3159,8 @@ Sets the symbol to use for the node.
 */
 public void setSymbol(GRSymbol symbol) {
 	__symbol = symbol;
+	__symbolDefinition = null;
+	__extentSymbolDefinition = null;
 }
 
 /**
@@ -2846,64 +3169,17 @@ Set the node symbol given the node type.
 @param computeSize if true the size is computed.
 */
 private void setSymbolFromNodeType ( int nodeType, boolean computeSize ) {
-	GRSymbolType symbolType = GRSymbolType.POLYGON;
-	GRColor symbolColor = GRColor.black;
-	int iconDiameter = getIconDiameter();
-	if ( (nodeType == NODE_TYPE_CONFLUENCE) || (nodeType == NODE_TYPE_XCONFLUENCE) ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_FILLED, symbolColor, symbolColor, iconDiameter/2, iconDiameter/2);
-		__symText = null;
-		if ( computeSize ) {
-			__width /= 2;
-			__height /= 2;
-		}
-	}
-	else if ( nodeType == NODE_TYPE_DIV ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = "D";
-	}
-	else if ( nodeType == NODE_TYPE_DIV_AND_WELL ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = "DW";
-	}
-	else if ( nodeType == NODE_TYPE_END ) {
-		__symbol = new GRSymbol (symbolType, GRSymbolShapeType.X, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__secondarySymbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = null;
+	// Symbols are shared by all nodes with the same type and icon diameter.
+	HydrologyNodeSymbolDefinition definition = HydrologyNodeSymbolDefinition.getDefinition(nodeType, getIconDiameter());
+	__symbol = definition.getSymbol();
+	__symbolDefinition = definition;
+	__symText = definition.getSymbolText();
+	if ( definition.getSecondarySymbol() != null ) {
+		__secondarySymbol = definition.getSecondarySymbol();
 	}
-	else if ( nodeType == NODE_TYPE_FLOW ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_FILLED, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = null;
-	}
-	else if ( nodeType == NODE_TYPE_ISF ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		//__symText = "I";
-		__symText = "M";
-	}
-	else if ( nodeType == NODE_TYPE_LABEL ) {
-		__symbol = null;
-		__symText = null;
-	}
-	else if ( nodeType == NODE_TYPE_OTHER ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = "O";
-	}
-	else if ( nodeType == NODE_TYPE_PLAN ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_FILLED, GRColor.lightGray, symbolColor, iconDiameter, iconDiameter);
-		__symText = "PL";
-	}
-	else if ( nodeType == NODE_TYPE_RES ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.TRIANGLE_RIGHT_FILLED, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = null;
-	}
-	else if ( nodeType == NODE_TYPE_WELL ) {
-		__symbol = new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter);
-		__symText = "W";
-	}
-	else {
-		String routine = getClass().getSimpleName() + ".setSymbolFromNodeType";
-		Message.printWarning(2, routine, "Unknown symbol for node type " + nodeType);
-		__symbol = null;
-		__symText = null;
+	if ( computeSize && definition.isHalfSize() ) {
+		__width /= 2;
+		__height /= 2;
 	}
 }
 
@@ -2913,6 +3189,7 @@ Sets the tributary number.
 */
 public void setTributaryNumber(int tributaryNumber) {
 	__tributaryNum = tributaryNumber;
+	structureChanged();
 }
 
 /**
@@ -2920,7 +3197,9 @@ Sets the node type.
 @param type value to set the node type to.
 */
 public void setType(int type) {
+	int oldType = __type;
 	__type = type;
+	typeChanged(oldType);
 }
 
 /**
@@ -3000,6 +3279,7 @@ public void setUpstreamNodes(List<HydrologyNode> v) {
 	else {
 		__upstream = v;
 	}
+	structureChanged(__upstream);
 }
 
 /**
@@ -3064,6 +3344,7 @@ Sets how upstream nodes are constructed.  See TRIBS_*.
 */
 public void setUpstreamOrder(int upstreamOrder) {
 	__upstreamOrder = upstreamOrder;
+	structureChanged();
 }
 
 /**
@@ -3072,6 +3353,7 @@ Returns the verbose node type description string.
 @return the verbose node type description string.
 */
 public void setVerboseType(String stype) {
+	int oldType = __type;
 	// Abbreviations.
 	if (stype.equalsIgnoreCase("Blank")) {
 		__type = NODE_TYPE_BLANK;
@@ -3148,6 +3430,7 @@ public void setVerboseType(String stype) {
 		Message.printWarning(2, "setVerboseType", "Unknown type: '" + stype + "'");
 		__type = NODE_TYPE_BLANK;
 	}
+	typeChanged(oldType);
 }
 
 /**
@@ -3204,6 +3487,7 @@ Sets the node X coordinate.
 */
 public void setX(double x) {
 	__x = x;
+	extentChanged();
 }
 
 /**
@@ -3212,6 +3496,7 @@ Sets the node Y coordinate.
 */
 public void setY(double y) {
 	__y = y;
+	extentChanged();
 }
 
 /**
@@ -3254,6 +3539,86 @@ public boolean showRights() {
 	return __showRights;
 }
 
+/**
+Start recording attribute changes in the attribute change log of this node's structure group, if not already
+started, so that a network can update its indexes for changed nodes (see getAttributeChanges()).
+@return the log version, which changes whenever the log is reset.
+*/
+long startAttributeChangeLog() {
+	StructureGroup group = getStructureGroup();
+	synchronized (group) {
+		if (group.__changedNodes == null) {
+			group.__changedNodes = new HydrologyNode[16];
+		}
+		return group.__changeLogVersion;
+	}
+}
+
+/**
+Indicate that a node connection, tributary number or upstream order has changed, or that the type has changed
+to or from NODE_TYPE_END, so that network indexes are rebuilt.
+*/
+void structureChanged() {
+	StructureGroup group = getStructureGroup();
+	group.__version = __structureVersionCounter.incrementAndGet();
+	synchronized (group) {
+		if (group.__changedNodes != null) {
+			// Networks rebuild all their indexes so the changes are no longer needed.
+			group.resetAttributeChangeLog();
+		}
+	}
+}
+
+/**
+Indicate that this node has been connected to another node, merging the structure groups of the nodes
+so that later changes to either node change the structure version of both nodes.
+@param node the node that has been connected to this node, can be null if a connection was removed.
+*/
+void structureChanged(HydrologyNode node) {
+	if ((node != null) && (node.getStructureGroup() != getStructureGroup())) {
+		synchronized (__structureGroupLock) {
+			StructureGroup group = getStructureGroup();
+			StructureGroup other = node.getStructureGroup();
+			if (other != group) {
+				// Merge the smaller group into the larger group to keep the chains of groups short.
+				if (other.__size > group.__size) {
+					StructureGroup temp = group;
+					group = other;
+					other = temp;
+				}
+				group.__size += other.__size;
+				other.__parent = group;
+			}
+		}
+	}
+	structureChanged();
+}
+
+/**
+Indicate that this node has been connected to other nodes (see structureChanged(HydrologyNode)).
+@param nodes the nodes that have been connected to this node.
+*/
+private void structureChanged(List<HydrologyNode> nodes) {
+	for (HydrologyNode node : nodes) {
+		structureChanged(node);
+	}
+	structureChanged();
+}
+
+/**
+Indicate that the node type has changed.  The end node determines where the computational order stops, so a change
+to or from NODE_TYPE_END changes the structure version and other changes are recorded as attribute changes.
+@param oldType the node type before the change.
+*/
+private void typeChanged(int oldType) {
+	if ((oldType == NODE_TYPE_END) != (__type == NODE_TYPE_END)) {
+		structureChanged();
+	}
+	else {
+		attributeChanged();
+	}
+}
+
 /**
 Returns a String representation of the object suitable for debugging a network.
 @return a String representation of the object suitable for debugging a network.
@@ -3347,39 +3712,106 @@ public String toTableString() {
 		"Label:      '" + __label;
 }
 
+/**
+Writes a string to a PrintWriter, escaping the characters that must be escaped in XML attribute values
+(&amp;, &lt; and &gt;) in a single pass.
+A null string is written as "null", consistent with string concatenation.
+@param out the PrintWriter to write to.
+@param s the string to write.
+*/
+static void writeEscapedXML(PrintWriter out, String s) {
+	if (s == null) {
+		out.print(s);
+		return;
+	}
+	int length = s.length();
+	int start = 0;
+	String entity;
+	for (int i = 0; i < length; i++) {
+		switch (s.charAt(i)) {
+			case '&': entity = "&amp;"; break;
+			case '<': entity = "&lt;"; break;
+			case '>': entity = "&gt;"; break;
+			default: continue;
+		}
+		out.write(s, start, i - start);
+		out.write(entity);
+		start = i + 1;
+	}
+	out.write(s, start, length - start);
+}
+
 /**
 Writes the node out to the given PrintWriter as XML.
-@param out the PrintWrite to write the node out to.
+The XML is written directly to the PrintWriter, without forming a string for the node.
+@param out the PrintWrite to write the node out to.  If null, the XML is returned as a string.
 @param verbose if true, then all the information about the node will be written out.
+@return the XML for the node if out is null, or null if the XML was written to out.
 */
 public String writeNodeXML(PrintWriter out, boolean verbose) {
-	String xml = "    <Node ";
 	String n = System.getProperty("line.separator");
+	if (out == null) {
+		StringWriter xml = new StringWriter();
+		PrintWriter xmlOut = new PrintWriter(xml);
+		writeNodeXMLElement(xmlOut, verbose, n);
+		xmlOut.flush();
+		return xml.toString();
+	}
+	writeNodeXMLElement(out, verbose, n);
+	// Blank line between nodes
+	out.print(n);
+	return null;
+}
 
-	String id = getCommonID();
-	id = StringUtil.replaceString(id, "&", "&amp;");
-	id = StringUtil.replaceString(id, "<", "&lt;");
-	id = StringUtil.replaceString(id, ">", "&gt;");
-
-	xml += "ID = \""  + id + "\"" + n;
-	xml += "         AlternateX = \"" + __dbX + "\"" + n;
-	xml += "         AlternateY = \"" + __dbY + "\"" + n;
-	String desc = __desc;
-	desc = StringUtil.replaceString(desc, "&", "&amp;");
-	desc = StringUtil.replaceString(desc, "<", "&lt;");
-	desc = StringUtil.replaceString(desc, ">", "&gt;");
-	xml += "         Description = \"" + desc + "\"" + n;
-//	xml += "         Identifier = \"" + __identifier + "\"" + n;
+/**
+Writes the XML element for the node, called by writeNodeXML().
+@param out the PrintWrite to write the node out to.
+@param verbose if true, then all the information about the node will be written out.
+@param n line separator.
+*/
+private void writeNodeXMLElement(PrintWriter out, boolean verbose, String n) {
+	out.print("    <Node ID = \"");
+	writeEscapedXML(out, getCommonID());
+	out.print("\"");
+	out.print(n);
+	out.print("         AlternateX = \"");
+	out.print(__dbX);
+	out.print("\"");
+	out.print(n);
+	out.print("         AlternateY = \"");
+	out.print(__dbY);
+	out.print("\"");
+	out.print(n);
+	out.print("         Description = \"");
+	writeEscapedXML(out, __desc);
+	out.print("\"");
+	out.print(n);
+//	out.print("         Identifier = \"" + __identifier + "\"" + n);
 	// FIXME SAM 2008-12-10 Need to convert to IsNaturalFlow when old version of StateDMI can be phased out.
 	// For now write both with the same value so that the network will work with old and new software.
-	xml += "         IsBaseflow = \"" + __isNaturalFlow + "\"" + n;
-	xml += "         IsNaturalFlow = \"" + __isNaturalFlow + "\"" + n;
-	xml += "         IsImport = \"" + __isImport + "\"" + n;
-//	xml += "         LabelAngle = \"" + __labelAngle + "\"" + n;
+	out.print("         IsBaseflow = \"");
+	out.print(__isNaturalFlow);
+	out.print("\"");
+	out.print(n);
+	out.print("         IsNaturalFlow = \"");
+	out.print(__isNaturalFlow);
+	out.print("\"");
+	out.print(n);
+	out.print("         IsImport = \"");
+	out.print(__isImport);
+	out.print("\"");
+	out.print(n);
+//	out.print("         LabelAngle = \"" + __labelAngle + "\"" + n);
 
 	if (__isNaturalFlow) {
-		xml += "         Area = \"" + __area + "\"" + n;
-		xml += "         Precipitation = \"" + __precip + "\"" + n;
+		out.print("         Area = \"");
+		out.print(__area);
+		out.print("\"");
+		out.print(n);
+		out.print("         Precipitation = \"");
+		out.print(__precip);
+		out.print("\"");
+		out.print(n);
 	}
 
 	String sdir = null;
@@ -3418,7 +3850,10 @@ public String writeNodeXML(PrintWriter out, boolean verbose) {
 	}
 
 	if (sdir != null) {
-		xml += "         LabelPosition = \"" + sdir + "\"" + n;
+		out.print("         LabelPosition = \"");
+		out.print(sdir);
+		out.print("\"");
+		out.print(n);
 	}
 
 	if (getType() == NODE_TYPE_RES) {
@@ -3441,7 +3876,10 @@ public String writeNodeXML(PrintWriter out, boolean verbose) {
 			sdir = "Left";
 		}
 		if (sdir != null) {
-			xml += "         ReservoirDir = \"" + sdir + "\"" + n;
+			out.print("         ReservoirDir = \"");
+			out.print(sdir);
+			out.print("\"");
+			out.print(n);
 		}
 	}
 
@@ -3450,53 +3888,123 @@ public String writeNodeXML(PrintWriter out, boolean verbose) {
 //	if (type.equalsIgnoreCase("D&W")) {
 //		type = "DW";
 //	}
-	xml += "         Type = \"" + type + "\"" + n;
+	out.print("         Type = \"");
+	out.print(type);
+	out.print("\"");
+	out.print(n);
 
 	if (verbose) {
-		xml += "         ComputationalOrder = \"" + __computationalOrder
-			+"\"" + n;
-		xml += "         NodeInReachNum = \"" + __nodeInReachNum + "\""
-			+ "" + n;
-		xml += "        ReachCounter = \"" + __reachCounter + "\"" + n;
-		xml += "         Serial = \"" + __serial + "\"" + n;
-		xml += "         TributaryNum = \"" + __tributaryNum + "\"" + n;
-		xml += "         UpstreamOrder = \"" + __upstreamOrder + "\""
-			+ n;
-	}
-
-	xml += "         X = \"" + StringUtil.formatString(__x, "%13.6f").trim()
-		+ "\"" + n;
-	xml += "         Y = \"" + StringUtil.formatString(__y, "%13.6f").trim()
-		+ "\">" + n;
+		out.print("         ComputationalOrder = \"");
+		out.print(__computationalOrder);
+		out.print("\"");
+		out.print(n);
+		out.print("         NodeInReachNum = \"");
+		out.print(__nodeInReachNum);
+		out.print("\"");
+		out.print(n);
+		out.print("        ReachCounter = \"");
+		out.print(__reachCounter);
+		out.print("\"");
+		out.print(n);
+		out.print("         Serial = \"");
+		out.print(__serial);
+		out.print("\"");
+		out.print(n);
+		out.print("         TributaryNum = \"");
+		out.print(__tributaryNum);
+		out.print("\"");
+		out.print(n);
+		out.print("         UpstreamOrder = \"");
+		out.print(__upstreamOrder);
+		out.print("\"");
+		out.print(n);
+	}
+
+	out.print("         X = \"");
+	out.print(StringUtil.formatString(__x, "%13.6f").trim());
+	out.print("\"");
+	out.print(n);
+	out.print("         Y = \"");
+	out.print(StringUtil.formatString(__y, "%13.6f").trim());
+	out.print("\">");
+	out.print(n);
 
 	if (__downstream != null) {
-		String down = __downstream.getCommonID();
-		down = StringUtil.replaceString(down, "&", "&amp;");
-		down = StringUtil.replaceString(down, "<", "&lt;");
-		down = StringUtil.replaceString(down, ">", "&gt;");
-		xml += "        <DownstreamNode ID = \"" + down + "\"/>" + n;
+		out.print("        <DownstreamNode ID = \"");
+		writeEscapedXML(out, __downstream.getCommonID());
+		out.print("\"/>");
+		out.print(n);
 	}
 
-	String up = "";
 	int num = getNumUpstreamNodes();
 	if (__upstream != null) {
 		for (int i = 0; i < num; i++) {
-			up = getUpstreamNode(i).getCommonID();
-			up = StringUtil.replaceString(up, "&", "&amp;");
-			up = StringUtil.replaceString(up, "<", "&lt;");
-			up = StringUtil.replaceString(up, ">", "&gt;");
-			xml += "        <UpstreamNode ID = \"" + up + "\"/>" + n;
+			out.print("        <UpstreamNode ID = \"");
+			writeEscapedXML(out, getUpstreamNode(i).getCommonID());
+			out.print("\"/>");
+			out.print(n);
 		}
 	}
-	xml += "    </Node>" + n;
+	out.print("    </Node>");
+	out.print(n);
+}
+
+/**
+Structure version for a group of connected nodes.  Each node starts in its own group, and the groups of two nodes
+are merged when the nodes are connected, so that all the nodes in a network share one group (the root group,
+found by following __parent) and a change to any node in the network changes the version for the network,
+whereas changes to nodes in other networks do not.  Groups are not split when nodes are disconnected, so nodes
+that are removed from a network continue to change the version for the network.  Versions are taken from
+__structureVersionCounter so that a version is never reused, even by another group.
+The group also holds the attribute change log, which lists nodes whose identifier, type, natural flow or import
+flag has changed, so that networks can update their indexes without recalculating the computational order.
+The log is only written after a network starts it and is reset (and stopped) when the structure version changes
+or the log becomes too long.  The log fields are accessed while synchronized on the group.
+*/
+private static class StructureGroup
+{
+
+/**
+Group that this group was merged into, or null if this is a root group.
+*/
+private volatile StructureGroup __parent = null;
+
+/**
+Number of groups that have been merged into this group, including this group, used to merge smaller groups
+into larger groups.
+*/
+private int __size = 1;
+
+/**
+Structure version, only used for a root group.
+*/
+private volatile long __version = __structureVersionCounter.incrementAndGet();
+
+/**
+Attribute change log version, which changes whenever the log is reset, only used for a root group.
+*/
+private long __changeLogVersion = __structureVersionCounter.incrementAndGet();
+
+/**
+Nodes that have changed since the log was reset, or null if the log has not been started, only used for a
+root group.  The first __changeCount entries are used.
+*/
+private HydrologyNode[] __changedNodes = null;
+
+/**
+Number of entries used in __changedNodes.
+*/
+private int __changeCount = 0;
+
+/**
+Reset the attribute change log, so that networks that use the log rescan the node attributes.
+*/
+private void resetAttributeChangeLog() {
+	__changeLogVersion = __structureVersionCounter.incrementAndGet();
+	__changedNodes = null;
+	__changeCount = 0;
+}
 
-	if (out != null) {
-		out.print(xml + "" + n);
-		return null;
-	}
-	else {
-		return xml;
-	}
 }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+// HydrologyNodeIdTable - table to look up node positions from node identifiers
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+/**
+Table that maps node identifiers to integer positions (e.g., positions in an array of nodes).
+Identifiers are compared exactly (case-sensitive), as with a Hashtable.
+The table uses open addressing with linear probing in parallel arrays, so no objects are created
+for each entry, which is important when loading large networks.
+*/
+class HydrologyNodeIdTable
+{
+
+/**
+Identifiers in the table, null for empty slots.
+*/
+private String [] __keys;
+
+/**
+Positions for the identifiers in __keys.
+*/
+private int [] __values;
+
+/**
+Number of identifiers in the table.
+*/
+private int __size = 0;
+
+/**
+Construct a table sized to hold the given number of identifiers without resizing.
+@param expectedSize expected number of identifiers.
+*/
+public HydrologyNodeIdTable ( int expectedSize )
+{	// Keep the table at most half full so that probe sequences are short.
+	int capacity = 16;
+	while ( (capacity < (1 << 30)) && (capacity < expectedSize*2) ) {
+		capacity <<= 1;
+	}
+	__keys = new String[capacity];
+	__values = new int[capacity];
+}
+
+/**
+Return the position for an identifier.
+@param id node identifier, must not be null.
+@return the position for the identifier, or -1 if not in the table.
+*/
+public int get ( String id )
+{	int mask = __keys.length - 1;
+	for ( int slot = getSlot(id.hashCode(), mask); __keys[slot] != null; slot = (slot + 1) & mask ) {
+		if ( __keys[slot].equals(id) ) {
+			return __values[slot];
+		}
+	}
+	return -1;
+}
+
+/**
+Return the first slot to probe for a hash code.
+@param hashCode identifier hash code.
+@param mask table length - 1.
+*/
+private static int getSlot ( int hashCode, int mask )
+{	// Spread the high bits because String hash codes for similar identifiers differ mainly in low bits.
+	return (hashCode ^ (hashCode >>> 16)) & mask;
+}
+
+/**
+Set the position for an identifier, replacing the previous position if the identifier is already in the table.
+@param id node identifier, must not be null.
+@param value position for the identifier.
+*/
+public void put ( String id, int value )
+{	int mask = __keys.length - 1;
+	int slot = getSlot(id.hashCode(), mask);
+	for ( ; __keys[slot] != null; slot = (slot + 1) & mask ) {
+		if ( __keys[slot].equals(id) ) {
+			__values[slot] = value;
+			return;
+		}
+	}
+	__keys[slot] = id;
+	__values[slot] = value;
+	if ( ++__size*2 > __keys.length ) {
+		resize();
+	}
+}
+
+/**
+Double the size of the table.
+*/
+private void resize ()
+{	String [] keys = __keys;
+	int [] values = __values;
+	__keys = new String[keys.length*2];
+	__values = new int[keys.length*2];
+	int mask = __keys.length - 1;
+	int slot;
+	for ( int i = 0; i < keys.length; i++ ) {
+		if ( keys[i] != null ) {
+			for ( slot = getSlot(keys[i].hashCode(), mask); __keys[slot] != null; slot = (slot + 1) & mask ) {
+			}
+			__keys[slot] = keys[i];
+			__values[slot] = values[i];
+		}
+	}
+}
+
+/**
+Return the number of identifiers in the table.
+@return the number of identifiers in the table.
+*/
+public int size ()
+{	return __size;
+}
+
+}
@@ -249,15 +249,24 @@ NoticeEnd */
 package cdss.domain.hydrology.network;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.function.IntFunction;
 
 import org.openwaterfoundation.network.NodeNetwork;
 
@@ -512,6 +521,177 @@ The PropList contains FromNodeID and ToNodeID as the properties.
 */
 private List<PropList> __linkList = new Vector<PropList>();
 
+/**
+Nodes in computational order, from the most upstream node to the END node.  This array and the other node
+indexes are built as needed and are rebuilt if the network structure has changed (see refreshNodeIndexes()).
+Changes to node identifiers, types and flags update the indexes without rebuilding this array, and the array is
+only replaced if the order of the nodes changes (see __computationalOrderVersion).
+*/
+private HydrologyNode [] __computationalOrderNodes = null;
+
+/**
+Version of the computational order, incremented whenever __computationalOrderNodes is replaced because nodes were
+added, removed or reordered, used to check that node sets are for the current network structure (see NodeSet).
+*/
+private long __computationalOrderVersion = 0;
+
+/**
+Position of each node in __computationalOrderNodes, or null if the node indexes must be rebuilt.
+*/
+private Map<HydrologyNode,Integer> __computationalIndexMap = null;
+
+/**
+Index of nodes by common identifier, used by findNode().  The keys are case-insensitive keys (see getNodeIdKey()).
+If more than one node has the same identifier (ignoring case), the first node in computational order is stored.
+*/
+private Map<String,HydrologyNode> __nodeIdIndex = null;
+
+/**
+Case-insensitive keys for identifiers that are used by more than one node.
+*/
+private Set<String> __duplicateNodeIdKeys = null;
+
+/**
+getStructureVersion() when the node indexes were built, used to detect when the indexes are out of date.
+*/
+private long __nodeIndexVersion = -1;
+
+/**
+Head node when the node indexes were built, used to detect when the indexes are out of date.
+*/
+private HydrologyNode __nodeIndexHead = null;
+
+/**
+Identifier of each node when the node indexes were last updated, indexed by computational order position,
+used to update __nodeIdIndex when the identifier of a node changes.
+*/
+private String [] __nodeIndexIds = null;
+
+/**
+Attribute change log version and number of log entries (see HydrologyNode.getAttributeChanges()) when the node
+indexes were last updated, used to update the indexes for the nodes whose identifier, type, natural flow or
+import flag has changed without recalculating the computational order.
+*/
+private long __attributeChangeLogVersion = -1;
+private int __attributeChangeCount = 0;
+
+/**
+Nodes in the upstream tree rooted at the head node, in depth-first (preorder) order, with upstream nodes
+visited in the order of each node's upstream node list.  All the nodes upstream of a node are therefore
+in a contiguous range of this array (see __upstreamTreeStart and __upstreamTreeEnd).
+This is built as needed after the node indexes (see refreshUpstreamTree()).
+*/
+private HydrologyNode [] __upstreamTreeNodes = null;
+
+/**
+Computational order position (see getComputationalIndex()) of each node in __upstreamTreeNodes.
+*/
+private int [] __upstreamTreeIndexes = null;
+
+/**
+Position in __upstreamTreeNodes of each node, indexed by computational order position
+(see getComputationalIndex()), or -1 if the node is not in the upstream tree.
+*/
+private int [] __upstreamTreeStart = null;
+
+/**
+Position in __upstreamTreeNodes after the last node upstream of each node, indexed by computational order position.
+*/
+private int [] __upstreamTreeEnd = null;
+
+/**
+Indicates whether the upstream tree contains all of the nodes in computational order exactly once.
+If false, the upstream tree positions are not used to answer queries and the network is traversed instead.
+*/
+private boolean __upstreamTreeComplete = false;
+
+/**
+Number of downstream steps from each node to the end of the network, indexed by computational order position.
+This and __nodeDownstreamAncestors are built as needed after the node indexes (see refreshNodeDepths()) and
+allow the common downstream node of two nodes to be found without traversing the network.
+*/
+private int [] __nodeDepth = null;
+
+/**
+Computational order position of the node 2^k steps downstream of each node, as __nodeDownstreamAncestors[k][position],
+or -1 if the end of the network is reached first.
+*/
+private int [][] __nodeDownstreamAncestors = null;
+
+/**
+Indicates whether the downstream connections of all nodes in computational order are consistent, end at the end node,
+and all nodes have identifiers, in which case __nodeDepth and __nodeDownstreamAncestors can be used.
+*/
+private boolean __nodeDepthComplete = false;
+
+/**
+Computational order positions of the nodes of each type, indexed by node type (see HydrologyNode.NODE_TYPE_*).
+This and the other node type lists are built as needed after the node indexes (see refreshNodeTypeIndexes())
+so that nodes of a type can be found without traversing the network.  When a node type or flag changes, the node is
+moved between the lists (see updateNodeTypePositionsForChangedNode()) and the lists are only rebuilt if the network
+structure changes.
+*/
+private int [][] __nodeTypePositions = null;
+
+/**
+Computational order positions of the model nodes (the nodes returned by getNodesForType(-1)).
+*/
+private int [] __modelNodePositions = null;
+
+/**
+Computational order positions of the natural flow nodes.
+*/
+private int [] __naturalFlowNodePositions = null;
+
+/**
+Computational order positions of the import nodes.
+*/
+private int [] __importNodePositions = null;
+
+/**
+Indicates whether the computational order ends with the END node and it is the only node with no downstream node,
+in which case the computational order is the same as a traversal that stops when no downstream node is found.
+*/
+private boolean __computationalOrderComplete = false;
+
+/**
+Number of nodes in computational order with each node identifier (exact match), used by checkUniqueID().
+This is rebuilt when the network changes, except that addNode() updates it for the node that is added.
+*/
+private HydrologyNodeIdTable __nodeIdCounts = null;
+
+/**
+Structure version (see getStructureVersion()) that __nodeIdCounts is consistent with.  Identifier changes that
+do not change the structure version are applied to the counts by refreshNodeAttributeIndexes().
+*/
+private long __nodeIdCountVersion = -1;
+
+/**
+Highest reach counter of the nodes, used by addNode() to number a new reach.
+This is determined again when the network changes, except that addNode() and deleteNode() keep it.
+*/
+private int __maxReachCounter = 0;
+
+/**
+Structure version (see getStructureVersion()) that __maxReachCounter is consistent with, or -1 if not determined.
+*/
+private long __maxReachCounterVersion = -1;
+
+/**
+Suffixes already tried by checkUniqueID() for each node identifier, as an array containing the identifier's
+count when the suffixes were tried and the next suffix to try, so that adding many nodes with the same
+identifier does not check the same suffixes repeatedly.  Reset whenever __nodeIdCounts is rebuilt.
+*/
+private Map<String,int[]> __nodeIdSuffixes = null;
+
+/**
+Grid index of node positions, used to find nodes by location (see findNodeAt()) and to maintain the extent of the
+nodes (see determineExtentFromNetworkData()).  The index is created as needed for the computational order nodes
+and is recreated if the nodes change.  Moving a node updates the index.  The grid itself is only built for
+queries by location.
+*/
+private HydrologyNodeSpatialIndex __spatialIndex = null;
+
 /**
 Constructor.  Network ID and name are blank and no end node is added.
 */
@@ -582,7 +762,9 @@ protected void addLabel(double x, double y, double size, int flag, String label)
 }
 
 /**
-Adds a node the network.  Nodes can be added in any order but if added in random order connections may not be properly built
+Adds a node the network.  Nodes can be added in any order but if added in random order connections may not be properly built.
+Only the nodes upstream of the new node in its reach are given new node in reach numbers, and the serial and
+computational order numbers are set from the node positions in computational order (see renumberNodes()).
 @param nodeId the id of the node to add.
 @param nodeType the kind of node to add.
 @param upstreamNodeId the id of the node immediately upstream of this node.  Can be null.
@@ -599,52 +781,49 @@ public HydrologyNode addNode(String nodeId, int nodeType, String upstreamNodeId,
 			" isNaturalFlow=" + isNaturalFlow);
 	}
 	// Make sure the id is unique within the network
-	nodeId = checkUniqueID(nodeId, true);
+	nodeId = checkUniqueID(nodeId);
+	HydrologyNodeIdTable nodeIdCounts = getNodeIdCounts();
 
-	// Create the node and set up the fields that are known
-	HydrologyNode addNode = new HydrologyNode();
-	//addNode.setInWIS(__inWIS);
-	// FIXME 2008-03-15 Need to remove WIS code
-	addNode.setType(nodeType);
-	addNode.setCommonID(nodeId);
-	addNode.setIsNaturalFlow(isNaturalFlow);
-	addNode.setIsImport(isImport);
+	// Get the nodes in computational order, which can be manipulated randomly, before creating
+	// the new node (any node change causes the order to be redetermined).
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	int maxReach = getMaxReachCounter(nodes);
 
-	boolean done = false;
+	// Find the nodes that have the upstream and downstream ids passed
+	// to this method, and store them in the upstreamNode and downstreamNode, respectively.
+	// If more than one node has an id, the last one in computational order is used.
 	HydrologyNode downstreamNode = null;
 	HydrologyNode upstreamNode = null;
-	HydrologyNode node = getMostUpstreamNode();
-	List<HydrologyNode> v = new Vector<HydrologyNode>();
-
-	// Loop through the network and do two things:
-	// 1) Add all the nodes to a list so that they can easily be
-	//    manipulated later.  This method needs random accessibility
-	//    of the nodes in the network.
-	// 2) Find the nodes that have the upstream and downstream ids passed
-	//    to this method, and store them in the upstreamNode and downstreamNode, respectively.
-	while (!done) {
-		if (node == null) {
-			done = true;
+	HydrologyNode node = null;
+	if ( ((upstreamNodeId == null) || ((nodeIdCounts.get(upstreamNodeId) == 1) && !upstreamNodeId.equals(downstreamNodeId)))
+		&& (downstreamNodeId != null) && (nodeIdCounts.get(downstreamNodeId) == 1) ) {
+		// Each id is used by one node so look up the nodes directly.
+		if ( upstreamNodeId != null ) {
+			upstreamNode = findNodeWithExactID(upstreamNodeId);
 		}
-		else {
-			v.add(node);
-			if (node.getType() == HydrologyNode.NODE_TYPE_END) {
-				done = true;
-			}
-
+		downstreamNode = findNodeWithExactID(downstreamNodeId);
+	}
+	else {
+		for ( int i = 0; i < nodes.length; i++ ) {
+			node = nodes[i];
 			if (upstreamNodeId != null && node.getCommonID().equals(upstreamNodeId)) {
 				upstreamNode = node;
 			}
 			else if (node.getCommonID().equals(downstreamNodeId)) {
 				downstreamNode = node;
 			}
-			
-			if (!done) {
-				node = getDownstreamNode(node, POSITION_COMPUTATIONAL);
-			}
 		}
 	}
 
+	// Create the node and set up the fields that are known
+	HydrologyNode addNode = new HydrologyNode();
+	//addNode.setInWIS(__inWIS);
+	// FIXME 2008-03-15 Need to remove WIS code
+	addNode.setType(nodeType);
+	addNode.setCommonID(nodeId);
+	addNode.setIsNaturalFlow(isNaturalFlow);
+	addNode.setIsImport(isImport);
+
 	boolean found = false;
 	HydrologyNode downStreamNodeUpstreamNode = null;
 	String[] upstreamNodeIds = downstreamNode.getUpstreamNodesIDs();
@@ -684,32 +863,9 @@ public HydrologyNode addNode(String nodeId, int nodeType, String upstreamNodeId,
 		addNode.addUpstreamNode(upstreamNode);
 	}
 	
-	// Get the computational order value from the downstream node and
-	// re-assign it to the node to be added.  The computational order
-	// for all the nodes downstream of the node to be added will be recomputed below.
-	int comp = downstreamNode.getComputationalOrder();
-	addNode.setComputationalOrder(comp);
-
 	// Set downstreamNode's upstream order to now be the node to be added's, too.
 	addNode.setUpstreamOrder(downstreamNode.getUpstreamOrder());
 
-	int serial = -1;
-
-	if (!found) {
-		// (new tributary) 
-		// Look through the network upstream of the downstream node for the largest serial value
-		// - the new node will need to be one larger than that value if it is on a new tributary.
-		serial = findHighestUpstreamSerial(downstreamNode, downstreamNode.getSerial());
-	}
-	else {
-		// Placed on an existing tributary
-		// - upstreamNode still holds the value of the upstream Node
-		serial = downStreamNodeUpstreamNode.getSerial();
-		// Decrement it because want to find the value of the serial
-		// number that is one less than what the new node's serial number will be.
-		serial--;
-	}
-
 	// Now calculate the plotting location for the new node.
 
 	double x1 = downstreamNode.getX();
@@ -752,26 +908,26 @@ public HydrologyNode addNode(String nodeId, int nodeType, String upstreamNodeId,
 		}
 	}
 
-	// Loop through the entire network and change the serial counter and
-	// computational order value.  All the nodes downstream of the node
-	// being added need their computation order value incremented.  All
-	// the nodes upstream of the node to be added need their serial counter decremented.
-	for (int i = 0; i < v.size(); i++) {
-		node = v.get(i);
-		if (node.getComputationalOrder() >= comp) {
-			node.setComputationalOrder(	node.getComputationalOrder() + 1);
-		}
-		if (node.getSerial() > serial) {
-			node.setSerial(node.getSerial() + 1);
-		}
-	}
-
-	// Set the serial of the new node
-	// - one greater than the serial number found above
-	addNode.setSerial(serial + 1);
-
 	// A few changes are left to be made:
 	// - the node in reach number counter needs set, as does the reach counter.
+	// If there is an upstream node then this node is in the same reach as the branch between downstreamNode and
+	// upstreamNode and the nodes upstream of this one in the reach need their 'node in reach number' incremented.
+	// Otherwise, if the downstream node has upstream nodes, this node is the start of a new reach, numbered one more
+	// than the current highest-numbered reach.
+	int reach = -1;
+	int nodeNum = -1;
+	if (upstreamNode != null) {
+		reach = upstreamNode.getReachCounter();
+		nodeNum = upstreamNode.getNodeInReachNumber();
+		// Only the nodes from the upstream node to the top of the reach need their node in reach number incremented.
+		node = upstreamNode;
+		for (int count = 0; (node != null) && (count < nodes.length); count++) {
+			if (node.getNodeInReachNumber() >= nodeNum) {
+				node.setNodeInReachNumber(node.getNodeInReachNumber() + 1);
+			}
+			node = getUpstreamNodeInReach(node, reach);
+		}
+	}
 
 	if (upstreamNode == null) {
 		if (upstreamNodeIds == null || upstreamNodeIds.length == 0) {
@@ -785,49 +941,59 @@ public HydrologyNode addNode(String nodeId, int nodeType, String upstreamNodeId,
 			addNode.setReachCounter(downstreamNode.getReachCounter());		
 		}
 		else {
-			// Otherwise find the highest-numbered reach in the
-			// system and then set the new node's reach to be
-			// a new reach 1 more than the current highest-numbered
-			// reach number.  This new node is the start of a new
-			// reach off the downstream node.
-			int max = 0;
-			for (int i = 0; i < v.size(); i++) {
-				node = v.get(i);
-				if (node.getReachCounter() > max) {
-					max = node.getReachCounter();
-				}
-			}
-			
+			// This new node is the start of a new reach off the downstream node.
 			addNode.setNodeInReachNumber(1);
-			addNode.setReachCounter(max + 1);
+			addNode.setReachCounter(maxReach + 1);
 		}
 	}
 	else {
-		// If there is an upstream node then this node is in the same
-		// reach as the branch between downstreamNode and upstreamNode.  All that needs done
-		// is to increment all the nodes downstream of this one
-		// so that their 'node in reach number' value is one more.
-
-		int nodeNum = upstreamNode.getNodeInReachNumber();
-	
 		addNode.setNodeInReachNumber(nodeNum);
-	
-		int reach = upstreamNode.getReachCounter();
 		addNode.setReachCounter(reach);
-	
-		for (int i = 0; i < v.size(); i++) {
-			node = v.get(i);
-			if (node.getReachCounter() == reach) {
-				if (node.getNodeInReachNumber() >= nodeNum) {
-					node.setNodeInReachNumber(node.getNodeInReachNumber()+ 1);
-				}
-			}
-		}
 	}
+	int position = updateNodeIndexesForAddedNode(nodes, addNode, found || isTributaryOrderConsistent(downstreamNode));
+	// The nodes before the new node in computational order have one more node after them, which changes their serial
+	// numbers, and the nodes after it have one more node before them, which changes their computational order.
+	renumberNodes(position + 1, position);
+	if ( (nodeIdCounts != null) && (nodeId != null) ) {
+		// Keep the identifier counts for the next node that is added, only adding the new node.
+		nodeIdCounts.put(nodeId, Math.max(nodeIdCounts.get(nodeId), 0) + 1);
+		__nodeIdCounts = nodeIdCounts;
+		__nodeIdCountVersion = getStructureVersion();
+	}
+	// Keep the highest reach counter for the next node that is added.
+	__maxReachCounter = Math.max(maxReach, addNode.getReachCounter());
+	__maxReachCounterVersion = getStructureVersion();
 	// Return the node that was added
 	return addNode;
 }
 
+/**
+Add a sequence of nodes to a list, starting with a node and following the downstream connections.
+@param nodeList list to add to.
+@param node first node to add.
+@param count number of nodes to add.
+*/
+private void addNodeSequence(List<HydrologyNode> nodeList, HydrologyNode node, int count) {
+	for (int i = 0; (i < count) && (node != null); i++) {
+		nodeList.add(node);
+		node = node.getDownstreamNode();
+	}
+}
+
+/**
+Add a sequence of nodes to a set, starting with a node and following the downstream connections in the
+node depth tables (see refreshNodeDepths()), which must be complete.
+@param nodeSet set to add to, which must be for the current network structure.
+@param index computational order position of the first node to add.
+@param count number of nodes to add.
+*/
+private void addNodeSequence(NodeSet nodeSet, int index, int count) {
+	for (int i = 0; (i < count) && (index >= 0); i++) {
+		nodeSet.addIndex(index);
+		index = __nodeDownstreamAncestors[0][index];
+	}
+}
+
 /**
 Fills out the node in reach number, reach counter, tributary number, serial 
 number, and computational order number for a network of nodes.  These nodes
@@ -856,12 +1022,18 @@ public void calculateNetworkNodeData(List<HydrologyNode> nodesV, boolean endFirs
 		}
 	}
 
-	// Create a hashtable that maps all the node IDs to an integer.  This
+	// Create a table that maps all the node IDs to an integer.  This
 	// integer points to the location within the array where the node can be found.
-	Hashtable<String,Integer> hash = new Hashtable<String,Integer>(size);
+	HydrologyNodeIdTable idTable = new HydrologyNodeIdTable(size);
 	for (int i = 0; i < size; i++) {
-		hash.put(nodes[i].getCommonID(), new Integer(i));
+		idTable.put(nodes[i].getCommonID(), i);
 	}
+	// Work arrays for calculateNetworkNodeDataHelper(), allocated once for all calls.
+	int [] stack = new int[size];
+	int [] nextUpstream = new int[size];
+	String [][] stackUpstreamIDs = new String[size][];
+	boolean [] onStack = new boolean[size];
+	onStack[0] = true;
 
 	// certain data for the head node can be set immediately.
 	nodes[0].setNodeInReachNumber(1);
@@ -881,7 +1053,13 @@ public void calculateNetworkNodeData(List<HydrologyNode> nodesV, boolean endFirs
 		Message.printStatus(2, "", "Header '" + nodes[0].getCommonID() + "' has " + size2 + " us nodes.");
 	}
 	for (int i = 0; i < size2; i++) {
-		nodeNum = ((Integer)hash.get(usIDs[i])).intValue();
+		nodeNum = idTable.get(usIDs[i]);
+		if ( nodeNum < 0 ) {
+			String message = "Processing node \"" + nodes[0].getCommonID() +
+				"\" - upstream ID \"" + usIDs[i] + "\" not found in hash.";
+			Message.printStatus(2, routine, message );
+			throw new RuntimeException ( message );
+		}
 		if (IOUtil.testing()) {
 			Message.printStatus(2, "", "Header US: '" + nodes[nodeNum].getCommonID() + "'");
 		}
@@ -913,8 +1091,9 @@ public void calculateNetworkNodeData(List<HydrologyNode> nodesV, boolean endFirs
 			highestReach = lastReach + 1;
 		}
 		
-		lastReach = calculateNetworkNodeDataHelper(nodeNum, nodes, hash,
-			reachCounter, nodeInReachNumber, tributaryNumber, highestReach);
+		lastReach = calculateNetworkNodeDataHelper(nodeNum, nodes, idTable,
+			reachCounter, nodeInReachNumber, tributaryNumber, highestReach,
+			stack, nextUpstream, stackUpstreamIDs, onStack);
 		// keep track of the highest reach generated -- new reaches are built after this one.
 		if (lastReach > highestReach) {
 			highestReach = lastReach;
@@ -923,29 +1102,26 @@ public void calculateNetworkNodeData(List<HydrologyNode> nodesV, boolean endFirs
 
 	// connect the nodes
 	String dsID = null;
-	Object nodeNumObject;
-	Integer tempI = null;
+	int tempI = -1;
 	for (int i = 0; i < size; i++) {
 		dsID = nodes[i].getDownstreamNodeID();
 		if (dsID != null && !dsID.equals("") && !dsID.equals("null")) {
-			nodeNumObject = hash.get(dsID);
-			if ( nodeNumObject == null ) {
+			nodeNum = idTable.get(dsID);
+			if ( nodeNum < 0 ) {
 				String message = "Processing node \"" + nodes[i].getCommonID() +
 				" - downstream ID \"" + dsID + "\" not found in hash.";
 				Message.printStatus(2, routine, message );
 				throw new RuntimeException ( message );
 			}
-			nodeNum = ((Integer)nodeNumObject).intValue();
 			nodes[i].setDownstreamNode(nodes[nodeNum]);
 		}
 		usIDs = nodes[i].getUpstreamNodeIDs();
 		size2 = usIDs.length;
 		for (int j = 0; j < size2; j++) {
 			if (usIDs[j] != null && !usIDs[j].equals("") && !usIDs[j].equals("null")) {
-				tempI = (Integer)(hash.get(usIDs[j]));
-				if (tempI != null) {
-					nodeNum = tempI.intValue();	
-					nodes[i].addUpstreamNode(nodes[nodeNum]);
+				tempI = idTable.get(usIDs[j]);
+				if (tempI >= 0) {
+					nodes[i].addUpstreamNode(nodes[tempI]);
 				}
 			}
 		}
@@ -984,38 +1160,55 @@ public void calculateNetworkNodeData(List<HydrologyNode> nodesV, boolean endFirs
 }
 
 /**
-A recursive helper method for calculateNetworkNodeData. 
+A helper method for calculateNetworkNodeData() that sets the values for a node and all the nodes upstream of it.
+The nodes are processed depth-first in the order of the upstream node identifiers, using an explicit stack
+so that deep networks do not overflow the Java call stack.
 @param nodeNum the nodeNum (in the array) of the current node for which to set up values.
 @param nodes an array of all the nodes in the network.
-@param hash a Hashtable that matches ids with positions in the array.
+@param idTable a table that matches ids with positions in the array.
 @param reachCounter this node's value for reachCounter.
 @param nodeInReachNumber this node's value for node in reach number.
 @param tributaryNumber this node's value for tributary number.
 @param highestReach this node's value for the highest reach number seen so far.
+@param stack work array for the stack of node positions, sized for all the nodes.
+@param nextUpstream work array for the next upstream identifier position of each node in the stack.
+@param upstreamIDs work array for the upstream identifiers of each node in the stack.
+@param onStack work array indicating whether each node in the array is in the stack, used to detect circular
+connections, all false on input and output.
+@return the highest reach number after processing the nodes.
 */
 private int calculateNetworkNodeDataHelper(int nodeNum, HydrologyNode[] nodes, 
-Hashtable<String,Integer> hash, int reachCounter, int nodeInReachNumber, int tributaryNumber,
-int highestReach) {
-//	Message.printStatus(2, "", 
-//		" fvdh: #" + StringUtil.formatString(nodeNum, "%03d")
-//		+ "  " 
-//		+ StringUtil.formatString(nodes[nodeNum].getCommonID(), 
-//		"%14.14s")
-//		+ "  RC: " + StringUtil.formatString(reachCounter, "%03d")
-//		+ "  N#: " + StringUtil.formatString(nodeInReachNumber, "%03d")
-//		+ "  T#: " + StringUtil.formatString(tributaryNumber, "%03d"));
+HydrologyNodeIdTable idTable, int reachCounter, int nodeInReachNumber, int tributaryNumber,
+int highestReach, int [] stack, int [] nextUpstream, String [][] upstreamIDs, boolean [] onStack) {
+	String routine = getClass().getSimpleName() + ".calculateNetworkNodeDataHelper";
 	nodes[nodeNum].setReachCounter(reachCounter);
 	nodes[nodeNum].setNodeInReachNumber(nodeInReachNumber);
 	nodes[nodeNum].setTributaryNumber(tributaryNumber);
-	int lastReach = reachCounter - 1;
-	String[] usIDs = nodes[nodeNum].getUpstreamNodeIDs();
-	int size = usIDs.length;
+	int stackSize = 0;
+	stack[stackSize] = nodeNum;
+	nextUpstream[stackSize] = 0;
+	upstreamIDs[stackSize++] = nodes[nodeNum].getUpstreamNodeIDs();
+	onStack[nodeNum] = true;
 	int currNodeNum = -1;
-	for (int i = 0; i < size; i++) {
-		if (hash.get(usIDs[i]) == null) {
-			break;
+	int i, size;
+	while (stackSize > 0) {
+		nodeNum = stack[stackSize - 1];
+		size = upstreamIDs[stackSize - 1].length;
+		i = nextUpstream[stackSize - 1]++;
+		if (i < size) {
+			currNodeNum = idTable.get(upstreamIDs[stackSize - 1][i]);
+		}
+		if ((i >= size) || (currNodeNum < 0)) {
+			// Done with the node (stop at the first upstream identifier that is not found).
+			onStack[nodeNum] = false;
+			upstreamIDs[--stackSize] = null;
+			continue;
+		}
+		if (onStack[currNodeNum]) {
+			Message.printWarning(3, routine, "Node \"" + nodes[currNodeNum].getCommonID() +
+				"\" is upstream of itself - not processing again.");
+			continue;
 		}
-		currNodeNum = ((Integer)hash.get(usIDs[i])).intValue();
 		if (i == (size - 1)) {
 			// This node is on the same reach -- it's either the
 			// last upstream node to be processed or the only node to be processed. 
@@ -1033,28 +1226,32 @@ int highestReach) {
 		else {
 			// Node on a different reach.
 			// This is a node who reach number depends on however
-			// many reaches have been processed ahead of it.  
-			// That value is returned from the helper method.
+			// many reaches have been processed ahead of it, which is
+			// the highest reach number so far.
 			nodeInReachNumber = 1;
 			tributaryNumber = i + 1;
 			reachCounter = highestReach + 1;
 			highestReach++;
 		}
-
-		lastReach = calculateNetworkNodeDataHelper(currNodeNum, nodes, 
-			hash, reachCounter, nodeInReachNumber, tributaryNumber,
-			highestReach);
-		if (lastReach > highestReach) {
-			highestReach = lastReach;
-		}
-	}	
+		nodes[currNodeNum].setReachCounter(reachCounter);
+		nodes[currNodeNum].setNodeInReachNumber(nodeInReachNumber);
+		nodes[currNodeNum].setTributaryNumber(tributaryNumber);
+		stack[stackSize] = currNodeNum;
+		nextUpstream[stackSize] = 0;
+		upstreamIDs[stackSize++] = nodes[currNodeNum].getUpstreamNodeIDs();
+		onStack[currNodeNum] = true;
+	}
 	return highestReach;
 }
 
 /**
-Check the network integrity by traversing the network.
-@param flag one of NETWORK_MAKENET or NETWORK_WIS.
-@return false if the network has problems, true if OK.
+Check the network integrity.  The problems found by checkNetworkIntegrity() are printed as warnings but,
+other than cycles, do not cause the check to fail, so that networks that were accepted previously are still
+accepted.  A network with a cycle fails because it cannot be traversed to the END node.
+@param flag one of NETWORK_MAKENET or NETWORK_WIS.  If NETWORK_MAKENET, the check also fails if the
+bottom-most node is not an END node.
+@return false if the network has a cycle or (for NETWORK_MAKENET) the bottom-most node is not an END node,
+true if OK.
 */
 public boolean checkNetwork(int flag) {
 	String routine = "HydroBase_NodeNetwork.checkNetwork";
@@ -1063,6 +1260,16 @@ public boolean checkNetwork(int flag) {
 
 	Message.printStatus(2, routine,"Checking river network for validity");
 
+	HydrologyNodeNetworkCheckReport report = checkNetworkIntegrity();
+	for (HydrologyNodeNetworkCheckProblem problem : report.getProblems()) {
+		message = problem.toString();
+		Message.printWarning(2, routine, message);
+		printCheck(routine, 'W', message);
+	}
+	if (report.getProblemCount(HydrologyNodeNetworkCheckProblem.CYCLE) > 0) {
+		return false;
+	}
+
 	if (flag == NETWORK_MAKENET) {
 		nodePt = getDownstreamNode(__nodeHead, POSITION_ABSOLUTE);
 		if (nodePt.getType() != HydrologyNode.NODE_TYPE_END) {
@@ -1076,62 +1283,60 @@ public boolean checkNetwork(int flag) {
 	return true;
 }
 
+/**
+Check the integrity of the network in one pass over the nodes, without traversing the network in computational
+order (which assumes that the network is valid).  All nodes connected to the head node by upstream or downstream
+node references are checked.  See HydrologyNodeNetworkCheckReport for the problems that are detected.
+@return the check report, which lists the problems that were found.
+*/
+public HydrologyNodeNetworkCheckReport checkNetworkIntegrity() {
+	return HydrologyNodeNetworkCheckReport.check(__nodeHead);
+}
+
+/**
+Check the integrity of a list of nodes that are connected by upstream and downstream node identifiers,
+for example nodes read from a file before calling calculateNetworkNodeData().
+See HydrologyNodeNetworkCheckReport for the problems that are detected.
+@param nodes the nodes to check.  The first END node in the list is used as the network END node.
+@return the check report, which lists the problems that were found.
+*/
+public static HydrologyNodeNetworkCheckReport checkNetworkIntegrity(List<HydrologyNode> nodes) {
+	return HydrologyNodeNetworkCheckReport.check(nodes, false);
+}
+
 /**
 Checks the id to make sure that it is unique in the network.  Called by addNode().
+If the id is not unique, an attempt is made to create a unique id by appending "_" and a number to the end
+of the id, starting with the number of nodes that have the id and incrementing until a unique id is found.
+The node identifier counts and the suffixes that were already tried are saved so that repeatedly adding
+nodes with the same id does not require checking the network again.
 @param id the id to check.
-@param first because this method is recursive in how it searches for a 
-unique ID, the first time it is called (i.e., not by itself) this parameter
-should be true.  When the method calls itself, this parameter is false.
 @return an ID that is unique within the network.
 */
-private String checkUniqueID(String id, boolean first)
+private String checkUniqueID(String id)
 {
-	boolean done = false;
-	HydrologyNode node = getMostUpstreamNode();
-	int count = 0;
-
-	// First go through all the nodes and count how many have the same id as that passed in
-	while (!done) {
-		if (node == null) {
-			done = true;
-		}
-		else {
-			if (node.getCommonID().equals(id)) {
-				count++;
-			}		
-			if (node.getType() == HydrologyNode.NODE_TYPE_END) {
-				done = true;
-			}
-
-			if (!done) {
-				node = getDownstreamNode(node, POSITION_COMPUTATIONAL);
-			}
-		}
+	if (id == null) {
+		return id;
 	}
-
-	if (count == 0) {
+	HydrologyNodeIdTable nodeIdCounts = getNodeIdCounts();
+	int count = nodeIdCounts.get(id);
+	if (count <= 0) {
 		// If no other nodes have that id, it is unique and can be returned
 		return id;
 	}
-	else {	
-		if (!first) {
-			// If this was called by itself then it means that
-			// an attempt to check a different id for uniqueness
-			// failed at this point.  It needs to return a 
-			// different id that that which was passed in for 
-			// the code to recognize a failure at trying a new ID.  See below.
-			return id + "----------X";
-		}
-
-		// The id is not unique.  An attempt will be made to create
-		// a unique id by appending "_" and a number to the end of
-		// the passed-in ID.  The number will be incremented until a unique value is found.
-		String newID = null;
-		for (int i = count;;i++) {
-			newID = id + "_" + i;
-			if (checkUniqueID(newID, false).equals(newID)) {
-				return newID;
-			}
+	// Start with the suffix that was found previously, if still valid (suffixes that were in use
+	// are still in use unless the network has been rebuilt).
+	int i = count;
+	int [] suffix = __nodeIdSuffixes.get(id);
+	if ((suffix != null) && (count >= suffix[0])) {
+		i = Math.max(count, suffix[1]);
+	}
+	String newID = null;
+	for (;;i++) {
+		newID = id + "_" + i;
+		if (nodeIdCounts.get(newID) <= 0) {
+			__nodeIdSuffixes.put(id, new int[] { count, i });
+			return newID;
 		}
 	}
 }
@@ -1192,17 +1397,11 @@ public List<String> createIndentedRiverNetworkStrings() {
 	v.add("# Network position (e.g., row in table).");
 	v.add("#");
 
-	// Go to the bottom of the system so that we can get to the top of the main stem...
-	HydrologyNode node = null;
-	node = getDownstreamNode(__nodeHead, POSITION_ABSOLUTE);
-
-	// Now traverse downstream, creating the strings...
+	// Traverse downstream from the top of the system in computational order, creating the strings...
 	int indent = 0;
 	int tab = 8;
 	StringBuffer buffer = null;
-	for (HydrologyNode nodePt = getUpstreamNode(node, POSITION_ABSOLUTE);
-		nodePt != null;
-		nodePt = getDownstreamNode(nodePt, POSITION_COMPUTATIONAL)) {
+	for ( HydrologyNode nodePt : getComputationalOrderNodes() ) {
 		if (Message.isDebugOn) {
 			Message.printDebug(dl, routine,
 				"Formatting .ind node \"" + nodePt.getNetID() + "\"(\"" + nodePt.getCommonID() + "\")");
@@ -1439,171 +1638,119 @@ public boolean createRiverOrderFile(String basename, int flag) {
 
 /**
 Removes a node from the network, and maintains the connections between the 
-upstream and downstream nodes relative to the node that is removed.  This 
-code is very inefficient and should not be used often.  
-TODO (JTS - 2004-04-14)<br> Inefficient!!  This could really be improved.
+upstream and downstream nodes relative to the node that is removed.
+Only the connections of the downstream node and the nodes immediately upstream of the removed node are changed,
+and the node indexes are updated in place (see updateNodeIndexesForDeletedNode()).
+The nodes upstream of the removed node in its reach are given new node in reach numbers, and the serial and
+computational order numbers are set from the node positions in computational order (see renumberNodes()).
 @param id the id of the node to delete.
 */
 public void deleteNode(String id) {
-	boolean done = false;
-	HydrologyNode node = getMostUpstreamNode();
-	List<HydrologyNode> v = new Vector<HydrologyNode>();
-
-	// First loop through all the nodes and put them in a list so that
-	// they can be accessed via a random access method.  
-	while (!done) {
-		if (node == null) {
-			done = true;
-		}
-		else {
-			v.add(node);
-
-			if (node.getType() == HydrologyNode.NODE_TYPE_END) {
-				if (node.getCommonID().equals(id)) {
-					// can't delete the end node.  
-					return;
-				}
-				done = true;
-			}
-			if (!done) {
-				node = getDownstreamNode(node, POSITION_COMPUTATIONAL);
-			}
-		}
+	String routine = getClass().getSimpleName() + ".deleteNode";
+	if (id == null) {
+		return;
 	}
-
-	int size = v.size();
-	// the array will hold all the nodes except the one being deleted
-	HydrologyNode[] nodes = new HydrologyNode[size - 1];
-	HydrologyNode dsNode = null;
-	int count = 0;
-	// TODO SAM 2007-02-18 Evaluate whether needed
-	//int tribNum = 0;
-	//int upCount = 0;
-	
-	// The ids of the nodes upstream from the node to be deleted
-	String[] delUsid = null;
-	// The id of the node downstream from the node to be deleted
-	String delDsid = null;
-	
-	int comp = -1;
-	int serial = -1;
-
-	// Loop through the list and put the nodes into the array for even faster access.
-	for (int i = 0; i < size; i++) {
-		node = v.get(i);
-		
-		if (IOUtil.testing()) {
-			Message.printStatus(2, "", "  TSC (" 
-				+ node.getCommonID() + "): " 
-				+ node.getTributaryNumber() + " - " 
-				+ node.getSerial() + " - "
-				+ node.getComputationalOrder());
-		}
-
-		if (node.getCommonID().equals(id)) {
-			// For the node that is to be deleted, store its
-			// downstream node and the id of the downstream node, 
-			// the IDs of its upstream nodes, its tributary number
-			// and the count of the number of upstream nodes.
-			dsNode = node.getDownstreamNode();
-			delDsid = dsNode.getCommonID();
-			
-			delUsid = node.getUpstreamNodesIDs();
-			//TODO SAM 2007-02-18 Evaluate whether needed
-			//tribNum = node.getTributaryNumber();
-			//upCount = node.getNumUpstreamNodes();
-
-			comp = node.getComputationalOrder();
-			serial = node.getSerial();
-//			if (IOUtil.testing()) {
-//				Message.printStatus(2, "", "Node comp: " + comp);
-//				Message.printStatus(2, "", "Node serial: " + serial);
-//			}
-		}
-		else {
-			// for all other nodes, put them in the array
-			nodes[count++] = node;
-		}
+	// The nodes in computational order, which can be accessed via a random access method.  
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	// Find the node to delete.  If more than one node has the id, the last one in computational order is used.
+	HydrologyNodeIdTable nodeIdCounts = getNodeIdCounts();
+	HydrologyNode node = null;
+	if (nodeIdCounts.get(id) == 1) {
+		node = findNodeWithExactID(id);
 	}
-
-	//	if (IOUtil.testing()) {
-	//		Message.printStatus(2, "", "delDsid: '" + delDsid + "'");
-	//		if (delUsid != null) {
-	//		for (int i = 0; i < delUsid.length; i++) {
-	//			Message.printStatus(2, "", "delUsid[" + i + "]: '" + delUsid[i] + "'");
-	//			}
-	//		}
-	//	}
-
-	// to represent the different size of the Vector vs the array
-	size--;
-
-	// the ids of the upstream nodes from the node downstream of the node being deleted.
-	String[] dsusid = dsNode.getUpstreamNodesIDs();
-
-//	if (IOUtil.testing()) {
-//		if (dsusid != null) {
-//			for (int i = 0; i < dsusid.length; i++) {
-//				Message.printStatus(2, "", "dsusid[" + i + "]: '" + dsusid[i] + "'");
-//			}
-//		}
-//	}
-
-	// Update the tributary number for all the nodes at the same level
-	// as the deleted node.  That is, all the nodes upstream of the 
-	// deleted node's downstream node.  Just update their tributary 
-	// number to account for the deleted node.
-	/*
-	int tn = 1;	
-	for (int i = 0; i < size; i++) {
-		for (int j = 0; j < dsusid.length; j++) {
-			// note here the comparison is with dsusid[]
-			if (nodes[i].getCommonID().equals(dsusid[j])) {
-				nodes[i].setTributaryNumber(tn++);
-				if (IOUtil.testing()) {
-					Message.printStatus(2, "", "1: Node '" + nodes[i].getCommonID() + "'"
-						+ " trib set to: " + nodes[i].getTributaryNumber());
-				}
+	else {
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].getCommonID().equals(id)) {
+				node = nodes[i];
 			}
 		}
 	}
-	*/
-		
-	// Update the tributary number for all the nodes upstream of the 
-	// deleted node to account for the deleted node.
-	/*
-	for (int i = 0; i < size; i++) {
-		for (int j = 0; j < delUsid.length; j++) {
-			// note here the comparison is with delUsid[]
-			if (nodes[i].getCommonID().equals(delUsid[j])) {	
-				nodes[i].setTributaryNumber(tn++);
-				if (IOUtil.testing()) {
-					Message.printStatus(2, "", "2: Node '" + nodes[i].getCommonID() + "'"
-						+ " trib set to: " +nodes[i].getTributaryNumber());
-				}				
-			}
-		}
+	if ((node == null) || (node.getType() == HydrologyNode.NODE_TYPE_END)) {
+		// can't delete the end node.  
+		return;
+	}
+	HydrologyNode dsNode = node.getDownstreamNode();
+	if (dsNode == null) {
+		Message.printWarning(2, routine, "Node \"" + id + "\" has no downstream node.  Unable to delete.");
+		return;
 	}
+	// Removing a node does not change the reach counters of the other nodes.
+	boolean maxReachCurrent = (__maxReachCounterVersion == getStructureVersion());
+	// The nodes upstream of the deleted node in its reach, which are renumbered below.
+	int reach = node.getReachCounter();
+	HydrologyNode reachNode = getUpstreamNodeInReach(node, reach);
+	// Whether the computational order of the other nodes is unchanged by removing the node, so that the node
+	// indexes can be updated in place.
+	boolean sameOrder = isTributaryOrderConsistent(dsNode) && isTributaryOrderConsistent(node);
+
+	// Reroute the upstream connections of the downstream node around the node to be deleted.
+	// The position occupied in the upstream node list by the deleted node
+	// will in turn be filled by its upstream nodes, like in the following:
+	/*
+	        [US1.1]  [US2.1]
+	       /        /
+	   [DS]<----[ID]
+	       \        \
+	        [US1.2]  [US2.2]
+
+	to
+	         [US1.1]
+                        /          [US1.2*]
+                       /          /
+	   [DS]----------<
+	       \          \
+	        \          [US1.3*]
+		 [US1.4*]
+
+	* - note that the nodes are now iterated in the order
+	    1.1, 2.1, 2.2, 1.2.  2.1, 2.2 and 1.2 have been
+	    renumbered to 1.2, 1.3, and 1.4, respectively, 
+	    to account for the new order of the upstream nodes.
 	*/
-
+	// The upstream nodes of the deleted node and the other upstream nodes of the downstream node,
+	// which are renumbered below.
 	List<HydrologyNode> tempV = new Vector<HydrologyNode>();
-	for (int i = 0; i < delUsid.length; i++) {
-		for (int j = 0; j < size; j++) {
-			if (nodes[j].getCommonID().equals(delUsid[i])) {
-				tempV.add(nodes[j]);
-				j = size + 1;
-			}
+	int delUpstreamCount = node.getNumUpstreamNodes();
+	for (int i = 0; i < delUpstreamCount; i++) {
+		tempV.add(node.getUpstreamNode(i));
+	}
+	List<HydrologyNode> dsUpstreamNodes = new Vector<HydrologyNode>();
+	boolean found = false;
+	HydrologyNode tempNode = null;
+	for (int i = 0; i < dsNode.getNumUpstreamNodes(); i++) {
+		tempNode = dsNode.getUpstreamNode(i);
+		if (tempNode == node) {
+			dsUpstreamNodes.addAll(tempV.subList(0, delUpstreamCount));
+			found = true;
+		}
+		else {
+			dsUpstreamNodes.add(tempNode);
+			tempV.add(tempNode);
 		}
 	}
-	for (int i = 0; i < dsusid.length; i++) {
-		for (int j = 0; j < size; j++) {
-			if (nodes[j].getCommonID().equals(dsusid[i])) {
-				tempV.add(nodes[j]);
-				j = size + 1;
-			}
+	if (found) {
+		dsNode.setUpstreamNodes(dsUpstreamNodes);
+		dsNode.clearUpstreamNodeIDs();
+		for (HydrologyNode dsUpstreamNode : dsUpstreamNodes) {
+			dsNode.addUpstreamNodeID(dsUpstreamNode.getCommonID());
 		}
 	}
+	// The upstream nodes of the deleted node now point downstream to the downstream node:
+	//   [DS]<--[ID]<--[US]
+	// to
+	//   [DS]<--[US]
+	for (int i = 0; i < delUpstreamCount; i++) {
+		tempNode = tempV.get(i);
+		tempNode.setDownstreamNode(dsNode);
+		tempNode.setDownstreamNodeID(dsNode.getCommonID());
+	}
+	// Only the nodes from the deleted node to the top of the reach need their node in reach number decremented.
+	for (int count = 0; (reachNode != null) && (count < nodes.length); count++) {
+		reachNode.setNodeInReachNumber(reachNode.getNodeInReachNumber() - 1);
+		reachNode = getUpstreamNodeInReach(reachNode, reach);
+	}
 
+	// Update the tributary number for all the nodes upstream of the downstream node, in serial order.
 	int[] serials = new int[tempV.size()];
 	for (int i = 0; i < serials.length; i++) {
 		serials[i] = tempV.get(i).getSerial();
@@ -1613,246 +1760,26 @@ public void deleteNode(String id) {
 
 	MathUtil.sort(serials, MathUtil.SORT_QUICK, MathUtil.SORT_ASCENDING, order, true);
 
-	HydrologyNode tempNode = null;
-
 	int tn = 1;
 	for (int i = 0; i < order.length; i++) {
 		tempNode = tempV.get(order[i]);
 		tempNode.setTributaryNumber(tn++);
 	}
 
-	HydrologyNode ds = null;
-	String[] usid = null;
-
-	// loop through the entire network and change the serial counter and
-	// computational order value.  All the nodes downstream of the node
-	// being added need their computation order value incremented.  All
-	// the nodes upstream of the node to be added need their serial counter decremented.
-	for (int i = 0; i < size; i++) {
-		if (nodes[i].getComputationalOrder() >= comp) {
-			nodes[i].setComputationalOrder( nodes[i].getComputationalOrder() - 1);
-		}
-		if (nodes[i].getSerial() > serial) {
-			nodes[i].setSerial(nodes[i].getSerial() - 1);
-		}
-	}
-
-	// because the connections to the nodes will be rebuilt, loop through
-	// the array and store the IDs of every nodes' upstream and downstream
-	// nodes.  These stored IDs will be used to reconnect the network later.
-	for (int i = 0; i < size; i++) {
-		ds = nodes[i].getDownstreamNode();
-		if (ds != null) {
-			nodes[i].setDownstreamNodeID(ds.getCommonID());
-		}
-		usid = nodes[i].getUpstreamNodesIDs();
-		if (usid != null) {
-			nodes[i].clearUpstreamNodeIDs();
-			for (int j = 0; j < usid.length; j++) {
-				nodes[i].addUpstreamNodeID(usid[j]);
-			}
-		}
-	}
-	
-	// break all the connections in the network.
-	for (int i = 0; i < size; i++) {
-		nodes[i].setDownstreamNode(null);
-		nodes[i].setUpstreamNodes(null);
-	}
-
-	int pos = -1;
-
-	// the above connections established via setting the ID still 
-	// account for the node being deleted.  Loop through all the nodes
-	// and break any connection to the deleted node as well, passing the
-	// downstream links on the node downstream from the deleted node 
-	// and the upstream links to the deleted node's upstream nodes.
-	for (int i = 0; i < size; i++) {
-		pos = -1;
-
-		if (nodes[i].getDownstreamNodeID() != null 
-		    && nodes[i].getDownstreamNodeID().equals(id)) {
-			// if the node has a downstream node connection and 
-			// that downstream node is the node to be deleted, 
-			// then replace it with the id of the node downstream from the deleted node.
-			/*
-			The following change is made:
-			   [DS]<--[ID]<--[US]
-			to
-			   [DS]<--[US]
-			*/
-			
-//			if (IOUtil.testing()) {
-//				Message.printStatus(2, "", "Rewiring " 
-//					+ nodes[i].getCommonID() + " DS to " + delDsid + " (skipping " + id + ")");
-//			}
-			nodes[i].setDownstreamNodeID(delDsid);
-		}
-
-		usid = nodes[i].getUpstreamNodeIDs();
-		if (usid != null) {
-			// if the node has any upstream node connections, and
-			// if any of them connect to the node to be deleted
-			// record the deleted node's position within the array of upstream ids.
-			for (int j = 0; j < usid.length; j++) {
-				if (usid[j].equals(id)) {
-//					if (IOUtil.testing()) {
-//						Message.printStatus(2, "",
-//							"" 
-//							+ nodes[i].getCommonID()
-//							+ " has an us node "
-//							+ "(" + j 
-//							+ ") that points to " 
-//							+ id);
-//					}
-					pos = j;
-				}
-			}
-		}
+	__nodeCount = nodes.length - 1;
 
-		// pos will be > -1 if the node to be deleted is an upstream node of the current node.
-		if (pos > -1) {
-			// need to reroute upstream connections around the
-			// node to be deleted.  The position occupied in
-			// the upstream node Vector by the deleted node
-			// will in turn be filled by its upstream nodes, like in the following:
-			/*
-			        [US1.1]  [US2.1]
-			       /        /
-			   [DS]<----[ID]
-			       \        \
-			        [US1.2]  [US2.2]
-
-			to
-			         [US1.1]
-                                /          [US1.2*]
-                               /          /
-			   [DS]----------<
-			       \          \
-			        \          [US1.3*]
-				 [US1.4*]
-
-			* - note that the nodes are now iterated in the order
-			    1.1, 2.1, 2.2, 1.2.  2.1, 2.2 and 1.2 have been
-			    renumbered to 1.2, 1.3, and 1.4, respectively, 
-			    to account for the new order of the upstream nodes.
-			*/			 
-//			if (IOUtil.testing()) {
-//				Message.printStatus(2, "", "" + id + " is an upstream node to be deleted from " 
-//					+ nodes[i].getCommonID());
-//			}
-			nodes[i].clearUpstreamNodeIDs();
-			for (int j = 0; j < pos; j++) {	
-				// for all the nodes in the upstream array that come before the deleted node, nothing
-				// needs changed.  Add them as normal.  In the above diagram, these nodes are equivalent
-				// to 1.1.
-				nodes[i].addUpstreamNodeID(usid[j]);
-
-//				if (IOUtil.testing()) {
-//					Message.printStatus(2, "", 
-//						" [1] - adding " 
-//						+ usid[j] + " upstream to " 
-//						+ nodes[i].getCommonID());
-//				}
-			}
-			for (int j = 0; j < delUsid.length; j++) {
-				// at this point these nodes are being added
-				// at the position of the deleted node.  These
-				// are the upstream nodes of the deleted node.
-				// In the above diagram, these nodes are
-				// equivalent to 2.1/1.2 and 2.2/1.3.
-				nodes[i].addUpstreamNodeID(delUsid[j]);
-
-//				if (IOUtil.testing()) {
-//					Message.printStatus(2, "", 
-//						" [2] - adding " 
-//						+ delUsid[j] + " upstream to " 
-//						+ nodes[i].getCommonID());
-//				}
-			}
-			for (int j = pos + 1; j < usid.length; j++) {
-				// now add the rest of the original upstream
-				// nodes, which now are after the upstream
-				// nodes inherited from the deleted node.
-				// In the above diagram, these nodes are
-				// equivalent to 1.2/1.4.
-				nodes[i].addUpstreamNodeID(usid[j]);
-
-//				if (IOUtil.testing()) {
-//					Message.printStatus(2, "", 
-//						" [3] - adding " 
-//						+ usid[j] + " upstream to " 
-//						+ nodes[i].getCommonID());
-//				}
-			}
-		}
-	}
-
-	// finally, the nodes are actually re-linked to one another by means
-	// of the stored IDs.
-
-	String dsid = null;
-	for (int i = 0; i < size; i++) {
-		dsid = nodes[i].getDownstreamNodeID();
-		usid = nodes[i].getUpstreamNodeIDs();
-
-//		if (IOUtil.testing()) {
-//			Message.printStatus(2, "", "  '" 
-//				+ nodes[i].getCommonID() + "'");
-//			Message.printStatus(2, "", "     DS: '" + dsid + "'");
-//			for (int j = 0; j < usid.length; j++) {
-//				Message.printStatus(2, "", "     US[" + j 
-//					+ "]: '" + usid[j] + "'");
-//			}
-//		}
-
-		// get the downstream and upstream node IDs and then loop 
-		// through all the nodes, connecting the nodes with matching 
-		// IDs to the currently-iterating node.
-
-		if (dsid != null && !dsid.equalsIgnoreCase("null")) {
-			for (int j = 0; j < size; j++) {
-				if (nodes[j].getCommonID().equals(dsid)) {
-					nodes[i].setDownstreamNode(nodes[j]);
-					j = size + 1;
-				}
-			}
-		}
-		
-		for (int j = 0; j < usid.length; j++) {
-//			if (IOUtil.testing()) {
-//				Message.printStatus(2, "", 
-//					"Connecting '" + usid[j] + "'");
-//			}
-			for (int k = 0; k < size; k++) {	
-//				if (IOUtil.testing()) {
-//					Message.printStatus(2, "", 
-//						"    [" + k + "]: '"
-//						+ nodes[k].getCommonID() + "'");
-//				}
-				if (nodes[k].getCommonID().equals(usid[j])) {
-					nodes[i].addUpstreamNode(nodes[k]);
-					k = size + 1;
-				}
-			}
-		}
-		if (IOUtil.testing()) {
-			Message.printStatus(2, "", "  TSC (" 
-				+ nodes[i].getCommonID() + "): " 
-				+ nodes[i].getTributaryNumber() + " - " 
-				+ nodes[i].getSerial() + " - "
-				+ nodes[i].getComputationalOrder());
-		}
+	int position = updateNodeIndexesForDeletedNode(nodes, node, sameOrder && found && isTributaryOrderConsistent(dsNode));
+	// The nodes before the deleted node in computational order have one less node after them and the nodes after it
+	// have one less node before them.
+	renumberNodes(position, position);
+	if (maxReachCurrent) {
+		__maxReachCounterVersion = getStructureVersion();
 	}
-	
-	// put the nodes into a vector in order to use the setNetworkFromNodes() method.
-
-	v = new Vector<HydrologyNode>();
-	for (int i = 0; i < size; i++) {
-		v.add(nodes[i]);
-	}	
-
-	setNetworkFromNodes(v);
+	// Keep the identifier counts, only removing the deleted node.  Suffixes that were in use may now be available.
+	nodeIdCounts.put(id, nodeIdCounts.get(id) - 1);
+	__nodeIdCounts = nodeIdCounts;
+	__nodeIdCountVersion = getStructureVersion();
+	__nodeIdSuffixes = new HashMap<String,int[]>();
 }
 
 /**
@@ -1865,69 +1792,19 @@ GRLimits returned will be GRLimits(0, 0, 1, 1);
 */
 public GRLimits determineExtentFromNetworkData( )
 {
-	double lx = Double.NaN;
-	double rx = Double.NaN;
-	double by = Double.NaN;
-	double ty = Double.NaN;	
-	// TODO -- eliminate the need for hold nodes -- they signify an error in the network.
-	HydrologyNode holdNode = null;
-
-	HydrologyNode node = getMostUpstreamNode();	
-
-	boolean done = false;
-
-	double x, y;
-	while (!done) {
-		x = node.getX();
-		y = node.getY();
-		if ( !Double.isNaN(x) ) {
-			if ( Double.isNaN(lx) || (x < lx) ) {
-				lx = x;
-			}
-			if ( Double.isNaN(rx) || (x > rx) ) {
-				rx = x;
-			}
-		}
-		if ( !Double.isNaN(y)) {
-			if ( Double.isNaN(by) || (y < by) ) {
-				by = y;
-			}
-			if ( Double.isNaN(ty) || (y > ty) ) {
-				ty = y;
-			}
-		}
-			
-		if (node.getType() == HydrologyNode.NODE_TYPE_END) {
-			done = true;
-		}		
-		else if (node == holdNode) {
-			done = true;
-		}
-
-		holdNode = node;	
-		node = getDownstreamNode(node, POSITION_COMPUTATIONAL);		
-	}
-
-	int count = 0;
+	// The extent is maintained by the index of node positions as nodes are moved,
+	// so the network does not need to be traversed each time.  Getting the extent does not build the grid
+	// that is used by the editor to find nodes by location.
+	double [] extent = getSpatialIndex().getExtent();
+	double lx = extent[0];
+	double by = extent[1];
+	double rx = extent[2];
+	double ty = extent[3];
 
 	// Check to make sure that the bounds were determined properly.
 	// If for any reason none of the nodes have valid values, then 
-	// the rest of the code screw up.  If any of the following are true ...
-
-	if (lx == Double.MAX_VALUE) {
-		count++;
-	}
-	if (rx == Double.MIN_VALUE) {
-		count++;
-	}
-	if (by == Double.MAX_VALUE) {
-		count++;
-	}
-	if (ty == Double.MIN_VALUE) {
-		count++;
-	}
-
-	if (count != 0) {
+	// the rest of the code screw up.
+	if (Double.isNaN(lx) || Double.isNaN(rx) || Double.isNaN(by) || Double.isNaN(ty)) {
 		return new GRLimits(0, 0, 1, 1);
 	}
 
@@ -2765,40 +2642,6 @@ private double[] findGeolocCoordinates(int geoloc_num) {
 }
 */
 
-/**
-Finds the highest serial number value in the network, starting from the 
-specified node.  Used to determine the serial number for a new node added to the network.
-@param node the node from which to begin searching for the highest serial value.  Can be null.
-@param highest the highest value so far found in the search.
-@return the highest serial number value in the network, starting with the
-specified node and going through all the nodes upstream of it.
-*/
-private int findHighestUpstreamSerial(HydrologyNode node, int highest) {
-	if (node == null) {
-		return highest;
-	}
-
-	int serial = node.getSerial();
-	if (serial > highest) {
-		highest = serial;
-	}
-
-	List<HydrologyNode> v = node.getUpstreamNodes();
-	if (v != null) {
-		int size = v.size();
-		int temp = -1;
-		HydrologyNode tempNode = null;
-		for (int i = 0; i < size; i++) {
-			tempNode = v.get(i);
-			temp = findHighestUpstreamSerial(tempNode, highest);
-			if (temp > highest) {
-				highest = temp;
-			}
-		}
-	}
-	return highest;
-}
-
 /**
 Finds the two most-downstream consecutive nodes on the main stem that have valid locations.
 @return the two most-downstream consecutive nodes with valid locations.  The
@@ -2844,6 +2687,18 @@ private HydrologyNode[] findLastMainStemValidNodes() {
 	return nodes;
 }
 
+/**
+Find the node nearest to a point, for example to find the node closest to the mouse cursor.
+A grid index of node positions is used so that only nodes near the point are checked.
+@param x X-coordinate of the point, in data units.
+@param y Y-coordinate of the point, in data units.
+@param maxDistance the maximum distance from the point to the node coordinates.
+@return the nearest node, or null if no node is within maxDistance.
+*/
+public HydrologyNode findNearestNode(double x, double y, double maxDistance) {
+	return getSpatialIndex().findNearestNode(x, y, maxDistance);
+}
+
 /**
 Returns the next downstream node from the specified node that is a physical 
 node.  This is used, for example, when outputting StateMod data, which does
@@ -2977,13 +2832,31 @@ public HydrologyNode findNode(int dataTypeToFind, int nodeTypeToFind, String dat
 
 /**
 Find a node given its common indentifier and a starting node.
+The search starts at the top of the system above the starting node and proceeds in computational order,
+not including the END node.  The node identifier index is used when possible rather than traversing the network.
 @param commonID Common identifier for node.
 @param node Starting node in tree.
 @return HydroBase_Node that is found or null if not found.
 */
 public HydrologyNode findNode(String commonID, HydrologyNode node) {
+	if ((commonID == null) || (node == null)) {
+		return null;
+	}
 	HydrologyNode nodePt;
 
+	String key = getNodeIdKey(commonID);
+	nodePt = getNodeIdIndex().get(key);
+	int startPos = getComputationalIndex(getUpstreamNode(node, POSITION_ABSOLUTE));
+	if ((startPos >= 0) && !__duplicateNodeIdKeys.contains(key)) {
+		// At most one node has the identifier so check whether it will be reached from the starting node.
+		if ((nodePt != null) && (nodePt.getType() != HydrologyNode.NODE_TYPE_END) &&
+			(getComputationalIndex(nodePt) >= startPos)) {
+			return nodePt;
+		}
+		return null;
+	}
+
+	// Duplicate identifiers or the starting node is not in the network so traverse the network.
 	for ( nodePt = getUpstreamNode(node, POSITION_ABSOLUTE);
 		nodePt != null;
 		nodePt = getDownstreamNode(nodePt,POSITION_COMPUTATIONAL)) {
@@ -3000,36 +2873,89 @@ public HydrologyNode findNode(String commonID, HydrologyNode node) {
 }
 
 /**
-Find a node given its common identifier.  The node head is used as a starting
-point to position the network at the top and then the network is traversed.
+Find a node given its common identifier.  The identifier is compared ignoring case and if more than one
+node matches, the first node in computational order is returned.  A node identifier index is used
+so that the network is only traversed when the index needs to be (re)built.
 @return HydroBase_Node that is found or null if not found.
 @param commonID Common identifier for node.
 */
 public HydrologyNode findNode(String commonID) {
-	HydrologyNode nodePt;
-	HydrologyNode tempNode;
+	if (commonID == null) {
+		return null;
+	}
+	return getNodeIdIndex().get(getNodeIdKey(commonID));
+}
 
-	nodePt = getMostUpstreamNode();
-	boolean done = false;
-	while (!done) {
-		if (nodePt.getCommonID().equalsIgnoreCase(commonID)) {
-			return nodePt;
-		}
-		// Break if at the bottom of the network.
-		if ((nodePt == null) || (nodePt.getType() == HydrologyNode.NODE_TYPE_END)) {
-			done = true;
-			break;
-		}
-		tempNode = nodePt;
-		nodePt = getDownstreamNode(nodePt, POSITION_COMPUTATIONAL);
-		if (tempNode == nodePt) {
-			done = true;
-		}		
+/**
+Find the node that contains a point (see HydrologyNode.contains()), for example to determine the node that was clicked.
+A grid index of node positions is used so that only nodes near the point are checked.
+@param x X-coordinate of the point, in data units.
+@param y Y-coordinate of the point, in data units.
+@return the first node in computational order that contains the point, or null if no node contains the point.
+*/
+public HydrologyNode findNodeAt(double x, double y) {
+	List<HydrologyNode> nodes = getSpatialIndex().findNodesAt(x, y);
+	if (nodes.size() == 0) {
+		return null;
 	}
+	return nodes.get(0);
+}
 
+/**
+Find a node in computational order with an identifier that exactly matches (case-sensitive) the given identifier.
+@param commonID the identifier of the node to find.
+@return the first node in computational order with the identifier, or null if not found.
+*/
+private HydrologyNode findNodeWithExactID(String commonID) {
+	if (commonID == null) {
+		return null;
+	}
+	HydrologyNode node = findNode(commonID);
+	if ((node != null) && node.getCommonID().equals(commonID) && !__duplicateNodeIdKeys.contains(getNodeIdKey(commonID))) {
+		// The node is the only one with the identifier, ignoring case.
+		return node;
+	}
+	for (HydrologyNode node2 : getComputationalOrderNodes()) {
+		if (node2.getCommonID().equals(commonID)) {
+			return node2;
+		}
+	}
 	return null;
 }
 
+/**
+Find the nodes that contain a point (see HydrologyNode.contains()).
+@param x X-coordinate of the point, in data units.
+@param y Y-coordinate of the point, in data units.
+@return the nodes that contain the point, in computational order.
+*/
+public List<HydrologyNode> findNodesAt(double x, double y) {
+	return getSpatialIndex().findNodesAt(x, y);
+}
+
+/**
+Find the nodes with X and Y coordinates in a range, using the grid index of node positions.
+@param minX minimum X-coordinate, in data units.
+@param minY minimum Y-coordinate, in data units.
+@param maxX maximum X-coordinate, in data units.
+@param maxY maximum Y-coordinate, in data units.
+@return the nodes with coordinates in the range, in computational order.
+*/
+List<HydrologyNode> findNodesInRange(double minX, double minY, double maxX, double maxY) {
+	return getSpatialIndex().findNodesInRange(minX, minY, maxX, maxY);
+}
+
+/**
+Find the nodes that are within limits (see HydrologyNode.isWithinLimits()), for example for rubber-band selection.
+A grid index of node positions is used so that only nodes near the limits are checked.
+@param limits the limits to check, in the units of the node coordinates multiplied by scale.
+@param scale the scale value of the drawing area.
+@return the nodes within the limits, in computational order.
+*/
+public List<HydrologyNode> findNodesWithinLimits(GRLimits limits, double scale) {
+	return getSpatialIndex().findNodesWithinLimits(limits, scale);
+}
+
 /**
 Returns the reach's confluence and returns its next computational node (in the next reach)
 @return the the reach's confluence and return its next computational node (in the next reach).
@@ -3041,6 +2967,9 @@ public static HydrologyNode findReachConfluenceNext(HydrologyNode node) {
 	HydrologyNode nodePt2;
 	int dl = 15;
 
+	// Loop rather than recursing when it is necessary to back up to the parent reach,
+	// so that deep networks do not overflow the stack.
+	while (true) {
 	// First check to see if we are on the main stem and there are no more
 	// upstream nodes.  If there are none, then we are at the end of the system...
 	if ((node.getReachCounter() == 1) && (node.getNumUpstreamNodes() == 0)){
@@ -3139,9 +3068,10 @@ public static HydrologyNode findReachConfluenceNext(HydrologyNode node) {
 		if (Message.isDebugOn) {
 			Message.printDebug(dl, routine, "Node \"" + nodePt2.getCommonID() + "\" has nupstream=" 
 				+ nodePt2.getNumUpstreamNodes() + " and found most upstream node \""
-				+ node.getCommonID() + "\" in reach - recursing");
+				+ node.getCommonID() + "\" in reach - going to parent reach");
 		}
-		return findReachConfluenceNext(nodePt2);
+		node = nodePt2;
+	}
 	}
 }
 
@@ -3200,8 +3130,9 @@ set 'recursing' to false -- will be set to true if this method recursively calls
 @param node the node from which to look upstream
 @param upstreamFlowNodeI interface to evaluate StateMod_PrfGageData - this is needed for special
 functionality when processing StateMod_StreamEstimate_Coefficients in StateDMI (indicates nodes
-that should be treated as upstream gages).
+that should be treated as upstream gages).  If null, only natural flow FLOW nodes are upstream flow nodes.
 @param recursing false if calling from outside this method, true if calling recursively.
+@see #findUpstreamFlowNodesForAllNodes(UpstreamFlowNodeI)
 */
 public List<HydrologyNode> findUpstreamFlowNodes(List<HydrologyNode> upstreamFlowNodes,
 	HydrologyNode node, UpstreamFlowNodeI upstreamFlowNodeI, boolean recursing)
@@ -3320,7 +3251,7 @@ public List<HydrologyNode> findUpstreamFlowNodes(List<HydrologyNode> upstreamFlo
 		// This originally worked for makenet and should work for the
 		// admin tool now that we are using natural flow nodes...
 		else if (((nodePt.getType() == HydrologyNode.NODE_TYPE_FLOW) && nodePt.getIsNaturalFlow()) ||
-			(upstreamFlowNodeI.isSetprfTarget( nodePt.getCommonID()) >= 0)) {
+			((upstreamFlowNodeI != null) && (upstreamFlowNodeI.isSetprfTarget( nodePt.getCommonID()) >= 0))) {
 			// We are in a reach.  If this is a flow node, then
 			// update the list and return since we are done with the reach(tributary)...
 			if (Message.isDebugOn) {
@@ -3356,6 +3287,97 @@ public List<HydrologyNode> findUpstreamFlowNodes(List<HydrologyNode> upstreamFlo
 	return upstreamFlowNodes;
 }
 
+/**
+Looks for the first upstream flow node on the current stem and the first upstream flow node on any of the
+tributaries to this stream, adding the nodes to a set (see findUpstreamFlowNodes(List,HydrologyNode,UpstreamFlowNodeI,boolean)).
+The set is checked against the network once and the nodes are then added by computational order position.
+@param upstreamFlowNodes the set to add the nodes to, or null to create a new set.
+@param node the node from which to look upstream
+@param upstreamFlowNodeI interface to evaluate StateMod_PrfGageData (see findUpstreamFlowNodes()), can be null.
+@return the set of upstream flow nodes (same set as upstreamFlowNodes if it was specified).
+@exception IllegalArgumentException if the set is for a different network or the network has changed,
+or if a node that is found is not in the computational order of the network.
+*/
+public NodeSet findUpstreamFlowNodes(NodeSet upstreamFlowNodes, HydrologyNode node,
+	UpstreamFlowNodeI upstreamFlowNodeI) {
+	if (upstreamFlowNodes == null) {
+		upstreamFlowNodes = new NodeSet(this);
+	}
+	upstreamFlowNodes.checkNetwork(this);
+	for (HydrologyNode upstreamFlowNode : findUpstreamFlowNodes(new ArrayList<HydrologyNode>(), node,
+		upstreamFlowNodeI, false)) {
+		upstreamFlowNodes.addIndex(getComputationalIndexInNetwork(upstreamFlowNode));
+	}
+	return upstreamFlowNodes;
+}
+
+/**
+Find the upstream flow nodes for every node in the network, with the same results as calling
+findUpstreamFlowNodes() for each node.  The same walk upstream from each node is done, but the result of the
+walk from each node that is passed and the result for each tributary are saved and reused by the walks for other
+nodes, so that each part of the network is walked once, and upstreamFlowNodeI is called at most once per node
+(see UpstreamFlowNodeFinder).
+@param upstreamFlowNodeI interface to evaluate StateMod_PrfGageData (see findUpstreamFlowNodes()), can be null.
+@return an array with an element for each node, in the order of getNodeList(), where each element contains the
+positions in getNodeList() of the upstream flow nodes, in the order that findUpstreamFlowNodes() returns them.
+Confluence nodes are not valid starting nodes and have no upstream flow nodes.
+Arrays may be shared between nodes and must not be modified.
+*/
+public int [][] findUpstreamFlowNodesForAllNodes(UpstreamFlowNodeI upstreamFlowNodeI) {
+	String routine = getClass().getSimpleName() + ".findUpstreamFlowNodesForAllNodes";
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	int [][] upstreamFlowNodes = new UpstreamFlowNodeFinder(this, nodes, upstreamFlowNodeI).findUpstreamFlowNodesForAllNodes();
+	if (upstreamFlowNodes == null) {
+		// Network is not consistent so the computational order cannot be relied on.
+		Message.printWarning(3, routine, "Network connectivity is not consistent - finding upstream flow nodes for each node.");
+		return findUpstreamFlowNodesForEachNode(nodes, upstreamFlowNodeI);
+	}
+	return upstreamFlowNodes;
+}
+
+/**
+Find the upstream flow nodes for every node in the network by calling findUpstreamFlowNodes() for each node,
+used by findUpstreamFlowNodesForAllNodes() when the network connectivity is not consistent.
+upstreamFlowNodeI is called at most once per node identifier.
+@param nodes nodes in computational order.
+@param upstreamFlowNodeI interface to evaluate StateMod_PrfGageData (see findUpstreamFlowNodes()), can be null.
+@return the upstream flow nodes for each node, as described for findUpstreamFlowNodesForAllNodes().
+*/
+private int [][] findUpstreamFlowNodesForEachNode(HydrologyNode [] nodes, final UpstreamFlowNodeI upstreamFlowNodeI) {
+	UpstreamFlowNodeI cachedUpstreamFlowNodeI = null;
+	if (upstreamFlowNodeI != null) {
+		final Map<String,Integer> targetMap = new HashMap<>();
+		cachedUpstreamFlowNodeI = new UpstreamFlowNodeI() {
+			public int isSetprfTarget(String commonID) {
+				Integer target = targetMap.get(commonID);
+				if (target == null) {
+					target = Integer.valueOf(upstreamFlowNodeI.isSetprfTarget(commonID));
+					targetMap.put(commonID, target);
+				}
+				return target.intValue();
+			}
+		};
+	}
+	int [] noNodes = new int[0];
+	int [][] upstreamFlowNodes = new int[nodes.length][];
+	List<HydrologyNode> flowNodeList = new Vector<HydrologyNode>();
+	int nodeType;
+	for (int i = 0; i < nodes.length; i++) {
+		nodeType = nodes[i].getType();
+		if ((nodeType == HydrologyNode.NODE_TYPE_CONFLUENCE) || (nodeType == HydrologyNode.NODE_TYPE_XCONFLUENCE)) {
+			upstreamFlowNodes[i] = noNodes;
+			continue;
+		}
+		flowNodeList.clear();
+		findUpstreamFlowNodes(flowNodeList, nodes[i], cachedUpstreamFlowNodeI, false);
+		upstreamFlowNodes[i] = new int[flowNodeList.size()];
+		for (int iFlow = 0; iFlow < upstreamFlowNodes[i].length; iFlow++) {
+			upstreamFlowNodes[i][iFlow] = getComputationalIndex(flowNodeList.get(iFlow));
+		}
+	}
+	return upstreamFlowNodes;
+}
+
 /**
 Looks for the upstream nodes on the current stem and on any of the tributaries to this stream.
 Currently all node types are added, including confluence, blank, etc.
@@ -3375,6 +3397,23 @@ public List<HydrologyNode> findUpstreamNodes ( List<HydrologyNode> foundNodes,
 {	int dl = 1;
 	String routine = getClass().getSimpleName() + ".findUpstreamNodes";
 
+	if ( foundNodes == null ) {
+		foundNodes = new Vector<HydrologyNode>();
+	}
+	if ( (upstreamNodeIdsToStop == null) || (upstreamNodeIdsToStop.size() == 0) ) {
+		// All upstream nodes are found, which is a contiguous range of the upstream tree order.
+		int start = getUpstreamTreeStart(node);
+		if ( start >= 0 ) {
+			if ( !addFirstNode ) {
+				++start;
+			}
+			for ( int i = start, end = getUpstreamTreeEnd(node); i < end; i++ ) {
+				foundNodes.add(__upstreamTreeNodes[i]);
+			}
+			return foundNodes;
+		}
+	}
+
 	// Loop through upstream nodes.
 	// - if the node has no upstream nodes, then return
 	// - if a node has multiple upstream nodes, call this method recursively
@@ -3467,10 +3506,243 @@ public List<HydrologyNode> findUpstreamNodes ( List<HydrologyNode> foundNodes,
 			for ( HydrologyNode upstreamNode : upstreamNodes ) {
 				findUpstreamNodes ( foundNodes, upstreamNode, addFirstNode2, upstreamNodeIdsToStop );
 			}
-			break; // Will cause a return of found nodes
+			break; // Will cause a return of found nodes
+		}
+	}
+	return foundNodes;
+}
+
+/**
+Find the nodes upstream of a node, adding them to a set.  The nodes are the same as for
+findUpstreamNodes(List,HydrologyNode,boolean,List) but are determined from the upstream tree order
+(see findUpstreamNodesForNodes()) without traversing the network.
+The set is iterated in computational order rather than the order of the list.
+@param foundNodes the set to add the nodes to, or null to create a new set.
+@param node the node from which to look upstream.
+@param addFirstNode if true, include the node in the set.
+@param upstreamNodeIdsToStop list of upstream node identifiers to include but not go past.
+If the node ID is prefixed by "-", do not add the upstream node ID to the set (default is to add).
+@return set of found nodes (same set as foundNodes if it was specified).
+*/
+public NodeSet findUpstreamNodes ( NodeSet foundNodes, HydrologyNode node, boolean addFirstNode,
+	List<String> upstreamNodeIdsToStop )
+{	if ( foundNodes == null ) {
+		foundNodes = new NodeSet(this);
+	}
+	foundNodes.checkNetwork(this);
+	List<List<String>> upstreamNodeIdsToStopList = null;
+	if ( upstreamNodeIdsToStop != null ) {
+		upstreamNodeIdsToStopList = new ArrayList<List<String>>(1);
+		upstreamNodeIdsToStopList.add(upstreamNodeIdsToStop);
+	}
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>(1);
+	nodes.add(node);
+	foundNodes.addRanges(findUpstreamNodesForNodes(nodes, addFirstNode, upstreamNodeIdsToStopList, false)[0]);
+	return foundNodes;
+}
+
+/**
+Find the nodes upstream of each of a number of nodes, with the same results as calling findUpstreamNodes()
+for each node, but without traversing the network for each node.
+All the nodes upstream of a node are a contiguous range of the upstream tree order (see getUpstreamTreeNodes()),
+which is built once for the network, and the nodes upstream of a stop node are a contiguous range within it.
+The result for each node is therefore a few ranges, determined from the positions of the stop nodes, and the time
+for each node depends only on the number of stop nodes and not on the number of upstream nodes.
+Each distinct stop list (by identity) is looked up once for all the nodes that use it.
+If a node is not in the upstream tree (for example if the network is not a proper tree), findUpstreamNodes() is
+called for the node, and any of the nodes that it finds that are not in the computational order of the network
+(see getNodeList()) are omitted from the result, because the result references nodes by computational order position.
+@param nodes the nodes from which to look upstream.
+@param addFirstNode if true, include each node in its result.
+@param upstreamNodeIdsToStop for each node, the list of upstream node identifiers to include but not go past,
+with the same meaning as for findUpstreamNodes() (including the "-" prefix).
+Can be null if there are no stop nodes, and individual lists can be null or shared between nodes.
+@param parallel if true, determine the results for the nodes in parallel using the common ForkJoinPool.
+@return the nodes upstream of each node, in the order of the nodes.
+*/
+public UpstreamNodeRanges [] findUpstreamNodesForNodes ( List<HydrologyNode> nodes, final boolean addFirstNode,
+	List<List<String>> upstreamNodeIdsToStop, boolean parallel )
+{	if ( (upstreamNodeIdsToStop != null) && (upstreamNodeIdsToStop.size() != nodes.size()) ) {
+		throw new IllegalArgumentException ( "Number of stop lists (" + upstreamNodeIdsToStop.size() +
+			") does not match the number of nodes (" + nodes.size() + ")." );
+	}
+	final HydrologyNode [] computationalOrderNodes = getComputationalOrderNodes();
+	refreshUpstreamTree();
+	final int [] treeIndexes = __upstreamTreeIndexes;
+	final int [] treeEnd = __upstreamTreeEnd;
+	final UpstreamNodeRanges [] results = new UpstreamNodeRanges[nodes.size()];
+	// Look up the stop nodes for each distinct stop list, and handle nodes that are not in the upstream tree
+	// before processing the other nodes, which may be done in parallel.
+	final int [] nodeStarts = new int[results.length];
+	final int [][][] nodeStops = new int[results.length][][];
+	Map<List<String>,int[][]> stopsForList = new IdentityHashMap<List<String>,int[][]>();
+	Map<String,int[]> duplicateNodeIdPositions = null;
+	HydrologyNode node;
+	List<String> stopIds;
+	int [][] stops;
+	for ( int i = 0; i < results.length; i++ ) {
+		node = nodes.get(i);
+		stopIds = (upstreamNodeIdsToStop == null) ? null : upstreamNodeIdsToStop.get(i);
+		nodeStarts[i] = getUpstreamTreeStart(node);
+		if ( nodeStarts[i] < 0 ) {
+			List<HydrologyNode> foundNodes = findUpstreamNodes(new ArrayList<HydrologyNode>(), node, addFirstNode, stopIds);
+			// Nodes that are not in the computational order cannot be referenced by position and are omitted.
+			int [] order = new int[foundNodes.size()];
+			int count = 0;
+			for ( int j = 0; j < order.length; j++ ) {
+				order[count] = getComputationalIndex(foundNodes.get(j));
+				if ( order[count] >= 0 ) {
+					++count;
+				}
+			}
+			results[i] = new UpstreamNodeRanges(order, computationalOrderNodes, new int[] { 0, count }, 1);
+			continue;
+		}
+		if ( (stopIds == null) || stopIds.isEmpty() ) {
+			continue;
+		}
+		stops = stopsForList.get(stopIds);
+		if ( stops == null ) {
+			if ( (duplicateNodeIdPositions == null) && !__duplicateNodeIdKeys.isEmpty() ) {
+				duplicateNodeIdPositions = getDuplicateNodeIdPositions();
+			}
+			stops = findUpstreamStopPositions(stopIds, duplicateNodeIdPositions);
+			stopsForList.put(stopIds, stops);
+		}
+		nodeStops[i] = stops;
+	}
+	IntFunction<UpstreamNodeRanges> findRanges = new IntFunction<UpstreamNodeRanges>() {
+		public UpstreamNodeRanges apply ( int i ) {
+			if ( results[i] != null ) {
+				return results[i];
+			}
+			return findUpstreamNodeRanges(treeIndexes, treeEnd, computationalOrderNodes, nodeStarts[i],
+				addFirstNode, nodeStops[i]);
+		}
+	};
+	if ( parallel ) {
+		Arrays.parallelSetAll(results, findRanges);
+	}
+	else {
+		Arrays.setAll(results, findRanges);
+	}
+	return results;
+}
+
+/**
+Determine the ranges of the upstream tree order for the nodes upstream of a node.
+@param treeIndexes computational order positions of the nodes in upstream tree order.
+@param treeEnd position after the last node upstream of each node in upstream tree order,
+by computational order position.
+@param computationalOrderNodes the nodes in computational order.
+@param start position of the node in upstream tree order.
+@param addFirstNode if true, include the node.
+@param stops positions of the stop nodes in upstream tree order, sorted, and for each stop node 1 if
+the node is included or 0 if not, or null if there are no stop nodes.
+@return the ranges for the nodes upstream of the node.
+*/
+private static UpstreamNodeRanges findUpstreamNodeRanges ( int [] treeIndexes, int [] treeEnd,
+	HydrologyNode [] computationalOrderNodes, int start, boolean addFirstNode, int [][] stops )
+{	int end = treeEnd[treeIndexes[start]];
+	if ( stops == null ) {
+		return new UpstreamNodeRanges(treeIndexes, computationalOrderNodes,
+			new int[] { (addFirstNode ? start : (start + 1)), end }, 1);
+	}
+	int [] stopPositions = stops[0];
+	int [] stopIncludes = stops[1];
+	int stop = Arrays.binarySearch(stopPositions, start);
+	if ( addFirstNode && (stop >= 0) ) {
+		// The first node is a stop node, which is only checked if the node is included, as in findUpstreamNodes().
+		return new UpstreamNodeRanges(treeIndexes, computationalOrderNodes,
+			new int[] { start, start + stopIncludes[stop] }, 1);
+	}
+	stop = (stop < 0) ? (-stop - 1) : (stop + 1);
+	int [] ranges = new int[8];
+	int rangeCount = 0;
+	int rangeStart = addFirstNode ? start : (start + 1);
+	int stopPosition;
+	for ( ; (stop < stopPositions.length) && (stopPositions[stop] < end); stop++ ) {
+		stopPosition = stopPositions[stop];
+		if ( stopPosition < rangeStart ) {
+			// Upstream of a previous stop node.
+			continue;
+		}
+		if ( (rangeCount + 1)*2 > ranges.length ) {
+			ranges = Arrays.copyOf(ranges, ranges.length*2);
+		}
+		// Include the nodes up to the stop node, and the stop node unless its identifier had the "-" prefix,
+		// and then skip the nodes upstream of the stop node.
+		ranges[rangeCount*2] = rangeStart;
+		ranges[rangeCount*2 + 1] = stopPosition + stopIncludes[stop];
+		if ( ranges[rangeCount*2 + 1] > rangeStart ) {
+			++rangeCount;
+		}
+		rangeStart = treeEnd[treeIndexes[stopPosition]];
+	}
+	if ( end > rangeStart ) {
+		if ( (rangeCount + 1)*2 > ranges.length ) {
+			ranges = Arrays.copyOf(ranges, ranges.length*2);
+		}
+		ranges[rangeCount*2] = rangeStart;
+		ranges[rangeCount*2 + 1] = end;
+		++rangeCount;
+	}
+	return new UpstreamNodeRanges(treeIndexes, computationalOrderNodes, ranges, rangeCount);
+}
+
+/**
+Find the upstream tree positions of the nodes for a list of stop identifiers (see findUpstreamNodes()).
+A node matches the first identifier in the list that it matches, ignoring case, and is included in the results
+unless that identifier or an earlier identifier in the list has the "-" prefix, consistent with findUpstreamNodes().
+@param upstreamNodeIdsToStop list of upstream node identifiers to include but not go past.
+@param duplicateNodeIdPositions computational order positions of the nodes for identifiers that are used by more
+than one node, by case-insensitive key, or null if there are none.
+@return the upstream tree positions of the stop nodes, sorted, and for each stop node 1 if the node is
+included or 0 if not.
+*/
+private int [][] findUpstreamStopPositions ( List<String> upstreamNodeIdsToStop,
+	Map<String,int[]> duplicateNodeIdPositions )
+{	// Each stop node is stored as its position shifted left one bit plus the include flag, so that sorting
+	// keeps the flag with the position.
+	long [] stops = new long[upstreamNodeIdsToStop.size()];
+	Set<Integer> found = new HashSet<Integer>();
+	int count = 0;
+	boolean include = true;
+	String key;
+	HydrologyNode stopNode;
+	int [] stopNodePositions;
+	for ( String upstreamNodeIdToStop : upstreamNodeIdsToStop ) {
+		if ( upstreamNodeIdToStop.startsWith("-") ) {
+			upstreamNodeIdToStop = upstreamNodeIdToStop.substring(1);
+			include = false;
+		}
+		key = getNodeIdKey(upstreamNodeIdToStop);
+		stopNodePositions = (duplicateNodeIdPositions == null) ? null : duplicateNodeIdPositions.get(key);
+		if ( stopNodePositions == null ) {
+			stopNode = __nodeIdIndex.get(key);
+			if ( stopNode == null ) {
+				continue;
+			}
+			stopNodePositions = new int[] { getComputationalIndex(stopNode) };
+		}
+		for ( int stopNodePosition : stopNodePositions ) {
+			int treePosition = __upstreamTreeStart[stopNodePosition];
+			if ( found.add(treePosition) ) {
+				if ( count == stops.length ) {
+					stops = Arrays.copyOf(stops, count*2);
+				}
+				stops[count++] = ((long)treePosition << 1) | (include ? 1 : 0);
+			}
 		}
 	}
-	return foundNodes;
+	Arrays.sort(stops, 0, count);
+	int [] positions = new int[count];
+	int [] includes = new int[count];
+	for ( int i = 0; i < count; i++ ) {
+		positions[i] = (int)(stops[i] >> 1);
+		includes[i] = (int)(stops[i] & 1);
+	}
+	return new int[][] { positions, includes };
 }
 
 /**
@@ -3543,6 +3815,22 @@ public String formatWDID(String wd, String id, int nodeType) {
 	return wdid;
 }
 
+/**
+Return the next node when traversing to the absolute top of the system (see getUpstreamNode()).
+@param node node that has at least one upstream node.
+@return the upstream node that is followed to get to the top of the system.
+*/
+private static HydrologyNode getAbsoluteUpstreamNext(HydrologyNode node) {
+	if (node.getUpstreamOrder() == HydrologyNode.TRIBS_ADDED_FIRST) {
+		// We want the last one added (makenet order)...
+		return node.getUpstreamNode(node.getNumUpstreamNodes() - 1);
+	}
+	else {
+		// We want the first one added...
+		return node.getUpstreamNode(0);
+	}
+}
+
 /**
 Returns the list of annotations that accompany this network.  Guaranteed to be non-null.
 @return the list of annotations that accompany this network.
@@ -3564,40 +3852,95 @@ Returns a list of all the nodes in the network that are natural flow nodes.
 @return a list of all the nodes that are natural flow nodes.  The list is guaranteed to be non-null.
 */
 public List<HydrologyNode> getBaseflowNodes() {
-	List<HydrologyNode> v = new Vector<HydrologyNode>();
+	refreshNodeTypeIndexes();
+	return getNodesForPositions(__naturalFlowNodePositions);
+}
 
-	HydrologyNode node = getMostUpstreamNode();
-	// TODO -- eliminate the need for hold nodes -- they signify an error in the network.
-	HydrologyNode hold = null;
-	while (true) {
-		if (node == null) {
-			return v;
-		}
+/**
+Returns the bottom Y bound of a network read from XML.
+@return the bottom Y bound of a network read from XML.
+*/
+public double getBY() {
+	return __netBY;
+}
 
-		if (node.getIsNaturalFlow()) {
-			v.add(node);
+/**
+Return the position of the first node that is downstream of (or the same as) two nodes, using the node depth
+tables (see refreshNodeDepths()), which must be complete.
+The deeper node is moved downstream to the same depth and then both nodes are moved downstream by decreasing
+powers of 2 until just before they meet.
+@param index1 computational order position of the first node.
+@param index2 computational order position of the second node.
+@return the computational order position of the common downstream node, or -1 if there is none.
+*/
+private int getCommonDownstreamNodeIndex(int index1, int index2) {
+	int common1 = getDownstreamNodeIndex(index1, __nodeDepth[index1] - __nodeDepth[index2]);
+	int common2 = getDownstreamNodeIndex(index2, __nodeDepth[index2] - __nodeDepth[index1]);
+	if ((common1 < 0) || (common2 < 0)) {
+		return -1;
+	}
+	if (common1 != common2) {
+		for (int k = __nodeDownstreamAncestors.length - 1; k >= 0; k--) {
+			if (__nodeDownstreamAncestors[k][common1] != __nodeDownstreamAncestors[k][common2]) {
+				common1 = __nodeDownstreamAncestors[k][common1];
+				common2 = __nodeDownstreamAncestors[k][common2];
+			}
 		}
+		common1 = __nodeDownstreamAncestors[0][common1];
+	}
+	return common1;
+}
 
-		if (node.getType() == HydrologyNode.NODE_TYPE_END) {
-			return v;
-		}
-		
-		hold = node;
-		node = getDownstreamNode(node,POSITION_COMPUTATIONAL);
+/**
+Return the position of a node in the computational order of the network (see getComputationalOrderNodes()).
+@param node node to look up.
+@return the 0-based position of the node in computational order, or -1 if the node is not in the network.
+*/
+int getComputationalIndex(HydrologyNode node) {
+	refreshNodeIndexes();
+	Integer index = __computationalIndexMap.get(node);
+	if (index == null) {
+		return -1;
+	}
+	return index.intValue();
+}
 
-		// to avoid errors when the network is not built properly
-		if (hold == node) {
-			return v;
-		}
+/**
+Return the position of a node in the computational order of the network, for adding the node to a set
+that has already been checked against the network (see NodeSet.checkNetwork()).
+@param node node to look up.
+@return the 0-based position of the node in computational order.
+@exception IllegalArgumentException if the node is not in the computational order of the network.
+*/
+private int getComputationalIndexInNetwork(HydrologyNode node) {
+	int index = getComputationalIndex(node);
+	if (index < 0) {
+		throw new IllegalArgumentException("Node \"" + node.getCommonID() + "\" is not in the network.");
 	}
+	return index;
 }
 
 /**
-Returns the bottom Y bound of a network read from XML.
-@return the bottom Y bound of a network read from XML.
+Return the nodes in the network in computational order, from the most upstream node to the END node.
+This is the order that results from calling getDownstreamNode(node,POSITION_COMPUTATIONAL) starting with
+getMostUpstreamNode().  The array is cached and is rebuilt only when the network structure changes,
+and therefore must not be modified by the caller.
+@return the nodes in computational order, guaranteed to be non-null.
 */
-public double getBY() {
-	return __netBY;
+HydrologyNode [] getComputationalOrderNodes() {
+	refreshNodeIndexes();
+	return __computationalOrderNodes;
+}
+
+/**
+Return the version of the computational order, which changes only when nodes are added, removed or reordered,
+and not when node identifiers, types or flags change.  Used by NodeSet to check that sets are for the current
+network structure.
+@return the version of the computational order.
+*/
+long getComputationalOrderVersion() {
+	refreshNodeIndexes();
+	return __computationalOrderVersion;
 }
 
 /**
@@ -3646,18 +3989,30 @@ public static HydrologyNode getDownstreamNode(HydrologyNode node, int flag) {
 		// Think of the traversal as a "left-hand" traversal.  Always
 		// follow the first branch added since it is the most downstream
 		// computation-wise.  When we have no more downstream nodes we are at the bottom...
+		// The result is saved on each node that is passed so that later calls are fast.
+		long version = node.getStructureVersion();
+		HydrologyNode bottomNode = null;
 		nodePt = node;
-		if (nodePt.getDownstreamNode() == null) {
-			// Nothing below this node...
-			if (Message.isDebugOn) {
-				Message.printDebug(dl, routine, "Found absolute downstream: \"" + nodePt.getCommonID() + "\"");
+		while (true) {
+			bottomNode = nodePt.getAbsoluteDownstreamNode(version);
+			if ( bottomNode != null ) {
+				// Already found from a previous call.
+				break;
 			}
-			return nodePt;
+			if ( nodePt.getDownstreamNode() == null ) {
+				// Nothing below this node...
+				bottomNode = nodePt;
+				break;
+			}
+			nodePt = nodePt.getDownstreamNode();
 		}
-		else {	
-			// Follow the first reach entered for this node (the most downstream)...
-			return getDownstreamNode(nodePt.getDownstreamNode(), POSITION_ABSOLUTE);
+		for ( HydrologyNode stopNode = nodePt, nodePt2 = node; nodePt2 != stopNode; nodePt2 = nodePt2.getDownstreamNode() ) {
+			nodePt2.setAbsoluteDownstreamNode(bottomNode, version);
+		}
+		if (Message.isDebugOn) {
+			Message.printDebug(dl, routine, "Found absolute downstream: \"" + bottomNode.getCommonID() + "\"");
 		}
+		return bottomNode;
 	}
 	else if (flag == POSITION_COMPUTATIONAL) {
 		// We want to find the next computational downstream node.  Note
@@ -3777,6 +4132,25 @@ public static HydrologyNode getDownstreamNode(HydrologyNode node, int flag) {
 	}
 }
 
+/**
+Return the computational order position of the node a number of steps downstream of a node, using the node depths.
+refreshNodeDepths() must have been called and the depths must be complete.
+@param index computational order position of the starting node.
+@param steps number of steps downstream to move (if zero or negative, index is returned).
+@return the computational order position of the downstream node, or -1 if the end of the network is passed.
+*/
+private int getDownstreamNodeIndex(int index, int steps) {
+	for (int k = 0; (steps > 0) && (index >= 0); k++, steps >>= 1) {
+		if ((steps & 1) != 0) {
+			if (k >= __nodeDownstreamAncestors.length) {
+				return -1;
+			}
+			index = __nodeDownstreamAncestors[k][index];
+		}
+	}
+	return index;
+}
+
 /**
 Return the edge buffer values.
 @return the edge buffer values (left, right, top, bottom, in X,Y data units).
@@ -3786,6 +4160,16 @@ public double [] getEdgeBuffer ()
 	return this.__edgeBuffer;
 }
 
+/**
+Returns a list of all the nodes in the network that are import nodes.
+@return a list of all the nodes that are import nodes, in the order upstream to downstream.
+The list is guaranteed to be non-null.
+*/
+public List<HydrologyNode> getImportNodes() {
+	refreshNodeTypeIndexes();
+	return getNodesForPositions(__importNodePositions);
+}
+
 /**
 Return the name of the input file for this network, or null if not available (is being created).
 @return the name of the input file.
@@ -3848,13 +4232,38 @@ public double getLX() {
 	return __netLX;
 }
 
+/**
+Return the highest reach counter of the nodes in the network, used to number a new reach.
+The value is kept until the network structure changes (see __maxReachCounterVersion).
+@param nodes the nodes in computational order.
+@return the highest reach counter of the nodes.
+*/
+private int getMaxReachCounter(HydrologyNode [] nodes) {
+	long version = getStructureVersion();
+	if (__maxReachCounterVersion != version) {
+		int maxReach = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].getReachCounter() > maxReach) {
+				maxReach = nodes[i].getReachCounter();
+			}
+		}
+		__maxReachCounter = maxReach;
+		__maxReachCounterVersion = version;
+	}
+	return __maxReachCounter;
+}
+
 /**
 Returns the most upstream node in the network or null if not found.
 @return the most upstream node in the network or null if not found.
 */
 public HydrologyNode getMostUpstreamNode() {
+	if (__nodeHead == null) {
+		return null;
+	}
 	// Go to the bottom of the system so that we can get to the top of
-	// the main stem...
+	// the main stem.  The absolute traversals save their results on the nodes that are
+	// passed, so the network is only walked the first time after the network structure changes...
 	HydrologyNode node = null;
 	node = getDownstreamNode(__nodeHead, POSITION_ABSOLUTE);
 
@@ -3891,6 +4300,16 @@ public int getNodeCount() {
 	return __nodeCount;
 }
 
+/**
+Returns the number of nodes in the network of a given type.
+@param type the type of nodes (as defined in HydroBase_Node.NODE_*) to count.
+If -1, count all nodes that are model nodes (see getNodesForType()).
+@return the number of nodes that are the specified type.
+*/
+public int getNodeCountForType(int type) {
+	return getNodeTypePositions(type).length;
+}
+
 /**
 Returns a list of String, each of which is a line telling how many of
 a certain kind of node is present in the network.  
@@ -3917,7 +4336,7 @@ public List<String> getNodeCountsVector() {
 	String plural = "s";
 	for (int i = 0; i < total; i++) {
 		plural = "s";
-		count = getNodesForType(types[i]).size();
+		count = getNodeCountForType(types[i]);
 		if (count == 1) {
 			plural = "";
 		}
@@ -3927,6 +4346,91 @@ public List<String> getNodeCountsVector() {
 	return v;
 }
 
+/**
+Return the computational order positions of the nodes for identifiers that are used by more than one node.
+@return the computational order positions of the nodes for each duplicate identifier, by case-insensitive key
+(see getNodeIdKey()).
+*/
+private Map<String,int[]> getDuplicateNodeIdPositions() {
+	refreshNodeIndexes();
+	Map<String,int[]> positions = new HashMap<String,int[]>();
+	HydrologyNode [] nodes = __computationalOrderNodes;
+	String key;
+	int [] keyPositions;
+	for (int i = 0; i < nodes.length; i++) {
+		key = getNodeIdKey(nodes[i].getCommonID());
+		if (__duplicateNodeIdKeys.contains(key)) {
+			keyPositions = positions.get(key);
+			keyPositions = (keyPositions == null) ? new int[1] : Arrays.copyOf(keyPositions, keyPositions.length + 1);
+			keyPositions[keyPositions.length - 1] = i;
+			positions.put(key, keyPositions);
+		}
+	}
+	return positions;
+}
+
+/**
+Return the number of nodes with each identifier (exact match), rebuilding the counts if the network has changed
+since they were built.
+@return the node identifier counts, guaranteed to be non-null.
+*/
+private HydrologyNodeIdTable getNodeIdCounts() {
+	// Apply any identifier changes to the counts.
+	refreshNodeIndexes();
+	if ((__nodeIdCounts != null) && (__nodeIdCountVersion == getStructureVersion())) {
+		return __nodeIdCounts;
+	}
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	HydrologyNodeIdTable nodeIdCounts = new HydrologyNodeIdTable(nodes.length);
+	String commonID;
+	for (int i = 0; i < nodes.length; i++) {
+		commonID = nodes[i].getCommonID();
+		if (commonID != null) {
+			nodeIdCounts.put(commonID, Math.max(nodeIdCounts.get(commonID), 0) + 1);
+		}
+	}
+	__nodeIdCounts = nodeIdCounts;
+	__nodeIdCountVersion = getStructureVersion();
+	__nodeIdSuffixes = new HashMap<String,int[]>();
+	return nodeIdCounts;
+}
+
+/**
+Return the node identifier index, rebuilding it if the network has changed since it was built.
+@return the index of nodes by case-insensitive identifier key (see getNodeIdKey()), guaranteed to be non-null.
+*/
+private Map<String,HydrologyNode> getNodeIdIndex() {
+	refreshNodeIndexes();
+	return __nodeIdIndex;
+}
+
+/**
+Return the key used to look up a node identifier in the node identifier index.
+Two identifiers have the same key exactly when String.equalsIgnoreCase() returns true for them,
+without depending on the default locale.
+@param commonID node common identifier.
+@return the key for the identifier.
+*/
+static String getNodeIdKey(String commonID) {
+	int length = commonID.length();
+	char [] key = null;
+	char c, cKey;
+	for (int i = 0; i < length; i++) {
+		c = commonID.charAt(i);
+		cKey = Character.toLowerCase(Character.toUpperCase(c));
+		if (cKey != c) {
+			if (key == null) {
+				key = commonID.toCharArray();
+			}
+			key[i] = cKey;
+		}
+	}
+	if (key == null) {
+		return commonID;
+	}
+	return new String(key);
+}
+
 /**
 Returns the head node in the network (the most downstream).
 @return the head node in the network.
@@ -3958,35 +4462,13 @@ throws Exception {
 			return ids;
 		}
 	
-		boolean nodeTypeMatches = false;
-		HydrologyNode nodePt = null;
-		int j;
 		int nodeType = 0;
-		int nnodeTypes = nodeTypes.length;
 		String commonID = null;
 		List<String> v = null;
 	
-		// Traverse from upstream to downstream...
-		for (nodePt = getUpstreamNode(getDownstreamNode(__nodeHead, POSITION_ABSOLUTE), POSITION_ABSOLUTE);
-			nodePt != null;
-			nodePt = getDownstreamNode(nodePt, POSITION_COMPUTATIONAL)) {
+		// Nodes of the requested types, from upstream to downstream...
+		for (HydrologyNode nodePt : getNodesForTypes(nodeTypes)) {
 			nodeType = nodePt.getType();
-			// See if the nodeType matches one that we are interested in...
-			nodeTypeMatches = false;
-			for (j = 0; j < nnodeTypes; j++) {
-				if (nodeTypes[j] == nodeType) {
-					nodeTypeMatches = true;
-					break;
-				}
-			}
-			if (!nodeTypeMatches) {
-				// No need to check further...
-				if (nodePt.getDownstreamNode() == null) {
-					// End...
-					break;
-				}
-				continue;
-			}
 			// Use the node type of the HydroBase_Node to make decisions about extra checks, etc...
 			if (nodeType == HydrologyNode.NODE_TYPE_FLOW) {
 				// Just use the common identifier...
@@ -4018,10 +4500,6 @@ throws Exception {
 				// Just use the common identifier...
 				ids.add(nodePt.getCommonID());
 			}
-			if (nodePt.getDownstreamNode() == null) {
-				// End...
-				break;
-			}
 		}
 	}
 	catch (Exception e) {
@@ -4080,34 +4558,13 @@ and end node (anything that would persist to a file).
 guaranteed to be non-null and is in the order upstream to downstream.
 */
 public List<HydrologyNode> getNodeList()
-{	List<HydrologyNode> nodeList = new Vector<HydrologyNode>();
-
-	HydrologyNode node = getMostUpstreamNode();
-	// TODO -- eliminate the need for hold nodes -- they signify an error in the network.
-	HydrologyNode hold = null;
-	int nodeType = 0;
-	while (true) {
-		if ( node == null ) {
-			// End of network...
-			return nodeList;
-		}
-		// Add to the list
+{	// Use the cached computational order rather than traversing the network.
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	List<HydrologyNode> nodeList = new Vector<HydrologyNode>(nodes.length);
+	for ( HydrologyNode node : nodes ) {
 		nodeList.add(node);
-		// Check for the end node
-		nodeType = node.getType();
-		if ( nodeType == HydrologyNode.NODE_TYPE_END ) {
-			return nodeList;
-		}
-		
-		// Increment the node to the next computational downstream...
-
-		hold = node;
-		node = getDownstreamNode(node,POSITION_COMPUTATIONAL);
-		// to avoid infinite loops when the network is not built properly
-		if (hold == node) {
-			return nodeList;
-		}
 	}
+	return nodeList;
 }
 
 /**
@@ -4120,6 +4577,13 @@ for the other in downstream fashion.
 */
 public List<HydrologyNode> getNodeSequence ( HydrologyNode node1, HydrologyNode node2 )
 {
+	if ( (node1 != null) && (node2 != null) ) {
+		// Use the node depths if possible, which avoids repeated traversals of the network.
+		List<HydrologyNode> nodeList = getNodeSequenceFromNodeDepths ( node1, node2 );
+		if ( nodeList != null ) {
+			return nodeList;
+		}
+	}
 	List<HydrologyNode> nodeList = new Vector<HydrologyNode>();
 	HydrologyNode node = node1;
 	while (true) {
@@ -4224,6 +4688,99 @@ public List<HydrologyNode> getNodeSequence ( HydrologyNode node1, HydrologyNode
 	return new Vector<HydrologyNode>();
 }
 
+/**
+Add a sequence of nodes to a set, inclusive of the endpoints that are provided (see getNodeSequence(HydrologyNode,HydrologyNode)).
+The set is iterated in computational order, which differs from the list order if neither node is upstream of the other.
+@param nodeSet the set to add the nodes to, or null to create a new set.
+@param node1 the first node in the sequence
+@param node2 the last node in the sequence
+@return the set of nodes (same set as nodeSet if it was specified), which is not changed if the nodes are not connected.
+*/
+public NodeSet getNodeSequence ( NodeSet nodeSet, HydrologyNode node1, HydrologyNode node2 )
+{	if ( nodeSet == null ) {
+		nodeSet = new NodeSet(this);
+	}
+	nodeSet.checkNetwork(this);
+	if ( (node1 != null) && (node2 != null) ) {
+		// Use the node depths if possible, setting the positions directly without creating a list.
+		refreshNodeDepths();
+		int index1 = getComputationalIndex(node1);
+		int index2 = getComputationalIndex(node2);
+		if ( __nodeDepthComplete && (index1 >= 0) && (index2 >= 0) && isNodeIdUnique(node1) && isNodeIdUnique(node2) ) {
+			int common = getCommonDownstreamNodeIndex(index1, index2);
+			if ( common == index2 ) {
+				addNodeSequence ( nodeSet, index1, __nodeDepth[index1] - __nodeDepth[index2] + 1 );
+			}
+			else if ( common == index1 ) {
+				addNodeSequence ( nodeSet, index2, __nodeDepth[index2] - __nodeDepth[index1] + 1 );
+			}
+			else if ( (common >= 0) && (__computationalOrderNodes[common].getType() != HydrologyNode.NODE_TYPE_END) ) {
+				addNodeSequence ( nodeSet, index1, __nodeDepth[index1] - __nodeDepth[common] );
+				addNodeSequence ( nodeSet, index2, __nodeDepth[index2] - __nodeDepth[common] );
+			}
+			return nodeSet;
+		}
+	}
+	for ( HydrologyNode node : getNodeSequence(node1, node2) ) {
+		nodeSet.addIndex(getComputationalIndexInNetwork(node));
+	}
+	return nodeSet;
+}
+
+/**
+Return a sequence of nodes as per getNodeSequence(), using the node depths to find the common downstream node.
+The result is the same as traversing the network, assuming that the node identifiers are unique.
+@param node1 the first node in the sequence
+@param node2 the last node in the sequence
+@return the list of nodes inclusive of the endpoints, in an upstream to downstream order, an empty list if
+the nodes are not connected, or null if the node depths cannot be used and the network must be traversed.
+*/
+private List<HydrologyNode> getNodeSequenceFromNodeDepths ( HydrologyNode node1, HydrologyNode node2 )
+{
+	refreshNodeDepths();
+	if ( !__nodeDepthComplete ) {
+		return null;
+	}
+	int index1 = getComputationalIndex(node1);
+	int index2 = getComputationalIndex(node2);
+	if ( (index1 < 0) || (index2 < 0) || !isNodeIdUnique(node1) || !isNodeIdUnique(node2) ) {
+		return null;
+	}
+	int common1 = getCommonDownstreamNodeIndex(index1, index2);
+	List<HydrologyNode> nodeList = new Vector<HydrologyNode>();
+	if ( common1 == index2 ) {
+		// node2 is downstream of node1.
+		addNodeSequence ( nodeList, node1, __nodeDepth[index1] - __nodeDepth[index2] + 1 );
+	}
+	else if ( common1 == index1 ) {
+		// node1 is downstream of node2.
+		addNodeSequence ( nodeList, node2, __nodeDepth[index2] - __nodeDepth[index1] + 1 );
+	}
+	else if ( (common1 >= 0) && (__computationalOrderNodes[common1].getType() != HydrologyNode.NODE_TYPE_END) ) {
+		// The nodes meet at a confluence.  Add the nodes downstream from node1 and then the nodes
+		// upstream to node2, not including the common node.
+		addNodeSequence ( nodeList, node1, __nodeDepth[index1] - __nodeDepth[common1] );
+		List<HydrologyNode> nodeList2 = new Vector<HydrologyNode>();
+		addNodeSequence ( nodeList2, node2, __nodeDepth[index2] - __nodeDepth[common1] );
+		Collections.reverse(nodeList2);
+		nodeList.addAll(nodeList2);
+	}
+	return nodeList;
+}
+
+/**
+Return the nodes at computational order positions.
+@param positions positions of the nodes in computational order.
+@return a new list of the nodes, guaranteed to be non-null.
+*/
+private List<HydrologyNode> getNodesForPositions(int [] positions)
+{	List<HydrologyNode> nodeList = new Vector<HydrologyNode>(positions.length);
+	for (int i = 0; i < positions.length; i++) {
+		nodeList.add(__computationalOrderNodes[positions[i]]);
+	}
+	return nodeList;
+}
+
 /**
 Returns a list of all the nodes in the network of a given type.
 @param type the type of nodes (as defined in HydroBase_Node.NODE_*) to return.
@@ -4233,51 +4790,109 @@ which are only used in the network diagram).
 guaranteed to be non-null and is in the order upstream to downstream.
 */
 public List<HydrologyNode> getNodesForType(int type)
-{	List<HydrologyNode> v = new Vector<HydrologyNode>();
+{	return getNodesForPositions(getNodeTypePositions(type));
+}
 
-	HydrologyNode node = getMostUpstreamNode();
-	// TODO -- eliminate the need for hold nodes -- they signify an error in the network.
-	HydrologyNode hold = null;
-	int node_type = 0;
-	while (true) {
-		if ( node == null ) {
-			// End of network...
-			return v;
-		}
-		node_type = node.getType();
-		if ( node_type == HydrologyNode.NODE_TYPE_END ) {
-			// End of network...
-			if ( node_type == type ) {
-				v.add(node);
+/**
+Add the nodes in the network of a given type to a set.
+@param nodeSet the set to add the nodes to, or null to create a new set.
+@param type the type of nodes (as defined in HydroBase_Node.NODE_*) to add.
+If -1, add all nodes that are model nodes (see getNodesForType(int)).
+@return the set of nodes (same set as nodeSet if it was specified).
+*/
+public NodeSet getNodesForType(NodeSet nodeSet, int type)
+{	if (nodeSet == null) {
+		nodeSet = new NodeSet(this);
+	}
+	nodeSet.checkNetwork(this);
+	for (int position : getNodeTypePositions(type)) {
+		nodeSet.addIndex(position);
+	}
+	return nodeSet;
+}
+
+/**
+Returns a list of the nodes in the network that have any of the given types.
+The list is determined going from upstream to downstream in the same way as
+getNodeIdentifiersByType() has always traversed the network, stopping at the
+first node that does not have a downstream node.
+@param nodeTypes the types of nodes (as defined in HydroBase_Node.NODE_*) to return.
+@return a list of the nodes that are the specified types, in the order upstream to downstream.
+*/
+private List<HydrologyNode> getNodesForTypes(int [] nodeTypes)
+{	List<HydrologyNode> nodeList = new Vector<HydrologyNode>();
+	refreshNodeTypeIndexes();
+	if (__computationalOrderComplete) {
+		// Merge the lists for each requested type, which are each in computational order.
+		int [][] positionLists = new int[nodeTypes.length][];
+		int [] next = new int[nodeTypes.length];
+		for (int i = 0; i < nodeTypes.length; i++) {
+			positionLists[i] = getNodeTypePositions(nodeTypes[i]);
+			for (int j = 0; j < i; j++) {
+				if (nodeTypes[j] == nodeTypes[i]) {
+					// Duplicate type so only use the first.
+					positionLists[i] = new int[0];
+					break;
+				}
+			}
+		}
+		int iMin, position;
+		while (true) {
+			iMin = -1;
+			for (int i = 0; i < positionLists.length; i++) {
+				if ((next[i] < positionLists[i].length) &&
+					((iMin < 0) || (positionLists[i][next[i]] < positionLists[iMin][next[iMin]]))) {
+					iMin = i;
+				}
+			}
+			if (iMin < 0) {
+				break;
 			}
-			return v;
-		}
-		else if ( type == -1 ) {
-			if ( (node_type == HydrologyNode.NODE_TYPE_FLOW)||
-				(node_type == HydrologyNode.NODE_TYPE_DIV)||
-				(node_type == HydrologyNode.NODE_TYPE_DIV_AND_WELL)||
-				(node_type == HydrologyNode.NODE_TYPE_RES)||
-				(node_type == HydrologyNode.NODE_TYPE_ISF)||
-				(node_type == HydrologyNode.NODE_TYPE_WELL)||
-				(node_type == HydrologyNode.NODE_TYPE_OTHER) ||
-				(node_type == HydrologyNode.NODE_TYPE_PLAN)){
-				v.add(node);
+			position = positionLists[iMin][next[iMin]++];
+			nodeList.add(__computationalOrderNodes[position]);
+		}
+		return nodeList;
+	}
+	// Traverse from upstream to downstream...
+	boolean nodeTypeMatches = false;
+	int nodeType, j;
+	for (HydrologyNode nodePt = getUpstreamNode(getDownstreamNode(__nodeHead, POSITION_ABSOLUTE), POSITION_ABSOLUTE);
+		nodePt != null;
+		nodePt = getDownstreamNode(nodePt, POSITION_COMPUTATIONAL)) {
+		nodeType = nodePt.getType();
+		// See if the nodeType matches one that we are interested in...
+		nodeTypeMatches = false;
+		for (j = 0; j < nodeTypes.length; j++) {
+			if (nodeTypes[j] == nodeType) {
+				nodeTypeMatches = true;
+				break;
 			}
 		}
-		else if ( node_type == type ) {
-			// Requesting a single node type and it matches...
-			v.add(node);
+		if (nodeTypeMatches) {
+			nodeList.add(nodePt);
 		}
-		
-		// Increment the node to the next computational downstream...
-
-		hold = node;
-		node = getDownstreamNode(node,POSITION_COMPUTATIONAL);
-		// to avoid infinite loops when the network is not built properly
-		if (hold == node) {
-			return v;
+		if (nodePt.getDownstreamNode() == null) {
+			// End...
+			break;
 		}
 	}
+	return nodeList;
+}
+
+/**
+Return the computational order positions of the nodes of a type.
+@param type the type of nodes (as defined in HydroBase_Node.NODE_*), or -1 for model nodes (see getNodesForType()).
+@return the positions of the nodes in computational order, guaranteed to be non-null and must not be modified.
+*/
+private int [] getNodeTypePositions(int type)
+{	refreshNodeTypeIndexes();
+	if (type == -1) {
+		return __modelNodePositions;
+	}
+	else if ((type < 0) || (type >= __nodeTypePositions.length)) {
+		return new int[0];
+	}
+	return __nodeTypePositions[type];
 }
 
 /**
@@ -4288,6 +4903,34 @@ public double getRX() {
 	return __netRX;
 }
 
+/**
+Return the structure version for the network, which changes when the connections of any node in the network change
+(see HydrologyNode.getStructureVersion()), but not when nodes in other networks change.
+@return the structure version for the network.
+*/
+private long getStructureVersion() {
+	if (__nodeHead == null) {
+		return 0;
+	}
+	return __nodeHead.getStructureVersion();
+}
+
+/**
+Return the grid index of node positions, building it if the network nodes have changed.
+@return the grid index of node positions.
+*/
+private HydrologyNodeSpatialIndex getSpatialIndex() {
+	refreshNodeIndexes();
+	if ((__spatialIndex == null) || (__spatialIndex.getNodes() != __computationalOrderNodes)) {
+		if (__spatialIndex != null) {
+			// Nodes that are still in the network are added to the new index.
+			__spatialIndex.release();
+		}
+		__spatialIndex = new HydrologyNodeSpatialIndex(__computationalOrderNodes);
+	}
+	return __spatialIndex;
+}
+
 /**
  * Return the network title.
  */
@@ -4514,6 +5157,57 @@ query.addWhereClause(temp.substring(0,
 }
 */	
 
+/**
+Return the position after the last node upstream of a node in the upstream tree order (see getUpstreamTreeNodes()).
+@param node node to look up.
+@return the position after the last upstream node, or -1 if the node is not in the upstream tree
+or the upstream tree is not complete.
+*/
+int getUpstreamTreeEnd(HydrologyNode node) {
+	int start = getUpstreamTreeStart(node);
+	if (start < 0) {
+		return -1;
+	}
+	return __upstreamTreeEnd[getComputationalIndex(node)];
+}
+
+/**
+Return the nodes in the network in upstream tree order, which is a depth-first traversal starting with the head
+node and visiting upstream nodes in the order of each node's upstream node list.
+A node and all the nodes upstream of it are at positions getUpstreamTreeStart(node) to getUpstreamTreeEnd(node) - 1.
+The array is cached and is rebuilt only when the network structure changes, and therefore must not be modified
+by the caller.
+@return the nodes in upstream tree order, or null if the network is not a proper tree
+(e.g., nodes are upstream of more than one node), in which case the network must be traversed.
+*/
+HydrologyNode [] getUpstreamTreeNodes() {
+	refreshUpstreamTree();
+	if (!__upstreamTreeComplete) {
+		return null;
+	}
+	return __upstreamTreeNodes;
+}
+
+/**
+Return the position of a node in the upstream tree order (see getUpstreamTreeNodes()).
+@param node node to look up.
+@return the position of the node, or -1 if the node is not in the upstream tree or the upstream tree is not complete.
+*/
+int getUpstreamTreeStart(HydrologyNode node) {
+	if (node == null) {
+		return -1;
+	}
+	refreshUpstreamTree();
+	if (!__upstreamTreeComplete) {
+		return -1;
+	}
+	int index = getComputationalIndex(node);
+	if (index < 0) {
+		return -1;
+	}
+	return __upstreamTreeStart[index];
+}
+
 /**
 Gets the node upstream from the specified node.
 @param node the node for which to get the upstream node.
@@ -4536,33 +5230,36 @@ public static HydrologyNode getUpstreamNode(HydrologyNode node, int flag) {
 		// Think of the traversal as a "right-hand" traversal.  Always
 		// follow the last branch added since it is the most upstream
 		// computation-wise.  When we have no more upstream nodes we are at the top...
+		// The result is saved on each node that is passed so that later calls are fast.
+		long version = node.getStructureVersion();
+		HydrologyNode topNode = null;
 		nodePt = node;
-		if (nodePt.getNumUpstreamNodes() == 0) {
-			// Nothing above this node...
-			if (Message.isDebugOn) {
-				Message.printDebug(dl, routine, "Found absolute upstream: \"" +
-					nodePt.getCommonID() + "\"");
+		while (true) {
+			topNode = nodePt.getAbsoluteUpstreamNode(version);
+			if ( topNode != null ) {
+				// Already found from a previous call.
+				break;
 			}
-			return nodePt;
-		}
-		else {	
-			// Follow the last reach entered for this node (the most upstream)...
-			if (node.getUpstreamOrder() == HydrologyNode.TRIBS_ADDED_FIRST) {
-				// We want the last one added (makenet order)...
-				try {
-				return getUpstreamNode(nodePt.getUpstreamNode(
-					(nodePt.getNumUpstreamNodes() - 1)), POSITION_ABSOLUTE);
-				}
-				catch (Exception e) {
-					Message.printWarning(2, routine, e);
-					return null;
-				}
+			if ( nodePt.getNumUpstreamNodes() == 0 ) {
+				// Nothing above this node...
+				topNode = nodePt;
+				break;
 			}
-			else {	
-				// We want the first one added...
-				return getUpstreamNode(nodePt.getUpstreamNode(0), POSITION_ABSOLUTE);
+			// Follow the last reach entered for this node (the most upstream)...
+			nodePt = getAbsoluteUpstreamNext(nodePt);
+			if ( nodePt == null ) {
+				Message.printWarning(2, routine, "Null upstream node found above \"" + node.getCommonID() + "\"");
+				return null;
 			}
 		}
+		for ( HydrologyNode stopNode = nodePt, nodePt2 = node; nodePt2 != stopNode; nodePt2 = getAbsoluteUpstreamNext(nodePt2) ) {
+			nodePt2.setAbsoluteUpstreamNode(topNode, version);
+		}
+		if (Message.isDebugOn) {
+			Message.printDebug(dl, routine, "Found absolute upstream: \"" +
+				topNode.getCommonID() + "\"");
+		}
+		return topNode;
 	}
 	else if (flag == POSITION_REACH) {
 		// Try to find the upstream node in the reach...
@@ -4582,43 +5279,40 @@ public static HydrologyNode getUpstreamNode(HydrologyNode node, int flag) {
 		// computation-wise.  When we have no more upstream nodes we
 		// are at the top...
 		//
-		nodePt = node;
-		if (nodePt.getNumUpstreamNodes() == 0) {
-			// Nothing above this node...
-			if (Message.isDebugOn) {
-				Message.printDebug(dl, routine,
-					"Found absolute upstream: \""
-					+ nodePt.getCommonID() + "\"");
-			}
-			return nodePt;
-		}
-		else if ((nodePt.getNumUpstreamNodes() == 1)
-			&& ((nodePt.getType() == HydrologyNode.NODE_TYPE_CONFLUENCE)
-			|| (nodePt.getType() == HydrologyNode.NODE_TYPE_XCONFLUENCE))){
-			// If it is a confluence, then it must be at the top of
-			// the reach and we want to stop...
-			if (Message.isDebugOn) {
-				Message.printDebug(dl, routine,
-					"Found reach top is confluence - not "
-					+ "following: \""
-					+ nodePt.getCommonID() + "\"");
+		for ( nodePt = node; ; ) {
+			if (nodePt.getNumUpstreamNodes() == 0) {
+				// Nothing above this node...
+				if (Message.isDebugOn) {
+					Message.printDebug(dl, routine,
+						"Found absolute upstream: \""
+						+ nodePt.getCommonID() + "\"");
+				}
+				return nodePt;
 			}
-			return nodePt;
-		}
-		else {	
-			// Follow the last reach entered for this node
-			// (the most upstream).
-			if (node.getUpstreamOrder() == HydrologyNode.TRIBS_ADDED_FIRST) {
-				// We want the last one added (makenet order)...
-				return getUpstreamNode(nodePt.getUpstreamNode(
-					(nodePt.getNumUpstreamNodes() - 1)),
-					POSITION_REACH);
+			else if ((nodePt.getNumUpstreamNodes() == 1)
+				&& ((nodePt.getType() == HydrologyNode.NODE_TYPE_CONFLUENCE)
+				|| (nodePt.getType() == HydrologyNode.NODE_TYPE_XCONFLUENCE))){
+				// If it is a confluence, then it must be at the top of
+				// the reach and we want to stop...
+				if (Message.isDebugOn) {
+					Message.printDebug(dl, routine,
+						"Found reach top is confluence - not "
+						+ "following: \""
+						+ nodePt.getCommonID() + "\"");
+				}
+				return nodePt;
 			}
 			else {	
-				// Admin tool style...
-				return getUpstreamNode(
-					nodePt.getUpstreamNode(0),
-					POSITION_REACH);
+				// Follow the last reach entered for this node
+				// (the most upstream).
+				if (nodePt.getUpstreamOrder() == HydrologyNode.TRIBS_ADDED_FIRST) {
+					// We want the last one added (makenet order)...
+					nodePt = nodePt.getUpstreamNode((nodePt.getNumUpstreamNodes() - 1));
+				}
+				else {	
+					// Admin tool style...
+					nodePt = nodePt.getUpstreamNode(0);
+				}
 			}
 		}
 	}
@@ -4694,6 +5388,23 @@ public static HydrologyNode getUpstreamNode(HydrologyNode node, int flag) {
 	return null;
 }
 
+/**
+Return the node immediately upstream of a node that is in a reach.
+@param node the node for which to get the upstream node.
+@param reach the reach counter of the reach.
+@return the upstream node with the reach counter, or null if no upstream node is in the reach.
+*/
+private static HydrologyNode getUpstreamNodeInReach(HydrologyNode node, int reach) {
+	// The node that continues the reach is normally the last upstream node.
+	for (int i = node.getNumUpstreamNodes() - 1; i >= 0; i--) {
+		HydrologyNode upstreamNode = node.getUpstreamNode(i);
+		if ((upstreamNode != null) && (upstreamNode.getReachCounter() == reach)) {
+			return upstreamNode;
+		}
+	}
+	return null;
+}
+
 /**
 Increment the node in reach number for all nodes including this node and 
 upstream nodes on the same reach.
@@ -4742,6 +5453,23 @@ private void initialize() {
 	__treatDryAsNaturalFlow = false;
 }
 
+/**
+Invalidate the node indexes so that they are rebuilt the next time that they are needed.
+This is called when the network is edited through this class.  Edits made directly to nodes are detected
+using HydrologyNode.getStructureVersion().  The computational order array is kept so that it can be reused
+if the order of the nodes has not changed (see refreshNodeIndexes()).
+*/
+private void invalidateNodeIndexes() {
+	__computationalIndexMap = null;
+	__nodeIdIndex = null;
+	__duplicateNodeIdKeys = null;
+	__nodeIndexIds = null;
+	__upstreamTreeNodes = null;
+	__nodeDepth = null;
+	__nodeTypePositions = null;
+	__nodeIdCounts = null;
+}
+
 // insertDownstreamNode - insert a node downstream from a given node
 /**
 Insert a node downstream from a specified node.  
@@ -4761,6 +5489,7 @@ public void insertDownstreamNode(HydrologyNode upstreamNode, HydrologyNode downs
 			Message.printDebug(10, routine, "Setting head of list to downstream node");
 		}
 		__nodeHead = downstreamNode;
+		invalidateNodeIndexes();
 		return;
 	}
 
@@ -4849,6 +5578,22 @@ public boolean isLegendPositionSet() {
 	return __legendPositionSet;
 }
 
+/**
+Determine whether a node type is a model node type (the types returned by getNodesForType(-1)).
+@param nodeType node type (see HydrologyNode.NODE_TYPE_*).
+@return true if the node type is a model node type.
+*/
+private static boolean isModelNodeType(int nodeType) {
+	return (nodeType == HydrologyNode.NODE_TYPE_FLOW)||
+		(nodeType == HydrologyNode.NODE_TYPE_DIV)||
+		(nodeType == HydrologyNode.NODE_TYPE_DIV_AND_WELL)||
+		(nodeType == HydrologyNode.NODE_TYPE_RES)||
+		(nodeType == HydrologyNode.NODE_TYPE_ISF)||
+		(nodeType == HydrologyNode.NODE_TYPE_WELL)||
+		(nodeType == HydrologyNode.NODE_TYPE_OTHER) ||
+		(nodeType == HydrologyNode.NODE_TYPE_PLAN);
+}
+
 /**
 Checks for whether the specified node is the most upstream in the reach.
 @param node the node to check
@@ -4886,6 +5631,86 @@ public boolean isMostUpstreamNodeInReach(HydrologyNode node) {
 	return true;
 }
 
+/**
+Determine whether a node is the only node in the network with its identifier (ignoring case).
+@param node node to check.
+@return true if the node is in the network and no other node has the same identifier.
+*/
+private boolean isNodeIdUnique(HydrologyNode node) {
+	String key = getNodeIdKey(node.getCommonID());
+	return (getNodeIdIndex().get(key) == node) && !__duplicateNodeIdKeys.contains(key);
+}
+
+/**
+Determine whether two arrays contain the same nodes in the same order, comparing node references.
+@param nodes1 the first array.
+@param nodes2 the second array, can be null.
+@return true if the arrays contain the same nodes in the same order.
+*/
+private static boolean isSameNodeOrder(HydrologyNode [] nodes1, HydrologyNode [] nodes2) {
+	if ((nodes2 == null) || (nodes1.length != nodes2.length)) {
+		return false;
+	}
+	for (int i = 0; i < nodes1.length; i++) {
+		if (nodes1[i] != nodes2[i]) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+Determine whether the computational order of the nodes immediately upstream of a node is the order of the
+upstream node list, which is the case when the makenet convention is used (HydrologyNode.TRIBS_ADDED_FIRST)
+and the tributary numbers are the positions in the list.  In this case, inserting or removing an upstream node
+does not change the computational order of the other nodes, and the node indexes can be updated in place.
+@param node node to check.
+@return true if the computational order of the upstream nodes is the order of the upstream node list.
+*/
+private static boolean isTributaryOrderConsistent(HydrologyNode node) {
+	if (node.getUpstreamOrder() != HydrologyNode.TRIBS_ADDED_FIRST) {
+		return false;
+	}
+	HydrologyNode upstreamNode;
+	for (int i = 0; i < node.getNumUpstreamNodes(); i++) {
+		upstreamNode = node.getUpstreamNode(i);
+		if ((upstreamNode == null) || (upstreamNode.getUpstreamOrder() != HydrologyNode.TRIBS_ADDED_FIRST)
+			|| (upstreamNode.getTributaryNumber() != (i + 1))) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+Determine whether a node is upstream of another node, meaning that the second node is reached by following
+downstream connections from the first node.  The upstream tree positions are used so the check does not
+require a traversal, unless the network is not a proper tree.
+@param upstreamNode the node that may be upstream.
+@param node the node to check against.
+@return true if upstreamNode is upstream of node, false if not or if the nodes are the same node.
+*/
+public boolean isUpstreamOf(HydrologyNode upstreamNode, HydrologyNode node) {
+	if ((upstreamNode == null) || (node == null) || (upstreamNode == node)) {
+		return false;
+	}
+	int start = getUpstreamTreeStart(node);
+	int upstreamStart = getUpstreamTreeStart(upstreamNode);
+	if ((start >= 0) && (upstreamStart >= 0)) {
+		return (upstreamStart > start) && (upstreamStart < getUpstreamTreeEnd(node));
+	}
+	// Follow the downstream connections, guarding against a circular network.
+	int count = 0;
+	int maxCount = getComputationalOrderNodes().length;
+	for (HydrologyNode nodePt = upstreamNode.getDownstreamNode(); (nodePt != null) && (count <= maxCount);
+		nodePt = nodePt.getDownstreamNode(), count++) {
+		if (nodePt == node) {
+			return true;
+		}
+	}
+	return false;
+}
+
 /**
 Checks to see if a file is an XML file.  Does two simple tests -- if the file
 ends with .xml, it is xml.  If the tag "&gt;StateMod_Network" can be found on
@@ -5112,6 +5937,376 @@ String comment, int width, int flag) {
 }
 */
 
+/**
+Update the node indexes for nodes whose identifier, type, natural flow or import flag has changed since the indexes
+were last updated, without recalculating the computational order, which only depends on the network structure
+(see HydrologyNode.getStructureVersion()).  The computational order array is not replaced, so node sets and the
+spatial index for the array remain valid.  Called by refreshNodeIndexes() when the structure version is current.
+*/
+private void refreshNodeAttributeIndexes() {
+	if (__nodeHead == null) {
+		return;
+	}
+	HydrologyNode [] changedNodes = __nodeHead.getAttributeChanges(__attributeChangeLogVersion, __attributeChangeCount);
+	if ((changedNodes != null) && (changedNodes.length == 0)) {
+		return;
+	}
+	saveAttributeChangeLogPosition();
+	if (changedNodes == null) {
+		// The log was reset because there were too many changes, so check all the nodes
+		// and rebuild the lists of nodes by type when needed rather than updating them for each node.
+		changedNodes = __computationalOrderNodes;
+		__nodeTypePositions = null;
+	}
+	Integer position;
+	for (HydrologyNode node : changedNodes) {
+		position = __computationalIndexMap.get(node);
+		if (position != null) {
+			// Nodes that are not in the computational order are not indexed.
+			updateNodeAttributeIndexes(node, position.intValue());
+		}
+	}
+}
+
+/**
+Rebuild the node depths (see __nodeDepth and __nodeDownstreamAncestors) if the network has changed since they were built.
+Because downstream nodes are later in the computational order, the depths are computed in one pass in reverse
+computational order.
+*/
+private void refreshNodeDepths() {
+	refreshNodeIndexes();
+	if (__nodeDepth != null) {
+		return;
+	}
+	int nodeCount = __computationalOrderNodes.length;
+	int [] depth = new int[nodeCount];
+	int [] downstream = new int[nodeCount];
+	boolean complete = true;
+	int maxDepth = 0;
+	HydrologyNode node, downstreamNode;
+	for (int i = nodeCount - 1; i >= 0; i--) {
+		node = __computationalOrderNodes[i];
+		downstreamNode = node.getDownstreamNode();
+		if (node.getCommonID() == null) {
+			complete = false;
+			break;
+		}
+		if (downstreamNode == null) {
+			// Only the end node is expected to have no downstream node.
+			if (node.getType() != HydrologyNode.NODE_TYPE_END) {
+				complete = false;
+				break;
+			}
+			downstream[i] = -1;
+			depth[i] = 0;
+		}
+		else {
+			downstream[i] = getComputationalIndex(downstreamNode);
+			if ((node.getType() == HydrologyNode.NODE_TYPE_END) || (downstream[i] <= i)) {
+				// Downstream node is not later in the computational order.
+				complete = false;
+				break;
+			}
+			depth[i] = depth[downstream[i]] + 1;
+			maxDepth = Math.max(maxDepth, depth[i]);
+		}
+	}
+	int [][] ancestors = null;
+	if (complete) {
+		int levels = 1;
+		while ((levels < 31) && ((1 << levels) <= maxDepth)) {
+			++levels;
+		}
+		ancestors = new int[levels][];
+		ancestors[0] = downstream;
+		for (int k = 1; k < levels; k++) {
+			int [] previous = ancestors[k - 1];
+			int [] current = new int[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				current[i] = (previous[i] < 0) ? -1 : previous[previous[i]];
+			}
+			ancestors[k] = current;
+		}
+	}
+	__nodeDownstreamAncestors = ancestors;
+	__nodeDepthComplete = complete;
+	__nodeDepth = depth;
+}
+
+/**
+Update the node identifier index for a case-insensitive identifier key that is, or was, used by more than one node,
+using the saved node identifiers rather than traversing the network.
+@param key the identifier key (see getNodeIdKey()).
+*/
+private void refreshNodeIdKey(String key) {
+	int firstPosition = -1;
+	int count = 0;
+	for (int i = 0; i < __nodeIndexIds.length; i++) {
+		if (key.equals(getNodeIdKey(__nodeIndexIds[i]))) {
+			if (count == 0) {
+				firstPosition = i;
+			}
+			++count;
+		}
+	}
+	if (count == 0) {
+		__nodeIdIndex.remove(key);
+	}
+	else {
+		__nodeIdIndex.put(key, __computationalOrderNodes[firstPosition]);
+	}
+	if (count > 1) {
+		__duplicateNodeIdKeys.add(key);
+	}
+	else {
+		__duplicateNodeIdKeys.remove(key);
+	}
+}
+
+/**
+Rebuild the computational order array and other node indexes if the network has changed since they were built.
+The network is traversed in computational order from the most upstream node to the END node,
+which is the traversal that was historically done by getNodeList(), findNode(), etc.
+*/
+private void refreshNodeIndexes() {
+	if ((__computationalIndexMap != null) && (__nodeIndexVersion == getStructureVersion())
+		&& (__nodeIndexHead == __nodeHead)) {
+		// The computational order is current but node attributes may have changed.
+		refreshNodeAttributeIndexes();
+		return;
+	}
+	// Save the version first so that the indexes are current even if the traversal encounters a problem.
+	long version = getStructureVersion();
+	HydrologyNode [] changedNodes = (__nodeHead == null) ? null
+		: __nodeHead.getAttributeChanges(__attributeChangeLogVersion, __attributeChangeCount);
+	if ((__nodeIdCountVersion != version) || (changedNodes == null) || (changedNodes.length > 0)) {
+		// The identifier counts are only kept if no identifiers have changed since they were last updated.
+		__nodeIdCounts = null;
+	}
+	saveAttributeChangeLogPosition();
+	List<HydrologyNode> nodeList = new ArrayList<>();
+	Map<HydrologyNode,Integer> computationalIndexMap = new IdentityHashMap<>();
+	Map<String,HydrologyNode> nodeIdIndex = new HashMap<>();
+	Set<String> duplicateNodeIdKeys = new HashSet<>();
+	if (__nodeHead != null) {
+		HydrologyNode node = getMostUpstreamNode();
+		HydrologyNode nextNode;
+		String key;
+		while (node != null) {
+			if (computationalIndexMap.containsKey(node)) {
+				// Already visited - the network is circular.
+				Message.printWarning(3, getClass().getSimpleName() + ".refreshNodeIndexes",
+					"Node \"" + node.getCommonID() + "\" was visited more than once - network has a loop.");
+				break;
+			}
+			computationalIndexMap.put(node, Integer.valueOf(nodeList.size()));
+			nodeList.add(node);
+			key = getNodeIdKey(node.getCommonID());
+			if (nodeIdIndex.containsKey(key)) {
+				duplicateNodeIdKeys.add(key);
+			}
+			else {
+				nodeIdIndex.put(key, node);
+			}
+			if (node.getType() == HydrologyNode.NODE_TYPE_END) {
+				break;
+			}
+			nextNode = getDownstreamNode(node, POSITION_COMPUTATIONAL);
+			// To avoid infinite loops when the network is not built properly.
+			if (nextNode == node) {
+				break;
+			}
+			node = nextNode;
+		}
+	}
+	HydrologyNode [] nodes = nodeList.toArray(new HydrologyNode[nodeList.size()]);
+	if (!isSameNodeOrder(nodes, __computationalOrderNodes)) {
+		setComputationalOrderNodes(nodes);
+	}
+	String [] nodeIndexIds = new String[__computationalOrderNodes.length];
+	for (int i = 0; i < nodeIndexIds.length; i++) {
+		nodeIndexIds[i] = __computationalOrderNodes[i].getCommonID();
+	}
+	// The upstream tree and node depths are built when needed (see refreshUpstreamTree() and refreshNodeDepths()).
+	__upstreamTreeNodes = null;
+	__nodeDepth = null;
+	__nodeTypePositions = null;
+	__nodeIndexIds = nodeIndexIds;
+	__computationalIndexMap = computationalIndexMap;
+	__nodeIdIndex = nodeIdIndex;
+	__duplicateNodeIdKeys = duplicateNodeIdKeys;
+	__nodeIndexVersion = version;
+	__nodeIndexHead = __nodeHead;
+}
+
+/**
+Rebuild the lists of nodes by type and natural flow and import flag (see __nodeTypePositions)
+if the network has changed since they were built.  The lists are built in one pass over the computational order.
+*/
+private void refreshNodeTypeIndexes() {
+	refreshNodeIndexes();
+	if (__nodeTypePositions != null) {
+		return;
+	}
+	HydrologyNode [] nodes = __computationalOrderNodes;
+	int nodeCount = nodes.length;
+	// Count the nodes of each type first so that the lists can be allocated at the needed size.
+	int [] typeCounts = new int[HydrologyNode.NODE_TYPE_PLAN + 1];
+	int modelCount = 0;
+	int naturalFlowCount = 0;
+	int importCount = 0;
+	int nodeType;
+	for (int i = 0; i < nodeCount; i++) {
+		nodeType = nodes[i].getType();
+		if (nodeType >= typeCounts.length) {
+			typeCounts = Arrays.copyOf(typeCounts, nodeType + 1);
+		}
+		if (nodeType >= 0) {
+			++typeCounts[nodeType];
+		}
+		if (isModelNodeType(nodeType)) {
+			++modelCount;
+		}
+		if (nodes[i].getIsNaturalFlow()) {
+			++naturalFlowCount;
+		}
+		if (nodes[i].getIsImport()) {
+			++importCount;
+		}
+	}
+	int [][] nodeTypePositions = new int[typeCounts.length][];
+	for (int type = 0; type < typeCounts.length; type++) {
+		nodeTypePositions[type] = new int[typeCounts[type]];
+		typeCounts[type] = 0;
+	}
+	int [] modelNodePositions = new int[modelCount];
+	int [] naturalFlowNodePositions = new int[naturalFlowCount];
+	int [] importNodePositions = new int[importCount];
+	modelCount = 0;
+	naturalFlowCount = 0;
+	importCount = 0;
+	boolean complete = (nodeCount > 0);
+	for (int i = 0; i < nodeCount; i++) {
+		nodeType = nodes[i].getType();
+		if (nodeType >= 0) {
+			nodeTypePositions[nodeType][typeCounts[nodeType]++] = i;
+		}
+		if (isModelNodeType(nodeType)) {
+			modelNodePositions[modelCount++] = i;
+		}
+		if (nodes[i].getIsNaturalFlow()) {
+			naturalFlowNodePositions[naturalFlowCount++] = i;
+		}
+		if (nodes[i].getIsImport()) {
+			importNodePositions[importCount++] = i;
+		}
+		if ((nodes[i].getDownstreamNode() == null) != (i == (nodeCount - 1))) {
+			complete = false;
+		}
+	}
+	if (complete && (nodes[nodeCount - 1].getType() != HydrologyNode.NODE_TYPE_END)) {
+		complete = false;
+	}
+	__modelNodePositions = modelNodePositions;
+	__naturalFlowNodePositions = naturalFlowNodePositions;
+	__importNodePositions = importNodePositions;
+	__computationalOrderComplete = complete;
+	__nodeTypePositions = nodeTypePositions;
+}
+
+/**
+Rebuild the upstream tree order (see getUpstreamTreeNodes()) if the network has changed since it was built.
+The tree is traversed from the head node using an explicit stack so that deep networks can be handled.
+*/
+private void refreshUpstreamTree() {
+	refreshNodeIndexes();
+	if (__upstreamTreeNodes != null) {
+		return;
+	}
+	int nodeCount = __computationalOrderNodes.length;
+	HydrologyNode [] treeNodes = new HydrologyNode[nodeCount];
+	int [] treeIndexes = new int[nodeCount];
+	int [] treeStart = new int[nodeCount];
+	int [] treeEnd = new int[nodeCount];
+	for (int i = 0; i < nodeCount; i++) {
+		treeStart[i] = -1;
+		treeEnd[i] = -1;
+	}
+	boolean complete = true;
+	int treeCount = 0;
+	int rootIndex = getComputationalIndex(__nodeHead);
+	if (rootIndex >= 0) {
+		// Stack of computational order positions and the next upstream node position to visit for each.
+		int [] stack = new int[nodeCount];
+		int [] nextUpstream = new int[nodeCount];
+		int stackSize = 0;
+		treeStart[rootIndex] = treeCount;
+		treeIndexes[treeCount] = rootIndex;
+		treeNodes[treeCount++] = __nodeHead;
+		stack[stackSize++] = rootIndex;
+		HydrologyNode node, upstreamNode;
+		int index, upstreamIndex;
+		while (stackSize > 0) {
+			index = stack[stackSize - 1];
+			node = __computationalOrderNodes[index];
+			if (nextUpstream[index] < node.getNumUpstreamNodes()) {
+				upstreamNode = node.getUpstreamNode(nextUpstream[index]++);
+				if (upstreamNode == null) {
+					// Consistent with findUpstreamNodes(), which stops at a null node.
+					continue;
+				}
+				upstreamIndex = getComputationalIndex(upstreamNode);
+				if ((upstreamIndex < 0) || (treeStart[upstreamIndex] >= 0)) {
+					// Node is not in the computational order or is upstream of more than one node.
+					complete = false;
+					break;
+				}
+				treeStart[upstreamIndex] = treeCount;
+				treeIndexes[treeCount] = upstreamIndex;
+				treeNodes[treeCount++] = upstreamNode;
+				stack[stackSize++] = upstreamIndex;
+			}
+			else {
+				treeEnd[index] = treeCount;
+				--stackSize;
+			}
+		}
+	}
+	if (treeCount != nodeCount) {
+		complete = false;
+	}
+	__upstreamTreeStart = treeStart;
+	__upstreamTreeEnd = treeEnd;
+	__upstreamTreeComplete = complete;
+	__upstreamTreeIndexes = treeIndexes;
+	__upstreamTreeNodes = treeNodes;
+}
+
+/**
+Set the serial and computational order numbers of the nodes after a node has been added to or deleted from the
+network, to the numbers that are set by calculateNetworkNodeData() and resetComputationalOrder().
+The computational order counts from 1 at the most upstream node and the serial number counts from 1 at the END node,
+so only the serial numbers of the nodes before the change in computational order, and the computational order of the
+nodes from the change downstream, are set.  The nodes are found by position in the computational order array,
+without traversing the network.
+@param serialEnd position in computational order before which nodes are given serial numbers.
+@param orderStart position in computational order from which nodes are given computational order numbers,
+or a negative value to number all the nodes, if the node indexes were not updated in place.
+*/
+private void renumberNodes(int serialEnd, int orderStart) {
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	if (orderStart < 0) {
+		serialEnd = nodes.length;
+		orderStart = 0;
+	}
+	for (int i = 0; i < serialEnd; i++) {
+		nodes[i].setSerial(nodes.length - i);
+	}
+	for (int i = orderStart; i < nodes.length; i++) {
+		nodes[i].setComputationalOrder(i + 1);
+	}
+}
+
 /**
 Resets the computational order information for each node.
 */
@@ -5138,6 +6333,30 @@ public void resetComputationalOrder() {
 	}
 }
 
+/**
+Save the current position in the attribute change log of the network's nodes (see HydrologyNode.getAttributeChanges()),
+starting the log if necessary, after the node indexes have been updated for all the attribute changes.
+*/
+private void saveAttributeChangeLogPosition() {
+	if (__nodeHead == null) {
+		__attributeChangeLogVersion = -1;
+		__attributeChangeCount = 0;
+		return;
+	}
+	__attributeChangeLogVersion = __nodeHead.startAttributeChangeLog();
+	__attributeChangeCount = __nodeHead.getAttributeChangeCount();
+}
+
+/**
+Set the computational order array, incrementing the computational order version so that node sets created for the
+previous array are no longer used with the network (see NodeSet).
+@param nodes the nodes in computational order.
+*/
+private void setComputationalOrderNodes(HydrologyNode [] nodes) {
+	__computationalOrderNodes = nodes;
+	++__computationalOrderVersion;
+}
+
 /**
 Sets the annotations associated with this network.
 @param annotationList the list of annotations associated with this network.
@@ -5297,6 +6516,7 @@ is stored internally as __nodeHead.
 */
 public void setNetworkFromNodes(List<HydrologyNode> nodes) {
 	__nodeCount = nodes.size();
+	invalidateNodeIndexes();
 
 	HydrologyNode ds = null;
 	for (HydrologyNode node : nodes) {
@@ -5334,6 +6554,7 @@ public void setNodeDiam(double node_diam) {
 public void setNodeHead ( HydrologyNode nodeHead )
 {
 	__nodeHead = nodeHead;
+	invalidateNodeIndexes();
 }
 
 /**
@@ -5379,6 +6600,17 @@ public void setTitleY ( double titleY )
  */
 public int size () {
 	int nodeCount = 0;
+	if ( (__nodeHead != null) && (__nodeHead.getDownstreamNode() == null) ) {
+		// Normal case - the head is at the bottom of the network so the cached computational order,
+		// which starts at the top of the network, can be used.
+		for ( HydrologyNode node : getComputationalOrderNodes() ) {
+			if ( node.getDownstreamNode() == null ) {
+				break;
+			}
+			++nodeCount;
+		}
+		return nodeCount;
+	}
 	for (HydrologyNode node = HydrologyNodeNetwork.getUpstreamNode(getNodeHead(), HydrologyNodeNetwork.POSITION_ABSOLUTE);
         node.getDownstreamNode() != null;
         node = HydrologyNodeNetwork.getDownstreamNode(node, HydrologyNodeNetwork.POSITION_COMPUTATIONAL)) {
@@ -5501,6 +6733,287 @@ public boolean treatDryNodesAsNaturalFlow(boolean treatDryAsNaturalFlow) {
 	return true;
 }
 
+/**
+Update the node indexes for a node whose identifier, type, natural flow or import flag may have changed.
+The identifier index is updated if the identifier has changed and the node is moved to the lists of nodes for its
+current type and flags.
+@param node the node that may have changed.
+@param position the position of the node in computational order.
+*/
+private void updateNodeAttributeIndexes(HydrologyNode node, int position) {
+	String id = node.getCommonID();
+	String oldID = __nodeIndexIds[position];
+	if (!id.equals(oldID)) {
+		__nodeIndexIds[position] = id;
+		if (__nodeIdCounts != null) {
+			__nodeIdCounts.put(oldID, __nodeIdCounts.get(oldID) - 1);
+			__nodeIdCounts.put(id, Math.max(__nodeIdCounts.get(id), 0) + 1);
+			// Suffixes that were in use may now be available.
+			__nodeIdSuffixes = new HashMap<String,int[]>();
+		}
+		String oldKey = getNodeIdKey(oldID);
+		String key = getNodeIdKey(id);
+		if (!key.equals(oldKey)) {
+			if (__duplicateNodeIdKeys.contains(oldKey)) {
+				refreshNodeIdKey(oldKey);
+			}
+			else {
+				__nodeIdIndex.remove(oldKey);
+			}
+			HydrologyNode firstNode = __nodeIdIndex.get(key);
+			if (firstNode == null) {
+				__nodeIdIndex.put(key, node);
+			}
+			else {
+				__duplicateNodeIdKeys.add(key);
+				if (__computationalIndexMap.get(firstNode).intValue() > position) {
+					__nodeIdIndex.put(key, node);
+				}
+			}
+		}
+	}
+	updateNodeTypePositionsForChangedNode(node, position);
+}
+
+/**
+Update the node indexes for a node that has been added to the network by addNode(), without traversing the network.
+The node is inserted into the computational order array before the node that follows it in computational order,
+and the positions of the nodes downstream in computational order are shifted.  The lists of nodes by type are
+updated in the same way.  The upstream tree and node depths are rebuilt from the array when next needed.
+If the indexes were not current before the node was added, or the neighboring nodes in computational order do not
+agree with the new position, the indexes are rebuilt when next needed.
+@param nodes the nodes in computational order before the node was added.
+@param node the node that was added.
+@param sameOrder whether the computational order of the other nodes is unchanged by adding the node
+(see isTributaryOrderConsistent()).
+@return the position of the node in computational order, or -1 if the indexes will be rebuilt.
+*/
+private int updateNodeIndexesForAddedNode(HydrologyNode [] nodes, HydrologyNode node, boolean sameOrder) {
+	if (!sameOrder || (nodes != __computationalOrderNodes) || (__computationalIndexMap == null)
+		|| (node.getCommonID() == null)) {
+		invalidateNodeIndexes();
+		return -1;
+	}
+	HydrologyNode nextNode = getDownstreamNode(node, POSITION_COMPUTATIONAL);
+	Integer nextIndex = __computationalIndexMap.get(nextNode);
+	if (nextIndex == null) {
+		invalidateNodeIndexes();
+		return -1;
+	}
+	int position = nextIndex.intValue();
+	if ((position == 0) ? (getMostUpstreamNode() != node)
+		: (getDownstreamNode(nodes[position - 1], POSITION_COMPUTATIONAL) != node)) {
+		invalidateNodeIndexes();
+		return -1;
+	}
+	HydrologyNode [] newNodes = new HydrologyNode[nodes.length + 1];
+	System.arraycopy(nodes, 0, newNodes, 0, position);
+	newNodes[position] = node;
+	System.arraycopy(nodes, position, newNodes, position + 1, nodes.length - position);
+	for (int i = position; i < newNodes.length; i++) {
+		__computationalIndexMap.put(newNodes[i], Integer.valueOf(i));
+	}
+	String [] nodeIndexIds = new String[newNodes.length];
+	System.arraycopy(__nodeIndexIds, 0, nodeIndexIds, 0, position);
+	nodeIndexIds[position] = node.getCommonID();
+	System.arraycopy(__nodeIndexIds, position, nodeIndexIds, position + 1, nodes.length - position);
+	__nodeIndexIds = nodeIndexIds;
+	String key = getNodeIdKey(node.getCommonID());
+	HydrologyNode firstNode = __nodeIdIndex.get(key);
+	if (firstNode == null) {
+		__nodeIdIndex.put(key, node);
+	}
+	else {
+		__duplicateNodeIdKeys.add(key);
+		if (__computationalIndexMap.get(firstNode).intValue() > position) {
+			__nodeIdIndex.put(key, node);
+		}
+	}
+	updateNodeTypePositions(node, position, true);
+	setComputationalOrderNodes(newNodes);
+	__upstreamTreeNodes = null;
+	__nodeDepth = null;
+	__nodeIndexVersion = getStructureVersion();
+	__nodeIndexHead = __nodeHead;
+	saveAttributeChangeLogPosition();
+	return position;
+}
+
+/**
+Update the node indexes for a node that has been removed from the network by deleteNode(), without traversing the
+network.  The node is removed from the computational order array and the positions of the nodes downstream in
+computational order are shifted.  The lists of nodes by type are updated in the same way.
+The upstream tree and node depths are rebuilt from the array when next needed.
+If the indexes were not current before the node was removed, the neighboring nodes in computational order are
+not now adjacent, or other nodes have the same identifier, the indexes are rebuilt when next needed.
+@param nodes the nodes in computational order before the node was removed.
+@param node the node that was removed.
+@param sameOrder whether the computational order of the other nodes is unchanged by removing the node
+(see isTributaryOrderConsistent()).
+@return the position in computational order that the node was removed from, or -1 if the indexes will be rebuilt.
+*/
+private int updateNodeIndexesForDeletedNode(HydrologyNode [] nodes, HydrologyNode node, boolean sameOrder) {
+	if (!sameOrder || (nodes != __computationalOrderNodes) || (__computationalIndexMap == null)) {
+		invalidateNodeIndexes();
+		return -1;
+	}
+	Integer index = __computationalIndexMap.get(node);
+	String key = getNodeIdKey(node.getCommonID());
+	if ((index == null) || (index.intValue() == (nodes.length - 1)) || __duplicateNodeIdKeys.contains(key)) {
+		invalidateNodeIndexes();
+		return -1;
+	}
+	int position = index.intValue();
+	if ((position == 0) ? (getMostUpstreamNode() != nodes[1])
+		: (getDownstreamNode(nodes[position - 1], POSITION_COMPUTATIONAL) != nodes[position + 1])) {
+		invalidateNodeIndexes();
+		return -1;
+	}
+	HydrologyNode [] newNodes = new HydrologyNode[nodes.length - 1];
+	System.arraycopy(nodes, 0, newNodes, 0, position);
+	System.arraycopy(nodes, position + 1, newNodes, position, newNodes.length - position);
+	__computationalIndexMap.remove(node);
+	for (int i = position; i < newNodes.length; i++) {
+		__computationalIndexMap.put(newNodes[i], Integer.valueOf(i));
+	}
+	String [] nodeIndexIds = new String[newNodes.length];
+	System.arraycopy(__nodeIndexIds, 0, nodeIndexIds, 0, position);
+	System.arraycopy(__nodeIndexIds, position + 1, nodeIndexIds, position, newNodes.length - position);
+	__nodeIndexIds = nodeIndexIds;
+	__nodeIdIndex.remove(key);
+	updateNodeTypePositions(node, position, false);
+	setComputationalOrderNodes(newNodes);
+	__upstreamTreeNodes = null;
+	__nodeDepth = null;
+	__nodeIndexVersion = getStructureVersion();
+	__nodeIndexHead = __nodeHead;
+	saveAttributeChangeLogPosition();
+	return position;
+}
+
+/**
+Update a list of node positions in computational order so that it does or does not include a node, for a node whose
+type or flags may have changed.  The positions of the other nodes are unchanged.
+@param positions node positions in computational order, sorted.
+@param position the position of the node.
+@param inList whether the node belongs in the list.
+@return the same array if the list is unchanged, or a new array with the node added or removed,
+so that arrays that have been returned by other methods do not change.
+*/
+private static int [] updateNodePosition(int [] positions, int position, boolean inList) {
+	int i = Arrays.binarySearch(positions, position);
+	if ((i >= 0) == inList) {
+		return positions;
+	}
+	int [] newPositions;
+	if (inList) {
+		int start = -i - 1;
+		newPositions = new int[positions.length + 1];
+		System.arraycopy(positions, 0, newPositions, 0, start);
+		newPositions[start] = position;
+		System.arraycopy(positions, start, newPositions, start + 1, positions.length - start);
+	}
+	else {
+		newPositions = new int[positions.length - 1];
+		System.arraycopy(positions, 0, newPositions, 0, i);
+		System.arraycopy(positions, i + 1, newPositions, i, newPositions.length - i);
+	}
+	return newPositions;
+}
+
+/**
+Update a list of node positions in computational order for a node that has been inserted into or removed from the
+computational order.  A new array is returned so that arrays that have been returned by other methods do not change.
+@param positions node positions in computational order, sorted.
+@param position the position of the node that was inserted or removed.
+@param inList whether the node is in the list.
+@param insert true if the node was inserted, false if it was removed.
+@return the updated node positions.
+*/
+private static int [] updateNodePositions(int [] positions, int position, boolean inList, boolean insert) {
+	int i = Arrays.binarySearch(positions, position);
+	int start = (i >= 0) ? i : (-i - 1);
+	int [] newPositions;
+	if (insert) {
+		if (inList) {
+			newPositions = new int[positions.length + 1];
+			newPositions[start] = position;
+		}
+		else {
+			newPositions = new int[positions.length];
+		}
+		System.arraycopy(positions, 0, newPositions, 0, start);
+		int offset = newPositions.length - positions.length;
+		for (int j = start; j < positions.length; j++) {
+			newPositions[j + offset] = positions[j] + 1;
+		}
+	}
+	else {
+		newPositions = new int[inList ? (positions.length - 1) : positions.length];
+		System.arraycopy(positions, 0, newPositions, 0, start);
+		int offset = positions.length - newPositions.length;
+		for (int j = start + offset; j < positions.length; j++) {
+			newPositions[j - offset] = positions[j] - 1;
+		}
+	}
+	return newPositions;
+}
+
+/**
+Update the lists of nodes by type and natural flow and import flag (see __nodeTypePositions) for a node that has been
+inserted into or removed from the computational order.  If the lists have not been built, they are built when needed.
+@param node the node that was inserted or removed.
+@param position the position of the node in computational order.
+@param insert true if the node was inserted, false if it was removed.
+*/
+private void updateNodeTypePositions(HydrologyNode node, int position, boolean insert) {
+	if (__nodeTypePositions == null) {
+		return;
+	}
+	int nodeType = node.getType();
+	if (nodeType >= __nodeTypePositions.length) {
+		// New node type - rebuild the lists when needed.
+		__nodeTypePositions = null;
+		return;
+	}
+	int [][] nodeTypePositions = new int[__nodeTypePositions.length][];
+	for (int type = 0; type < nodeTypePositions.length; type++) {
+		nodeTypePositions[type] = updateNodePositions(__nodeTypePositions[type], position, type == nodeType, insert);
+	}
+	__modelNodePositions = updateNodePositions(__modelNodePositions, position, isModelNodeType(nodeType), insert);
+	__naturalFlowNodePositions = updateNodePositions(__naturalFlowNodePositions, position, node.getIsNaturalFlow(),
+		insert);
+	__importNodePositions = updateNodePositions(__importNodePositions, position, node.getIsImport(), insert);
+	__nodeTypePositions = nodeTypePositions;
+}
+
+/**
+Update the lists of nodes by type and natural flow and import flag (see __nodeTypePositions) for a node whose type
+or flags may have changed, removing the node from the lists that it no longer belongs to and adding it to the lists
+that it now belongs to.  The computational order position of the node is unchanged.
+@param node the node that may have changed.
+@param position the position of the node in computational order.
+*/
+private void updateNodeTypePositionsForChangedNode(HydrologyNode node, int position) {
+	if (__nodeTypePositions == null) {
+		return;
+	}
+	int nodeType = node.getType();
+	if (nodeType >= __nodeTypePositions.length) {
+		// New node type - rebuild the lists when needed.
+		__nodeTypePositions = null;
+		return;
+	}
+	int [][] nodeTypePositions = new int[__nodeTypePositions.length][];
+	for (int type = 0; type < nodeTypePositions.length; type++) {
+		nodeTypePositions[type] = updateNodePosition(__nodeTypePositions[type], position, type == nodeType);
+	}
+	__modelNodePositions = updateNodePosition(__modelNodePositions, position, isModelNodeType(nodeType));
+	__naturalFlowNodePositions = updateNodePosition(__naturalFlowNodePositions, position, node.getIsNaturalFlow());
+	__importNodePositions = updateNodePosition(__importNodePositions, position, node.getIsImport());
+	__nodeTypePositions = nodeTypePositions;
+}
+
 /**
 Writes a list of Hydrology_Node Objects to a list file.
 @param filename the name of the file to write.
@@ -5726,7 +7239,8 @@ throws Exception
 		limits = determineExtentFromNetworkData();
 		Message.printStatus(2, routine, "Calculated XML network limits=" + limits );
 	}
-	PrintWriter out = new PrintWriter(new FileOutputStream(filename));
+	// Buffer the output so that the many small writes for each node are written to the file in large blocks.
+	PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename)), 65536));
 
 	String n = System.getProperty("line.separator");
 
@@ -6132,11 +7646,11 @@ format =
 	if ( (layouts == null) || (layouts.size() == 0) ) { 
 		// Add a default layout...
 		out.print("    <PageLayout ID = \"Page Layout #1\"" + n);
+		out.print("        IsDefault = \"True\"" + n);
 		out.print("        PaperSize = \"C\"" + n);
 		out.print("        PageOrientation = \"Landscape\"" + n);
 		out.print("        NodeLabelFontSize = \"10\"" + n);
 		out.print("        NodeSize = \"20\"/>" + n);
-		out.print("        IsDefault = \"True\"/>" + n);
 	}
 	else {
 		String id = null;
@@ -6157,10 +7671,9 @@ format =
 			orient = layout.getValue("PageOrientation");
 			sFontSize = layout.getValue("NodeLabelFontSize");
 			sNodeSize = layout.getValue("NodeSize");
-			id = StringUtil.replaceString(id, "&", "&amp;");
-			id = StringUtil.replaceString(id, "<", "&lt;");
-			id = StringUtil.replaceString(id, ">", "&gt;");
-			out.print("    <PageLayout ID = \"" + id + "\"" + n);
+			out.print("    <PageLayout ID = \"");
+			HydrologyNode.writeEscapedXML(out, id);
+			out.print("\"" + n);
 			out.print("        IsDefault = \"" + isDefault + "\"" + n);
 			out.print("        PaperSize = \"" + paperFormat + "\"" + n);
 			out.print("        PageOrientation = \"" + orient + "\"" + n);
@@ -6169,23 +7682,14 @@ format =
 		}
 	}
 
-	HydrologyNode holdNode = null;
-	HydrologyNode node = getMostUpstreamNode();	
-	boolean done = false;
-	while (!done) {
-		node.writeNodeXML(out, false);
-		if (node.getType() == HydrologyNode.NODE_TYPE_END) {
-			done = true;
-		}		
-		else if (node == holdNode) {
-			done = true;
-		}
-
-		holdNode = node;	
-		node = getDownstreamNode(node, POSITION_COMPUTATIONAL);	
+	// Write the nodes in computational order
+	HydrologyNode [] nodes = getComputationalOrderNodes();
+	for ( int i = 0; i < nodes.length; i++ ) {
+		nodes[i].writeNodeXML(out, false);
 	}
 
-	String text = null;
+	HydrologyNode node = null;
+
 	if ( (annotations != null) && (annotations.size() > 0)) {
 		int size = annotations.size();
 		PropList p = null;
@@ -6195,11 +7699,9 @@ format =
 			out.print("    <Annotation" + n);
 			out.print("         ShapeType=\"Text\"" + n);
 
-			text = p.getValue("Text");
-			text = StringUtil.replaceString(text, "&", "&amp;");
-			text = StringUtil.replaceString(text, "<", "&lt;");
-			text = StringUtil.replaceString(text, ">", "&gt;");
-			out.print("         Text=\"" + text + "\"" + n);
+			out.print("         Text=\"");
+			HydrologyNode.writeEscapedXML(out, p.getValue("Text"));
+			out.print("\"" + n);
 			out.print("         Point=\"" + p.getValue("Point")	+ "\"" + n);
 			out.print("         TextPosition=\"" + p.getValue("TextPosition") + "\"" + n);
 			out.print("         FontName=\"" + p.getValue("FontName") + "\"" + n);
@@ -6220,55 +7722,49 @@ format =
 			if ( linkData == null ) {
 				linkData = "";
 			}
-			linkData = StringUtil.replaceString(linkData, "&", "&amp;");
-			linkData = StringUtil.replaceString(linkData, "<", "&lt;");
-			linkData = StringUtil.replaceString(linkData, ">", "&gt;");
-			out.print("         ID=\"" + linkData + "\"" + n);
+			out.print("         ID=\"");
+			HydrologyNode.writeEscapedXML(out, linkData);
+			out.print("\"" + n);
 			
 			linkData = p.getValue("FromNodeID");
 			if ( linkData == null ) {
 				linkData = "";
 			}
-			linkData = StringUtil.replaceString(linkData, "&", "&amp;");
-			linkData = StringUtil.replaceString(linkData, "<", "&lt;");
-			linkData = StringUtil.replaceString(linkData, ">", "&gt;");
-			out.print("         FromNodeID=\"" + linkData + "\"" + n);
+			out.print("         FromNodeID=\"");
+			HydrologyNode.writeEscapedXML(out, linkData);
+			out.print("\"" + n);
 
 			linkData = p.getValue("ToNodeID");
 			if ( linkData == null ) {
 				linkData = "";
 			}
-			linkData = StringUtil.replaceString(linkData, "&", "&amp;");
-			linkData = StringUtil.replaceString(linkData, "<", "&lt;");
-			linkData = StringUtil.replaceString(linkData, ">", "&gt;");
-			out.print("         ToNodeID=\"" + linkData + "\"" + n);
+			out.print("         ToNodeID=\"");
+			HydrologyNode.writeEscapedXML(out, linkData);
+			out.print("\"" + n);
 			
 			linkData = p.getValue("LineStyle");
 			if ( linkData == null ) {
 				linkData = "";
 			}
-			linkData = StringUtil.replaceString(linkData, "&", "&amp;");
-			linkData = StringUtil.replaceString(linkData, "<", "&lt;");
-			linkData = StringUtil.replaceString(linkData, ">", "&gt;");
-			out.print("         LineStyle=\"" + linkData + "\"" + n);
+			out.print("         LineStyle=\"");
+			HydrologyNode.writeEscapedXML(out, linkData);
+			out.print("\"" + n);
 			
 			linkData = p.getValue("FromArrowStyle");
 			if ( linkData == null ) {
 				linkData = "";
 			}
-			linkData = StringUtil.replaceString(linkData, "&", "&amp;");
-			linkData = StringUtil.replaceString(linkData, "<", "&lt;");
-			linkData = StringUtil.replaceString(linkData, ">", "&gt;");
-			out.print("         FromArrowStyle=\"" + linkData + "\"" + n);
+			out.print("         FromArrowStyle=\"");
+			HydrologyNode.writeEscapedXML(out, linkData);
+			out.print("\"" + n);
 			
 			linkData = p.getValue("ToArrowStyle");
 			if ( linkData == null ) {
 				linkData = "";
 			}
-			linkData = StringUtil.replaceString(linkData, "&", "&amp;");
-			linkData = StringUtil.replaceString(linkData, "<", "&lt;");
-			linkData = StringUtil.replaceString(linkData, ">", "&gt;");
-			out.print("         ToArrowStyle=\"" + linkData + "\"/>" + n); // Close element
+			out.print("         ToArrowStyle=\"");
+			HydrologyNode.writeEscapedXML(out, linkData);
+			out.print("\"/>" + n); // Close element
 		}
 	}
 
@@ -0,0 +1,175 @@
+// HydrologyNodeNetworkCheckProblem - problem found when checking the integrity of a node network
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+A problem found when checking the integrity of a node network (see HydrologyNodeNetworkCheckReport).
+Each problem has a type, the identifiers of the nodes involved, and a message suitable for a log file.
+*/
+public class HydrologyNodeNetworkCheckProblem
+{
+
+/**
+Nodes are downstream of themselves.  The node identifiers are the nodes in the cycle, in downstream order.
+*/
+public static final int CYCLE = 1;
+
+/**
+An upstream node identifier does not match a node.  The node identifiers are the node and the unmatched identifier.
+*/
+public static final int DANGLING_UPSTREAM_ID = 2;
+
+/**
+A downstream node identifier does not match a node.  The node identifiers are the node and the unmatched identifier.
+*/
+public static final int DANGLING_DOWNSTREAM_ID = 3;
+
+/**
+More than one node has the same identifier, ignoring case.  The node identifiers are the duplicate identifiers.
+*/
+public static final int DUPLICATE_ID = 4;
+
+/**
+The downstream node of a node does not list the node as an upstream node.
+The node identifiers are the node, its downstream node, and the node that lists it as upstream (if any).
+*/
+public static final int INCONSISTENT_DOWNSTREAM = 5;
+
+/**
+The tributary number of a node does not match its position in the upstream nodes of its downstream node.
+The node identifiers are the node and its downstream node.
+*/
+public static final int INCONSISTENT_TRIBUTARY_NUMBER = 6;
+
+/**
+More than one END node is found.  The node identifiers are the END nodes, with the END node that is used first.
+*/
+public static final int MULTIPLE_END_NODES = 7;
+
+/**
+A node is listed as upstream of more than one node.
+The node identifiers are the node and the nodes that list it as upstream.
+*/
+public static final int MULTIPLE_DOWNSTREAM = 8;
+
+/**
+No END node is found.  There are no node identifiers.
+*/
+public static final int NO_END_NODE = 9;
+
+/**
+Nodes are not upstream of the END node.  The node identifiers are the nodes, with the most downstream node first.
+*/
+public static final int UNREACHABLE_NODES = 10;
+
+/**
+A node lists the same upstream node more than once.  The node identifiers are the node and the upstream node.
+*/
+public static final int DUPLICATE_UPSTREAM = 11;
+
+/**
+Problem type.
+*/
+private final int __type;
+
+/**
+Identifiers of the nodes involved in the problem.
+*/
+private final List<String> __nodeIDs;
+
+/**
+Message describing the problem.
+*/
+private final String __message;
+
+/**
+Create a problem.
+@param type the problem type (see the static values in this class).
+@param nodeIDs identifiers of the nodes involved in the problem.
+@param message message describing the problem.
+*/
+HydrologyNodeNetworkCheckProblem ( int type, List<String> nodeIDs, String message )
+{	__type = type;
+	__nodeIDs = Collections.unmodifiableList(nodeIDs);
+	__message = message;
+}
+
+/**
+Return the message describing the problem.
+@return the message describing the problem.
+*/
+public String getMessage ()
+{	return __message;
+}
+
+/**
+Return the identifiers of the nodes involved in the problem.  See the problem types for the order.
+@return the identifiers of the nodes involved in the problem, as an unmodifiable list.
+*/
+public List<String> getNodeIDs ()
+{	return __nodeIDs;
+}
+
+/**
+Return the problem type.
+@return the problem type (see the static values in this class).
+*/
+public int getType ()
+{	return __type;
+}
+
+/**
+Return the string for a problem type.
+@param type the problem type.
+@return the string for the problem type, for example "Cycle".
+*/
+public static String getTypeString ( int type )
+{	switch ( type ) {
+		case CYCLE: return "Cycle";
+		case DANGLING_UPSTREAM_ID: return "DanglingUpstreamID";
+		case DANGLING_DOWNSTREAM_ID: return "DanglingDownstreamID";
+		case DUPLICATE_ID: return "DuplicateID";
+		case DUPLICATE_UPSTREAM: return "DuplicateUpstream";
+		case INCONSISTENT_DOWNSTREAM: return "InconsistentDownstream";
+		case INCONSISTENT_TRIBUTARY_NUMBER: return "InconsistentTributaryNumber";
+		case MULTIPLE_END_NODES: return "MultipleEndNodes";
+		case MULTIPLE_DOWNSTREAM: return "MultipleDownstream";
+		case NO_END_NODE: return "NoEndNode";
+		case UNREACHABLE_NODES: return "UnreachableNodes";
+		default: return "Unknown";
+	}
+}
+
+/**
+Return a string for the problem, including the type and message.
+@return a string for the problem.
+*/
+public String toString ()
+{	return getTypeString(__type) + ": " + __message;
+}
+
+}
@@ -0,0 +1,479 @@
+// HydrologyNodeNetworkCheckReport - result of checking the integrity of a node network
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+Result of checking the integrity of a node network (see HydrologyNodeNetwork.checkNetworkIntegrity()).
+The check is done in one pass over the nodes (time proportional to the number of nodes and upstream links)
+and detects cycles, nodes that are not upstream of the END node, upstream and downstream identifiers that
+do not match a node, downstream nodes that do not match upstream nodes, upstream nodes that are listed more than
+once by the same node, missing and multiple END nodes, inconsistent tributary numbers, and duplicate identifiers
+(ignoring case).
+<p>
+The check can be done on a connected network (using the upstream and downstream node references) or on a list of
+nodes that are connected only by upstream and downstream node identifiers, such as nodes read from a file
+before calling HydrologyNodeNetwork.calculateNetworkNodeData().
+In both cases the upstream nodes define the network, consistent with how the network is traversed,
+and the downstream node of each node is checked against the node that lists it as upstream.
+*/
+public class HydrologyNodeNetworkCheckReport
+{
+
+/**
+Number of nodes that were checked.
+*/
+private final int __nodeCount;
+
+/**
+Problems that were found, in the order found.
+*/
+private final List<HydrologyNodeNetworkCheckProblem> __problems = new ArrayList<HydrologyNodeNetworkCheckProblem>();
+
+/**
+Create an empty report.
+@param nodeCount number of nodes that were checked.
+*/
+private HydrologyNodeNetworkCheckReport ( int nodeCount )
+{	__nodeCount = nodeCount;
+}
+
+/**
+Add a problem to the report.
+*/
+private void addProblem ( int type, List<String> nodeIDs, String message )
+{	__problems.add(new HydrologyNodeNetworkCheckProblem(type, nodeIDs, message));
+}
+
+/**
+Check a connected network, starting from the head node.  All nodes that can be found by following upstream and
+downstream node references are checked, including nodes that are not upstream of the head node.
+@param head the head (END) node of the network.
+@return the check report.
+*/
+static HydrologyNodeNetworkCheckReport check ( HydrologyNode head )
+{	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	if ( head == null ) {
+		return check(nodes, true);
+	}
+	// Find the nodes connected to the head node, in either direction.
+	// The map is also used by the check so that nodes are only looked up once.
+	IdentityHashMap<HydrologyNode,Integer> nodeIndex = new IdentityHashMap<HydrologyNode,Integer>();
+	nodes.add(head);
+	nodeIndex.put(head, 0);
+	HydrologyNode node, downstreamNode, upstreamNode;
+	List<HydrologyNode> upstreamNodes;
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		node = nodes.get(i);
+		downstreamNode = node.getDownstreamNode();
+		if ( (downstreamNode != null) && !nodeIndex.containsKey(downstreamNode) ) {
+			nodeIndex.put(downstreamNode, nodes.size());
+			nodes.add(downstreamNode);
+		}
+		upstreamNodes = node.getUpstreamNodes();
+		if ( upstreamNodes != null ) {
+			for ( int j = 0; j < upstreamNodes.size(); j++ ) {
+				upstreamNode = upstreamNodes.get(j);
+				if ( (upstreamNode != null) && !nodeIndex.containsKey(upstreamNode) ) {
+					nodeIndex.put(upstreamNode, nodes.size());
+					nodes.add(upstreamNode);
+				}
+			}
+		}
+	}
+	return check(nodes, nodeIndex);
+}
+
+/**
+Check a list of nodes.
+@param nodeList the nodes to check.  The first END node in the list is used as the network END node.
+@param useReferences if true, use the upstream and downstream node references to connect the nodes and check the
+tributary numbers, for example for a network that has been processed with
+HydrologyNodeNetwork.calculateNetworkNodeData().
+If false, use the upstream and downstream node identifiers, for example for nodes read from a file.
+@return the check report.
+*/
+static HydrologyNodeNetworkCheckReport check ( List<HydrologyNode> nodeList, boolean useReferences )
+{	IdentityHashMap<HydrologyNode,Integer> nodeIndex = null;
+	if ( useReferences ) {
+		nodeIndex = new IdentityHashMap<HydrologyNode,Integer>();
+		for ( int i = 0; i < nodeList.size(); i++ ) {
+			if ( !nodeIndex.containsKey(nodeList.get(i)) ) {
+				nodeIndex.put(nodeList.get(i), i);
+			}
+		}
+	}
+	return check(nodeList, nodeIndex);
+}
+
+/**
+Check a list of nodes.
+@param nodeList the nodes to check.
+@param nodeIndex position of each node in the list, used to follow node references,
+or null to use node identifiers.
+@return the check report.
+*/
+private static HydrologyNodeNetworkCheckReport check ( List<HydrologyNode> nodeList,
+	IdentityHashMap<HydrologyNode,Integer> nodeIndex )
+{	int n = nodeList.size();
+	HydrologyNode [] nodes = nodeList.toArray(new HydrologyNode[n]);
+	HydrologyNodeNetworkCheckReport report = new HydrologyNodeNetworkCheckReport(n);
+	boolean useReferences = (nodeIndex != null);
+
+	// Index the nodes by case-insensitive identifier and find duplicate identifiers and END nodes.
+	String [] ids = new String[n];
+	HydrologyNodeIdTable idTable = new HydrologyNodeIdTable(n);
+	Map<Integer,List<String>> duplicates = new LinkedHashMap<Integer,List<String>>();
+	List<String> endIDs = new ArrayList<String>();
+	int endNode = -1;
+	String key;
+	int j;
+	for ( int i = 0; i < n; i++ ) {
+		ids[i] = (nodes[i].getCommonID() == null) ? "" : nodes[i].getCommonID();
+		key = HydrologyNodeNetwork.getNodeIdKey(ids[i]);
+		j = idTable.get(key);
+		if ( j < 0 ) {
+			idTable.put(key, i);
+		}
+		else {
+			List<String> duplicateIDs = duplicates.get(j);
+			if ( duplicateIDs == null ) {
+				duplicateIDs = new ArrayList<String>();
+				duplicateIDs.add(ids[j]);
+				duplicates.put(j, duplicateIDs);
+			}
+			duplicateIDs.add(ids[i]);
+		}
+		if ( nodes[i].getType() == HydrologyNode.NODE_TYPE_END ) {
+			if ( endNode < 0 ) {
+				endNode = i;
+			}
+			endIDs.add(ids[i]);
+		}
+	}
+	for ( List<String> duplicateIDs : duplicates.values() ) {
+		report.addProblem(HydrologyNodeNetworkCheckProblem.DUPLICATE_ID, duplicateIDs,
+			duplicateIDs.size() + " nodes have identifier \"" + duplicateIDs.get(0) + "\" (ignoring case): " +
+			formatIDs(duplicateIDs));
+	}
+	if ( endNode < 0 ) {
+		report.addProblem(HydrologyNodeNetworkCheckProblem.NO_END_NODE, new ArrayList<String>(),
+			"Network does not have an END node.");
+	}
+	else if ( endIDs.size() > 1 ) {
+		report.addProblem(HydrologyNodeNetworkCheckProblem.MULTIPLE_END_NODES, endIDs,
+			"Network has " + endIDs.size() + " END nodes: " + formatIDs(endIDs) + " - using \"" + ids[endNode] + "\".");
+	}
+
+	// Determine the downstream node of each node from the nodes that list it as upstream.
+	int [] parent = new int[n];
+	int [] tributaryPosition = new int[n];
+	Arrays.fill(parent, -1);
+	// Whether a node is listed more than once by its downstream node, so that the problem is only reported once.
+	boolean [] duplicateUpstream = new boolean[n];
+	List<HydrologyNode> upstreamNodes;
+	String [] upstreamIDs;
+	int upstreamCount;
+	for ( int i = 0; i < n; i++ ) {
+		upstreamNodes = null;
+		upstreamIDs = null;
+		if ( useReferences ) {
+			upstreamNodes = nodes[i].getUpstreamNodes();
+			upstreamCount = (upstreamNodes == null) ? 0 : upstreamNodes.size();
+		}
+		else {
+			upstreamIDs = nodes[i].getUpstreamNodeIDs();
+			upstreamCount = upstreamIDs.length;
+		}
+		for ( int pos = 0; pos < upstreamCount; pos++ ) {
+			if ( useReferences ) {
+				Integer upstreamNode = nodeIndex.get(upstreamNodes.get(pos));
+				if ( upstreamNode == null ) {
+					// Null reference or node not in the list being checked.
+					continue;
+				}
+				j = upstreamNode;
+			}
+			else {
+				j = (upstreamIDs[pos] == null) ? -1 : idTable.get(HydrologyNodeNetwork.getNodeIdKey(upstreamIDs[pos]));
+				if ( j < 0 ) {
+					report.addProblem(HydrologyNodeNetworkCheckProblem.DANGLING_UPSTREAM_ID,
+						Arrays.asList(ids[i], upstreamIDs[pos]),
+						"Upstream node \"" + upstreamIDs[pos] + "\" of node \"" + ids[i] + "\" does not exist.");
+					continue;
+				}
+			}
+			if ( parent[j] < 0 ) {
+				parent[j] = i;
+				tributaryPosition[j] = pos;
+			}
+			else if ( parent[j] != i ) {
+				report.addProblem(HydrologyNodeNetworkCheckProblem.MULTIPLE_DOWNSTREAM,
+					Arrays.asList(ids[j], ids[parent[j]], ids[i]),
+					"Node \"" + ids[j] + "\" is upstream of both \"" + ids[parent[j]] + "\" and \"" + ids[i] +
+					"\" - using \"" + ids[parent[j]] + "\".");
+			}
+			else if ( !duplicateUpstream[j] ) {
+				duplicateUpstream[j] = true;
+				report.addProblem(HydrologyNodeNetworkCheckProblem.DUPLICATE_UPSTREAM,
+					Arrays.asList(ids[i], ids[j]),
+					"Node \"" + ids[i] + "\" lists upstream node \"" + ids[j] + "\" more than once - using upstream node " +
+					(tributaryPosition[j] + 1) + ".");
+			}
+		}
+	}
+
+	// Check the downstream node and tributary number of each node against the node that lists it as upstream.
+	HydrologyNode downstreamNode;
+	String downstreamID;
+	int downstream;
+	for ( int i = 0; i < n; i++ ) {
+		downstream = -1;
+		downstreamID = null;
+		if ( useReferences ) {
+			downstreamNode = nodes[i].getDownstreamNode();
+			if ( downstreamNode != null ) {
+				Integer downstreamIndex = nodeIndex.get(downstreamNode);
+				downstream = (downstreamIndex == null) ? -1 : downstreamIndex;
+				downstreamID = (downstreamNode.getCommonID() == null) ? "" : downstreamNode.getCommonID();
+			}
+		}
+		else {
+			downstreamID = nodes[i].getDownstreamNodeID();
+			if ( (downstreamID != null) && !downstreamID.isEmpty() ) {
+				downstream = idTable.get(HydrologyNodeNetwork.getNodeIdKey(downstreamID));
+				if ( downstream < 0 ) {
+					report.addProblem(HydrologyNodeNetworkCheckProblem.DANGLING_DOWNSTREAM_ID,
+						Arrays.asList(ids[i], downstreamID),
+						"Downstream node \"" + downstreamID + "\" of node \"" + ids[i] + "\" does not exist.");
+					continue;
+				}
+			}
+		}
+		if ( downstream != parent[i] ) {
+			// Nodes read from a file often only have upstream identifiers so only check downstream identifiers
+			// that are specified, but connected nodes must have matching references in both directions.
+			if ( (downstream >= 0) && (parent[i] >= 0) ) {
+				report.addProblem(HydrologyNodeNetworkCheckProblem.INCONSISTENT_DOWNSTREAM,
+					Arrays.asList(ids[i], downstreamID, ids[parent[i]]),
+					"Downstream node of \"" + ids[i] + "\" is \"" + downstreamID + "\" but node \"" +
+					ids[parent[i]] + "\" lists it as upstream.");
+			}
+			else if ( downstream >= 0 ) {
+				report.addProblem(HydrologyNodeNetworkCheckProblem.INCONSISTENT_DOWNSTREAM,
+					Arrays.asList(ids[i], downstreamID),
+					"Downstream node of \"" + ids[i] + "\" is \"" + downstreamID +
+					"\" but that node does not list it as upstream.");
+			}
+			else if ( useReferences && (downstreamID == null) ) {
+				report.addProblem(HydrologyNodeNetworkCheckProblem.INCONSISTENT_DOWNSTREAM,
+					Arrays.asList(ids[i], "", ids[parent[i]]),
+					"Node \"" + ids[i] + "\" does not have a downstream node but node \"" + ids[parent[i]] +
+					"\" lists it as upstream.");
+			}
+		}
+		if ( useReferences && (parent[i] >= 0) && (nodes[i].getTributaryNumber() != (tributaryPosition[i] + 1)) ) {
+			report.addProblem(HydrologyNodeNetworkCheckProblem.INCONSISTENT_TRIBUTARY_NUMBER,
+				Arrays.asList(ids[i], ids[parent[i]]),
+				"Tributary number of \"" + ids[i] + "\" is " + nodes[i].getTributaryNumber() +
+				" but it is upstream node " + (tributaryPosition[i] + 1) + " of \"" + ids[parent[i]] + "\".");
+		}
+	}
+
+	// Follow the downstream nodes from each node to find cycles and nodes that are not upstream of the END node.
+	// Each node is visited once: the result for a node is saved and used when the node is reached again.
+	// root[i] is the most downstream node reached from node i (or the first node of a cycle).
+	final int UNVISITED = -2, ON_PATH = -1;
+	int [] root = new int[n];
+	Arrays.fill(root, UNVISITED);
+	boolean [] inCycle = new boolean[n];
+	int [] path = new int[n];
+	int pathLength, pathRoot;
+	for ( int i = 0; i < n; i++ ) {
+		if ( root[i] != UNVISITED ) {
+			continue;
+		}
+		pathLength = 0;
+		j = i;
+		while ( (j >= 0) && (root[j] == UNVISITED) ) {
+			root[j] = ON_PATH;
+			path[pathLength++] = j;
+			j = parent[j];
+		}
+		if ( j < 0 ) {
+			pathRoot = path[pathLength - 1];
+		}
+		else if ( root[j] == ON_PATH ) {
+			// Reached a node on the current path so the path from that node is a cycle.
+			int first = pathLength - 1;
+			while ( path[first] != j ) {
+				--first;
+			}
+			List<String> cycleIDs = new ArrayList<String>();
+			for ( int k = first; k < pathLength; k++ ) {
+				cycleIDs.add(ids[path[k]]);
+				inCycle[path[k]] = true;
+			}
+			report.addProblem(HydrologyNodeNetworkCheckProblem.CYCLE, cycleIDs,
+				"Nodes are downstream of themselves: " + formatIDs(cycleIDs));
+			pathRoot = j;
+		}
+		else {
+			pathRoot = root[j];
+		}
+		for ( int k = 0; k < pathLength; k++ ) {
+			root[path[k]] = pathRoot;
+		}
+	}
+	if ( endNode >= 0 ) {
+		// Group the nodes that are not upstream of the END node by their most downstream node.
+		Map<Integer,List<String>> unreachable = new LinkedHashMap<Integer,List<String>>();
+		for ( int i = 0; i < n; i++ ) {
+			if ( (root[i] != endNode) && !inCycle[i] ) {
+				List<String> unreachableIDs = unreachable.get(root[i]);
+				if ( unreachableIDs == null ) {
+					unreachableIDs = new ArrayList<String>();
+					unreachable.put(root[i], unreachableIDs);
+				}
+				unreachableIDs.add(ids[i]);
+			}
+		}
+		for ( Map.Entry<Integer,List<String>> entry : unreachable.entrySet() ) {
+			List<String> unreachableIDs = entry.getValue();
+			int rootNode = entry.getKey();
+			if ( !inCycle[rootNode] ) {
+				// Put the most downstream node first.
+				int pos = unreachableIDs.indexOf(ids[rootNode]);
+				Collections.swap(unreachableIDs, 0, pos);
+			}
+			report.addProblem(HydrologyNodeNetworkCheckProblem.UNREACHABLE_NODES, unreachableIDs,
+				unreachableIDs.size() + " node(s) are not upstream of END node \"" + ids[endNode] + "\"" +
+				(inCycle[rootNode] ? (" (upstream of cycle at \"" + ids[rootNode] + "\")") :
+				(" (most downstream node is \"" + ids[rootNode] + "\")")) + ": " + formatIDs(unreachableIDs));
+		}
+	}
+	return report;
+}
+
+/**
+Format a list of node identifiers for a message, limiting the number of identifiers that are shown.
+*/
+private static String formatIDs ( List<String> ids )
+{	StringBuilder b = new StringBuilder();
+	int size = Math.min(ids.size(), 20);
+	for ( int i = 0; i < size; i++ ) {
+		if ( i > 0 ) {
+			b.append(", ");
+		}
+		b.append("\"" + ids.get(i) + "\"");
+	}
+	if ( ids.size() > size ) {
+		b.append(", ... (" + (ids.size() - size) + " more)");
+	}
+	return b.toString();
+}
+
+/**
+Return the number of nodes that were checked.
+@return the number of nodes that were checked.
+*/
+public int getNodeCount ()
+{	return __nodeCount;
+}
+
+/**
+Return the number of problems that were found.
+@return the number of problems that were found.
+*/
+public int getProblemCount ()
+{	return __problems.size();
+}
+
+/**
+Return the number of problems of a type that were found.
+@param type the problem type (see HydrologyNodeNetworkCheckProblem).
+@return the number of problems of the type that were found.
+*/
+public int getProblemCount ( int type )
+{	int count = 0;
+	for ( HydrologyNodeNetworkCheckProblem problem : __problems ) {
+		if ( problem.getType() == type ) {
+			++count;
+		}
+	}
+	return count;
+}
+
+/**
+Return the problems that were found.
+@return the problems that were found, in the order found, as an unmodifiable list.
+*/
+public List<HydrologyNodeNetworkCheckProblem> getProblems ()
+{	return Collections.unmodifiableList(__problems);
+}
+
+/**
+Return the problems of a type that were found.
+@param type the problem type (see HydrologyNodeNetworkCheckProblem).
+@return the problems of the type that were found, in the order found.
+*/
+public List<HydrologyNodeNetworkCheckProblem> getProblems ( int type )
+{	List<HydrologyNodeNetworkCheckProblem> problems = new ArrayList<HydrologyNodeNetworkCheckProblem>();
+	for ( HydrologyNodeNetworkCheckProblem problem : __problems ) {
+		if ( problem.getType() == type ) {
+			problems.add(problem);
+		}
+	}
+	return problems;
+}
+
+/**
+Return whether the network is valid.
+@return true if no problems were found.
+*/
+public boolean isValid ()
+{	return __problems.isEmpty();
+}
+
+/**
+Return the report as strings, for example to print to a log file.
+@return a summary line followed by one line for each problem.
+*/
+public List<String> toStringList ()
+{	List<String> lines = new ArrayList<String>();
+	lines.add("Checked " + __nodeCount + " nodes, found " + __problems.size() + " problem(s).");
+	for ( HydrologyNodeNetworkCheckProblem problem : __problems ) {
+		lines.add(problem.toString());
+	}
+	return lines;
+}
+
+}
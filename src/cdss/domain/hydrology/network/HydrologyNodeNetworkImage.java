@@ -0,0 +1,837 @@
+// HydrologyNodeNetworkImage - binary network file that is read using a memory-mapped buffer
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import RTi.Util.IO.IOUtil;
+import RTi.Util.IO.Prop;
+import RTi.Util.IO.PropList;
+import RTi.Util.Message.Message;
+
+/**
+Binary network image file, which stores a HydrologyNodeNetwork so that it can be opened without parsing.
+The file is written with write() and opened with open(), which maps the file into memory.
+Node data are then read directly from the mapped buffer as needed by the accessors (getCommonID(), getType(),
+getDownstreamIndex(), etc.), and HydrologyNode objects are only created when getNode() or createNetwork() is called.
+getNode() returns an unconnected node that is cached by the image, whereas each call to createNetwork() creates
+all the nodes anew, so that networks created from the same image do not share nodes.  The node connections and the values calculated by
+HydrologyNodeNetwork.calculateNetworkNodeData() (tributary number, serial number, computational order, etc.)
+are saved in the file so that createNetwork() does not need to recalculate them.
+<p>
+All node data that describe the network are stored, including the data written by
+HydrologyNodeNetwork.writeXML() and the identifiers, descriptions, labels and other values that are set
+by other network readers (network identifier, river node identifier, user description, etc.).
+Display and run-time state is not stored: selection and visibility, symbols, WIS flow, call and right values,
+and the associated object of each node (annotations are stored with their property list).
+<p>
+Nodes are stored in computational order (the order of HydrologyNodeNetwork.getNodeList()) and are identified
+by their position in that order.  The file contains, in order:
+<ol>
+<li>	a header with the file version, counts, and the positions of the following sections</li>
+<li>	a fixed-length record for each node</li>
+<li>	the upstream node positions for each node, as an offset for each node followed by the positions</li>
+<li>	a string table with each distinct string stored once, as UTF-8</li>
+<li>	network data: title, edge buffer, legend position, page layouts, annotations, links, and labels</li>
+</ol>
+All values are big-endian.  The file version must be incremented if the format is changed.
+<p>
+An image is not thread safe.  Strings and nodes are created from the mapped file the first time that they are
+requested and are then cached, so an image that is shared between threads must be synchronized externally
+(for example, call createNetwork() from one thread and share the resulting network).
+*/
+public class HydrologyNodeNetworkImage
+{
+
+/**
+Value at the start of the file used to recognize the file ("HNNI").
+*/
+private static final int MAGIC = 0x484E4E49;
+
+/**
+Version of the file format.
+*/
+public static final int VERSION = 2;
+
+/**
+Size of the header, in bytes.
+*/
+private static final int HEADER_SIZE = 64;
+
+/**
+Size of each node record, in bytes, and the positions of data within the record.
+Doubles and longs are at the start of the record so that they are aligned.
+String values are positions in the string table, or -1 for null.
+*/
+private static final int NODE_RECORD_SIZE = 176;
+private static final int NODE_X = 0;
+private static final int NODE_Y = 8;
+private static final int NODE_DBX = 16;
+private static final int NODE_DBY = 24;
+private static final int NODE_AREA = 32;
+private static final int NODE_PRECIP = 40;
+private static final int NODE_WATER = 48;
+private static final int NODE_PRORATION_FACTOR = 56;
+private static final int NODE_STREAM_MILE = 64;
+private static final int NODE_LABEL_ANGLE = 72;
+private static final int NODE_LINK = 80;
+private static final int NODE_ID = 88;
+private static final int NODE_DESCRIPTION = 92;
+private static final int NODE_DOWNSTREAM = 96;
+private static final int NODE_TYPE = 100;
+private static final int NODE_FLAGS = 104;
+private static final int NODE_LABEL_DIRECTION = 108;
+private static final int NODE_TRIBUTARY_NUMBER = 112;
+private static final int NODE_SERIAL = 116;
+private static final int NODE_COMPUTATIONAL_ORDER = 120;
+private static final int NODE_NODE_IN_REACH_NUMBER = 124;
+private static final int NODE_REACH_COUNTER = 128;
+private static final int NODE_REACH_LEVEL = 132;
+private static final int NODE_UPSTREAM_ORDER = 136;
+private static final int NODE_USER_DESCRIPTION = 140;
+private static final int NODE_NET_ID = 144;
+private static final int NODE_RIVER_NODE_ID = 148;
+private static final int NODE_IDENTIFIER = 152;
+private static final int NODE_LABEL = 156;
+private static final int NODE_NODE_TYPE = 160;
+private static final int NODE_PRECIP_STRING = 164;
+private static final int NODE_WATER_STRING = 168;
+
+/**
+Flag bits stored in the NODE_FLAGS value.
+*/
+private static final int FLAG_NATURAL_FLOW = 0x1;
+private static final int FLAG_IMPORT = 0x2;
+private static final int FLAG_DRY_RIVER = 0x4;
+
+/**
+Buffer for the mapped file.
+*/
+private final ByteBuffer __buffer;
+
+/**
+Number of nodes.
+*/
+private final int __nodeCount;
+
+/**
+Number of strings in the string table.
+*/
+private final int __stringCount;
+
+/**
+Positions of the file sections.
+*/
+private final int __nodesOffset;
+private final int __upstreamOffset;
+private final int __stringsOffset;
+private final int __extrasOffset;
+
+/**
+Strings that have been decoded from the string table, null if not yet decoded.
+*/
+private final String [] __strings;
+
+/**
+Unconnected nodes that have been created by getNode(), null if not yet created.
+*/
+private final HydrologyNode [] __nodes;
+
+/**
+Construct an image from a buffer that has been checked by open().
+*/
+private HydrologyNodeNetworkImage ( ByteBuffer buffer )
+{	__buffer = buffer;
+	__nodeCount = buffer.getInt(8);
+	__stringCount = buffer.getInt(16);
+	__nodesOffset = (int)buffer.getLong(24);
+	__upstreamOffset = (int)buffer.getLong(32);
+	__stringsOffset = (int)buffer.getLong(40);
+	__extrasOffset = (int)buffer.getLong(48);
+	__strings = new String[__stringCount];
+	__nodes = new HydrologyNode[__nodeCount];
+}
+
+/**
+Check that a node position is valid.
+@param index node position in computational order.
+@exception IndexOutOfBoundsException if the position is not 0 to getNodeCount() - 1.
+*/
+private void checkIndex ( int index )
+{	if ( (index < 0) || (index >= __nodeCount) ) {
+		throw new IndexOutOfBoundsException ( "Node index " + index + " is not 0 to " + (__nodeCount - 1) );
+	}
+}
+
+/**
+Create a network from the image, creating all the nodes and connecting them.
+New nodes are created for each call, so each network is independent of other networks created from the image
+and of the nodes returned by getNode().
+The node numbers are restored from the image rather than being recalculated.
+@return a new network.
+*/
+public HydrologyNodeNetwork createNetwork ()
+{	HydrologyNode [] nodes = new HydrologyNode[__nodeCount];
+	for ( int i = 0; i < __nodeCount; i++ ) {
+		nodes[i] = createNode(i);
+	}
+	// Connect the nodes the same way as HydrologyNodeNetwork.calculateNetworkNodeData().
+	int downstreamIndex;
+	for ( int i = 0; i < __nodeCount; i++ ) {
+		downstreamIndex = getDownstreamIndex(i);
+		if ( downstreamIndex >= 0 ) {
+			nodes[i].setDownstreamNode(nodes[downstreamIndex]);
+		}
+	}
+	List<HydrologyNode> nodeList = new Vector<HydrologyNode>(__nodeCount);
+	for ( int i = 0; i < __nodeCount; i++ ) {
+		for ( int iUp = 0, upstreamCount = getUpstreamNodeCount(i); iUp < upstreamCount; iUp++ ) {
+			nodes[i].addUpstreamNode(nodes[getUpstreamIndex(i, iUp)]);
+		}
+		nodeList.add(nodes[i]);
+	}
+
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.setNetworkFromNodes(nodeList);
+	readExtras(network);
+	return network;
+}
+
+/**
+Create a node from the image.
+The node has its data and the identifiers of its downstream and upstream nodes,
+but is not connected to other nodes.
+@param index node position in computational order.
+@return a new node.
+*/
+private HydrologyNode createNode ( int index )
+{	HydrologyNode node = new HydrologyNode();
+	node.setType(getType(index));
+	node.setCommonID(getCommonID(index));
+	node.setDescription(getString(getNodeInt(index, NODE_DESCRIPTION)));
+	node.setUserDescription(getString(getNodeInt(index, NODE_USER_DESCRIPTION)));
+	node.setNetID(getString(getNodeInt(index, NODE_NET_ID)));
+	node.setRiverNodeID(getString(getNodeInt(index, NODE_RIVER_NODE_ID)));
+	node.setIdentifier(getString(getNodeInt(index, NODE_IDENTIFIER)));
+	node.setLabel(getString(getNodeInt(index, NODE_LABEL)));
+	node.setNodeType(getString(getNodeInt(index, NODE_NODE_TYPE)));
+	node.setPrecipString(getString(getNodeInt(index, NODE_PRECIP_STRING)));
+	node.setWaterString(getString(getNodeInt(index, NODE_WATER_STRING)));
+	int flags = getNodeInt(index, NODE_FLAGS);
+	node.setIsNaturalFlow((flags & FLAG_NATURAL_FLOW) != 0);
+	node.setIsImport((flags & FLAG_IMPORT) != 0);
+	node.setIsDryRiver((flags & FLAG_DRY_RIVER) != 0);
+	node.setLabelDirection(getNodeInt(index, NODE_LABEL_DIRECTION));
+	node.setX(getNodeDouble(index, NODE_X));
+	node.setY(getNodeDouble(index, NODE_Y));
+	node.setDBX(getNodeDouble(index, NODE_DBX));
+	node.setDBY(getNodeDouble(index, NODE_DBY));
+	node.setArea(getNodeDouble(index, NODE_AREA));
+	node.setPrecip(getNodeDouble(index, NODE_PRECIP));
+	node.setWater(getNodeDouble(index, NODE_WATER));
+	node.setProrationFactor(getNodeDouble(index, NODE_PRORATION_FACTOR));
+	node.setStreamMile(getNodeDouble(index, NODE_STREAM_MILE));
+	node.setLabelAngle(getNodeDouble(index, NODE_LABEL_ANGLE));
+	node.setLink(__buffer.getLong(__nodesOffset + index*NODE_RECORD_SIZE + NODE_LINK));
+	node.setTributaryNumber(getNodeInt(index, NODE_TRIBUTARY_NUMBER));
+	node.setSerial(getNodeInt(index, NODE_SERIAL));
+	node.setComputationalOrder(getNodeInt(index, NODE_COMPUTATIONAL_ORDER));
+	node.setNodeInReachNumber(getNodeInt(index, NODE_NODE_IN_REACH_NUMBER));
+	node.setReachCounter(getNodeInt(index, NODE_REACH_COUNTER));
+	node.setReachLevel(getNodeInt(index, NODE_REACH_LEVEL));
+	node.setUpstreamOrder(getNodeInt(index, NODE_UPSTREAM_ORDER));
+	int downstreamIndex = getDownstreamIndex(index);
+	if ( downstreamIndex >= 0 ) {
+		node.setDownstreamNodeID(getCommonID(downstreamIndex));
+	}
+	for ( int iUp = 0, upstreamCount = getUpstreamNodeCount(index); iUp < upstreamCount; iUp++ ) {
+		node.addUpstreamNodeID(getCommonID(getUpstreamIndex(index, iUp)));
+	}
+	return node;
+}
+
+/**
+Return the common identifier of a node.
+@param index node position in computational order.
+@return the node common identifier, possibly null.
+*/
+public String getCommonID ( int index )
+{	return getString(getNodeInt(index, NODE_ID));
+}
+
+/**
+Return the position of the node downstream of a node.
+@param index node position in computational order.
+@return the position of the downstream node, or -1 if the node has no downstream node.
+*/
+public int getDownstreamIndex ( int index )
+{	return getNodeInt(index, NODE_DOWNSTREAM);
+}
+
+/**
+Return whether a node is an import node.
+@param index node position in computational order.
+@return true if the node is an import node.
+*/
+public boolean getIsImport ( int index )
+{	return (getNodeInt(index, NODE_FLAGS) & FLAG_IMPORT) != 0;
+}
+
+/**
+Return whether a node is a natural flow node.
+@param index node position in computational order.
+@return true if the node is a natural flow node.
+*/
+public boolean getIsNaturalFlow ( int index )
+{	return (getNodeInt(index, NODE_FLAGS) & FLAG_NATURAL_FLOW) != 0;
+}
+
+/**
+Return a node, creating it from the image the first time it is requested.
+The node has its data and the identifiers of its downstream and upstream nodes,
+but is not connected to other nodes and is not used by createNetwork().
+@param index node position in computational order.
+@return the node.
+@exception IndexOutOfBoundsException if the position is not 0 to getNodeCount() - 1.
+*/
+public HydrologyNode getNode ( int index )
+{	checkIndex ( index );
+	HydrologyNode node = __nodes[index];
+	if ( node == null ) {
+		node = createNode(index);
+		__nodes[index] = node;
+	}
+	return node;
+}
+
+/**
+Return the number of nodes.
+@return the number of nodes.
+*/
+public int getNodeCount ()
+{	return __nodeCount;
+}
+
+/**
+Return a double value from a node record.
+*/
+private double getNodeDouble ( int index, int field )
+{	checkIndex ( index );
+	return __buffer.getDouble(__nodesOffset + index*NODE_RECORD_SIZE + field);
+}
+
+/**
+Return an integer value from a node record.
+*/
+private int getNodeInt ( int index, int field )
+{	checkIndex ( index );
+	return __buffer.getInt(__nodesOffset + index*NODE_RECORD_SIZE + field);
+}
+
+/**
+Return a string from the string table, decoding it the first time it is requested.
+@param stringIndex position in the string table, or -1 for a null string.
+*/
+private String getString ( int stringIndex )
+{	if ( stringIndex < 0 ) {
+		return null;
+	}
+	String s = __strings[stringIndex];
+	if ( s == null ) {
+		int offsetsPos = __stringsOffset + stringIndex*4;
+		int dataPos = __stringsOffset + (__stringCount + 1)*4;
+		int start = __buffer.getInt(offsetsPos);
+		byte [] bytes = new byte[__buffer.getInt(offsetsPos + 4) - start];
+		ByteBuffer buffer = __buffer.duplicate();
+		buffer.position(dataPos + start);
+		buffer.get(bytes);
+		s = new String(bytes, StandardCharsets.UTF_8);
+		__strings[stringIndex] = s;
+	}
+	return s;
+}
+
+/**
+Return the type of a node.
+@param index node position in computational order.
+@return the node type (HydrologyNode.NODE_TYPE_*).
+*/
+public int getType ( int index )
+{	return getNodeInt(index, NODE_TYPE);
+}
+
+/**
+Return the position of a node upstream of a node.
+@param index node position in computational order.
+@param position position in the node's upstream nodes, 0 to getUpstreamNodeCount(index) - 1.
+@return the position of the upstream node in computational order.
+*/
+public int getUpstreamIndex ( int index, int position )
+{	checkIndex ( index );
+	int first = __buffer.getInt(__upstreamOffset + index*4);
+	return __buffer.getInt(__upstreamOffset + (__nodeCount + 1 + first + position)*4);
+}
+
+/**
+Return the number of nodes immediately upstream of a node.
+@param index node position in computational order.
+@return the number of upstream nodes.
+*/
+public int getUpstreamNodeCount ( int index )
+{	checkIndex ( index );
+	int pos = __upstreamOffset + index*4;
+	return __buffer.getInt(pos + 4) - __buffer.getInt(pos);
+}
+
+/**
+Return the X coordinate of a node.
+@param index node position in computational order.
+@return the node X coordinate.
+*/
+public double getX ( int index )
+{	return getNodeDouble(index, NODE_X);
+}
+
+/**
+Return the Y coordinate of a node.
+@param index node position in computational order.
+@return the node Y coordinate.
+*/
+public double getY ( int index )
+{	return getNodeDouble(index, NODE_Y);
+}
+
+/**
+Open a network image file by mapping it into memory.  Only the header is read.
+@param filename name of the file to open.
+@return the network image.
+@throws IOException if the file cannot be read or is not a network image file with the supported version.
+*/
+public static HydrologyNodeNetworkImage open ( String filename )
+throws IOException
+{	filename = IOUtil.getPathUsingWorkingDir(filename);
+	RandomAccessFile file = new RandomAccessFile(filename, "r");
+	MappedByteBuffer buffer;
+	try {
+		FileChannel channel = file.getChannel();
+		long size = channel.size();
+		if ( size > Integer.MAX_VALUE ) {
+			throw new IOException ( "Network image file \"" + filename + "\" is too large (" + size + " bytes)." );
+		}
+		if ( size < HEADER_SIZE ) {
+			throw new IOException ( "File \"" + filename + "\" is not a network image file." );
+		}
+		// The mapping remains valid after the file is closed.
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	}
+	finally {
+		file.close();
+	}
+	if ( buffer.getInt(0) != MAGIC ) {
+		throw new IOException ( "File \"" + filename + "\" is not a network image file." );
+	}
+	int version = buffer.getInt(4);
+	if ( version != VERSION ) {
+		throw new IOException ( "Network image file \"" + filename + "\" version " + version +
+			" is not supported (expecting version " + VERSION + ")." );
+	}
+	if ( (buffer.getInt(20) != NODE_RECORD_SIZE) || (buffer.getLong(56) != buffer.capacity()) ) {
+		throw new IOException ( "Network image file \"" + filename + "\" is incomplete or corrupt." );
+	}
+	return new HydrologyNodeNetworkImage(buffer);
+}
+
+/**
+Read the network data (title, edge buffer, legend, page layouts, annotations, links and labels) into a network.
+*/
+private void readExtras ( HydrologyNodeNetwork network )
+{	ByteBuffer buffer = __buffer.duplicate();
+	buffer.position(__extrasOffset);
+	network.setTitle(getString(buffer.getInt()));
+	double [] edgeBuffer = new double[4];
+	for ( int i = 0; i < edgeBuffer.length; i++ ) {
+		edgeBuffer[i] = buffer.getDouble();
+	}
+	network.setEdgeBuffer(edgeBuffer);
+	boolean legendPositionSet = (buffer.getInt() != 0);
+	double legendX = buffer.getDouble();
+	double legendY = buffer.getDouble();
+	if ( legendPositionSet ) {
+		network.setLegendPosition(legendX, legendY);
+	}
+
+	int count = buffer.getInt();
+	List<PropList> layoutList = new Vector<PropList>(count);
+	for ( int i = 0; i < count; i++ ) {
+		layoutList.add(readPropList(buffer));
+	}
+	network.setLayoutList(layoutList);
+
+	count = buffer.getInt();
+	List<HydrologyNode> annotationList = new Vector<HydrologyNode>(count);
+	HydrologyNode annotation;
+	for ( int i = 0; i < count; i++ ) {
+		annotation = new HydrologyNode();
+		annotation.setCommonID(getString(buffer.getInt()));
+		annotation.setType(buffer.getInt());
+		annotation.setX(buffer.getDouble());
+		annotation.setY(buffer.getDouble());
+		annotation.setAssociatedObject(readPropList(buffer));
+		annotationList.add(annotation);
+	}
+	network.setAnnotationList(annotationList);
+
+	count = buffer.getInt();
+	List<PropList> linkList = new Vector<PropList>(count);
+	for ( int i = 0; i < count; i++ ) {
+		linkList.add(readPropList(buffer));
+	}
+	network.setLinkList(linkList);
+
+	count = buffer.getInt();
+	double x, y, size;
+	int flag;
+	for ( int i = 0; i < count; i++ ) {
+		x = buffer.getDouble();
+		y = buffer.getDouble();
+		size = buffer.getDouble();
+		flag = buffer.getInt();
+		network.addLabel(x, y, size, flag, getString(buffer.getInt()));
+	}
+}
+
+/**
+Read a property list, or null if it was written as null.
+*/
+private PropList readPropList ( ByteBuffer buffer )
+{	int nameIndex = buffer.getInt();
+	int count = buffer.getInt();
+	if ( count < 0 ) {
+		return null;
+	}
+	String name = getString(nameIndex);
+	PropList props = new PropList(name == null ? "" : name);
+	for ( int i = 0; i < count; i++ ) {
+		String key = getString(buffer.getInt());
+		props.set(key, getString(buffer.getInt()));
+	}
+	return props;
+}
+
+/**
+Write a network to a network image file.
+Only the nodes in computational order are written, the same as with HydrologyNodeNetwork.writeXML().
+@param network the network to write.
+@param filename the name of the file to write.
+@throws IOException if there is an error writing the file.
+*/
+public static void write ( HydrologyNodeNetwork network, String filename )
+throws IOException
+{	String routine = HydrologyNodeNetworkImage.class.getSimpleName() + ".write";
+	filename = IOUtil.getPathUsingWorkingDir(filename);
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	int nodeCount = nodes.length;
+	Message.printStatus(2, routine, "Writing network image with " + nodeCount + " nodes to \"" + filename + "\"" );
+
+	// Add node strings to the string table and determine the upstream nodes.
+	StringTable strings = new StringTable(nodeCount*2);
+	int [] idStrings = new int[nodeCount];
+	int [] descriptionStrings = new int[nodeCount];
+	// User description, network identifier, river node identifier, identifier, label, node type, precipitation
+	// and water strings for each node.
+	int [][] otherStrings = new int[nodeCount][];
+	int [] upstreamOffsets = new int[nodeCount + 1];
+	int [] upstreamIndexes = new int[nodeCount];
+	int upstreamCount = 0;
+	HydrologyNode node, upstreamNode;
+	int upstreamIndex;
+	for ( int i = 0; i < nodeCount; i++ ) {
+		node = nodes[i];
+		idStrings[i] = strings.add(node.getCommonID());
+		descriptionStrings[i] = strings.add(node.getDescription());
+		otherStrings[i] = new int[] {
+			strings.add(node.getUserDescription()),
+			strings.add(node.getNetID()),
+			strings.add(node.getRiverNodeID()),
+			strings.add(node.getIdentifier()),
+			strings.add(node.getLabel()),
+			strings.add(node.getNodeType()),
+			strings.add(node.getPrecipString()),
+			strings.add(node.getWaterString())
+		};
+		upstreamOffsets[i] = upstreamCount;
+		for ( int iUp = 0; iUp < node.getNumUpstreamNodes(); iUp++ ) {
+			upstreamNode = node.getUpstreamNode(iUp);
+			upstreamIndex = (upstreamNode == null) ? -1 : network.getComputationalIndex(upstreamNode);
+			if ( upstreamIndex >= 0 ) {
+				if ( upstreamCount == upstreamIndexes.length ) {
+					int [] newIndexes = new int[upstreamIndexes.length*2];
+					System.arraycopy(upstreamIndexes, 0, newIndexes, 0, upstreamCount);
+					upstreamIndexes = newIndexes;
+				}
+				upstreamIndexes[upstreamCount++] = upstreamIndex;
+			}
+		}
+	}
+	upstreamOffsets[nodeCount] = upstreamCount;
+	// Network data are formatted before the string table is written because they add strings.
+	byte [] extras = writeExtras(network, strings);
+	byte [][] stringBytes = strings.getBytes();
+	long stringBytesLength = 0;
+	for ( int i = 0; i < stringBytes.length; i++ ) {
+		stringBytesLength += stringBytes[i].length;
+	}
+
+	long nodesOffset = HEADER_SIZE;
+	long upstreamOffset = nodesOffset + (long)nodeCount*NODE_RECORD_SIZE;
+	long stringsOffset = upstreamOffset + 4L*(nodeCount + 1 + upstreamCount);
+	long extrasOffset = stringsOffset + 4L*(stringBytes.length + 1) + stringBytesLength;
+	long fileLength = extrasOffset + extras.length;
+	if ( fileLength > Integer.MAX_VALUE ) {
+		throw new IOException ( "Network is too large for a network image file (" + fileLength + " bytes)." );
+	}
+
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(filename)), 65536));
+	try {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(nodeCount);
+		out.writeInt(upstreamCount);
+		out.writeInt(stringBytes.length);
+		out.writeInt(NODE_RECORD_SIZE);
+		out.writeLong(nodesOffset);
+		out.writeLong(upstreamOffset);
+		out.writeLong(stringsOffset);
+		out.writeLong(extrasOffset);
+		out.writeLong(fileLength);
+
+		HydrologyNode downstreamNode;
+		int flags;
+		for ( int i = 0; i < nodeCount; i++ ) {
+			node = nodes[i];
+			out.writeDouble(node.getX());
+			out.writeDouble(node.getY());
+			out.writeDouble(node.getDBX());
+			out.writeDouble(node.getDBY());
+			out.writeDouble(node.getArea());
+			out.writeDouble(node.getPrecip());
+			out.writeDouble(node.getWater());
+			out.writeDouble(node.getProrationFactor());
+			out.writeDouble(node.getStreamMile());
+			out.writeDouble(node.getLabelAngle());
+			out.writeLong(node.getLink());
+			out.writeInt(idStrings[i]);
+			out.writeInt(descriptionStrings[i]);
+			downstreamNode = node.getDownstreamNode();
+			out.writeInt((downstreamNode == null) ? -1 : network.getComputationalIndex(downstreamNode));
+			out.writeInt(node.getType());
+			flags = 0;
+			if ( node.getIsNaturalFlow() ) {
+				flags |= FLAG_NATURAL_FLOW;
+			}
+			if ( node.getIsImport() ) {
+				flags |= FLAG_IMPORT;
+			}
+			if ( node.getIsDryRiver() ) {
+				flags |= FLAG_DRY_RIVER;
+			}
+			out.writeInt(flags);
+			out.writeInt(node.getLabelDirection());
+			out.writeInt(node.getTributaryNumber());
+			out.writeInt(node.getSerial());
+			out.writeInt(node.getComputationalOrder());
+			out.writeInt(node.getNodeInReachNumber());
+			out.writeInt(node.getReachCounter());
+			out.writeInt(node.getReachLevel());
+			out.writeInt(node.getUpstreamOrder());
+			for ( int j = 0; j < otherStrings[i].length; j++ ) {
+				out.writeInt(otherStrings[i][j]);
+			}
+			out.writeInt(0);
+		}
+
+		for ( int i = 0; i <= nodeCount; i++ ) {
+			out.writeInt(upstreamOffsets[i]);
+		}
+		for ( int i = 0; i < upstreamCount; i++ ) {
+			out.writeInt(upstreamIndexes[i]);
+		}
+
+		int stringOffset = 0;
+		out.writeInt(stringOffset);
+		for ( int i = 0; i < stringBytes.length; i++ ) {
+			stringOffset += stringBytes[i].length;
+			out.writeInt(stringOffset);
+		}
+		for ( int i = 0; i < stringBytes.length; i++ ) {
+			out.write(stringBytes[i]);
+		}
+
+		out.write(extras);
+	}
+	finally {
+		out.close();
+	}
+}
+
+/**
+Format the network data (title, edge buffer, legend, page layouts, annotations, links and labels),
+adding strings to the string table.
+*/
+private static byte [] writeExtras ( HydrologyNodeNetwork network, StringTable strings )
+throws IOException
+{	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+	out.writeInt(strings.add(network.getTitle()));
+	double [] edgeBuffer = network.getEdgeBuffer();
+	for ( int i = 0; i < 4; i++ ) {
+		out.writeDouble(((edgeBuffer == null) || (i >= edgeBuffer.length)) ? 0.0 : edgeBuffer[i]);
+	}
+	out.writeInt(network.isLegendPositionSet() ? 1 : 0);
+	out.writeDouble(network.getLegendX());
+	out.writeDouble(network.getLegendY());
+
+	List<PropList> layoutList = network.getLayoutList();
+	int count = (layoutList == null) ? 0 : layoutList.size();
+	out.writeInt(count);
+	for ( int i = 0; i < count; i++ ) {
+		writePropList(out, layoutList.get(i), strings);
+	}
+
+	List<HydrologyNode> annotationList = network.getAnnotationList();
+	count = (annotationList == null) ? 0 : annotationList.size();
+	out.writeInt(count);
+	HydrologyNode annotation;
+	Object associatedObject;
+	for ( int i = 0; i < count; i++ ) {
+		annotation = annotationList.get(i);
+		out.writeInt(strings.add(annotation.getCommonID()));
+		out.writeInt(annotation.getType());
+		out.writeDouble(annotation.getX());
+		out.writeDouble(annotation.getY());
+		associatedObject = annotation.getAssociatedObject();
+		writePropList(out, (associatedObject instanceof PropList) ? (PropList)associatedObject : null, strings);
+	}
+
+	List<PropList> linkList = network.getLinkList();
+	count = (linkList == null) ? 0 : linkList.size();
+	out.writeInt(count);
+	for ( int i = 0; i < count; i++ ) {
+		writePropList(out, linkList.get(i), strings);
+	}
+
+	List<HydrologyNodeNetworkLabel> labelList = network.getLabelList();
+	count = (labelList == null) ? 0 : labelList.size();
+	out.writeInt(count);
+	HydrologyNodeNetworkLabel label;
+	for ( int i = 0; i < count; i++ ) {
+		label = labelList.get(i);
+		out.writeDouble(label.getX());
+		out.writeDouble(label.getY());
+		out.writeDouble(label.getSize());
+		out.writeInt(label.getFlag());
+		out.writeInt(strings.add(label.getText()));
+	}
+	out.close();
+	return bytes.toByteArray();
+}
+
+/**
+Write a property list, which can be null.
+*/
+private static void writePropList ( DataOutputStream out, PropList props, StringTable strings )
+throws IOException
+{	if ( props == null ) {
+		out.writeInt(-1);
+		out.writeInt(-1);
+		return;
+	}
+	out.writeInt(strings.add(props.getPropListName()));
+	List<Prop> propList = props.getList();
+	int count = (propList == null) ? 0 : propList.size();
+	out.writeInt(count);
+	Prop prop;
+	for ( int i = 0; i < count; i++ ) {
+		prop = propList.get(i);
+		out.writeInt(strings.add(prop.getKey()));
+		out.writeInt(strings.add(prop.getValue()));
+	}
+}
+
+/**
+Table of distinct strings used when writing an image.
+*/
+private static class StringTable
+{
+	private final HydrologyNodeIdTable __indexes;
+	private final List<String> __strings;
+
+	private StringTable ( int expectedSize )
+	{	__indexes = new HydrologyNodeIdTable(expectedSize);
+		__strings = new ArrayList<String>(expectedSize);
+	}
+
+	/**
+	Add a string to the table if not already in the table.
+	@return the position of the string in the table, or -1 for a null string.
+	*/
+	private int add ( String s )
+	{	if ( s == null ) {
+			return -1;
+		}
+		int index = __indexes.get(s);
+		if ( index < 0 ) {
+			index = __strings.size();
+			__strings.add(s);
+			__indexes.put(s, index);
+		}
+		return index;
+	}
+
+	/**
+	Return the UTF-8 bytes for each string in the table.
+	*/
+	private byte [][] getBytes ()
+	{	byte [][] bytes = new byte[__strings.size()][];
+		for ( int i = 0; i < bytes.length; i++ ) {
+			bytes[i] = __strings.get(i).getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+}
+
+}
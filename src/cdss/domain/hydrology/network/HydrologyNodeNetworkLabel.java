@@ -44,4 +44,44 @@ public HydrologyNodeNetworkLabel ( double x, double y, double size, int flag, St
 	__text = text;
 }
 
+/**
+Returns the label text orientation flag.
+@return the label text orientation flag.
+*/
+public int getFlag ()
+{	return __flag;
+}
+
+/**
+Returns the label size.
+@return the label size.
+*/
+public double getSize ()
+{	return __size;
+}
+
+/**
+Returns the label text.
+@return the label text.
+*/
+public String getText ()
+{	return __text;
+}
+
+/**
+Returns the label X coordinate.
+@return the label X coordinate.
+*/
+public double getX ()
+{	return __x;
+}
+
+/**
+Returns the label Y coordinate.
+@return the label Y coordinate.
+*/
+public double getY ()
+{	return __y;
+}
+
 }
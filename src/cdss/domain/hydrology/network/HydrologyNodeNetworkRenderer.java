@@ -0,0 +1,366 @@
+// HydrologyNodeNetworkRenderer - draw the visible nodes of a network, with detail depending on the symbol size
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.awt.Font;
+import java.util.Arrays;
+import java.util.List;
+
+import RTi.GR.GRColor;
+import RTi.GR.GRDrawingAreaUtil;
+import RTi.GR.GRJComponentDrawingArea;
+import RTi.GR.GRLimits;
+import RTi.GR.GRSymbol;
+import RTi.GR.GRSymbolShapeType;
+import RTi.GR.GRText;
+import RTi.GR.GRUnits;
+
+/**
+Draw the nodes of a network that are visible in the network editor display.
+This produces the same drawing as calling HydrologyNode.draw() for each node, with the following differences
+to keep drawing fast for large networks:
+<ul>
+<li>	Only nodes with coordinates within the visible limits (plus a margin for symbols and labels)
+	are drawn, using the grid index of node positions (see HydrologyNodeNetwork.findNodeAt()).</li>
+<li>	Labels are not drawn for nodes with symbols smaller than the minimum label size,
+	and decorators (natural flow and import symbols), secondary symbols and symbol text are not drawn
+	for nodes with symbols smaller than the minimum detail size, for example when zoomed out.
+	The symbol size is the size of the node on the screen, which is the node data diameter
+	(see HydrologyNode.setDataDiameter()) converted to device units using the current data and drawing limits,
+	or the node icon diameter if the node does not have a data diameter.</li>
+<li>	When labels or details may be omitted, each part of the drawing (symbol backgrounds, labels, symbols,
+	decorators) is drawn for all nodes before the next part, with nodes grouped by type and color, so that the
+	drawing color and font are only changed when needed.  Labels are therefore drawn under all the node symbols.
+	If both minimum sizes are zero, each node is drawn completely before the next, as by HydrologyNode.draw().</li>
+</ul>
+*/
+public class HydrologyNodeNetworkRenderer
+{
+
+/**
+Default margin around the visible limits, in device units.
+*/
+public static final double DEFAULT_CULLING_MARGIN = 100.0;
+
+/**
+Default minimum symbol size to draw decorators, secondary symbols and symbol text, in device units.
+*/
+public static final double DEFAULT_MINIMUM_DETAIL_SIZE = 6.0;
+
+/**
+Default minimum symbol size to draw labels, in device units.
+*/
+public static final double DEFAULT_MINIMUM_LABEL_SIZE = 8.0;
+
+/**
+Network to draw.
+*/
+private final HydrologyNodeNetwork __network;
+
+/**
+Margin around the visible limits, in device units.  Nodes with coordinates within the margin are drawn so
+that the symbols and labels of nodes just outside the visible limits are drawn.
+*/
+private double __cullingMargin = DEFAULT_CULLING_MARGIN;
+
+/**
+Minimum symbol size to draw decorators, secondary symbols and symbol text, in device units.
+*/
+private double __minimumDetailSize = DEFAULT_MINIMUM_DETAIL_SIZE;
+
+/**
+Minimum symbol size to draw labels, in device units.
+*/
+private double __minimumLabelSize = DEFAULT_MINIMUM_LABEL_SIZE;
+
+/**
+Create a renderer.
+@param network the network to draw.
+*/
+public HydrologyNodeNetworkRenderer ( HydrologyNodeNetwork network )
+{	__network = network;
+}
+
+/**
+Draw the nodes that are visible.
+@param da the drawing area on which to draw.
+@param visibleLimits the limits of the visible area, in data units.
+@return the number of nodes that were drawn.
+*/
+public int draw ( GRJComponentDrawingArea da, GRLimits visibleLimits )
+{	// Convert the margin from device units to data units, as in HydrologyNode.calculateExtents().
+	GRLimits data = da.getDataLimits();
+	GRLimits drawing = da.getDrawingLimits();
+	double mod = 1;
+	if (drawing.getWidth() > drawing.getHeight()) {
+		mod = data.getWidth() / drawing.getWidth();
+	}
+	else {
+		mod = data.getHeight() / drawing.getHeight();
+	}
+	mod = Math.abs(mod);
+	double margin = __cullingMargin*mod;
+	if ( Double.isNaN(margin) || Double.isInfinite(margin) ) {
+		margin = 0.0;
+	}
+	List<HydrologyNode> nodeList = __network.findNodesInRange(
+		Math.min(visibleLimits.getLeftX(), visibleLimits.getRightX()) - margin,
+		Math.min(visibleLimits.getBottomY(), visibleLimits.getTopY()) - margin,
+		Math.max(visibleLimits.getLeftX(), visibleLimits.getRightX()) + margin,
+		Math.max(visibleLimits.getBottomY(), visibleLimits.getTopY()) + margin );
+	HydrologyNode [] nodes = nodeList.toArray(new HydrologyNode[nodeList.size()]);
+	for ( int i = 0; i < nodes.length; i++ ) {
+		if ( !nodes[i].isBoundsCalculated() ) {
+			nodes[i].calculateExtents(da);
+		}
+	}
+	if ( (__minimumDetailSize <= 0) && (__minimumLabelSize <= 0) ) {
+		// Nothing is omitted, so draw each node completely, in the same order as the nodes are drawn one at a time.
+		for ( int i = 0; i < nodes.length; i++ ) {
+			nodes[i].draw(da);
+		}
+		return nodes.length;
+	}
+	// Order the nodes by type so that symbols of the same type are drawn together.
+	long [] keys = new long[nodes.length];
+	for ( int i = 0; i < nodes.length; i++ ) {
+		keys[i] = ((long)nodes[i].getType() << 32) | i;
+	}
+	Arrays.sort(keys);
+	HydrologyNode [] sortedNodes = new HydrologyNode[nodes.length];
+	double [] screenSizes = new double[nodes.length];
+	for ( int i = 0; i < nodes.length; i++ ) {
+		sortedNodes[i] = nodes[(int)keys[i]];
+		screenSizes[i] = getScreenSize(sortedNodes[i], mod);
+	}
+
+	drawSymbolBackgrounds(da, sortedNodes);
+	if ( HydrologyNode.getDrawText() ) {
+		drawLabels(da, sortedNodes, screenSizes, false);
+		drawLabels(da, sortedNodes, screenSizes, true);
+	}
+	drawSymbols(da, sortedNodes);
+	drawDetails(da, sortedNodes, screenSizes);
+	return nodes.length;
+}
+
+/**
+Draw the decorators, secondary symbols and symbol text for nodes with a screen size at least the minimum detail size.
+@param screenSizes the size of each node on the screen, in device units.
+*/
+private void drawDetails ( GRJComponentDrawingArea da, HydrologyNode [] nodes, double [] screenSizes )
+{	GRColor currentColor = null;
+	GRColor color;
+	GRSymbol symbol, secondarySymbol;
+	HydrologyNode node;
+	for ( int i = 0; i < nodes.length; i++ ) {
+		node = nodes[i];
+		if ( screenSizes[i] < __minimumDetailSize ) {
+			continue;
+		}
+		symbol = node.getSymbolForDrawing();
+		color = node.isSelected() ? GRColor.cyan : GRColor.black;
+		if ( color != currentColor ) {
+			GRDrawingAreaUtil.setColor(da, color);
+			currentColor = color;
+		}
+		// Draw a larger circle around natural flow nodes and a larger square around import nodes.
+		if ( (symbol != null) && node.getIsNaturalFlow() ) {
+			GRDrawingAreaUtil.drawSymbol(da, GRSymbolShapeType.CIRCLE_HOLLOW,
+				node.getX(), node.getY(), symbol.getSize() + node.getDecoratorDiameter(), GRUnits.DEVICE, 0);
+		}
+		if ( (symbol != null) && node.getIsImport() ) {
+			GRDrawingAreaUtil.drawSymbol(da, GRSymbolShapeType.SQUARE_HOLLOW,
+				node.getX(), node.getY(), symbol.getSize() + node.getDecoratorDiameter(), GRUnits.DEVICE, 0);
+		}
+		secondarySymbol = node.getSecondarySymbol();
+		if ( secondarySymbol != null ) {
+			GRDrawingAreaUtil.drawSymbol(da, secondarySymbol.getShapeType(),
+				node.getX(), node.getY(), secondarySymbol.getSize(), GRUnits.DEVICE, 0);
+		}
+		if ( node.getSymbolText() != null ) {
+			GRDrawingAreaUtil.drawText(da, node.getSymbolText(), node.getX(), node.getY(), 0,
+				GRText.CENTER_Y | GRText.CENTER_X);
+		}
+	}
+}
+
+/**
+Draw the labels for nodes with a screen size at least the minimum label size.
+@param screenSizes the size of each node on the screen, in device units.
+@param naturalFlow if false, draw labels for nodes that are not natural flow nodes; if true, draw the
+labels for natural flow nodes, in bold.
+*/
+private void drawLabels ( GRJComponentDrawingArea da, HydrologyNode [] nodes, double [] screenSizes,
+	boolean naturalFlow )
+{	GRColor currentColor = null;
+	GRColor color;
+	Font oldFont = null;
+	GRSymbol symbol;
+	HydrologyNode node;
+	String label;
+	double symbolSize;
+	for ( int i = 0; i < nodes.length; i++ ) {
+		node = nodes[i];
+		if ( (screenSizes[i] < __minimumLabelSize) || (node.getIsNaturalFlow() != naturalFlow) ) {
+			continue;
+		}
+		label = node.getDrawnLabel();
+		if ( (label == null) || (label.length() == 0) ) {
+			continue;
+		}
+		if ( naturalFlow && (oldFont == null) ) {
+			// Reset to bold.
+			oldFont = da.getFont();
+			da.setFont( oldFont.getName(), Font.BOLD, oldFont.getSize());
+		}
+		color = node.isSelected() ? GRColor.cyan : GRColor.black;
+		if ( color != currentColor ) {
+			GRDrawingAreaUtil.setColor(da, color);
+			currentColor = color;
+		}
+		// Offset the label text for nodes with decorator symbols because the decorator takes up more room.
+		symbol = node.getSymbolForDrawing();
+		symbolSize = (symbol == null) ? 0 : symbol.getSize();
+		if ( node.getIsNaturalFlow() || node.getIsImport() ) {
+			symbolSize += node.getDecoratorDiameter();
+		}
+		GRDrawingAreaUtil.drawSymbolText(da, GRSymbolShapeType.NONE, node.getX(), node.getY(),
+			symbolSize, label, 0, node.getDrawnLabelPosition(), GRUnits.DEVICE, 0);
+	}
+	if ( oldFont != null ) {
+		// Set back to old font.
+		da.setFont( oldFont.getName(), oldFont.getStyle(), oldFont.getSize());
+	}
+}
+
+/**
+Fill the background of hollow circle symbols with white so that the symbols are clearly visible.
+*/
+private void drawSymbolBackgrounds ( GRJComponentDrawingArea da, HydrologyNode [] nodes )
+{	boolean colorSet = false;
+	GRSymbol symbol;
+	for ( int i = 0; i < nodes.length; i++ ) {
+		symbol = nodes[i].getSymbolForDrawing();
+		if ( (symbol != null) && (symbol.getShapeType() == GRSymbolShapeType.CIRCLE_HOLLOW) ) {
+			if ( !colorSet ) {
+				GRDrawingAreaUtil.setColor(da, GRColor.white);
+				colorSet = true;
+			}
+			GRDrawingAreaUtil.drawSymbol(da, GRSymbolShapeType.CIRCLE_FILLED, nodes[i].getX(), nodes[i].getY(),
+				symbol.getSize(), GRUnits.DEVICE, 0);
+		}
+	}
+}
+
+/**
+Draw the node symbols.
+*/
+private void drawSymbols ( GRJComponentDrawingArea da, HydrologyNode [] nodes )
+{	GRColor currentColor = null;
+	GRColor color;
+	GRSymbol symbol;
+	HydrologyNode node;
+	for ( int i = 0; i < nodes.length; i++ ) {
+		node = nodes[i];
+		symbol = node.getSymbolForDrawing();
+		if ( symbol == null ) {
+			continue;
+		}
+		// Draw in the selection color or the symbol color.
+		color = node.isSelected() ? GRColor.cyan : symbol.getColor();
+		if ( color != currentColor ) {
+			GRDrawingAreaUtil.setColor(da, color);
+			currentColor = color;
+		}
+		GRDrawingAreaUtil.drawSymbol(da, node.getDrawnShapeType(), node.getX(), node.getY(), symbol.getSize(),
+			GRUnits.DEVICE, 0);
+	}
+}
+
+/**
+Return the margin around the visible limits within which nodes are drawn.
+@return the margin around the visible limits, in device units.
+*/
+public double getCullingMargin ()
+{	return __cullingMargin;
+}
+
+/**
+Return the minimum symbol size to draw decorators, secondary symbols and symbol text.
+@return the minimum symbol size to draw details, in device units.
+*/
+public double getMinimumDetailSize ()
+{	return __minimumDetailSize;
+}
+
+/**
+Return the minimum symbol size to draw labels.
+@return the minimum symbol size to draw labels, in device units.
+*/
+public double getMinimumLabelSize ()
+{	return __minimumLabelSize;
+}
+
+/**
+Return the size of a node on the screen, used to decide whether labels and details are drawn.
+@param node the node.
+@param mod the number of data units per device unit.
+@return the node data diameter in device units, or the node icon diameter if the node does not have a
+data diameter or the data and drawing limits are not set.
+*/
+private static double getScreenSize ( HydrologyNode node, double mod )
+{	double size = node.getDataDiameter()/mod;
+	if ( (node.getDataDiameter() > 0) && !Double.isNaN(size) && !Double.isInfinite(size) ) {
+		return size;
+	}
+	return node.getIconDiameter();
+}
+
+/**
+Set the margin around the visible limits within which nodes are drawn.  The margin should be large enough to
+include symbols and labels that extend into the visible limits.
+@param cullingMargin the margin around the visible limits, in device units.
+*/
+public void setCullingMargin ( double cullingMargin )
+{	__cullingMargin = cullingMargin;
+}
+
+/**
+Set the minimum symbol size to draw decorators, secondary symbols and symbol text.
+@param minimumDetailSize the minimum symbol size to draw details, in device units (0 to always draw).
+*/
+public void setMinimumDetailSize ( double minimumDetailSize )
+{	__minimumDetailSize = minimumDetailSize;
+}
+
+/**
+Set the minimum symbol size to draw labels.
+@param minimumLabelSize the minimum symbol size to draw labels, in device units (0 to always draw).
+*/
+public void setMinimumLabelSize ( double minimumLabelSize )
+{	__minimumLabelSize = minimumLabelSize;
+}
+
+}
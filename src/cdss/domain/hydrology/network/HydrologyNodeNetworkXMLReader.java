@@ -0,0 +1,432 @@
+// HydrologyNodeNetworkXMLReader - read a StateMod XML network file using a streaming (pull) parser
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+import java.util.Vector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import RTi.Util.IO.IOUtil;
+import RTi.Util.IO.PropList;
+import RTi.Util.Message.Message;
+
+/**
+Read a StateMod XML network file, as written by HydrologyNodeNetwork.writeXML(), into a HydrologyNodeNetwork.
+The file is read with a streaming (pull) parser and elements are converted to network data as they are read,
+so that memory use while reading is proportional to the size of the network rather than the size of a DOM:
+<ul>
+<li>	StateMod_Network attributes set the network bounds, legend position and edge buffer</li>
+<li>	PageLayout elements are added to the layout list, as PropLists of the element attributes</li>
+<li>	Node elements, with DownstreamNode and UpstreamNode child elements, are converted to HydrologyNode</li>
+<li>	Annotation elements are added to the annotation list, as HydrologyNode with a PropList of the element
+	attributes as the associated object</li>
+<li>	Link elements are added to the link list, as PropLists of the element attributes</li>
+<li>	Label elements (X, Y, Size, Flag and Text attributes) are added to the label list</li>
+</ul>
+After all the elements are read, HydrologyNodeNetwork.calculateNetworkNodeData() is called once to connect
+the nodes and calculate the node numbers.
+*/
+public class HydrologyNodeNetworkXMLReader
+{
+
+/**
+Read the network data from a parser, after the parser has been created.
+@param xmlReader the parser.
+@param network the network to fill.
+*/
+private static void readNetwork ( XMLStreamReader xmlReader, HydrologyNodeNetwork network )
+throws XMLStreamException
+{	List<HydrologyNode> nodeList = new Vector<HydrologyNode>();
+	List<PropList> layoutList = new Vector<PropList>();
+	List<HydrologyNode> annotationList = new Vector<HydrologyNode>();
+	List<PropList> linkList = new Vector<PropList>();
+	HydrologyNode node = null; // Node element being read, for its DownstreamNode and UpstreamNode elements
+	PropList layout = null; // PageLayout element last read, for the text that follows it
+	String name;
+	while ( xmlReader.hasNext() ) {
+		int event = xmlReader.next();
+		if ( event == XMLStreamConstants.START_ELEMENT ) {
+			name = xmlReader.getLocalName();
+			layout = null;
+			if ( name.equals("Node") ) {
+				node = readNode(xmlReader);
+				nodeList.add(node);
+			}
+			else if ( name.equals("DownstreamNode") ) {
+				if ( node != null ) {
+					node.setDownstreamNodeID(xmlReader.getAttributeValue(null, "ID"));
+				}
+			}
+			else if ( name.equals("UpstreamNode") ) {
+				if ( node != null ) {
+					node.addUpstreamNodeID(xmlReader.getAttributeValue(null, "ID"));
+				}
+			}
+			else if ( name.equals("StateMod_Network") ) {
+				readNetworkAttributes(xmlReader, network);
+			}
+			else if ( name.equals("PageLayout") ) {
+				layout = readPropList(xmlReader);
+				layoutList.add(layout);
+			}
+			else if ( name.equals("Annotation") ) {
+				annotationList.add(readAnnotation(xmlReader));
+			}
+			else if ( name.equals("Link") ) {
+				linkList.add(readPropList(xmlReader));
+			}
+			else if ( name.equals("Label") ) {
+				network.addLabel(
+					parseDouble(xmlReader, "X", 0.0),
+					parseDouble(xmlReader, "Y", 0.0),
+					parseDouble(xmlReader, "Size", 0.0),
+					(int)parseDouble(xmlReader, "Flag", 0.0),
+					xmlReader.getAttributeValue(null, "Text"));
+			}
+		}
+		else if ( (event == XMLStreamConstants.END_ELEMENT) && xmlReader.getLocalName().equals("Node") ) {
+			node = null;
+		}
+		else if ( (event == XMLStreamConstants.CHARACTERS) && (layout != null) ) {
+			readLayoutIsDefault(xmlReader.getText(), layout);
+		}
+	}
+	network.setLayoutList(layoutList);
+	network.setAnnotationList(annotationList);
+	network.setLinkList(linkList);
+
+	if ( nodeList.size() > 0 ) {
+		// calculateNetworkNodeData() requires the END node at the start or end of the list.
+		// The END node is normally last because nodes are written in computational order.
+		int size = nodeList.size();
+		boolean endFirst = false;
+		if ( nodeList.get(size - 1).getType() != HydrologyNode.NODE_TYPE_END ) {
+			for ( int i = 0; i < size; i++ ) {
+				if ( nodeList.get(i).getType() == HydrologyNode.NODE_TYPE_END ) {
+					nodeList.add(0, nodeList.remove(i));
+					endFirst = true;
+					break;
+				}
+			}
+		}
+		network.calculateNetworkNodeData(nodeList, endFirst);
+	}
+}
+
+/**
+Parse a double attribute value.
+@param xmlReader the parser, positioned at the start of an element.
+@param attributeName the attribute name.
+@param defaultValue value to return if the attribute is not set or is not a number.
+*/
+private static double parseDouble ( XMLStreamReader xmlReader, String attributeName, double defaultValue )
+{	return parseDouble(xmlReader.getAttributeValue(null, attributeName), attributeName, defaultValue);
+}
+
+/**
+Parse a double attribute value.
+@param value the attribute value, can be null.
+@param attributeName the attribute name, for messages.
+@param defaultValue value to return if the value is null or is not a number.
+*/
+private static double parseDouble ( String value, String attributeName, double defaultValue )
+{	if ( value == null ) {
+		return defaultValue;
+	}
+	try {
+		return Double.parseDouble(value.trim());
+	}
+	catch ( NumberFormatException e ) {
+		Message.printWarning(3, "HydrologyNodeNetworkXMLReader.parseDouble",
+			attributeName + " value \"" + value + "\" is not a number - using " + defaultValue );
+		return defaultValue;
+	}
+}
+
+/**
+Read an Annotation element.
+@param xmlReader the parser, positioned at the start of the element.
+@return an annotation node with a PropList of the element attributes as its associated object.
+*/
+private static HydrologyNode readAnnotation ( XMLStreamReader xmlReader )
+{	PropList props = readPropList(xmlReader);
+	// Font size may be scaled when drawing, so save the font size in the file separately
+	props.set("OriginalFontSize", props.getValue("FontSize"));
+	HydrologyNode annotation = new HydrologyNode();
+	annotation.setCommonID(props.getValue("Text"));
+	String point = props.getValue("Point");
+	if ( point != null ) {
+		int pos = point.indexOf(',');
+		if ( pos > 0 ) {
+			annotation.setX(parseDouble(point.substring(0, pos), "Point", 0.0));
+			annotation.setY(parseDouble(point.substring(pos + 1), "Point", 0.0));
+		}
+	}
+	annotation.setAssociatedObject(props);
+	return annotation;
+}
+
+/**
+Read the IsDefault attribute of a default PageLayout element from the text after the element.
+Older versions of HydrologyNodeNetwork.writeXML() wrote the IsDefault attribute of the default layout
+after the end of the element (as IsDefault = "True"/>), so it is read as text rather than as an attribute.
+@param text the text that follows the PageLayout element.
+@param layout the layout properties, which are not changed if IsDefault is already set.
+*/
+private static void readLayoutIsDefault ( String text, PropList layout )
+{	if ( layout.getValue("IsDefault") != null ) {
+		return;
+	}
+	int pos = text.indexOf("IsDefault");
+	if ( pos < 0 ) {
+		return;
+	}
+	int start = text.indexOf('"', pos);
+	int end = (start < 0) ? -1 : text.indexOf('"', start + 1);
+	if ( end > 0 ) {
+		layout.set("IsDefault", text.substring(start + 1, end).trim());
+	}
+}
+
+/**
+Read the attributes of the StateMod_Network element.
+@param xmlReader the parser, positioned at the start of the element.
+@param network the network to fill.
+*/
+private static void readNetworkAttributes ( XMLStreamReader xmlReader, HydrologyNodeNetwork network )
+{	String xMin = xmlReader.getAttributeValue(null, "XMin");
+	String yMin = xmlReader.getAttributeValue(null, "YMin");
+	String xMax = xmlReader.getAttributeValue(null, "XMax");
+	String yMax = xmlReader.getAttributeValue(null, "YMax");
+	if ( (xMin != null) && (yMin != null) && (xMax != null) && (yMax != null) ) {
+		network.setBounds(parseDouble(xMin, "XMin", 0.0), parseDouble(yMin, "YMin", 0.0),
+			parseDouble(xMax, "XMax", 1.0), parseDouble(yMax, "YMax", 1.0));
+	}
+	String legendX = xmlReader.getAttributeValue(null, "LegendX");
+	String legendY = xmlReader.getAttributeValue(null, "LegendY");
+	if ( (legendX != null) && (legendY != null) ) {
+		network.setLegendPosition(parseDouble(legendX, "LegendX", 0.0), parseDouble(legendY, "LegendY", 0.0));
+	}
+	if ( xmlReader.getAttributeValue(null, "EdgeBufferLeft") != null ) {
+		double [] edgeBuffer = {
+			parseDouble(xmlReader, "EdgeBufferLeft", 0.0),
+			parseDouble(xmlReader, "EdgeBufferRight", 0.0),
+			parseDouble(xmlReader, "EdgeBufferTop", 0.0),
+			parseDouble(xmlReader, "EdgeBufferBottom", 0.0)
+		};
+		network.setEdgeBuffer(edgeBuffer);
+	}
+}
+
+/**
+Read a Node element (but not its DownstreamNode and UpstreamNode child elements).
+Calculated values (e.g., ComputationalOrder) are ignored because they are recalculated after reading.
+@param xmlReader the parser, positioned at the start of the element.
+@return the node.
+*/
+private static HydrologyNode readNode ( XMLStreamReader xmlReader )
+{	HydrologyNode node = new HydrologyNode();
+	String isBaseflow = null;
+	String isNaturalFlow = null;
+	int labelPosition = -1;
+	int reservoirDir = -1;
+	String name, value;
+	for ( int i = 0; i < xmlReader.getAttributeCount(); i++ ) {
+		name = xmlReader.getAttributeLocalName(i);
+		value = xmlReader.getAttributeValue(i);
+		if ( name.equals("ID") ) {
+			node.setCommonID(value);
+		}
+		else if ( name.equals("AlternateX") ) {
+			node.setDBX(parseDouble(value, name, 0.0));
+		}
+		else if ( name.equals("AlternateY") ) {
+			node.setDBY(parseDouble(value, name, 0.0));
+		}
+		else if ( name.equals("Description") ) {
+			node.setDescription(value);
+		}
+		else if ( name.equals("IsBaseflow") ) {
+			isBaseflow = value;
+		}
+		else if ( name.equals("IsNaturalFlow") ) {
+			isNaturalFlow = value;
+		}
+		else if ( name.equals("IsImport") ) {
+			node.setIsImport(value.equalsIgnoreCase("true"));
+		}
+		else if ( name.equals("Area") ) {
+			node.setArea(parseDouble(value, name, 0.0));
+		}
+		else if ( name.equals("Precipitation") ) {
+			node.setPrecip(parseDouble(value, name, 0.0));
+		}
+		else if ( name.equals("LabelPosition") ) {
+			// Same values as in HydrologyNode.writeNodeXML()
+			if ( value.equalsIgnoreCase("AboveCenter") ) {
+				labelPosition = 1;
+			}
+			else if ( value.equalsIgnoreCase("UpperRight") ) {
+				labelPosition = 7;
+			}
+			else if ( value.equalsIgnoreCase("Right") ) {
+				labelPosition = 4;
+			}
+			else if ( value.equalsIgnoreCase("LowerRight") ) {
+				labelPosition = 8;
+			}
+			else if ( value.equalsIgnoreCase("BelowCenter") ) {
+				labelPosition = 2;
+			}
+			else if ( value.equalsIgnoreCase("LowerLeft") ) {
+				labelPosition = 5;
+			}
+			else if ( value.equalsIgnoreCase("Left") ) {
+				labelPosition = 3;
+			}
+			else if ( value.equalsIgnoreCase("UpperLeft") ) {
+				labelPosition = 6;
+			}
+			else if ( value.equalsIgnoreCase("Center") ) {
+				labelPosition = 9;
+			}
+			else {
+				labelPosition = 2;
+			}
+		}
+		else if ( name.equals("ReservoirDir") ) {
+			if ( value.equalsIgnoreCase("Up") ) {
+				reservoirDir = 2;
+			}
+			else if ( value.equalsIgnoreCase("Down") ) {
+				reservoirDir = 1;
+			}
+			else if ( value.equalsIgnoreCase("Right") ) {
+				reservoirDir = 3;
+			}
+			else {
+				reservoirDir = 4;
+			}
+		}
+		else if ( name.equals("Type") ) {
+			node.setVerboseType(value);
+		}
+		else if ( name.equals("X") ) {
+			node.setX(parseDouble(value, name, 0.0));
+		}
+		else if ( name.equals("Y") ) {
+			node.setY(parseDouble(value, name, 0.0));
+		}
+	}
+	// IsBaseflow is the old name for IsNaturalFlow and is used if IsNaturalFlow is not specified.
+	if ( isNaturalFlow == null ) {
+		isNaturalFlow = isBaseflow;
+	}
+	if ( isNaturalFlow != null ) {
+		node.setIsNaturalFlow(isNaturalFlow.equalsIgnoreCase("true"));
+	}
+	if ( (labelPosition >= 0) || (reservoirDir >= 0) ) {
+		// The reservoir direction is the tens digit of the label direction.
+		node.setLabelDirection((reservoirDir > 0 ? reservoirDir*10 : 0) + (labelPosition >= 0 ? labelPosition : 2));
+	}
+	return node;
+}
+
+/**
+Read the attributes of an element into a PropList.
+@param xmlReader the parser, positioned at the start of an element.
+@return a PropList with a property for each attribute.
+*/
+private static PropList readPropList ( XMLStreamReader xmlReader )
+{	PropList props = new PropList("");
+	for ( int i = 0; i < xmlReader.getAttributeCount(); i++ ) {
+		props.set(xmlReader.getAttributeLocalName(i), xmlReader.getAttributeValue(i));
+	}
+	return props;
+}
+
+/**
+Read a StateMod XML network from a Reader.
+@param in the Reader to read from, which is not closed.
+@return the network that was read.
+@throws IOException if there is an error reading the network.
+*/
+public static HydrologyNodeNetwork readXML ( Reader in )
+throws IOException
+{	XMLInputFactory factory = XMLInputFactory.newInstance();
+	// Network files do not use DTDs or external entities, and resolving them would be a security risk.
+	factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	// Text is only used after PageLayout elements (see readLayoutIsDefault()) and must not be split.
+	factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	try {
+		XMLStreamReader xmlReader = factory.createXMLStreamReader(in);
+		try {
+			readNetwork(xmlReader, network);
+		}
+		finally {
+			xmlReader.close();
+		}
+	}
+	catch ( XMLStreamException e ) {
+		throw new IOException ( "Error reading XML network (" + e.getMessage() + ").", e );
+	}
+	return network;
+}
+
+/**
+Read a StateMod XML network file.
+The file is read using the default character encoding, which is the encoding used by HydrologyNodeNetwork.writeXML().
+@param filename the name of the file to read.
+@return the network that was read.
+@throws IOException if there is an error reading the file.
+*/
+public static HydrologyNodeNetwork readXML ( String filename )
+throws IOException
+{	String routine = HydrologyNodeNetworkXMLReader.class.getSimpleName() + ".readXML";
+	filename = IOUtil.getPathUsingWorkingDir(filename);
+	Message.printStatus(2, routine, "Reading XML network \"" + filename + "\"" );
+	Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(filename)), 65536);
+	try {
+		return readXML(in);
+	}
+	catch ( IOException e ) {
+		throw new IOException ( "Error reading XML network file \"" + filename + "\" (" + e.getMessage() + ").", e );
+	}
+	finally {
+		in.close();
+	}
+}
+
+}
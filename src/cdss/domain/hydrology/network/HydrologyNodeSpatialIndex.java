@@ -0,0 +1,565 @@
+// HydrologyNodeSpatialIndex - uniform grid index of node positions, used to find nodes by location
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import RTi.GR.GRLimits;
+
+/**
+Uniform grid index of the nodes in a network, used by HydrologyNodeNetwork to find the nodes at a point,
+within limits, or nearest to a point without checking every node.
+Each node is stored in the grid cells overlapped by an envelope that includes the area checked by
+HydrologyNode.contains() and HydrologyNode.isWithinLimits(), and the results are checked with those methods so that
+the results are the same as checking every node.
+<p>
+The node is notified when the node position or size changes (see HydrologyNode.setX(), setY(), setPosition()),
+so that the index does not need to be rebuilt when nodes are moved.  Nodes moved outside of the original grid
+are stored in the edge cells.  The index also maintains the extent of the node coordinates
+(see HydrologyNodeNetwork.determineExtentFromNetworkData()), which only needs the node coordinates, so the grid
+is not built until the first query that needs it, and getting the extent (for example when writing the network)
+does not build the grid.
+The index is not thread safe and is intended to be used by the network editor.
+*/
+class HydrologyNodeSpatialIndex
+{
+
+/**
+Maximum number of cells in each direction.
+*/
+private static final int MAX_CELLS = 2048;
+
+/**
+Nodes in the index, by slot (the position in the computational order when the index is built).
+*/
+private final HydrologyNode [] __nodes;
+
+/**
+Envelope of each node, by slot, or null if the grid has not been built.
+*/
+private double [] __minX = null;
+private double [] __minY = null;
+private double [] __maxX = null;
+private double [] __maxY = null;
+
+/**
+Lower left corner of the grid.
+*/
+private double __gridMinX = 0.0;
+private double __gridMinY = 0.0;
+
+/**
+Width and height of each grid cell.
+*/
+private double __cellSize = 1.0;
+
+/**
+Number of grid columns and rows.
+*/
+private int __columns = 1;
+private int __rows = 1;
+
+/**
+Slots of the nodes in each cell, by cell (row*__columns + column).  Only the first __cellCounts[cell] values are used.
+Null if the grid has not been built (see buildGrid()).
+*/
+private int [][] __cells = null;
+
+/**
+Number of slots in each cell.
+*/
+private int [] __cellCounts = null;
+
+/**
+Query number when each slot was last visited, used to visit nodes that are in more than one cell once per query.
+*/
+private int [] __visited = null;
+
+/**
+Current query number.
+*/
+private int __query = 0;
+
+/**
+Node X and Y coordinates when last indexed, by slot, used to update the extent of the node coordinates.
+*/
+private final double [] __x;
+private final double [] __y;
+
+/**
+Extent of the node coordinates (see getExtent()), ignoring missing (NaN) coordinates.
+The values are NaN if no node has the coordinate.
+*/
+private double __extentMinX = Double.NaN;
+private double __extentMinY = Double.NaN;
+private double __extentMaxX = Double.NaN;
+private double __extentMaxY = Double.NaN;
+
+/**
+Whether the extent is current.  The extent is expanded as nodes are moved outward, but is recalculated
+when needed if a node at the edge of the extent is moved inward.
+*/
+private boolean __extentValid = false;
+
+/**
+Build the index.  The nodes are registered with the index so that it is notified when they move,
+but the grid is not built until it is needed for a query.
+@param nodes the nodes to index, typically in computational order.  The array is used directly and must not be modified.
+*/
+public HydrologyNodeSpatialIndex ( HydrologyNode [] nodes )
+{	int n = nodes.length;
+	__nodes = nodes;
+	__x = new double[n];
+	__y = new double[n];
+	for ( int slot = 0; slot < n; slot++ ) {
+		__x[slot] = nodes[slot].getX();
+		__y[slot] = nodes[slot].getY();
+		nodes[slot].setSpatialIndex(this, slot);
+	}
+}
+
+/**
+Add a slot to the cells overlapped by its envelope.
+*/
+private void addToCells ( int slot )
+{	int column1 = getColumn(__minX[slot]), column2 = getColumn(__maxX[slot]);
+	int row1 = getRow(__minY[slot]), row2 = getRow(__maxY[slot]);
+	int cell;
+	for ( int row = row1; row <= row2; row++ ) {
+		for ( int column = column1; column <= column2; column++ ) {
+			cell = row*__columns + column;
+			if ( __cells[cell] == null ) {
+				__cells[cell] = new int[4];
+			}
+			else if ( __cellCounts[cell] == __cells[cell].length ) {
+				__cells[cell] = Arrays.copyOf(__cells[cell], __cells[cell].length*2);
+			}
+			__cells[cell][__cellCounts[cell]++] = slot;
+		}
+	}
+}
+
+/**
+Build the grid from the current node positions and sizes, if it has not already been built.
+*/
+private void buildGrid ()
+{	if ( __cells != null ) {
+		return;
+	}
+	int n = __nodes.length;
+	__minX = new double[n];
+	__minY = new double[n];
+	__maxX = new double[n];
+	__maxY = new double[n];
+	__visited = new int[n];
+	double gridMinX = Double.MAX_VALUE, gridMinY = Double.MAX_VALUE;
+	double gridMaxX = -Double.MAX_VALUE, gridMaxY = -Double.MAX_VALUE;
+	double extentSum = 0.0;
+	for ( int slot = 0; slot < n; slot++ ) {
+		setEnvelope(slot);
+		if ( Double.isNaN(__minX[slot] + __minY[slot] + __maxX[slot] + __maxY[slot]) ) {
+			// Coordinates are not set - the node is stored in the first cell.
+			continue;
+		}
+		gridMinX = Math.min(gridMinX, __minX[slot]);
+		gridMinY = Math.min(gridMinY, __minY[slot]);
+		gridMaxX = Math.max(gridMaxX, __maxX[slot]);
+		gridMaxY = Math.max(gridMaxY, __maxY[slot]);
+		extentSum += Math.max(__maxX[slot] - __minX[slot], __maxY[slot] - __minY[slot]);
+	}
+	if ( (n > 0) && (gridMaxX >= gridMinX) && (gridMaxY >= gridMinY) ) {
+		// Size the cells so that there is about one node per cell,
+		// but no smaller than the typical node so that most nodes are in one cell.
+		double width = gridMaxX - gridMinX;
+		double height = gridMaxY - gridMinY;
+		double cellSize = Math.max(Math.sqrt(width*height/n), extentSum/n);
+		cellSize = Math.max(cellSize, Math.max(width, height)/MAX_CELLS);
+		if ( !(cellSize > 0.0) || Double.isInfinite(cellSize) ) {
+			cellSize = 1.0;
+		}
+		__gridMinX = gridMinX;
+		__gridMinY = gridMinY;
+		__cellSize = cellSize;
+		__columns = Math.min(MAX_CELLS, (int)(width/cellSize) + 1);
+		__rows = Math.min(MAX_CELLS, (int)(height/cellSize) + 1);
+	}
+	__cells = new int[__columns*__rows][];
+	__cellCounts = new int[__columns*__rows];
+	for ( int slot = 0; slot < n; slot++ ) {
+		addToCells(slot);
+	}
+}
+
+/**
+Expand the extent to include a point, ignoring missing (NaN) coordinates.
+*/
+private void expandExtent ( double x, double y )
+{	if ( !Double.isNaN(x) ) {
+		if ( Double.isNaN(__extentMinX) || (x < __extentMinX) ) {
+			__extentMinX = x;
+		}
+		if ( Double.isNaN(__extentMaxX) || (x > __extentMaxX) ) {
+			__extentMaxX = x;
+		}
+	}
+	if ( !Double.isNaN(y) ) {
+		if ( Double.isNaN(__extentMinY) || (y < __extentMinY) ) {
+			__extentMinY = y;
+		}
+		if ( Double.isNaN(__extentMaxY) || (y > __extentMaxY) ) {
+			__extentMaxY = y;
+		}
+	}
+}
+
+/**
+Find the node nearest to a point, using the node X and Y coordinates.
+@param x X-coordinate of the point, in data units.
+@param y Y-coordinate of the point, in data units.
+@param maxDistance the maximum distance from the point to the node.
+@return the nearest node, or null if no node is within maxDistance.  If more than one node is the same distance from
+the point, the first in computational order is returned.
+*/
+public HydrologyNode findNearestNode ( double x, double y, double maxDistance )
+{	buildGrid();
+	int query = nextQuery();
+	int column0 = getColumn(x), row0 = getRow(y);
+	int maxRing = Math.max(__columns, __rows);
+	int best = -1;
+	double bestDistance2 = maxDistance*maxDistance;
+	int [] cell;
+	int slot;
+	double dx, dy, distance2;
+	for ( int ring = 0; ring <= maxRing; ring++ ) {
+		for ( int row = Math.max(0, row0 - ring); row <= Math.min(__rows - 1, row0 + ring); row++ ) {
+			// Only check the cells on the edge of the ring - interior cells were checked for a smaller ring.
+			int step = ((row == (row0 - ring)) || (row == (row0 + ring))) ? 1 : 2*ring;
+			for ( int column = column0 - ring; column <= (column0 + ring); column += step ) {
+				if ( (column < 0) || (column >= __columns) ) {
+					continue;
+				}
+				cell = __cells[row*__columns + column];
+				for ( int i = __cellCounts[row*__columns + column] - 1; i >= 0; i-- ) {
+					slot = cell[i];
+					if ( __visited[slot] == query ) {
+						continue;
+					}
+					__visited[slot] = query;
+					dx = __nodes[slot].getX() - x;
+					dy = __nodes[slot].getY() - y;
+					distance2 = dx*dx + dy*dy;
+					if ( (distance2 < bestDistance2) || ((distance2 == bestDistance2) && ((best < 0) || (slot < best))) ) {
+						best = slot;
+						bestDistance2 = distance2;
+					}
+				}
+			}
+		}
+		// Nodes in cells outside the ring are at least ring*__cellSize from the point.
+		double searched = ring*__cellSize;
+		if ( (searched*searched) > bestDistance2 ) {
+			break;
+		}
+	}
+	if ( best < 0 ) {
+		return null;
+	}
+	return __nodes[best];
+}
+
+/**
+Find the nodes that contain a point (see HydrologyNode.contains()).
+@param x X-coordinate of the point, in data units.
+@param y Y-coordinate of the point, in data units.
+@return the nodes that contain the point, in computational order.
+*/
+public List<HydrologyNode> findNodesAt ( double x, double y )
+{	buildGrid();
+	int query = nextQuery();
+	int cellNum = getRow(y)*__columns + getColumn(x);
+	int [] cell = __cells[cellNum];
+	int [] slots = new int[__cellCounts[cellNum]];
+	int count = 0;
+	for ( int i = 0; i < __cellCounts[cellNum]; i++ ) {
+		if ( (__visited[cell[i]] != query) && __nodes[cell[i]].contains(x, y) ) {
+			__visited[cell[i]] = query;
+			slots[count++] = cell[i];
+		}
+	}
+	return getNodesForSlots(slots, count);
+}
+
+/**
+Find the nodes with X and Y coordinates in a range, for example to determine the nodes to draw.
+@param minX minimum X-coordinate, in data units.
+@param minY minimum Y-coordinate, in data units.
+@param maxX maximum X-coordinate, in data units.
+@param maxY maximum Y-coordinate, in data units.
+@return the nodes with coordinates in the range, in computational order.
+*/
+public List<HydrologyNode> findNodesInRange ( double minX, double minY, double maxX, double maxY )
+{	buildGrid();
+	int query = nextQuery();
+	int [] slots = new int[16];
+	int count = 0;
+	int column1 = getColumn(minX), column2 = getColumn(maxX), row1 = getRow(minY), row2 = getRow(maxY);
+	int [] cell;
+	int slot;
+	double x, y;
+	for ( int row = row1; row <= row2; row++ ) {
+		for ( int column = column1; column <= column2; column++ ) {
+			cell = __cells[row*__columns + column];
+			for ( int i = __cellCounts[row*__columns + column] - 1; i >= 0; i-- ) {
+				slot = cell[i];
+				if ( __visited[slot] == query ) {
+					continue;
+				}
+				__visited[slot] = query;
+				x = __nodes[slot].getX();
+				y = __nodes[slot].getY();
+				if ( (x >= minX) && (x <= maxX) && (y >= minY) && (y <= maxY) ) {
+					if ( count == slots.length ) {
+						slots = Arrays.copyOf(slots, slots.length*2);
+					}
+					slots[count++] = slot;
+				}
+			}
+		}
+	}
+	return getNodesForSlots(slots, count);
+}
+
+/**
+Find the nodes that are within limits (see HydrologyNode.isWithinLimits()).
+@param limits the limits to check, in the units of the node coordinates multiplied by scale.
+@param scale the scale value of the drawing area.
+@return the nodes that are within the limits, in computational order.
+*/
+public List<HydrologyNode> findNodesWithinLimits ( GRLimits limits, double scale )
+{	buildGrid();
+	int query = nextQuery();
+	int [] slots = new int[16];
+	int count = 0;
+	int column1 = 0, column2 = __columns - 1, row1 = 0, row2 = __rows - 1;
+	if ( (scale > 0.0) && !Double.isInfinite(scale) ) {
+		// Only check the cells that overlap the limits.
+		column1 = getColumn(Math.min(limits.getLeftX(), limits.getRightX())/scale);
+		column2 = getColumn(Math.max(limits.getLeftX(), limits.getRightX())/scale);
+		row1 = getRow(Math.min(limits.getBottomY(), limits.getTopY())/scale);
+		row2 = getRow(Math.max(limits.getBottomY(), limits.getTopY())/scale);
+	}
+	int [] cell;
+	int slot;
+	for ( int row = row1; row <= row2; row++ ) {
+		for ( int column = column1; column <= column2; column++ ) {
+			cell = __cells[row*__columns + column];
+			for ( int i = __cellCounts[row*__columns + column] - 1; i >= 0; i-- ) {
+				slot = cell[i];
+				if ( __visited[slot] == query ) {
+					continue;
+				}
+				__visited[slot] = query;
+				if ( __nodes[slot].isWithinLimits(limits, scale) ) {
+					if ( count == slots.length ) {
+						slots = Arrays.copyOf(slots, slots.length*2);
+					}
+					slots[count++] = slot;
+				}
+			}
+		}
+	}
+	return getNodesForSlots(slots, count);
+}
+
+/**
+Return the grid column for an X-coordinate, limited to the grid.
+*/
+private int getColumn ( double x )
+{	double column = Math.floor((x - __gridMinX)/__cellSize);
+	if ( !(column > 0.0) ) {
+		// Also handles NaN.
+		return 0;
+	}
+	return (int)Math.min(column, __columns - 1);
+}
+
+/**
+Return the extent of the node X and Y coordinates, ignoring missing (NaN) coordinates.
+The extent is maintained as nodes are moved and is only recalculated from all nodes if a node
+at the edge of the extent has been moved inward.
+@return the extent of the node coordinates, as {minX, minY, maxX, maxY}, with NaN values if no node has the coordinate.
+*/
+public double [] getExtent ()
+{	if ( !__extentValid ) {
+		__extentMinX = Double.NaN;
+		__extentMinY = Double.NaN;
+		__extentMaxX = Double.NaN;
+		__extentMaxY = Double.NaN;
+		for ( int slot = 0; slot < __nodes.length; slot++ ) {
+			expandExtent(__x[slot], __y[slot]);
+		}
+		__extentValid = true;
+	}
+	return new double [] { __extentMinX, __extentMinY, __extentMaxX, __extentMaxY };
+}
+
+/**
+Return the nodes for slots, in slot order.
+*/
+private List<HydrologyNode> getNodesForSlots ( int [] slots, int count )
+{	Arrays.sort(slots, 0, count);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>(count);
+	for ( int i = 0; i < count; i++ ) {
+		nodes.add(__nodes[slots[i]]);
+	}
+	return nodes;
+}
+
+/**
+Return the nodes in the index.
+@return the nodes in the index, by slot.
+*/
+public HydrologyNode [] getNodes ()
+{	return __nodes;
+}
+
+/**
+Return the grid row for a Y-coordinate, limited to the grid.
+*/
+private int getRow ( double y )
+{	double row = Math.floor((y - __gridMinY)/__cellSize);
+	if ( !(row > 0.0) ) {
+		return 0;
+	}
+	return (int)Math.min(row, __rows - 1);
+}
+
+/**
+Return the next query number, resetting the visited slots if the number wraps.
+*/
+private int nextQuery ()
+{	if ( ++__query == Integer.MAX_VALUE ) {
+		Arrays.fill(__visited, 0);
+		__query = 1;
+	}
+	return __query;
+}
+
+/**
+Update the index for a node whose position or size has changed.  This is called by HydrologyNode.
+@param node a node in the index.
+@param slot the slot of the node.
+*/
+public void nodeChanged ( HydrologyNode node, int slot )
+{	if ( (slot < 0) || (slot >= __nodes.length) || (__nodes[slot] != node) ) {
+		return;
+	}
+	updateExtent(slot);
+	if ( __cells != null ) {
+		removeFromCells(slot);
+		setEnvelope(slot);
+		addToCells(slot);
+	}
+}
+
+/**
+Release the nodes from the index, called when the index is replaced, so that moving the nodes
+does not update this index.
+*/
+public void release ()
+{	for ( int slot = 0; slot < __nodes.length; slot++ ) {
+		if ( __nodes[slot].getSpatialIndex() == this ) {
+			__nodes[slot].setSpatialIndex(null, -1);
+		}
+	}
+}
+
+/**
+Remove a slot from the cells overlapped by its envelope.
+*/
+private void removeFromCells ( int slot )
+{	int column1 = getColumn(__minX[slot]), column2 = getColumn(__maxX[slot]);
+	int row1 = getRow(__minY[slot]), row2 = getRow(__maxY[slot]);
+	int cell, count;
+	int [] slots;
+	for ( int row = row1; row <= row2; row++ ) {
+		for ( int column = column1; column <= column2; column++ ) {
+			cell = row*__columns + column;
+			slots = __cells[cell];
+			count = __cellCounts[cell];
+			for ( int i = 0; i < count; i++ ) {
+				if ( slots[i] == slot ) {
+					// Order within a cell does not matter.
+					slots[i] = slots[count - 1];
+					--__cellCounts[cell];
+					break;
+				}
+			}
+		}
+	}
+}
+
+/**
+Set the envelope for a slot from the node position and size.  The envelope includes the area checked by
+HydrologyNode.contains(), which extends 2 data units past the node symbol, and HydrologyNode.isWithinLimits(),
+which uses the node width and height to the upper right of the node coordinates.
+The absolute value of the width and height is used in all directions so that the envelope is large enough
+in any case.
+*/
+private void setEnvelope ( int slot )
+{	HydrologyNode node = __nodes[slot];
+	double x = node.getX(), y = node.getY();
+	double width = Math.abs(node.getWidth()), height = Math.abs(node.getHeight());
+	double size = Math.max(width, height);
+	__minX[slot] = x - size - 2;
+	__minY[slot] = y - size - 2;
+	__maxX[slot] = x + size + 2;
+	__maxY[slot] = y + size + 2;
+}
+
+
+/**
+Update the extent of the node coordinates for a node that has changed.
+*/
+private void updateExtent ( int slot )
+{	double oldX = __x[slot], oldY = __y[slot];
+	double x = __nodes[slot].getX(), y = __nodes[slot].getY();
+	__x[slot] = x;
+	__y[slot] = y;
+	if ( !__extentValid ) {
+		return;
+	}
+	if ( ((oldX == __extentMinX) && !(x <= oldX)) || ((oldX == __extentMaxX) && !(x >= oldX)) ||
+		((oldY == __extentMinY) && !(y <= oldY)) || ((oldY == __extentMaxY) && !(y >= oldY)) ) {
+		// A node at the edge of the extent was moved inward (or no longer has a coordinate),
+		// so the extent may be smaller - recalculate when needed.
+		__extentValid = false;
+		return;
+	}
+	expandExtent(x, y);
+}
+
+}
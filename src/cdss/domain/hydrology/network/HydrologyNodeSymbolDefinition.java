@@ -0,0 +1,239 @@
+// HydrologyNodeSymbolDefinition - shared symbols drawn for a node type in the network editor display
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import RTi.GR.GRColor;
+import RTi.GR.GRSymbol;
+import RTi.GR.GRSymbolShapeType;
+import RTi.GR.GRSymbolType;
+
+import RTi.Util.Message.Message;
+
+/**
+Symbols and symbol text drawn for a node type and icon diameter in the network editor display.
+Definitions are created once for each node type and icon diameter and are shared by all nodes,
+so that recalculating node extents (for example when zooming) does not create new symbols.
+The symbols must therefore not be modified, and HydrologyNode.getSymbol() gives a node its own copy of the symbol
+(see copySymbol()) before returning it to code outside this package.
+The natural flow and import decorators are drawn separately (see HydrologyNode.draw()) and do not change the definition.
+*/
+class HydrologyNodeSymbolDefinition
+{
+
+/**
+Largest icon diameter for which definitions are saved.  Larger diameters are rare and are created as needed.
+*/
+private static final int MAX_CACHED_ICON_DIAMETER = 512;
+
+/**
+Saved definitions, by node type + 1 (so that -1 for an unknown type can be saved) and icon diameter.
+Definitions are immutable so unsynchronized access only results in a definition occasionally being created twice.
+*/
+private static final HydrologyNodeSymbolDefinition [][] __definitions = new HydrologyNodeSymbolDefinition[32][];
+
+/**
+Node type (HydrologyNode.NODE_TYPE_*) and icon diameter that the definition is for.
+*/
+private final int __nodeType;
+private final int __iconDiameter;
+
+/**
+Primary symbol, or null if no symbol is drawn.
+*/
+private final GRSymbol __symbol;
+
+/**
+Secondary symbol, or null if the node's secondary symbol is not changed.
+*/
+private final GRSymbol __secondarySymbol;
+
+/**
+Text drawn in the middle of the symbol, or null if no text is drawn.
+*/
+private final String __symbolText;
+
+/**
+Whether the node extent is half the normal size (for confluences).
+*/
+private final boolean __halfSize;
+
+/**
+Create a definition.
+*/
+private HydrologyNodeSymbolDefinition ( int nodeType, int iconDiameter, GRSymbol symbol, GRSymbol secondarySymbol,
+	String symbolText, boolean halfSize )
+{	__nodeType = nodeType;
+	__iconDiameter = iconDiameter;
+	__symbol = symbol;
+	__secondarySymbol = secondarySymbol;
+	__symbolText = symbolText;
+	__halfSize = halfSize;
+}
+
+/**
+Create the definition for a node type.
+@param nodeType the node type (HydrologyNode.NODE_TYPE_*).
+@param iconDiameter the node icon diameter.
+*/
+private static HydrologyNodeSymbolDefinition createDefinition ( int nodeType, int iconDiameter )
+{	GRSymbolType symbolType = GRSymbolType.POLYGON;
+	GRColor symbolColor = GRColor.black;
+	if ( (nodeType == HydrologyNode.NODE_TYPE_CONFLUENCE) || (nodeType == HydrologyNode.NODE_TYPE_XCONFLUENCE) ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_FILLED, symbolColor, symbolColor, iconDiameter/2, iconDiameter/2),
+			null, null, true );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_DIV ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, "D", false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_DIV_AND_WELL ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, "DW", false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_END ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol (symbolType, GRSymbolShapeType.X, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_FLOW ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_FILLED, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, null, false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_ISF ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, "M", false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_LABEL ) {
+		return new HydrologyNodeSymbolDefinition ( nodeType, iconDiameter, null, null, null, false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_OTHER ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, "O", false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_PLAN ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_FILLED, GRColor.lightGray, symbolColor, iconDiameter, iconDiameter),
+			null, "PL", false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_RES ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.TRIANGLE_RIGHT_FILLED, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, null, false );
+	}
+	else if ( nodeType == HydrologyNode.NODE_TYPE_WELL ) {
+		return new HydrologyNodeSymbolDefinition( nodeType, iconDiameter,
+			new GRSymbol(symbolType, GRSymbolShapeType.CIRCLE_HOLLOW, symbolColor, symbolColor, iconDiameter, iconDiameter),
+			null, "W", false );
+	}
+	else {
+		String routine = HydrologyNodeSymbolDefinition.class.getSimpleName() + ".createDefinition";
+		Message.printWarning(2, routine, "Unknown symbol for node type " + nodeType);
+		return new HydrologyNodeSymbolDefinition ( nodeType, iconDiameter, null, null, null, false );
+	}
+}
+
+/**
+Return a new symbol that is the same as the primary symbol, for a node that needs a symbol that it can modify.
+@return a new symbol, or null if no symbol is drawn.
+*/
+public GRSymbol copySymbol ()
+{	if ( __symbol == null ) {
+		return null;
+	}
+	return createDefinition(__nodeType, __iconDiameter).getSymbol();
+}
+
+/**
+Return the definition for a node type and icon diameter, creating it if it has not been created.
+@param nodeType the node type (HydrologyNode.NODE_TYPE_*).
+@param iconDiameter the node icon diameter.
+@return the definition for the node type and icon diameter.
+*/
+public static HydrologyNodeSymbolDefinition getDefinition ( int nodeType, int iconDiameter )
+{	int typeIndex = nodeType + 1;
+	if ( (typeIndex < 0) || (typeIndex >= __definitions.length) || (iconDiameter < 0) ||
+		(iconDiameter > MAX_CACHED_ICON_DIAMETER) ) {
+		return createDefinition(nodeType, iconDiameter);
+	}
+	HydrologyNodeSymbolDefinition [] definitions = __definitions[typeIndex];
+	if ( definitions == null ) {
+		definitions = new HydrologyNodeSymbolDefinition[MAX_CACHED_ICON_DIAMETER + 1];
+		__definitions[typeIndex] = definitions;
+	}
+	HydrologyNodeSymbolDefinition definition = definitions[iconDiameter];
+	if ( definition == null ) {
+		definition = createDefinition(nodeType, iconDiameter);
+		definitions[iconDiameter] = definition;
+	}
+	return definition;
+}
+
+/**
+Return the icon diameter that the definition is for.
+@return the icon diameter that the definition is for.
+*/
+public int getIconDiameter ()
+{	return __iconDiameter;
+}
+
+/**
+Return the secondary symbol.
+@return the secondary symbol, or null if the node's secondary symbol is not changed.
+*/
+public GRSymbol getSecondarySymbol ()
+{	return __secondarySymbol;
+}
+
+/**
+Return the primary symbol.
+@return the primary symbol, or null if no symbol is drawn.
+*/
+public GRSymbol getSymbol ()
+{	return __symbol;
+}
+
+/**
+Return the text drawn in the middle of the symbol.
+@return the text drawn in the middle of the symbol (e.g., "D" for diversion), or null if no text is drawn.
+*/
+public String getSymbolText ()
+{	return __symbolText;
+}
+
+/**
+Return whether the node extent is half the normal size.
+@return true if the node extent is half the normal size (for confluences).
+*/
+public boolean isHalfSize ()
+{	return __halfSize;
+}
+
+}
@@ -0,0 +1,312 @@
+// NetworkRoutingKernel - evaluate a time series calculation at each node from upstream to downstream
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+Evaluate a time series calculation (a NodeRoutingOperatorI) at each node of a network, from upstream to downstream,
+for example to accumulate natural flow or distribute gains over many years of daily data.
+The inflow to each node is the sum of the outflows of the nodes immediately upstream and the operator calculates
+the node outflow from the inflow and the node's input time series.
+<p>
+Nodes are evaluated in reverse upstream tree order of the CompactNetwork rather than in computational order (node
+index order), because the nodes upstream of a node are contiguous in the upstream tree order, which allows subtrees
+to be processed independently.  Both orders evaluate each node after all the nodes upstream of it, so the results
+are the same as evaluating the nodes in computational order, except that the outflows of three or more nodes
+immediately upstream of a node may be added in a different order, which can change the last bits of the sum.
+Time steps are processed in blocks so that the data for the
+nodes being processed remain in the processor cache, and independent tributary subtrees are processed in parallel
+using a ForkJoinPool.  Time series values are stored as double[] for each node and no objects are created
+for each node or time step.
+*/
+public class NetworkRoutingKernel
+{
+
+/**
+Operator that adds the node input to the inflow.
+*/
+public static final NodeRoutingOperatorI ACCUMULATE = new AccumulateOperator();
+
+/**
+Operator that adds the node input multiplied by the node proration factor (see HydrologyNode.getProrationFactor())
+to the inflow, for example to distribute gains.
+*/
+public static final NodeRoutingOperatorI PRORATE_GAINS = new ProrateGainsOperator();
+
+/**
+Operator that subtracts the node input from the inflow for diversion nodes (HydrologyNode.NODE_TYPE_DIV and
+NODE_TYPE_DIV_AND_WELL) and adds the node input to the inflow for other nodes.
+*/
+public static final NodeRoutingOperatorI SUBTRACT_DIVERSIONS = new SubtractDiversionsOperator();
+
+/**
+Default number of time steps that are processed in a block.
+*/
+public static final int DEFAULT_BLOCK_SIZE = 256;
+
+/**
+Default maximum number of nodes in a subtree that is processed as one parallel task.
+*/
+public static final int DEFAULT_GRAIN_SIZE = 256;
+
+/**
+Network to process.
+*/
+private final CompactNetwork __network;
+
+/**
+Pool used to process subtrees in parallel, or null to process sequentially.
+*/
+private final ForkJoinPool __pool;
+
+/**
+Maximum number of nodes in a subtree that is processed as one task.
+*/
+private final int __grainSize;
+
+/**
+Number of time steps that are processed in a block.
+*/
+private final int __blockSize;
+
+/**
+Division of the network into subtrees, created with the kernel so that concurrent calls to route() share it
+without synchronization.
+*/
+private final UpstreamTreePartition __partition;
+
+/**
+Create a kernel that uses the common ForkJoinPool and the default grain and block sizes.
+@param network the network to process.
+*/
+public NetworkRoutingKernel ( CompactNetwork network )
+{	this ( network, ForkJoinPool.commonPool(), DEFAULT_GRAIN_SIZE, DEFAULT_BLOCK_SIZE );
+}
+
+/**
+Create a kernel.
+@param network the network to process.
+@param pool the pool used to process subtrees in parallel, or null to process sequentially.
+@param grainSize maximum number of nodes in a subtree that is processed as one task.
+@param blockSize number of time steps that are processed in a block.
+*/
+public NetworkRoutingKernel ( CompactNetwork network, ForkJoinPool pool, int grainSize, int blockSize )
+{	__network = network;
+	__pool = pool;
+	__grainSize = Math.max(1, grainSize);
+	__blockSize = Math.max(1, blockSize);
+	__partition = new UpstreamTreePartition(__network, __grainSize);
+}
+
+/**
+Add the outflow of a node to the inflow of its downstream node for a block of time steps.
+*/
+private void addToDownstream ( double [][] flows, int node, int start, int end )
+{	int parent = __network.getUpstreamTreeParent(node);
+	if ( parent >= 0 ) {
+		double [] flow = flows[node];
+		double [] parentFlow = flows[parent];
+		for ( int t = start; t < end; t++ ) {
+			parentFlow[t] += flow[t];
+		}
+	}
+}
+
+/**
+Evaluate an operator for all nodes.
+@param inputs input time series values for each node, by node index (see CompactNetwork), each with the same number
+of time steps.  The array for a node can be null if the node has no input.
+@param operator the calculation to do at each node.
+@return the outflow for each node, by node index.
+*/
+public double [][] route ( double [][] inputs, NodeRoutingOperatorI operator )
+{	int timeStepCount = 0;
+	for ( int i = 0; i < inputs.length; i++ ) {
+		if ( inputs[i] != null ) {
+			timeStepCount = inputs[i].length;
+			break;
+		}
+	}
+	double [][] flows = new double[__network.getNodeCount()][timeStepCount];
+	route(inputs, operator, flows);
+	return flows;
+}
+
+/**
+Evaluate an operator for all nodes, reusing arrays for the results.
+@param inputs input time series values for each node, by node index (see CompactNetwork), each with the same number
+of time steps.  The array for a node can be null if the node has no input.
+@param operator the calculation to do at each node.
+@param flows arrays to receive the outflow for each node, by node index, each with the same number of
+time steps as the inputs.  The values are overwritten.
+*/
+public void route ( double [][] inputs, NodeRoutingOperatorI operator, double [][] flows )
+{	int n = __network.getNodeCount();
+	if ( (inputs.length != n) || (flows.length != n) ) {
+		throw new IllegalArgumentException ( "Number of input (" + inputs.length + ") and flow (" + flows.length +
+			") time series does not match the number of nodes (" + n + ")." );
+	}
+	if ( n == 0 ) {
+		return;
+	}
+	int timeStepCount = flows[0].length;
+	for ( int i = 0; i < n; i++ ) {
+		if ( (flows[i].length != timeStepCount) || ((inputs[i] != null) && (inputs[i].length != timeStepCount)) ) {
+			throw new IllegalArgumentException ( "Time series for node index " + i +
+				" does not have " + timeStepCount + " time steps." );
+		}
+		Arrays.fill(flows[i], 0.0);
+	}
+	UpstreamTreePartition partition = __partition;
+
+	SubtreeTask task = new SubtreeTask(inputs, operator, flows, 0, partition.getSubtreeCount());
+	if ( (__pool == null) || (partition.getSubtreeNodeCount(0, partition.getSubtreeCount()) <= __grainSize) ) {
+		task.compute();
+	}
+	else {
+		__pool.invoke(task);
+	}
+
+	// Evaluate the main stem nodes, after adding the subtree outflows, working downstream.
+	int node;
+	for ( int start = 0; start < timeStepCount; start += __blockSize ) {
+		int end = Math.min(start + __blockSize, timeStepCount);
+		for ( int i = partition.getCombineCount() - 1; i >= 0; i-- ) {
+			node = partition.getCombineNode(i);
+			if ( partition.isMainStemNode(node) ) {
+				operator.route(__network, node, inputs[node], flows[node], start, end);
+			}
+			addToDownstream(flows, node, start, end);
+		}
+	}
+}
+
+/**
+Evaluate an operator for a subtree, except for adding the outflow of the first node to its downstream node.
+*/
+private void routeSubtree ( double [][] inputs, NodeRoutingOperatorI operator, double [][] flows, int subtreeNode )
+{	int [] treeOrder = __network.getUpstreamTreeOrder();
+	int first = __network.getUpstreamTreeStart(subtreeNode);
+	int last = __network.getUpstreamTreeEnd(subtreeNode) - 1;
+	int timeStepCount = flows[subtreeNode].length;
+	int node;
+	for ( int start = 0; start < timeStepCount; start += __blockSize ) {
+		int end = Math.min(start + __blockSize, timeStepCount);
+		// Reverse upstream tree order visits each node after all of its upstream nodes.
+		for ( int pos = last; pos >= first; pos-- ) {
+			node = treeOrder[pos];
+			operator.route(__network, node, inputs[node], flows[node], start, end);
+			if ( pos > first ) {
+				addToDownstream(flows, node, start, end);
+			}
+		}
+	}
+}
+
+/**
+Operator that adds the node input to the inflow.
+*/
+private static class AccumulateOperator implements NodeRoutingOperatorI
+{
+	public void route ( CompactNetwork network, int node, double [] input, double [] flow, int start, int end )
+	{	if ( input != null ) {
+			for ( int t = start; t < end; t++ ) {
+				flow[t] += input[t];
+			}
+		}
+	}
+}
+
+/**
+Operator that adds the node input multiplied by the proration factor to the inflow.
+*/
+private static class ProrateGainsOperator implements NodeRoutingOperatorI
+{
+	public void route ( CompactNetwork network, int node, double [] input, double [] flow, int start, int end )
+	{	if ( input != null ) {
+			double prorationFactor = network.getProrationFactor(node);
+			for ( int t = start; t < end; t++ ) {
+				flow[t] += prorationFactor*input[t];
+			}
+		}
+	}
+}
+
+/**
+Operator that subtracts the node input for diversion nodes and adds it for other nodes.
+*/
+private static class SubtractDiversionsOperator implements NodeRoutingOperatorI
+{
+	public void route ( CompactNetwork network, int node, double [] input, double [] flow, int start, int end )
+	{	if ( input != null ) {
+			int type = network.getType(node);
+			double sign = ((type == HydrologyNode.NODE_TYPE_DIV) || (type == HydrologyNode.NODE_TYPE_DIV_AND_WELL)) ? -1.0 : 1.0;
+			for ( int t = start; t < end; t++ ) {
+				flow[t] += sign*input[t];
+			}
+		}
+	}
+}
+
+/**
+Task to evaluate a range of subtrees, splitting the range in half until it has at most the grain size
+number of nodes.
+*/
+private class SubtreeTask extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+	private final double [][] __inputs;
+	private final NodeRoutingOperatorI __operator;
+	private final double [][] __flows;
+	private final int __first;
+	private final int __last;
+
+	/**
+	Create a task for subtrees first to last - 1 of the partition.
+	*/
+	private SubtreeTask ( double [][] inputs, NodeRoutingOperatorI operator, double [][] flows, int first, int last )
+	{	__inputs = inputs;
+		__operator = operator;
+		__flows = flows;
+		__first = first;
+		__last = last;
+	}
+
+	protected void compute ()
+	{	if ( ((__last - __first) > 1) && (__partition.getSubtreeNodeCount(__first, __last) > __grainSize) ) {
+			int middle = (__first + __last) >>> 1;
+			invokeAll(new SubtreeTask(__inputs, __operator, __flows, __first, middle),
+				new SubtreeTask(__inputs, __operator, __flows, middle, __last));
+			return;
+		}
+		for ( int i = __first; i < __last; i++ ) {
+			routeSubtree(__inputs, __operator, __flows, __partition.getSubtreeNode(i));
+		}
+	}
+}
+
+}
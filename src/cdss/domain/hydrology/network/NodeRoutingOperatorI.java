@@ -0,0 +1,45 @@
+// NodeRoutingOperatorI - interface for the calculation at a node by NetworkRoutingKernel
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+/**
+Interface for the calculation done at each node by NetworkRoutingKernel.
+The kernel calls the operator for each node after the nodes upstream of the node,
+for a block of time steps at a time, so that no objects need to be created for each node or time step.
+The operator may be called concurrently for different nodes and must not modify shared state.
+*/
+public interface NodeRoutingOperatorI {
+
+	/**
+	Calculate the outflow for a node for a block of time steps.
+	@param network the network being processed.
+	@param node the node index in the network.
+	@param input the input time series values for the node, or null if the node has no input.
+	@param flow on input, the sum of the outflows of the nodes immediately upstream of the node for each time step;
+	on output, the outflow of the node for each time step.
+	@param start the first time step to calculate.
+	@param end the time step after the last time step to calculate.
+	*/
+	public void route ( CompactNetwork network, int node, double [] input, double [] flow, int start, int end );
+}
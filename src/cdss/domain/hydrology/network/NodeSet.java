@@ -0,0 +1,367 @@
+// NodeSet - set of nodes in a network, stored as a bitset over computational order positions
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+Set of nodes in a network, stored as a bitset over the computational order positions of the nodes
+(see HydrologyNodeNetwork.getNodeList()).  Set operations work on 64 nodes at a time, for example to determine
+the nodes upstream of node A but not upstream of node B:
+<pre>
+NodeSet upstreamOfA = network.findUpstreamNodes(new NodeSet(network), nodeA, false, null);
+NodeSet upstreamOfB = network.findUpstreamNodes(new NodeSet(network), nodeB, false, null);
+NodeSet nodes = upstreamOfA.difference(upstreamOfB);
+</pre>
+Nodes are iterated in computational order, from upstream to downstream.
+A set is for the computational order of the network when it was created (see
+HydrologyNodeNetwork.getComputationalOrderVersion()).  If nodes are added to, removed from or reordered in the
+network, sets created before the change cannot be combined with sets created after the change, have nodes added,
+or be checked for nodes.  Changes to node identifiers, types and flags do not affect sets.
+*/
+public class NodeSet implements Iterable<HydrologyNode>
+{
+
+/**
+Network that the nodes are in.
+*/
+private final HydrologyNodeNetwork __network;
+
+/**
+Nodes in the network in computational order, when the set was created.
+*/
+private final HydrologyNode [] __nodes;
+
+/**
+Computational order version of the network (see HydrologyNodeNetwork.getComputationalOrderVersion()),
+when the set was created.
+*/
+private final long __version;
+
+/**
+Computational order positions of the nodes in the set.
+*/
+private final BitSet __bits;
+
+/**
+Create an empty set for the nodes in a network.
+@param network network that the nodes are in.
+*/
+public NodeSet ( HydrologyNodeNetwork network )
+{	this ( network, network.getComputationalOrderNodes(), network.getComputationalOrderVersion(), null );
+}
+
+/**
+Create a set.
+@param network network that the nodes are in.
+@param nodes nodes in the network in computational order, which is not copied.
+@param version computational order version of the network for the nodes.
+@param bits computational order positions of the nodes in the set, which is not copied, or null for an empty set.
+*/
+private NodeSet ( HydrologyNodeNetwork network, HydrologyNode [] nodes, long version, BitSet bits )
+{	__network = network;
+	__nodes = nodes;
+	__version = version;
+	__bits = (bits == null) ? new BitSet(nodes.length) : bits;
+}
+
+/**
+Add a node to the set.
+@param node node to add.
+@return true if the node was added, false if the node was already in the set.
+@exception IllegalArgumentException if the node is not in the network or the network has changed.
+*/
+public boolean add ( HydrologyNode node )
+{	return addIndex ( getIndex(node) );
+}
+
+/**
+Add a node to the set, by computational order position.
+@param index computational order position of the node, 0 to getNodeCount() - 1.
+@return true if the node was added, false if the node was already in the set.
+*/
+public boolean addIndex ( int index )
+{	if ( (index < 0) || (index >= __nodes.length) ) {
+		throw new IndexOutOfBoundsException ( "Node index " + index + " is not 0 to " + (__nodes.length - 1) );
+	}
+	if ( __bits.get(index) ) {
+		return false;
+	}
+	__bits.set(index);
+	return true;
+}
+
+/**
+Add the nodes from a result of HydrologyNodeNetwork.findUpstreamNodesForNodes().
+@param ranges nodes to add.
+*/
+void addRanges ( UpstreamNodeRanges ranges )
+{	for ( int range = 0; range < ranges.getRangeCount(); range++ ) {
+		for ( int pos = ranges.getRangeStart(range); pos < ranges.getRangeEnd(range); pos++ ) {
+			__bits.set(ranges.getNodeIndex(pos));
+		}
+	}
+}
+
+/**
+Return the number of nodes in the set.
+@return the number of nodes in the set.
+*/
+public int cardinality ()
+{	return __bits.cardinality();
+}
+
+/**
+Check that another set is for the same network structure as this set.
+@param other the other set.
+@exception IllegalArgumentException if the sets are for different networks or the network has changed.
+*/
+private void checkCompatible ( NodeSet other )
+{	if ( (other.__network != __network) || (other.__version != __version) ) {
+		throw new IllegalArgumentException ( "Node sets are not for the same network structure." );
+	}
+}
+
+/**
+Check that the set is for a network and the current network structure.
+@param network the network.
+@exception IllegalArgumentException if the set is for a different network or the network has changed.
+*/
+void checkNetwork ( HydrologyNodeNetwork network )
+{	if ( network != __network ) {
+		throw new IllegalArgumentException ( "The node set is for a different network." );
+	}
+	if ( network.getComputationalOrderVersion() != __version ) {
+		throw new IllegalArgumentException ( "The network has changed since the node set was created." );
+	}
+}
+
+/**
+Remove all nodes from the set.
+*/
+public void clear ()
+{	__bits.clear();
+}
+
+/**
+Indicate whether a node is in the set.
+@param node node to check.
+@return true if the node is in the set, false if not (including if the node is not in the network).
+@exception IllegalArgumentException if the network has changed.
+*/
+public boolean contains ( HydrologyNode node )
+{	int index = __network.getComputationalIndex(node);
+	checkNetwork ( __network );
+	return (index >= 0) && __bits.get(index);
+}
+
+/**
+Indicate whether a node is in the set, by computational order position.
+@param index computational order position of the node.
+@return true if the node is in the set.
+*/
+public boolean containsIndex ( int index )
+{	return (index >= 0) && __bits.get(index);
+}
+
+/**
+Return a new set with the nodes in this set that are not in another set.
+@param other the other set, which must be for the same network structure.
+@return a new set with the nodes in this set that are not in the other set.
+*/
+public NodeSet difference ( NodeSet other )
+{	checkCompatible ( other );
+	BitSet bits = (BitSet)__bits.clone();
+	bits.andNot(other.__bits);
+	return new NodeSet ( __network, __nodes, __version, bits );
+}
+
+/**
+Return the computational order position of a node.
+@param node node to look up.
+@return the computational order position of the node.
+@exception IllegalArgumentException if the node is not in the network or the network has changed.
+*/
+private int getIndex ( HydrologyNode node )
+{	int index = __network.getComputationalIndex(node);
+	checkNetwork ( __network );
+	if ( index < 0 ) {
+		throw new IllegalArgumentException ( "Node \"" + node.getCommonID() + "\" is not in the network." );
+	}
+	return index;
+}
+
+/**
+Return the network that the nodes are in.
+@return the network that the nodes are in.
+*/
+public HydrologyNodeNetwork getNetwork ()
+{	return __network;
+}
+
+/**
+Return a node by computational order position.
+@param index computational order position of the node, 0 to getNodeCount() - 1.
+@return the node at the position.
+*/
+public HydrologyNode getNode ( int index )
+{	return __nodes[index];
+}
+
+/**
+Return the number of nodes in the network when the set was created, which is the number of possible positions.
+@return the number of nodes in the network.
+*/
+public int getNodeCount ()
+{	return __nodes.length;
+}
+
+/**
+Return a new set with the nodes that are in both this set and another set.
+@param other the other set, which must be for the same network structure.
+@return a new set with the nodes that are in both sets.
+*/
+public NodeSet intersection ( NodeSet other )
+{	checkCompatible ( other );
+	BitSet bits = (BitSet)__bits.clone();
+	bits.and(other.__bits);
+	return new NodeSet ( __network, __nodes, __version, bits );
+}
+
+/**
+Indicate whether the set is empty.
+@return true if the set has no nodes.
+*/
+public boolean isEmpty ()
+{	return __bits.isEmpty();
+}
+
+/**
+Return an iterator over the nodes in the set, in computational order.
+The set must not be modified while iterating.
+@return an iterator over the nodes in the set.
+*/
+public Iterator<HydrologyNode> iterator ()
+{	return new Iterator<HydrologyNode>() {
+		private int __next = __bits.nextSetBit(0);
+
+		public boolean hasNext () {
+			return __next >= 0;
+		}
+
+		public HydrologyNode next () {
+			if ( __next < 0 ) {
+				throw new NoSuchElementException();
+			}
+			HydrologyNode node = __nodes[__next];
+			__next = __bits.nextSetBit(__next + 1);
+			return node;
+		}
+
+		public void remove () {
+			throw new UnsupportedOperationException();
+		}
+	};
+}
+
+/**
+Return the computational order position of the next node in the set, for iterating without creating objects:
+<pre>
+for ( int i = nodeSet.nextIndex(0); i &gt;= 0; i = nodeSet.nextIndex(i + 1) ) {
+	HydrologyNode node = nodeSet.getNode(i);
+}
+</pre>
+@param fromIndex the computational order position to start from, inclusive.
+@return the position of the next node in the set at or after fromIndex, or -1 if there are no more nodes.
+*/
+public int nextIndex ( int fromIndex )
+{	return __bits.nextSetBit(fromIndex);
+}
+
+/**
+Remove a node from the set.
+@param node node to remove.
+@return true if the node was removed, false if the node was not in the set.
+@exception IllegalArgumentException if the network has changed.
+*/
+public boolean remove ( HydrologyNode node )
+{	if ( !contains(node) ) {
+		return false;
+	}
+	__bits.clear(__network.getComputationalIndex(node));
+	return true;
+}
+
+/**
+Return the computational order positions of the nodes in the set.
+@return a new BitSet with the computational order positions of the nodes in the set.
+*/
+public BitSet toBitSet ()
+{	return (BitSet)__bits.clone();
+}
+
+/**
+Return the nodes in the set as a list.
+@return a new list with the nodes in the set, in computational order.
+*/
+public List<HydrologyNode> toList ()
+{	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>(__bits.cardinality());
+	for ( int i = __bits.nextSetBit(0); i >= 0; i = __bits.nextSetBit(i + 1) ) {
+		nodes.add(__nodes[i]);
+	}
+	return nodes;
+}
+
+/**
+Return a string for the set, with the common identifiers of the nodes in computational order.
+@return a string for the set.
+*/
+public String toString ()
+{	StringBuilder b = new StringBuilder("[");
+	for ( int i = __bits.nextSetBit(0); i >= 0; i = __bits.nextSetBit(i + 1) ) {
+		if ( b.length() > 1 ) {
+			b.append(", ");
+		}
+		b.append(__nodes[i].getCommonID());
+	}
+	return b.append("]").toString();
+}
+
+/**
+Return a new set with the nodes that are in this set or another set.
+@param other the other set, which must be for the same network structure.
+@return a new set with the nodes that are in either set.
+*/
+public NodeSet union ( NodeSet other )
+{	checkCompatible ( other );
+	BitSet bits = (BitSet)__bits.clone();
+	bits.or(other.__bits);
+	return new NodeSet ( __network, __nodes, __version, bits );
+}
+
+}
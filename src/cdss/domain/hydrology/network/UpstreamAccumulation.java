@@ -0,0 +1,112 @@
+// UpstreamAccumulation - result of accumulating node values over the nodes upstream of each node
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+/**
+Result of accumulating node values over each node and all the nodes upstream of it (see UpstreamAccumulator).
+The result is immutable, so it can be shared between threads, and is indexed by node index in the CompactNetwork
+(computational order).  The arrays returned by the get*s() methods are copies.
+*/
+public class UpstreamAccumulation
+{
+
+/**
+Sum, minimum and maximum of the values for each node and the nodes upstream of it, by node index.
+*/
+private final double [] __sums;
+private final double [] __mins;
+private final double [] __maxs;
+
+/**
+Create a result.
+@param sums sum for each node, which is not copied.
+@param mins minimum for each node, which is not copied.
+@param maxs maximum for each node, which is not copied.
+*/
+UpstreamAccumulation ( double [] sums, double [] mins, double [] maxs )
+{	__sums = sums;
+	__mins = mins;
+	__maxs = maxs;
+}
+
+/**
+Return the maximum of the values for a node and the nodes upstream of it.
+@param index node index.
+@return the maximum for the node.
+*/
+public double getMaximum ( int index )
+{	return __maxs[index];
+}
+
+/**
+Return the maximum of the values for each node and the nodes upstream of it.
+@return a new array with the maximum for each node, by node index.
+*/
+public double [] getMaximums ()
+{	return __maxs.clone();
+}
+
+/**
+Return the minimum of the values for a node and the nodes upstream of it.
+@param index node index.
+@return the minimum for the node.
+*/
+public double getMinimum ( int index )
+{	return __mins[index];
+}
+
+/**
+Return the minimum of the values for each node and the nodes upstream of it.
+@return a new array with the minimum for each node, by node index.
+*/
+public double [] getMinimums ()
+{	return __mins.clone();
+}
+
+/**
+Return the number of nodes.
+@return the number of nodes.
+*/
+public int getNodeCount ()
+{	return __sums.length;
+}
+
+/**
+Return the sum of the values for a node and the nodes upstream of it.
+@param index node index.
+@return the sum for the node.
+*/
+public double getSum ( int index )
+{	return __sums[index];
+}
+
+/**
+Return the sum of the values for each node and the nodes upstream of it.
+@return a new array with the sum for each node, by node index.
+*/
+public double [] getSums ()
+{	return __sums.clone();
+}
+
+}
@@ -0,0 +1,213 @@
+// UpstreamAccumulator - accumulate node values over the network upstream of each node
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+Accumulate node values over each node and all the nodes upstream of it (the contributing network),
+for example to determine the contributing area or water at each node.
+The sum, minimum and maximum are calculated for every node in time proportional to the number of nodes.
+<p>
+The network is divided into tributary subtrees that each have at most a "grain size" number of nodes.
+The subtrees are independent and are processed in parallel using a ForkJoinPool.
+The remaining nodes, which each have more than the grain size number of nodes upstream,
+are then processed in a single pass that combines the subtree results.
+Values that are NaN result in NaN for all downstream nodes.
+Each subtree is accumulated with the same traversal as CompactNetwork.accumulate().
+<p>
+Each call to accumulate() returns a new immutable result, indexed by node index in the CompactNetwork
+(computational order), so an accumulator can be used by several threads at once.
+*/
+public class UpstreamAccumulator
+{
+
+/**
+Node attributes that can be accumulated with accumulate(int).
+*/
+public static final int ATTRIBUTE_AREA = 1;
+public static final int ATTRIBUTE_PRECIP = 2;
+public static final int ATTRIBUTE_WATER = 3;
+public static final int ATTRIBUTE_PRORATION_FACTOR = 4;
+
+/**
+Default maximum number of nodes in a subtree that is processed as one parallel task.
+*/
+public static final int DEFAULT_GRAIN_SIZE = 2048;
+
+/**
+Network to process.
+*/
+private final CompactNetwork __network;
+
+/**
+Pool used to process subtrees in parallel, or null to process sequentially.
+*/
+private final ForkJoinPool __pool;
+
+/**
+Maximum number of nodes in a subtree that is processed as one task.
+*/
+private final int __grainSize;
+
+/**
+Create an accumulator that uses the common ForkJoinPool and the default grain size.
+@param network the network to process.
+*/
+public UpstreamAccumulator ( CompactNetwork network )
+{	this ( network, ForkJoinPool.commonPool(), DEFAULT_GRAIN_SIZE );
+}
+
+/**
+Create an accumulator.
+@param network the network to process.
+@param pool the pool used to process subtrees in parallel, or null to process sequentially.
+@param grainSize maximum number of nodes in a subtree that is processed as one task.
+*/
+public UpstreamAccumulator ( CompactNetwork network, ForkJoinPool pool, int grainSize )
+{	__network = network;
+	__pool = pool;
+	__grainSize = Math.max(1, grainSize);
+}
+
+/**
+Accumulate values for a node attribute.
+@param attribute the attribute to accumulate (ATTRIBUTE_*).
+@return the sum, minimum and maximum for each node.
+*/
+public UpstreamAccumulation accumulate ( int attribute )
+{	int n = __network.getNodeCount();
+	double [] values = new double[n];
+	for ( int i = 0; i < n; i++ ) {
+		switch ( attribute ) {
+			case ATTRIBUTE_AREA: values[i] = __network.getArea(i); break;
+			case ATTRIBUTE_PRECIP: values[i] = __network.getPrecip(i); break;
+			case ATTRIBUTE_WATER: values[i] = __network.getWater(i); break;
+			case ATTRIBUTE_PRORATION_FACTOR: values[i] = __network.getProrationFactor(i); break;
+			default: throw new IllegalArgumentException ( "Attribute " + attribute + " is not recognized." );
+		}
+	}
+	return accumulate(values);
+}
+
+/**
+Accumulate values.
+@param values value for each node, by node index.
+@return the sum, minimum and maximum for each node.
+*/
+public UpstreamAccumulation accumulate ( double [] values )
+{	int n = __network.getNodeCount();
+	if ( values.length != n ) {
+		throw new IllegalArgumentException ( "Number of values (" + values.length +
+			") does not match the number of nodes (" + n + ")." );
+	}
+	double [] sums = new double[n];
+	double [] mins = new double[n];
+	double [] maxs = new double[n];
+	UpstreamTreePartition partition = new UpstreamTreePartition(__network, __grainSize);
+	int node;
+	for ( int i = 0; i < partition.getCombineCount(); i++ ) {
+		node = partition.getCombineNode(i);
+		if ( partition.isMainStemNode(node) ) {
+			sums[node] = values[node];
+			mins[node] = values[node];
+			maxs[node] = values[node];
+		}
+	}
+
+	SubtreeTask task = new SubtreeTask(values, sums, mins, maxs, partition, 0, partition.getSubtreeCount());
+	if ( (__pool == null) || (partition.getSubtreeNodeCount(0, partition.getSubtreeCount()) <= __grainSize) ) {
+		task.compute();
+	}
+	else {
+		__pool.invoke(task);
+	}
+
+	// Combine the subtree results into the nodes with larger subtrees, working downstream.
+	int parent;
+	for ( int i = partition.getCombineCount() - 1; i >= 0; i-- ) {
+		node = partition.getCombineNode(i);
+		parent = __network.getUpstreamTreeParent(node);
+		if ( parent >= 0 ) {
+			combine(sums, mins, maxs, node, parent);
+		}
+	}
+	return new UpstreamAccumulation(sums, mins, maxs);
+}
+
+/**
+Combine the results for a node into the results for its downstream node.
+*/
+private static void combine ( double [] sums, double [] mins, double [] maxs, int node, int downstreamNode )
+{	sums[downstreamNode] += sums[node];
+	mins[downstreamNode] = Math.min(mins[downstreamNode], mins[node]);
+	maxs[downstreamNode] = Math.max(maxs[downstreamNode], maxs[node]);
+}
+
+/**
+Task to accumulate a range of subtrees, splitting the range in half until it has at most the grain size
+number of nodes.
+*/
+private class SubtreeTask extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+	private final double [] __values;
+	private final double [] __sums;
+	private final double [] __mins;
+	private final double [] __maxs;
+	private final UpstreamTreePartition __partition;
+	private final int __first;
+	private final int __last;
+
+	/**
+	Create a task for the subtrees of subtreeNodes[first] to subtreeNodes[last - 1].
+	*/
+	private SubtreeTask ( double [] values, double [] sums, double [] mins, double [] maxs,
+		UpstreamTreePartition partition, int first, int last )
+	{	__values = values;
+		__sums = sums;
+		__mins = mins;
+		__maxs = maxs;
+		__partition = partition;
+		__first = first;
+		__last = last;
+	}
+
+	protected void compute ()
+	{	if ( ((__last - __first) > 1) && (__partition.getSubtreeNodeCount(__first, __last) > __grainSize) ) {
+			int middle = (__first + __last) >>> 1;
+			invokeAll(new SubtreeTask(__values, __sums, __mins, __maxs, __partition, __first, middle),
+				new SubtreeTask(__values, __sums, __mins, __maxs, __partition, middle, __last));
+			return;
+		}
+		for ( int i = __first; i < __last; i++ ) {
+			int node = __partition.getSubtreeNode(i);
+			__network.accumulate(__values, __sums, __mins, __maxs,
+				__network.getUpstreamTreeStart(node), __network.getUpstreamTreeEnd(node));
+		}
+	}
+}
+
+}
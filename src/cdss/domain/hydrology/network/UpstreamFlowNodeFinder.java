@@ -0,0 +1,381 @@
+// UpstreamFlowNodeFinder - find the upstream flow nodes for all nodes in a network
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+Find the upstream flow nodes for all nodes in a network (see HydrologyNodeNetwork.findUpstreamFlowNodesForAllNodes()).
+The nodes are found by the same walk as HydrologyNodeNetwork.findUpstreamFlowNodes(): from the node, go to the
+next upstream computational node until a flow node or the top of the reach is found, and for each confluence
+that is passed, walk the tributary in the same way, and then skip over the tributary.
+The walk for a node usually continues along the same nodes as the walk for the next upstream node, so the results
+of the walk from each node are saved and reused, as are the results for each tributary, and the node lookups
+(next upstream computational node, top of reach, whether a flow node) are done once for each node.
+Positions are computational order positions (see HydrologyNodeNetwork.getComputationalIndex()).
+*/
+class UpstreamFlowNodeFinder
+{
+
+/**
+Value for positions that have not been determined.
+*/
+private static final int UNKNOWN = -2;
+
+/**
+Network to search.
+*/
+private final HydrologyNodeNetwork __network;
+
+/**
+Nodes in the network in computational order.
+*/
+private final HydrologyNode [] __nodes;
+
+/**
+Interface to evaluate StateMod_PrfGageData (see HydrologyNodeNetwork.findUpstreamFlowNodes()), can be null.
+*/
+private final UpstreamFlowNodeI __upstreamFlowNodeI;
+
+/**
+Position of the next upstream computational node for each node, -1 if none, or UNKNOWN.
+*/
+private final int [] __computationalUpstream;
+
+/**
+Position of the node at the top of the reach for each node, or UNKNOWN.
+*/
+private final int [] __reachTop;
+
+/**
+Position of the node at the absolute top of the system for each node, or UNKNOWN.
+*/
+private final int [] __absoluteUpstream;
+
+/**
+Whether each node is an upstream flow node: 0 if not determined, 1 if a flow node, 2 if not.
+*/
+private final byte [] __isFlowNode;
+
+/**
+Upstream flow nodes on the tributary for each confluence node, or null if not determined.
+*/
+private final int [][] __tributaryFlowNodes;
+
+/**
+Upstream flow nodes found by walking from a node to the top of a reach, by node position and reach top position
+(see getWalkKey()).
+*/
+private final Map<Long,int[]> __walkFlowNodes = new HashMap<Long,int[]>();
+
+/**
+Empty result, shared by nodes that have no upstream flow nodes.
+*/
+private final int [] __noNodes = new int[0];
+
+/**
+Whether the network connectivity is consistent with the computational order.
+*/
+private boolean __consistent = true;
+
+/**
+Create a finder for a network.
+@param network network to search.
+@param nodes nodes in the network in computational order.
+@param upstreamFlowNodeI interface to evaluate StateMod_PrfGageData (see HydrologyNodeNetwork.findUpstreamFlowNodes()),
+can be null.
+*/
+UpstreamFlowNodeFinder ( HydrologyNodeNetwork network, HydrologyNode [] nodes, UpstreamFlowNodeI upstreamFlowNodeI )
+{	__network = network;
+	__nodes = nodes;
+	__upstreamFlowNodeI = upstreamFlowNodeI;
+	__computationalUpstream = newPositions(nodes.length);
+	__reachTop = newPositions(nodes.length);
+	__absoluteUpstream = newPositions(nodes.length);
+	__isFlowNode = new byte[nodes.length];
+	__tributaryFlowNodes = new int[nodes.length][];
+}
+
+/**
+Find the upstream flow nodes for every node.
+@return the upstream flow nodes for each node, as described for
+HydrologyNodeNetwork.findUpstreamFlowNodesForAllNodes(), or null if the network connectivity is not consistent
+with the computational order, in which case findUpstreamFlowNodes() should be called for each node.
+*/
+int [][] findUpstreamFlowNodesForAllNodes ()
+{	int [][] upstreamFlowNodes = new int[__nodes.length][];
+	for ( int i = 0; (i < __nodes.length) && __consistent; i++ ) {
+		if ( isConfluence(i) ) {
+			upstreamFlowNodes[i] = __noNodes;
+			continue;
+		}
+		int top = getReachTop(i);
+		if ( top == i ) {
+			// The node is at the top of its reach.
+			upstreamFlowNodes[i] = __noNodes;
+			continue;
+		}
+		upstreamFlowNodes[i] = walk(getComputationalUpstream(i), top);
+	}
+	if ( !__consistent ) {
+		return null;
+	}
+	return upstreamFlowNodes;
+}
+
+/**
+Return the position of the node at the absolute top of the system from a node
+(see HydrologyNodeNetwork.getUpstreamNode(node,POSITION_ABSOLUTE)).
+@param position position of the node.
+@return the position of the node at the top, or -1 if not found.
+*/
+private int getAbsoluteUpstream ( int position )
+{	if ( __absoluteUpstream[position] == UNKNOWN ) {
+		__absoluteUpstream[position] = getPosition(
+			HydrologyNodeNetwork.getUpstreamNode(__nodes[position], HydrologyNodeNetwork.POSITION_ABSOLUTE));
+	}
+	return __absoluteUpstream[position];
+}
+
+/**
+Return the position of the next upstream computational node from a node
+(see HydrologyNodeNetwork.getUpstreamNode(node,POSITION_COMPUTATIONAL)).
+@param position position of the node.
+@return the position of the next upstream computational node, or -1 if none.
+*/
+private int getComputationalUpstream ( int position )
+{	if ( __computationalUpstream[position] == UNKNOWN ) {
+		__computationalUpstream[position] = getPosition(
+			HydrologyNodeNetwork.getUpstreamNode(__nodes[position], HydrologyNodeNetwork.POSITION_COMPUTATIONAL));
+	}
+	return __computationalUpstream[position];
+}
+
+/**
+Return the position of a node.
+@param node node to look up, can be null.
+@return the position of the node, or -1 if the node is null.  If the node is not in the network, the network
+is marked as not consistent and -1 is returned.
+*/
+private int getPosition ( HydrologyNode node )
+{	if ( node == null ) {
+		return -1;
+	}
+	int position = __network.getComputationalIndex(node);
+	if ( position < 0 ) {
+		__consistent = false;
+	}
+	return position;
+}
+
+/**
+Return the position of the node at the top of the reach for a node
+(see HydrologyNodeNetwork.getUpstreamNode(node,POSITION_REACH)).
+The result is saved for all the nodes that are passed, which have the same reach top.
+@param position position of the node.
+@return the position of the node at the top of the reach, or -1 if not found.
+*/
+private int getReachTop ( int position )
+{	if ( __reachTop[position] != UNKNOWN ) {
+		return __reachTop[position];
+	}
+	int top = position;
+	HydrologyNode node;
+	int nodeType;
+	for ( int count = 0; (top >= 0) && (__reachTop[top] == UNKNOWN); count++ ) {
+		if ( count > __nodes.length ) {
+			// Upstream nodes loop back on themselves.
+			__consistent = false;
+			return -1;
+		}
+		// Same logic as getUpstreamNode(node,POSITION_REACH).
+		node = __nodes[top];
+		nodeType = node.getType();
+		if ( (node.getNumUpstreamNodes() == 0) || ((node.getNumUpstreamNodes() == 1) &&
+			((nodeType == HydrologyNode.NODE_TYPE_CONFLUENCE) || (nodeType == HydrologyNode.NODE_TYPE_XCONFLUENCE))) ) {
+			__reachTop[top] = top;
+			break;
+		}
+		else if ( node.getUpstreamOrder() == HydrologyNode.TRIBS_ADDED_FIRST ) {
+			top = getPosition(node.getUpstreamNode(node.getNumUpstreamNodes() - 1));
+		}
+		else {
+			top = getPosition(node.getUpstreamNode(0));
+		}
+	}
+	top = (top < 0) ? -1 : __reachTop[top];
+	// Save the result for the nodes that were passed.
+	for ( int pos = position; (pos >= 0) && (__reachTop[pos] == UNKNOWN); ) {
+		__reachTop[pos] = top;
+		HydrologyNode passedNode = __nodes[pos];
+		if ( passedNode.getUpstreamOrder() == HydrologyNode.TRIBS_ADDED_FIRST ) {
+			pos = getPosition(passedNode.getUpstreamNode(passedNode.getNumUpstreamNodes() - 1));
+		}
+		else {
+			pos = getPosition(passedNode.getUpstreamNode(0));
+		}
+	}
+	return top;
+}
+
+/**
+Return the upstream flow nodes on the tributary that enters at a confluence node.
+@param position position of the confluence node.
+@return the upstream flow nodes on the tributary.
+*/
+private int [] getTributaryFlowNodes ( int position )
+{	if ( __tributaryFlowNodes[position] == null ) {
+		int upstream = getComputationalUpstream(position);
+		if ( upstream < 0 ) {
+			__tributaryFlowNodes[position] = __noNodes;
+		}
+		else {
+			__tributaryFlowNodes[position] = walk(upstream, getReachTop(upstream));
+		}
+	}
+	return __tributaryFlowNodes[position];
+}
+
+/**
+Return the key for a walk in __walkFlowNodes.
+@param position position where the walk starts.
+@param top position of the node at the top of the reach.
+@return the key for the walk.
+*/
+private static Long getWalkKey ( int position, int top )
+{	return Long.valueOf(((long)position << 32) | (top & 0xffffffffL));
+}
+
+/**
+Indicate whether a node is a confluence.
+@param position position of the node.
+@return true if the node is a confluence.
+*/
+private boolean isConfluence ( int position )
+{	int nodeType = __nodes[position].getType();
+	return (nodeType == HydrologyNode.NODE_TYPE_CONFLUENCE) || (nodeType == HydrologyNode.NODE_TYPE_XCONFLUENCE);
+}
+
+/**
+Indicate whether a node is an upstream flow node, which is a natural flow FLOW node or a node
+indicated by the UpstreamFlowNodeI.  The interface is called at most once for each node.
+@param position position of the node.
+@return true if the node is an upstream flow node.
+*/
+private boolean isFlowNode ( int position )
+{	if ( __isFlowNode[position] == 0 ) {
+		HydrologyNode node = __nodes[position];
+		boolean isFlowNode = ((node.getType() == HydrologyNode.NODE_TYPE_FLOW) && node.getIsNaturalFlow()) ||
+			((__upstreamFlowNodeI != null) && (__upstreamFlowNodeI.isSetprfTarget(node.getCommonID()) >= 0));
+		__isFlowNode[position] = (byte)(isFlowNode ? 1 : 2);
+	}
+	return __isFlowNode[position] == 1;
+}
+
+/**
+Create an array of positions that have not been determined.
+@param size size of the array.
+@return a new array with each position set to UNKNOWN.
+*/
+private static int [] newPositions ( int size )
+{	int [] positions = new int[size];
+	Arrays.fill(positions, UNKNOWN);
+	return positions;
+}
+
+/**
+Walk upstream from a node until a flow node or the top of the reach is found, as in
+HydrologyNodeNetwork.findUpstreamFlowNodes().  The result for each node that is passed is saved,
+so that walks that reach the same node with the same reach top end immediately.
+@param start position of the first node to check.
+@param top position of the node at the top of the reach, where the walk stops.
+@return the upstream flow nodes that are found, which must not be modified.
+*/
+private int [] walk ( int start, int top )
+{	// Nodes that are passed and the flow nodes that each adds to the result (null if none).
+	int [] passed = new int[16];
+	int [][] added = new int[16][];
+	int passedCount = 0;
+	int [] result = __noNodes;
+	int position = start;
+	int next;
+	while ( position >= 0 ) {
+		int [] saved = __walkFlowNodes.get(getWalkKey(position, top));
+		if ( saved != null ) {
+			result = saved;
+			break;
+		}
+		if ( passedCount == passed.length ) {
+			passed = Arrays.copyOf(passed, passedCount*2);
+			added = Arrays.copyOf(added, passedCount*2);
+		}
+		passed[passedCount] = position;
+		added[passedCount] = null;
+		++passedCount;
+		if ( isConfluence(position) ) {
+			// Walk the tributary and then skip past it.
+			added[passedCount - 1] = getTributaryFlowNodes(position);
+			if ( position == top ) {
+				break;
+			}
+			next = getComputationalUpstream(position);
+			if ( next >= 0 ) {
+				next = getAbsoluteUpstream(next);
+				if ( next >= 0 ) {
+					next = getComputationalUpstream(next);
+				}
+			}
+		}
+		else if ( isFlowNode(position) ) {
+			added[passedCount - 1] = new int[] { position };
+			break;
+		}
+		else if ( position == top ) {
+			break;
+		}
+		else {
+			next = getComputationalUpstream(position);
+		}
+		if ( next >= position ) {
+			// Upstream nodes are earlier in computational order, so the network is not consistent.
+			__consistent = false;
+			break;
+		}
+		position = next;
+	}
+	// The result for each passed node is the flow nodes that it adds followed by the result for the next node.
+	for ( int i = passedCount - 1; i >= 0; i-- ) {
+		if ( (added[i] != null) && (added[i].length > 0) ) {
+			int [] combined = Arrays.copyOf(added[i], added[i].length + result.length);
+			System.arraycopy(result, 0, combined, added[i].length, result.length);
+			result = combined;
+		}
+		__walkFlowNodes.put(getWalkKey(passed[i], top), result);
+	}
+	return result;
+}
+
+}
@@ -0,0 +1,185 @@
+// UpstreamNodeRanges - nodes upstream of a node, stored as ranges of the network's upstream tree order
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+Result of finding the nodes upstream of a node (see HydrologyNodeNetwork.findUpstreamNodesForNodes()).
+Because all the nodes upstream of a node are contiguous in the network's upstream tree order, the result is stored
+as ranges of positions in that order rather than as a list of nodes.  The order array is shared by all results
+from the same network and is not copied.  Positions are visited in the same order as the nodes returned by
+HydrologyNodeNetwork.findUpstreamNodes().
+<p>
+For example, to process the nodes without creating a list:
+<pre>
+for ( int range = 0; range &lt; ranges.getRangeCount(); range++ ) {
+	for ( int pos = ranges.getRangeStart(range); pos &lt; ranges.getRangeEnd(range); pos++ ) {
+		HydrologyNode node = ranges.getNode(pos);
+		...
+	}
+}
+</pre>
+The result is not updated if the network changes.
+*/
+public class UpstreamNodeRanges
+{
+
+/**
+Computational order positions (see HydrologyNodeNetwork.getComputationalIndex()) of the nodes, by position.
+*/
+private final int [] __order;
+
+/**
+Nodes in computational order, when the result was created.
+*/
+private final HydrologyNode [] __nodes;
+
+/**
+Start and end positions of each range, as pairs.
+*/
+private final int [] __ranges;
+
+/**
+Number of nodes in all ranges.
+*/
+private final int __size;
+
+/**
+Create a result.
+@param order computational order positions of nodes, which is not copied.
+@param nodes nodes in computational order, which is not copied.
+@param ranges start and end positions of each range in order, as pairs, which is not copied.
+@param rangeCount number of ranges.
+*/
+UpstreamNodeRanges ( int [] order, HydrologyNode [] nodes, int [] ranges, int rangeCount )
+{	__order = order;
+	__nodes = nodes;
+	__ranges = (ranges.length == rangeCount*2) ? ranges : Arrays.copyOf(ranges, rangeCount*2);
+	int size = 0;
+	for ( int i = 0; i < __ranges.length; i += 2 ) {
+		size += __ranges[i + 1] - __ranges[i];
+	}
+	__size = size;
+}
+
+/**
+Return the node at a position.
+@param position position from getRangeStart(range) to getRangeEnd(range) - 1 for a range.
+@return the node at the position.
+*/
+public HydrologyNode getNode ( int position )
+{	return __nodes[__order[position]];
+}
+
+/**
+Return the computational order position of the node at a position (see HydrologyNodeNetwork.getNodeList()).
+@param position position from getRangeStart(range) to getRangeEnd(range) - 1 for a range.
+@return the computational order position of the node at the position.
+*/
+public int getNodeIndex ( int position )
+{	return __order[position];
+}
+
+/**
+Return the number of ranges.
+@return the number of ranges.
+*/
+public int getRangeCount ()
+{	return __ranges.length/2;
+}
+
+/**
+Return the position after the last node in a range.
+@param range range, 0 to getRangeCount() - 1.
+@return the position after the last node in the range.
+*/
+public int getRangeEnd ( int range )
+{	return __ranges[range*2 + 1];
+}
+
+/**
+Return the position of the first node in a range.
+@param range range, 0 to getRangeCount() - 1.
+@return the position of the first node in the range.
+*/
+public int getRangeStart ( int range )
+{	return __ranges[range*2];
+}
+
+/**
+Return the number of nodes.
+@return the number of nodes in all ranges.
+*/
+public int size ()
+{	return __size;
+}
+
+/**
+Return the nodes as a set of computational order positions.
+@return a new BitSet with the computational order positions of the nodes set.
+*/
+public BitSet toBitSet ()
+{	BitSet bitSet = new BitSet(__nodes.length);
+	for ( int i = 0; i < __ranges.length; i += 2 ) {
+		for ( int pos = __ranges[i]; pos < __ranges[i + 1]; pos++ ) {
+			bitSet.set(__order[pos]);
+		}
+	}
+	return bitSet;
+}
+
+/**
+Return the computational order positions of the nodes.
+@return a new array with the computational order positions of the nodes, in the order of
+HydrologyNodeNetwork.findUpstreamNodes().
+*/
+public int [] toIndexArray ()
+{	int [] indexes = new int[__size];
+	int count = 0;
+	for ( int i = 0; i < __ranges.length; i += 2 ) {
+		System.arraycopy(__order, __ranges[i], indexes, count, __ranges[i + 1] - __ranges[i]);
+		count += __ranges[i + 1] - __ranges[i];
+	}
+	return indexes;
+}
+
+/**
+Return the nodes as a list.
+@return a new list with the nodes, in the order of HydrologyNodeNetwork.findUpstreamNodes().
+*/
+public List<HydrologyNode> toList ()
+{	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>(__size);
+	for ( int i = 0; i < __ranges.length; i += 2 ) {
+		for ( int pos = __ranges[i]; pos < __ranges[i + 1]; pos++ ) {
+			nodes.add(__nodes[__order[pos]]);
+		}
+	}
+	return nodes;
+}
+
+}
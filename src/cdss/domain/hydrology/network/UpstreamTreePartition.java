@@ -0,0 +1,160 @@
+// UpstreamTreePartition - division of a CompactNetwork into independent tributary subtrees
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.Arrays;
+
+/**
+Division of the upstream tree of a CompactNetwork into independent tributary subtrees, used to process
+a network in parallel.  The subtrees are the largest subtrees that have at most a "grain size" number of nodes.
+The remaining nodes (main stem nodes), which each have more than the grain size number of nodes upstream,
+must be processed after the subtrees.
+The partition is immutable once created, so it can be used by concurrent tasks.
+*/
+class UpstreamTreePartition
+{
+
+/**
+Network that is divided.
+*/
+private final CompactNetwork __network;
+
+/**
+Maximum number of nodes in a subtree.
+*/
+private final int __grainSize;
+
+/**
+Node index of the first node (most downstream) of each subtree, in upstream tree order.
+*/
+private final int [] __subtreeNodes;
+
+/**
+Cumulative number of nodes in the subtrees, with __subtreeNodeCounts[i + 1] - __subtreeNodeCounts[i]
+being the number of nodes in subtree i.
+*/
+private final int [] __subtreeNodeCounts;
+
+/**
+The first node of each subtree and the main stem nodes, in upstream tree order.
+Processing these nodes in reverse order processes each node after the nodes upstream of it.
+*/
+private final int [] __combineNodes;
+
+/**
+Divide a network.
+@param network the network to divide.
+@param grainSize maximum number of nodes in a subtree.
+*/
+public UpstreamTreePartition ( CompactNetwork network, int grainSize )
+{	__network = network;
+	__grainSize = grainSize;
+	int [] treeOrder = network.getUpstreamTreeOrder();
+	int n = network.getNodeCount();
+	int [] subtreeNodes = new int[16];
+	int [] subtreeNodeCounts = new int[17];
+	int subtreeCount = 0;
+	int [] combineNodes = new int[16];
+	int combineCount = 0;
+	int node, end;
+	for ( int pos = 0; pos < n; ) {
+		node = treeOrder[pos];
+		if ( combineCount == combineNodes.length ) {
+			combineNodes = Arrays.copyOf(combineNodes, combineNodes.length*2);
+		}
+		combineNodes[combineCount++] = node;
+		end = network.getUpstreamTreeEnd(node);
+		if ( (end - pos) <= grainSize ) {
+			if ( subtreeCount == subtreeNodes.length ) {
+				subtreeNodes = Arrays.copyOf(subtreeNodes, subtreeNodes.length*2);
+				subtreeNodeCounts = Arrays.copyOf(subtreeNodeCounts, subtreeNodes.length + 1);
+			}
+			subtreeNodes[subtreeCount] = node;
+			subtreeNodeCounts[subtreeCount + 1] = subtreeNodeCounts[subtreeCount] + end - pos;
+			++subtreeCount;
+			pos = end;
+		}
+		else {
+			++pos;
+		}
+	}
+	__subtreeNodes = Arrays.copyOf(subtreeNodes, subtreeCount);
+	__subtreeNodeCounts = Arrays.copyOf(subtreeNodeCounts, subtreeCount + 1);
+	__combineNodes = Arrays.copyOf(combineNodes, combineCount);
+}
+
+/**
+Return the number of nodes that are the first node of a subtree or are main stem nodes.
+@return the number of nodes that are the first node of a subtree or are main stem nodes.
+*/
+public int getCombineCount ()
+{	return __combineNodes.length;
+}
+
+/**
+Return a node that is the first node of a subtree or is a main stem node, in upstream tree order.
+@param i position, 0 to getCombineCount() - 1.
+@return the node index.
+*/
+public int getCombineNode ( int i )
+{	return __combineNodes[i];
+}
+
+/**
+Return the number of subtrees.
+@return the number of subtrees.
+*/
+public int getSubtreeCount ()
+{	return __subtreeNodes.length;
+}
+
+/**
+Return the first (most downstream) node of a subtree.
+@param i subtree, 0 to getSubtreeCount() - 1.
+@return the node index.
+*/
+public int getSubtreeNode ( int i )
+{	return __subtreeNodes[i];
+}
+
+/**
+Return the total number of nodes in a range of subtrees.
+@param first first subtree.
+@param last subtree after the last subtree in the range.
+@return the number of nodes in the subtrees.
+*/
+public int getSubtreeNodeCount ( int first, int last )
+{	return __subtreeNodeCounts[last] - __subtreeNodeCounts[first];
+}
+
+/**
+Return whether a node is a main stem node, rather than a node in a subtree.
+@param node the node index.
+@return true if the node is a main stem node.
+*/
+public boolean isMainStemNode ( int node )
+{	return (__network.getUpstreamTreeEnd(node) - __network.getUpstreamTreeStart(node)) > __grainSize;
+}
+
+}
@@ -0,0 +1,294 @@
+// CompactNetworkBuilderTest - tests for creating modified copies of compact networks
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+Tests that CompactNetworkBuilder shares unmodified data with the base network, does not change the base network,
+and creates networks in computational order that are the same as a CompactNetwork created from a
+HydrologyNodeNetwork with the same edits.
+*/
+public class CompactNetworkBuilderTest extends TestCase
+{
+
+public CompactNetworkBuilderTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that a compact network has the same nodes, in the same order, and the same topology as another.
+@param expected the expected network.
+@param actual the network to check.
+*/
+private void checkNetwork ( CompactNetwork expected, CompactNetwork actual )
+{	assertEquals(expected.getNodeCount(), actual.getNodeCount());
+	for ( int i = 0; i < expected.getNodeCount(); i++ ) {
+		assertEquals(expected.getCommonID(i), actual.getCommonID(i));
+		assertEquals(i, actual.getIndex(actual.getCommonID(i)));
+		assertEquals(expected.getType(i), actual.getType(i));
+		assertEquals(expected.getIsNaturalFlow(i), actual.getIsNaturalFlow(i));
+		assertEquals(expected.getIsImport(i), actual.getIsImport(i));
+		assertEquals(expected.getDownstreamIndex(i), actual.getDownstreamIndex(i));
+		assertEquals(expected.getUpstreamNodeCount(i), actual.getUpstreamNodeCount(i));
+		for ( int j = 0; j < expected.getUpstreamNodeCount(i); j++ ) {
+			assertEquals(expected.getUpstreamIndex(i, j), actual.getUpstreamIndex(i, j));
+		}
+		assertEquals(expected.getUpstreamTreeStart(i), actual.getUpstreamTreeStart(i));
+		assertEquals(expected.getUpstreamTreeEnd(i), actual.getUpstreamTreeEnd(i));
+	}
+}
+
+/**
+Check that a network is in computational order, with each node before its downstream node.
+@param network the network to check.
+*/
+private void checkOrder ( CompactNetwork network )
+{	int n = network.getNodeCount();
+	for ( int i = 0; i < n; i++ ) {
+		int downstream = network.getDownstreamIndex(i);
+		if ( downstream < 0 ) {
+			assertEquals(n - 1, i);
+		}
+		else {
+			assertTrue(downstream > i);
+		}
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 10; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, random, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, random, downstreamNode);
+		int length = 1 + random.nextInt(5);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes,
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, random, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param random random number generator, used for the node data.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, Random random, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setX(random.nextInt(1000));
+	node.setY(random.nextInt(1000));
+	node.setArea(random.nextDouble());
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Test that adding and removing nodes creates the same network as making the same edits to a HydrologyNodeNetwork
+and creating a new CompactNetwork, and that the base network does not change.
+*/
+public void testAddAndRemoveNodes ()
+{	for ( long seed = 1; seed <= 5; seed++ ) {
+		HydrologyNodeNetwork network = createNetwork(seed, 150);
+		CompactNetwork original = new CompactNetwork(network);
+		CompactNetwork copy = new CompactNetwork(network);
+		CompactNetworkBuilder builder = new CompactNetworkBuilder(original);
+		Random random = new Random(seed);
+		for ( int i = 0; i < 40; i++ ) {
+			CompactNetwork base = builder.getBase();
+			List<HydrologyNode> nodes = network.getNodeList();
+			if ( random.nextBoolean() ) {
+				// Insert a node below an upstream node, or add a node above a node without upstream nodes.
+				HydrologyNode downstreamNode = nodes.get(random.nextInt(nodes.size()));
+				HydrologyNode upstreamNode = null;
+				if ( downstreamNode.getNumUpstreamNodes() > 0 ) {
+					upstreamNode = downstreamNode.getUpstreamNode(random.nextInt(downstreamNode.getNumUpstreamNodes()));
+				}
+				String id = "A" + i;
+				network.addNode(id, HydrologyNode.NODE_TYPE_FLOW, (upstreamNode == null) ? null : upstreamNode.getCommonID(),
+					downstreamNode.getCommonID(), true, false);
+				int index = builder.addNode(id, HydrologyNode.NODE_TYPE_FLOW,
+					(upstreamNode == null) ? -1 : base.getIndex(upstreamNode.getCommonID()),
+					base.getIndex(downstreamNode.getCommonID()), true, false);
+				assertEquals(base.getNodeCount(), index);
+			}
+			else {
+				HydrologyNode node = nodes.get(random.nextInt(nodes.size() - 1));
+				if ( (node.getNumUpstreamNodes() > 1) || (node.getDownstreamNode().getNumUpstreamNodes() > 1) ) {
+					continue;
+				}
+				network.deleteNode(node.getCommonID());
+				builder.removeNode(base.getIndex(node.getCommonID()));
+			}
+			CompactNetwork built = builder.build();
+			assertSame(built, builder.getBase());
+			checkOrder(built);
+			checkNetwork(new CompactNetwork(network), built);
+		}
+		checkNetwork(copy, original);
+	}
+}
+
+/**
+Test that changing node attributes shares the topology and unmodified attributes with the base network,
+and does not change the base network.
+*/
+public void testAttributeChanges ()
+{	HydrologyNodeNetwork network = createNetwork(1, 100);
+	CompactNetwork base = new CompactNetwork(network);
+	CompactNetworkBuilder builder = new CompactNetworkBuilder(base);
+	int index = base.getIndex("N5");
+	double x = base.getX(index);
+	builder.setX(index, x + 1.0);
+	builder.setCommonID(index, "RENAMED");
+	builder.setIsImport(index, true);
+	builder.setType(index, HydrologyNode.NODE_TYPE_ISF);
+	CompactNetwork network1 = builder.build();
+	// The base network is not changed.
+	assertEquals(x, base.getX(index), 0.0);
+	assertEquals("N5", base.getCommonID(index));
+	assertEquals(-1, base.getIndex("RENAMED"));
+	assertFalse(base.getIsImport(index));
+	// The new network has the changes, with the same indices and topology.
+	assertEquals(x + 1.0, network1.getX(index), 0.0);
+	assertEquals("RENAMED", network1.getCommonID(index));
+	assertEquals(index, network1.getIndex("RENAMED"));
+	assertEquals(-1, network1.getIndex("N5"));
+	assertTrue(network1.getIsImport(index));
+	assertEquals(HydrologyNode.NODE_TYPE_ISF, network1.getType(index));
+	assertSame(base.getDownstreamIndexes(), network1.getDownstreamIndexes());
+	assertSame(base.getUpstreamOffsets(), network1.getUpstreamOffsets());
+	assertSame(base.getUpstreamIndexes(), network1.getUpstreamIndexes());
+	assertSame(base.getUpstreamTreeOrder(), network1.getUpstreamTreeOrder());
+	for ( int i = 0; i < base.getNodeCount(); i++ ) {
+		assertEquals(base.getY(i), network1.getY(i), 0.0);
+		assertEquals(base.getArea(i), network1.getArea(i), 0.0);
+		if ( i != index ) {
+			assertEquals(base.getX(i), network1.getX(i), 0.0);
+			assertEquals(base.getCommonID(i), network1.getCommonID(i));
+		}
+	}
+	// The builder continues from the new network, and building without changes shares all the data.
+	assertSame(network1, builder.getBase());
+	CompactNetwork network2 = builder.build();
+	assertNotSame(network1, network2);
+	checkNetwork(network1, network2);
+	assertSame(network1.getDownstreamIndexes(), network2.getDownstreamIndexes());
+	assertEquals(x + 1.0, network2.getX(index), 0.0);
+}
+
+/**
+Test that removing a node renumbers the nodes in the new network and that the removed node and the END node
+cannot be used or removed.
+*/
+public void testRemoveNode ()
+{	HydrologyNodeNetwork network = createNetwork(2, 60);
+	CompactNetwork base = new CompactNetwork(network);
+	CompactNetworkBuilder builder = new CompactNetworkBuilder(base);
+	// Remove a node in the middle of the main stem, which has one upstream node.
+	int index = base.getIndex("N5");
+	int upstreamIndex = base.getIndex("N6");
+	int downstreamIndex = base.getDownstreamIndex(index);
+	assertEquals(index, base.getDownstreamIndex(upstreamIndex));
+	builder.removeNode(index);
+	assertEquals(base.getNodeCount(), builder.getNodeCount());
+	try {
+		builder.removeNode(index);
+		fail("Expected IllegalArgumentException for a removed node");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	try {
+		builder.setX(index, 0.0);
+		fail("Expected IllegalArgumentException for a removed node");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	try {
+		builder.removeNode(base.getIndex("END"));
+		fail("Expected IllegalArgumentException for the END node");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	CompactNetwork network1 = builder.build();
+	assertEquals(base.getNodeCount() - 1, network1.getNodeCount());
+	assertEquals(-1, network1.getIndex("N5"));
+	checkOrder(network1);
+	// The upstream node is now upstream of the removed node's downstream node.
+	int newUpstreamIndex = network1.getIndex("N6");
+	int newDownstreamIndex = network1.getIndex(base.getCommonID(downstreamIndex));
+	assertEquals(newDownstreamIndex, network1.getDownstreamIndex(newUpstreamIndex));
+	// Nodes before the removed node keep their index and nodes after it move down by one.
+	for ( int i = 0; i < base.getNodeCount(); i++ ) {
+		if ( i < index ) {
+			assertEquals(base.getCommonID(i), network1.getCommonID(i));
+		}
+		else if ( i > index ) {
+			assertEquals(base.getCommonID(i), network1.getCommonID(i - 1));
+		}
+	}
+	// The builder now uses the new indices.
+	assertEquals(network1.getNodeCount(), builder.getNodeCount());
+	builder.setX(newUpstreamIndex, -1.0);
+	assertEquals(-1.0, builder.build().getX(newUpstreamIndex), 0.0);
+}
+
+}
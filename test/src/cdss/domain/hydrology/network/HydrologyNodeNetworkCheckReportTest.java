@@ -0,0 +1,210 @@
+// HydrologyNodeNetworkCheckReportTest - tests for checking the integrity of node networks
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+Tests that HydrologyNodeNetworkCheckReport finds problems in hand-built networks, both for networks connected by
+node references and for nodes connected by identifiers.
+*/
+public class HydrologyNodeNetworkCheckReportTest extends TestCase
+{
+
+public HydrologyNodeNetworkCheckReportTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Create a node that is not connected to other nodes.
+@param id node identifier.
+@param type node type.
+@return the node.
+*/
+private HydrologyNode createNode ( String id, int type )
+{	HydrologyNode node = new HydrologyNode();
+	node.setCommonID(id);
+	node.setType(type);
+	return node;
+}
+
+/**
+Check that a report has one problem of a type, with the given node identifiers.
+@param report the report.
+@param type the problem type.
+@param nodeIDs the expected node identifiers of the problem.
+*/
+private void checkProblem ( HydrologyNodeNetworkCheckReport report, int type, String ... nodeIDs )
+{	List<HydrologyNodeNetworkCheckProblem> problems = report.getProblems(type);
+	assertEquals(report.toStringList().toString(), 1, problems.size());
+	assertEquals(Arrays.asList(nodeIDs), problems.get(0).getNodeIDs());
+	assertFalse(report.isValid());
+}
+
+/**
+Connect a node upstream of another node by reference and by identifier.
+@param downstreamNode the downstream node.
+@param upstreamNode the upstream node.
+*/
+private void connect ( HydrologyNode downstreamNode, HydrologyNode upstreamNode )
+{	downstreamNode.addUpstreamNode(upstreamNode);
+	downstreamNode.addUpstreamNodeID(upstreamNode.getCommonID());
+	upstreamNode.setDownstreamNodeID(downstreamNode.getCommonID());
+	upstreamNode.setTributaryNumber(downstreamNode.getNumUpstreamNodes());
+}
+
+/**
+Create a valid network: END, with A upstream, and B and C upstream of A.
+@return the nodes, END first.
+*/
+private List<HydrologyNode> createNodes ()
+{	HydrologyNode end = createNode("END", HydrologyNode.NODE_TYPE_END);
+	HydrologyNode a = createNode("A", HydrologyNode.NODE_TYPE_FLOW);
+	HydrologyNode b = createNode("B", HydrologyNode.NODE_TYPE_DIV);
+	HydrologyNode c = createNode("C", HydrologyNode.NODE_TYPE_FLOW);
+	connect(end, a);
+	connect(a, b);
+	connect(a, c);
+	return new ArrayList<HydrologyNode>(Arrays.asList(end, a, b, c));
+}
+
+/**
+Test that nodes that are downstream of themselves are reported as a cycle, and that nodes upstream of the cycle
+are reported as not upstream of the END node.
+*/
+public void testCycle ()
+{	List<HydrologyNode> nodes = createNodes();
+	HydrologyNode d = createNode("D", HydrologyNode.NODE_TYPE_FLOW);
+	HydrologyNode e = createNode("E", HydrologyNode.NODE_TYPE_FLOW);
+	HydrologyNode f = createNode("F", HydrologyNode.NODE_TYPE_FLOW);
+	connect(d, e);
+	connect(e, d);
+	connect(d, f);
+	nodes.addAll(Arrays.asList(d, e, f));
+	for ( int i = 0; i < 2; i++ ) {
+		HydrologyNodeNetworkCheckReport report = HydrologyNodeNetworkCheckReport.check(nodes, i == 0);
+		assertEquals(report.toStringList().toString(), 2, report.getProblemCount());
+		checkProblem(report, HydrologyNodeNetworkCheckProblem.CYCLE, "D", "E");
+		checkProblem(report, HydrologyNodeNetworkCheckProblem.UNREACHABLE_NODES, "F");
+	}
+}
+
+/**
+Test that upstream and downstream identifiers that do not match a node are reported.
+*/
+public void testDanglingIDs ()
+{	List<HydrologyNode> nodes = createNodes();
+	nodes.get(3).addUpstreamNodeID("X");
+	nodes.get(2).setDownstreamNodeID("Y");
+	HydrologyNodeNetworkCheckReport report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 2, report.getProblemCount());
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.DANGLING_UPSTREAM_ID, "C", "X");
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.DANGLING_DOWNSTREAM_ID, "B", "Y");
+}
+
+/**
+Test that a node that lists the same upstream node more than once is reported once,
+with the other connections still considered valid.
+*/
+public void testDuplicateUpstream ()
+{	List<HydrologyNode> nodes = createNodes();
+	HydrologyNode a = nodes.get(1);
+	HydrologyNode b = nodes.get(2);
+	// Connect B to A a second and third time, as a network that is double-linked when built.
+	a.addUpstreamNode(b);
+	a.addUpstreamNode(b);
+	a.addUpstreamNodeID("B");
+	HydrologyNodeNetworkCheckReport report = HydrologyNodeNetworkCheckReport.check(nodes.get(0));
+	assertEquals(report.toStringList().toString(), 1, report.getProblemCount());
+	HydrologyNodeNetworkCheckProblem problem = report.getProblems().get(0);
+	assertEquals(HydrologyNodeNetworkCheckProblem.DUPLICATE_UPSTREAM, problem.getType());
+	assertEquals(Arrays.asList("A", "B"), problem.getNodeIDs());
+	assertFalse(report.isValid());
+	// The same problem is found when the nodes are connected by identifiers.
+	report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 1, report.getProblemCount());
+	assertEquals(1, report.getProblemCount(HydrologyNodeNetworkCheckProblem.DUPLICATE_UPSTREAM));
+	assertEquals(Arrays.asList("A", "B"), report.getProblems().get(0).getNodeIDs());
+}
+
+/**
+Test that identifiers that are the same ignoring case, extra END nodes and a missing END node are reported.
+*/
+public void testEndNodesAndDuplicateIDs ()
+{	List<HydrologyNode> nodes = createNodes();
+	nodes.add(createNode("c", HydrologyNode.NODE_TYPE_FLOW));
+	nodes.add(createNode("END2", HydrologyNode.NODE_TYPE_END));
+	HydrologyNodeNetworkCheckReport report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 4, report.getProblemCount());
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.DUPLICATE_ID, "C", "c");
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.MULTIPLE_END_NODES, "END", "END2");
+	assertEquals(2, report.getProblemCount(HydrologyNodeNetworkCheckProblem.UNREACHABLE_NODES));
+	nodes = createNodes();
+	nodes.get(0).setType(HydrologyNode.NODE_TYPE_FLOW);
+	report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 1, report.getProblemCount());
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.NO_END_NODE);
+}
+
+/**
+Test that downstream nodes and tributary numbers that do not match the upstream nodes are reported.
+*/
+public void testInconsistentConnections ()
+{	List<HydrologyNode> nodes = createNodes();
+	nodes.get(2).setDownstreamNodeID("C");
+	HydrologyNodeNetworkCheckReport report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 1, report.getProblemCount());
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.INCONSISTENT_DOWNSTREAM, "B", "C", "A");
+	nodes = createNodes();
+	nodes.get(3).setTributaryNumber(5);
+	report = HydrologyNodeNetworkCheckReport.check(nodes.get(0));
+	assertEquals(report.toStringList().toString(), 1, report.getProblemCount());
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.INCONSISTENT_TRIBUTARY_NUMBER, "C", "A");
+	// A node that is listed as upstream by two nodes.
+	nodes = createNodes();
+	nodes.get(0).addUpstreamNodeID("B");
+	report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 2, report.getProblemCount());
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.MULTIPLE_DOWNSTREAM, "B", "END", "A");
+	checkProblem(report, HydrologyNodeNetworkCheckProblem.INCONSISTENT_DOWNSTREAM, "B", "A", "END");
+}
+
+/**
+Test that a valid network has no problems.
+*/
+public void testValidNetwork ()
+{	List<HydrologyNode> nodes = createNodes();
+	HydrologyNodeNetworkCheckReport report = HydrologyNodeNetworkCheckReport.check(nodes.get(0));
+	assertEquals(report.toStringList().toString(), 0, report.getProblemCount());
+	assertEquals(4, report.getNodeCount());
+	report = HydrologyNodeNetwork.checkNetworkIntegrity(nodes);
+	assertEquals(report.toStringList().toString(), 0, report.getProblemCount());
+	assertTrue(report.isValid());
+}
+
+}
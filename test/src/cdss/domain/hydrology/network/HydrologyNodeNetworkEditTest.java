@@ -0,0 +1,232 @@
+// HydrologyNodeNetworkEditTest - tests for updating the node indexes when nodes are added and deleted
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+Tests that the node indexes that are updated in place by HydrologyNodeNetwork.addNode() and deleteNode()
+are the same as the indexes that are rebuilt by traversing the network, and that the node numbers are the same
+as a full recalculation.
+*/
+public class HydrologyNodeNetworkEditTest extends TestCase
+{
+
+public HydrologyNodeNetworkEditTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that the node indexes are the same as the indexes rebuilt by traversing the network.
+@param network the network to check.
+*/
+private void checkNodeIndexes ( HydrologyNodeNetwork network )
+{	List<HydrologyNode> nodes = network.getNodeList();
+	List<HydrologyNode> flowNodes = network.getNodesForType(HydrologyNode.NODE_TYPE_FLOW);
+	List<HydrologyNode> modelNodes = network.getNodesForType(-1);
+	List<HydrologyNode> baseflowNodes = network.getBaseflowNodes();
+	List<HydrologyNode> importNodes = network.getImportNodes();
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		assertEquals(i, network.getComputationalIndex(nodes.get(i)));
+		assertSame(nodes.get(i), network.findNode(nodes.get(i).getCommonID()));
+	}
+	// Setting the head node rebuilds the indexes.
+	network.setNodeHead(network.getNodeHead());
+	assertEquals(nodes, network.getNodeList());
+	assertEquals(flowNodes, network.getNodesForType(HydrologyNode.NODE_TYPE_FLOW));
+	assertEquals(modelNodes, network.getNodesForType(-1));
+	assertEquals(baseflowNodes, network.getBaseflowNodes());
+	assertEquals(importNodes, network.getImportNodes());
+}
+
+/**
+Check that the serial, computational order and node in reach numbers are the same as a full recalculation:
+the computational order set by resetComputationalOrder(), serial numbers counting from the END node as set by
+calculateNetworkNodeData(), and node in reach numbers counting along each reach.
+@param network the network to check.
+*/
+private void checkNodeNumbers ( HydrologyNodeNetwork network )
+{	List<HydrologyNode> nodes = network.getNodeList();
+	int [] serials = new int[nodes.size()];
+	int [] orders = new int[nodes.size()];
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		serials[i] = nodes.get(i).getSerial();
+		orders[i] = nodes.get(i).getComputationalOrder();
+	}
+	network.resetComputationalOrder();
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		HydrologyNode node = nodes.get(i);
+		assertEquals(node.getCommonID(), node.getComputationalOrder(), orders[i]);
+		assertEquals(node.getCommonID(), nodes.size() + 1 - node.getComputationalOrder(), serials[i]);
+		HydrologyNode downstreamNode = node.getDownstreamNode();
+		if ( downstreamNode == null ) {
+			continue;
+		}
+		if ( downstreamNode.getReachCounter() == node.getReachCounter() ) {
+			assertEquals(node.getCommonID(), downstreamNode.getNodeInReachNumber() + 1, node.getNodeInReachNumber());
+		}
+		else {
+			assertEquals(node.getCommonID(), 1, node.getNodeInReachNumber());
+		}
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 20; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, downstreamNode);
+		int length = 1 + random.nextInt(8);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes,
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Test adding nodes between existing nodes and at the top of reaches.
+*/
+public void testAddNodes ()
+{	for ( long seed = 1; seed <= 5; seed++ ) {
+		HydrologyNodeNetwork network = createNetwork(seed, 200);
+		Random random = new Random(seed);
+		for ( int i = 0; i < 50; i++ ) {
+			List<HydrologyNode> nodes = network.getNodeList();
+			HydrologyNode downstreamNode = nodes.get(random.nextInt(nodes.size()));
+			String upstreamNodeId = null;
+			if ( downstreamNode.getNumUpstreamNodes() > 0 ) {
+				upstreamNodeId = downstreamNode.getUpstreamNode(
+					random.nextInt(downstreamNode.getNumUpstreamNodes())).getCommonID();
+			}
+			HydrologyNode node = network.addNode("A" + i, HydrologyNode.NODE_TYPE_FLOW, upstreamNodeId,
+				downstreamNode.getCommonID(), random.nextBoolean(), random.nextInt(5) == 0);
+			assertEquals(nodes.size() + 1, network.getNodeList().size());
+			assertSame(node, network.findNode("A" + i));
+			checkNodeIndexes(network);
+			checkNodeNumbers(network);
+		}
+	}
+}
+
+/**
+Test deleting nodes that are not at a branch.
+*/
+public void testDeleteNodes ()
+{	for ( long seed = 1; seed <= 5; seed++ ) {
+		HydrologyNodeNetwork network = createNetwork(seed, 200);
+		Random random = new Random(seed);
+		for ( int i = 0; i < 50; i++ ) {
+			List<HydrologyNode> nodes = network.getNodeList();
+			HydrologyNode node = nodes.get(random.nextInt(nodes.size() - 1));
+			if ( (node.getNumUpstreamNodes() > 1) || (node.getDownstreamNode().getNumUpstreamNodes() > 1) ) {
+				continue;
+			}
+			network.deleteNode(node.getCommonID());
+			assertEquals(nodes.size() - 1, network.getNodeList().size());
+			assertNull(network.findNode(node.getCommonID()));
+			checkNodeIndexes(network);
+			checkNodeNumbers(network);
+		}
+	}
+}
+
+/**
+Test that the node numbers are the same as a full recalculation after adding and deleting nodes in any order.
+*/
+public void testEditNumbering ()
+{	for ( long seed = 1; seed <= 5; seed++ ) {
+		HydrologyNodeNetwork network = createNetwork(seed, 150);
+		checkNodeNumbers(network);
+		Random random = new Random(seed);
+		for ( int i = 0; i < 100; i++ ) {
+			List<HydrologyNode> nodes = network.getNodeList();
+			if ( random.nextInt(3) > 0 ) {
+				HydrologyNode downstreamNode = nodes.get(random.nextInt(nodes.size()));
+				String upstreamNodeId = null;
+				if ( downstreamNode.getNumUpstreamNodes() > 0 ) {
+					upstreamNodeId = downstreamNode.getUpstreamNode(
+						random.nextInt(downstreamNode.getNumUpstreamNodes())).getCommonID();
+				}
+				network.addNode("A" + i, HydrologyNode.NODE_TYPE_FLOW, upstreamNodeId,
+					downstreamNode.getCommonID(), false, false);
+				assertEquals(nodes.size() + 1, network.getNodeList().size());
+			}
+			else {
+				HydrologyNode node = nodes.get(random.nextInt(nodes.size() - 1));
+				if ( (node.getNumUpstreamNodes() > 1) || (node.getDownstreamNode().getNumUpstreamNodes() > 1) ) {
+					continue;
+				}
+				network.deleteNode(node.getCommonID());
+				assertEquals(nodes.size() - 1, network.getNodeList().size());
+			}
+		}
+		checkNodeNumbers(network);
+	}
+}
+
+}
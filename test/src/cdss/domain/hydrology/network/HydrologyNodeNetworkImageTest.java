@@ -0,0 +1,334 @@
+// HydrologyNodeNetworkImageTest - tests for writing and opening binary network image files
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+import RTi.Util.IO.PropList;
+
+import junit.framework.TestCase;
+
+/**
+Tests that a network written with HydrologyNodeNetworkImage.write() is restored by open() and createNetwork(),
+including the network data other than nodes, and that files that are not network images are rejected.
+*/
+public class HydrologyNodeNetworkImageTest extends TestCase
+{
+
+/**
+Image file used by each test.
+*/
+private File __file;
+
+public HydrologyNodeNetworkImageTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that a network has the same nodes, connections and node data as the network that was written.
+@param expected the network that was written.
+@param actual the network created from the image.
+*/
+private void checkNetwork ( HydrologyNodeNetwork expected, HydrologyNodeNetwork actual )
+{	List<HydrologyNode> expectedNodes = expected.getNodeList();
+	List<HydrologyNode> actualNodes = actual.getNodeList();
+	assertEquals(expectedNodes.size(), actualNodes.size());
+	for ( int i = 0; i < expectedNodes.size(); i++ ) {
+		HydrologyNode e = expectedNodes.get(i);
+		HydrologyNode a = actualNodes.get(i);
+		assertEquals(e.getCommonID(), a.getCommonID());
+		assertEquals(e.getType(), a.getType());
+		assertEquals(e.getNetID(), a.getNetID());
+		assertEquals(e.getUserDescription(), a.getUserDescription());
+		assertEquals(e.getLabel(), a.getLabel());
+		assertEquals(e.getLink(), a.getLink());
+		assertEquals(e.getX(), a.getX(), 0.0);
+		assertEquals(e.getY(), a.getY(), 0.0);
+		assertEquals(e.getComputationalOrder(), a.getComputationalOrder());
+		assertEquals(e.getIsNaturalFlow(), a.getIsNaturalFlow());
+		assertEquals(e.getNumUpstreamNodes(), a.getNumUpstreamNodes());
+		for ( int iUp = 0; iUp < e.getNumUpstreamNodes(); iUp++ ) {
+			assertEquals(e.getUpstreamNode(iUp).getCommonID(), a.getUpstreamNode(iUp).getCommonID());
+			assertSame(a, a.getUpstreamNode(iUp).getDownstreamNode());
+		}
+		if ( e.getDownstreamNode() == null ) {
+			assertNull(a.getDownstreamNode());
+		}
+		else {
+			assertEquals(e.getDownstreamNode().getCommonID(), a.getDownstreamNode().getCommonID());
+		}
+	}
+	HydrologyNodeNetworkCheckReport report = actual.checkNetworkIntegrity();
+	assertEquals(0, report.getProblemCount());
+}
+
+/**
+Check that opening the image file fails.
+@param message description of the file, for the failure message.
+*/
+private void checkOpenFails ( String message )
+{	try {
+		HydrologyNodeNetworkImage.open(__file.getPath());
+		fail("Expected IOException for " + message);
+	}
+	catch ( IOException e ) {
+		// Expected.
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 10; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, random, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, random, downstreamNode);
+		int length = 1 + random.nextInt(5);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes,
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, random, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param random random number generator, used for the node data.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, Random random, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setNetID("NET" + nodes.size());
+	node.setUserDescription("Node " + nodes.size());
+	node.setLabel("Label" + nodes.size());
+	node.setLink(random.nextInt(1000));
+	node.setX(random.nextInt(1000));
+	node.setY(random.nextInt(1000));
+	node.setIsNaturalFlow(random.nextBoolean());
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+protected void setUp ()
+throws Exception
+{	__file = File.createTempFile("HydrologyNodeNetworkImageTest", ".hnni");
+}
+
+protected void tearDown ()
+{	__file.delete();
+}
+
+/**
+Test that each call to createNetwork() creates a new network with the same topology,
+and does not change networks created by earlier calls.
+*/
+public void testCreateNetworkTwice ()
+throws Exception
+{	HydrologyNodeNetwork network = createNetwork(1, 100);
+	HydrologyNodeNetworkImage.write(network, __file.getPath());
+	HydrologyNodeNetworkImage image = HydrologyNodeNetworkImage.open(__file.getPath());
+	HydrologyNodeNetwork network1 = image.createNetwork();
+	checkNetwork(network, network1);
+	HydrologyNodeNetwork network2 = image.createNetwork();
+	checkNetwork(network, network2);
+	checkNetwork(network, network1);
+	Map<HydrologyNode,Boolean> nodes1 = new IdentityHashMap<HydrologyNode,Boolean>();
+	for ( HydrologyNode node : network1.getNodeList() ) {
+		nodes1.put(node, Boolean.TRUE);
+	}
+	for ( HydrologyNode node : network2.getNodeList() ) {
+		assertFalse(nodes1.containsKey(node));
+	}
+}
+
+/**
+Test that files that are not network images, or are truncated, cannot be opened.
+*/
+public void testInvalidFile ()
+throws Exception
+{	FileOutputStream out = new FileOutputStream(__file);
+	out.write(new byte[10]);
+	out.close();
+	checkOpenFails("a short file");
+	out = new FileOutputStream(__file);
+	out.write(new byte[1000]);
+	out.close();
+	checkOpenFails("a file that is not a network image");
+	HydrologyNodeNetworkImage.write(createNetwork(3, 50), __file.getPath());
+	long length = __file.length();
+	RandomAccessFile file = new RandomAccessFile(__file, "rw");
+	file.setLength(length - 8);
+	file.close();
+	checkOpenFails("a truncated file");
+}
+
+/**
+Test that the network data other than nodes (title, edge buffer, legend position, page layouts, annotations,
+links and labels) are restored.
+*/
+public void testNetworkData ()
+throws Exception
+{	HydrologyNodeNetwork network = createNetwork(4, 30);
+	network.setTitle("Test network");
+	network.setEdgeBuffer(new double [] { 1.0, 2.0, 3.0, 4.0 });
+	network.setLegendPosition(12.5, 25.0);
+	List<PropList> layouts = new Vector<PropList>();
+	PropList layout = new PropList("");
+	layout.set("ID", "Page Layout #1");
+	layout.set("IsDefault", "True");
+	layout.set("PaperSize", "C");
+	layouts.add(layout);
+	network.setLayoutList(layouts);
+	List<HydrologyNode> annotations = new Vector<HydrologyNode>();
+	HydrologyNode annotation = new HydrologyNode();
+	annotation.setCommonID("Annotation text");
+	annotation.setX(100.0);
+	annotation.setY(200.0);
+	PropList annotationProps = new PropList("");
+	annotationProps.set("Text", "Annotation text");
+	annotationProps.set("FontSize", "12");
+	annotation.setAssociatedObject(annotationProps);
+	annotations.add(annotation);
+	network.setAnnotationList(annotations);
+	List<PropList> links = new Vector<PropList>();
+	PropList link = new PropList("");
+	link.set("FromNodeID", "N1");
+	link.set("ToNodeID", "N5");
+	links.add(link);
+	network.setLinkList(links);
+	network.addLabel(5.0, 6.0, 7.0, 2, "Label text");
+	HydrologyNodeNetworkImage.write(network, __file.getPath());
+	HydrologyNodeNetwork network2 = HydrologyNodeNetworkImage.open(__file.getPath()).createNetwork();
+	checkNetwork(network, network2);
+	assertEquals("Test network", network2.getTitle());
+	assertEquals(4, network2.getEdgeBuffer().length);
+	for ( int i = 0; i < 4; i++ ) {
+		assertEquals(i + 1.0, network2.getEdgeBuffer()[i], 0.0);
+	}
+	assertTrue(network2.isLegendPositionSet());
+	assertEquals(12.5, network2.getLegendX(), 0.0);
+	assertEquals(25.0, network2.getLegendY(), 0.0);
+	assertEquals(1, network2.getLayoutList().size());
+	assertEquals("Page Layout #1", network2.getLayoutList().get(0).getValue("ID"));
+	assertEquals("True", network2.getLayoutList().get(0).getValue("IsDefault"));
+	assertEquals("C", network2.getLayoutList().get(0).getValue("PaperSize"));
+	assertEquals(1, network2.getAnnotationList().size());
+	HydrologyNode annotation2 = network2.getAnnotationList().get(0);
+	assertEquals("Annotation text", annotation2.getCommonID());
+	assertEquals(100.0, annotation2.getX(), 0.0);
+	assertEquals(200.0, annotation2.getY(), 0.0);
+	assertEquals("12", ((PropList)annotation2.getAssociatedObject()).getValue("FontSize"));
+	assertEquals(1, network2.getLinkList().size());
+	assertEquals("N5", network2.getLinkList().get(0).getValue("ToNodeID"));
+	assertEquals(1, network2.getLabelList().size());
+	HydrologyNodeNetworkLabel label = network2.getLabelList().get(0);
+	assertEquals(5.0, label.getX(), 0.0);
+	assertEquals(6.0, label.getY(), 0.0);
+	assertEquals(7.0, label.getSize(), 0.0);
+	assertEquals(2, label.getFlag());
+	assertEquals("Label text", label.getText());
+}
+
+/**
+Test the node accessors, which read the image without creating nodes.
+*/
+public void testNodeAccessors ()
+throws Exception
+{	HydrologyNodeNetwork network = createNetwork(2, 60);
+	HydrologyNodeNetworkImage.write(network, __file.getPath());
+	HydrologyNodeNetworkImage image = HydrologyNodeNetworkImage.open(__file.getPath());
+	List<HydrologyNode> nodes = network.getNodeList();
+	assertEquals(nodes.size(), image.getNodeCount());
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		HydrologyNode node = nodes.get(i);
+		assertEquals(node.getCommonID(), image.getCommonID(i));
+		assertEquals(node.getType(), image.getType(i));
+		assertEquals(node.getNumUpstreamNodes(), image.getUpstreamNodeCount(i));
+		for ( int iUp = 0; iUp < node.getNumUpstreamNodes(); iUp++ ) {
+			assertEquals(network.getComputationalIndex(node.getUpstreamNode(iUp)), image.getUpstreamIndex(i, iUp));
+		}
+		assertEquals((node.getDownstreamNode() == null) ? -1 : network.getComputationalIndex(node.getDownstreamNode()),
+			image.getDownstreamIndex(i));
+		assertEquals(node.getX(), image.getX(i), 0.0);
+		assertEquals(node.getY(), image.getY(i), 0.0);
+		assertEquals(node.getIsNaturalFlow(), image.getIsNaturalFlow(i));
+		assertEquals(node.getIsImport(), image.getIsImport(i));
+		HydrologyNode imageNode = image.getNode(i);
+		assertSame(imageNode, image.getNode(i));
+		assertEquals(node.getCommonID(), imageNode.getCommonID());
+		assertNull(imageNode.getDownstreamNode());
+	}
+	try {
+		image.getNode(nodes.size());
+		fail("Expected IndexOutOfBoundsException");
+	}
+	catch ( IndexOutOfBoundsException e ) {
+		// Expected.
+	}
+	try {
+		image.getNode(-1);
+		fail("Expected IndexOutOfBoundsException");
+	}
+	catch ( IndexOutOfBoundsException e ) {
+		// Expected.
+	}
+}
+
+}
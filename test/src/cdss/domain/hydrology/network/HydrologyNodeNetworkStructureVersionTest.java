@@ -0,0 +1,233 @@
+// HydrologyNodeNetworkStructureVersionTest - tests for detecting network changes using structure versions
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+Tests that node edits only cause the indexes of the network that contains the nodes to be rebuilt
+(see HydrologyNode.getStructureVersion()), and that identifier and type edits update the indexes
+without recalculating the computational order.
+*/
+public class HydrologyNodeNetworkStructureVersionTest extends TestCase
+{
+
+public HydrologyNodeNetworkStructureVersionTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Create a network with a main stem and one tributary.
+@param prefix prefix for node identifiers, to make the identifiers unique.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( String prefix )
+{	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	HydrologyNode stem1 = createNode(nodes, prefix + "_STEM1", HydrologyNode.NODE_TYPE_FLOW, end);
+	HydrologyNode stem2 = createNode(nodes, prefix + "_STEM2", HydrologyNode.NODE_TYPE_DIV, stem1);
+	createNode(nodes, prefix + "_STEM3", HydrologyNode.NODE_TYPE_FLOW, stem2);
+	HydrologyNode confluence = createNode(nodes, prefix + "_CONF", HydrologyNode.NODE_TYPE_CONFLUENCE, stem1);
+	createNode(nodes, prefix + "_TRIB1", HydrologyNode.NODE_TYPE_FLOW, confluence);
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param id node identifier.
+@param type node type.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, String id, int type, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Test that connecting a new node to a network causes the network indexes to be rebuilt.
+*/
+public void testConnectingNodeRebuildsIndexes ()
+{	HydrologyNodeNetwork network = createNetwork("A");
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	HydrologyNode newNode = new HydrologyNode();
+	newNode.setCommonID("A_NEW");
+	newNode.setType(HydrologyNode.NODE_TYPE_FLOW);
+	network.findNode("A_STEM3").addUpstreamNode(newNode);
+	assertNotSame(nodes, network.getComputationalOrderNodes());
+	assertSame(newNode, network.findNode("A_NEW"));
+	// Changes to the new node are now detected by the network.
+	newNode.setCommonID("A_NEW2");
+	assertSame(newNode, network.findNode("A_NEW2"));
+	assertNull(network.findNode("A_NEW"));
+}
+
+/**
+Test that changing the identifier and type of a node in a network updates the network indexes
+without recalculating the computational order.
+*/
+public void testEditInNetworkUpdatesIndexes ()
+{	HydrologyNodeNetwork network = createNetwork("A");
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	assertEquals(3, network.getNodesForType(HydrologyNode.NODE_TYPE_FLOW).size());
+	HydrologyNode node = network.findNode("A_TRIB1");
+	node.setCommonID("A_TRIB1X");
+	assertSame(nodes, network.getComputationalOrderNodes());
+	assertSame(node, network.findNode("A_TRIB1X"));
+	assertNull(network.findNode("A_TRIB1"));
+	node.setType(HydrologyNode.NODE_TYPE_DIV);
+	node.setIsNaturalFlow(true);
+	assertSame(nodes, network.getComputationalOrderNodes());
+	assertEquals(2, network.getNodesForType(HydrologyNode.NODE_TYPE_FLOW).size());
+	assertTrue(network.getNodesForType(HydrologyNode.NODE_TYPE_DIV).contains(node));
+	// An identifier that is used by two nodes finds the first node in computational order,
+	// and the other node again when the duplicate is renamed.
+	HydrologyNode stem3 = network.findNode("A_STEM3");
+	stem3.setCommonID("A_TRIB1X");
+	assertSame(nodes, network.getComputationalOrderNodes());
+	HydrologyNode first = (network.getComputationalIndex(stem3) < network.getComputationalIndex(node)) ? stem3 : node;
+	assertSame(first, network.findNode("a_trib1x"));
+	stem3.setCommonID("A_STEM3");
+	assertSame(node, network.findNode("A_TRIB1X"));
+	assertSame(stem3, network.findNode("A_STEM3"));
+	assertSame(nodes, network.getComputationalOrderNodes());
+}
+
+/**
+Test that changing a node to or from the end node type recalculates the computational order,
+because the computational order stops at the end node.
+*/
+public void testEndTypeRebuildsIndexes ()
+{	HydrologyNodeNetwork network = createNetwork("A");
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	HydrologyNode stem1 = network.findNode("A_STEM1");
+	stem1.setType(HydrologyNode.NODE_TYPE_END);
+	HydrologyNode [] nodes2 = network.getComputationalOrderNodes();
+	assertEquals(stem1, nodes2[nodes2.length - 1]);
+	assertEquals(nodes.length - 1, nodes2.length);
+	stem1.setType(HydrologyNode.NODE_TYPE_FLOW);
+	assertEquals(nodes.length, network.getComputationalOrderNodes().length);
+}
+
+/**
+Test that editing a node in one network does not cause the indexes of another network to be rebuilt.
+*/
+public void testEditInOtherNetworkKeepsIndexes ()
+{	HydrologyNodeNetwork networkA = createNetwork("A");
+	HydrologyNodeNetwork networkB = createNetwork("B");
+	HydrologyNode [] nodesA = networkA.getComputationalOrderNodes();
+	HydrologyNode [] nodesB = networkB.getComputationalOrderNodes();
+	networkB.findNode("B_STEM2").setCommonID("B_STEM2X");
+	networkB.findNode("B_TRIB1").setType(HydrologyNode.NODE_TYPE_DIV);
+	HydrologyNode newNodeB = new HydrologyNode();
+	newNodeB.setCommonID("B_NEW");
+	networkB.findNode("B_STEM3").addUpstreamNode(newNodeB);
+	assertSame(nodesA, networkA.getComputationalOrderNodes());
+	assertNotSame(nodesB, networkB.getComputationalOrderNodes());
+	HydrologyNode newNodeA = new HydrologyNode();
+	newNodeA.setCommonID("A_NEW");
+	networkA.findNode("A_STEM3").addUpstreamNode(newNodeA);
+	networkA.findNode("A_STEM2").setCommonID("A_STEM2X");
+	assertNotSame(nodesA, networkA.getComputationalOrderNodes());
+	assertNotNull(networkA.findNode("A_STEM2X"));
+	assertNotNull(networkB.findNode("B_STEM2X"));
+	assertNull(networkA.findNode("B_NEW"));
+	assertSame(newNodeB, networkB.findNode("B_NEW"));
+}
+
+/**
+Test that the lists of nodes by type and flag are updated when node types and flags change,
+matching a scan of the nodes in computational order, without recalculating the computational order.
+*/
+public void testTypeChangesUpdateNodeTypeLists ()
+{	HydrologyNodeNetwork network = createNetwork("A");
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	int [] types = { HydrologyNode.NODE_TYPE_FLOW, HydrologyNode.NODE_TYPE_DIV, HydrologyNode.NODE_TYPE_ISF,
+		HydrologyNode.NODE_TYPE_RES, HydrologyNode.NODE_TYPE_OTHER };
+	Random random = new Random(1);
+	for ( int i = 0; i < 50; i++ ) {
+		// Change any node except the end node, which is last in computational order.
+		HydrologyNode node = nodes[random.nextInt(nodes.length - 1)];
+		switch ( random.nextInt(3) ) {
+			case 0: node.setType(types[random.nextInt(types.length)]); break;
+			case 1: node.setIsNaturalFlow(!node.getIsNaturalFlow()); break;
+			default: node.setIsImport(!node.getIsImport()); break;
+		}
+		for ( int type : types ) {
+			List<HydrologyNode> expected = new ArrayList<HydrologyNode>();
+			for ( HydrologyNode n : nodes ) {
+				if ( n.getType() == type ) {
+					expected.add(n);
+				}
+			}
+			assertEquals(expected, network.getNodesForType(type));
+		}
+		List<HydrologyNode> expectedNaturalFlow = new ArrayList<HydrologyNode>();
+		List<HydrologyNode> expectedImport = new ArrayList<HydrologyNode>();
+		for ( HydrologyNode n : nodes ) {
+			if ( n.getIsNaturalFlow() ) {
+				expectedNaturalFlow.add(n);
+			}
+			if ( n.getIsImport() ) {
+				expectedImport.add(n);
+			}
+		}
+		assertEquals(expectedNaturalFlow, network.getBaseflowNodes());
+		assertEquals(expectedImport, network.getImportNodes());
+		assertSame(nodes, network.getComputationalOrderNodes());
+	}
+}
+
+/**
+Test that editing and connecting nodes that are not in a network, such as when a network is being read,
+does not cause the indexes of a network to be rebuilt.
+*/
+public void testEditOutsideNetworkKeepsIndexes ()
+{	HydrologyNodeNetwork network = createNetwork("A");
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	HydrologyNode node1 = new HydrologyNode();
+	node1.setCommonID("X1");
+	HydrologyNode node2 = new HydrologyNode();
+	node2.setCommonID("X2");
+	node1.addUpstreamNode(node2);
+	node2.setType(HydrologyNode.NODE_TYPE_FLOW);
+	assertSame(nodes, network.getComputationalOrderNodes());
+}
+
+}
@@ -0,0 +1,198 @@
+// HydrologyNodeNetworkUpstreamFlowNodesTest - tests for finding upstream flow nodes for all nodes
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+Tests that HydrologyNodeNetwork.findUpstreamFlowNodesForAllNodes() gives the same results as calling
+findUpstreamFlowNodes() for each node.
+*/
+public class HydrologyNodeNetworkUpstreamFlowNodesTest extends TestCase
+{
+
+public HydrologyNodeNetworkUpstreamFlowNodesTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that the upstream flow nodes for all nodes match the results for each node.
+@param network the network to check.
+@param upstreamFlowNodeI interface to evaluate upstream flow nodes, can be null.
+*/
+private void checkUpstreamFlowNodes ( HydrologyNodeNetwork network, UpstreamFlowNodeI upstreamFlowNodeI )
+{	List<HydrologyNode> nodes = network.getNodeList();
+	int [][] upstreamFlowNodes = network.findUpstreamFlowNodesForAllNodes(upstreamFlowNodeI);
+	assertEquals(nodes.size(), upstreamFlowNodes.length);
+	int checkedCount = 0;
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		HydrologyNode node = nodes.get(i);
+		int nodeType = node.getType();
+		if ( (nodeType == HydrologyNode.NODE_TYPE_CONFLUENCE) || (nodeType == HydrologyNode.NODE_TYPE_XCONFLUENCE) ) {
+			// Not a valid starting node.
+			assertEquals(0, upstreamFlowNodes[i].length);
+			continue;
+		}
+		List<String> expected = new ArrayList<String>();
+		for ( HydrologyNode flowNode : network.findUpstreamFlowNodes(new ArrayList<HydrologyNode>(), node,
+			upstreamFlowNodeI, false) ) {
+			expected.add(flowNode.getCommonID());
+		}
+		List<String> actual = new ArrayList<String>();
+		for ( int flowNode : upstreamFlowNodes[i] ) {
+			actual.add(nodes.get(flowNode).getCommonID());
+		}
+		assertEquals("Upstream flow nodes for \"" + node.getCommonID() + "\"", expected, actual);
+		++checkedCount;
+	}
+	assertTrue(checkedCount > 0);
+}
+
+/**
+Create a network with tributaries, tributaries of tributaries, and flow nodes on the main stem and tributaries.
+Each tributary joins a node through a confluence node, as in networks created by makenet and StateDMI.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	// Nodes that a tributary can join.
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 20; i++ ) {
+		downstreamNode = createNode(nodes, getRandomNodeType(random), random, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		int confluenceType = random.nextBoolean() ? HydrologyNode.NODE_TYPE_CONFLUENCE : HydrologyNode.NODE_TYPE_XCONFLUENCE;
+		downstreamNode = createNode(nodes, confluenceType, random, downstreamNode);
+		int length = 1 + random.nextInt(8);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes, getRandomNodeType(random), random, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param random random number generator, used to set the natural flow flag.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, Random random, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	if ( (type != HydrologyNode.NODE_TYPE_CONFLUENCE) && (type != HydrologyNode.NODE_TYPE_XCONFLUENCE) ) {
+		node.setIsNaturalFlow(random.nextInt(3) > 0);
+	}
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Return a random node type for a node that is not a confluence.
+@param random random number generator.
+@return a random node type, mostly FLOW nodes.
+*/
+private int getRandomNodeType ( Random random )
+{	int [] types = {
+		HydrologyNode.NODE_TYPE_FLOW,
+		HydrologyNode.NODE_TYPE_FLOW,
+		HydrologyNode.NODE_TYPE_DIV,
+		HydrologyNode.NODE_TYPE_RES,
+		HydrologyNode.NODE_TYPE_ISF,
+		HydrologyNode.NODE_TYPE_BASEFLOW
+	};
+	return types[random.nextInt(types.length)];
+}
+
+/**
+Test branched networks with natural flow FLOW nodes as the upstream flow nodes.
+*/
+public void testBranchedNetworks ()
+{	for ( long seed = 1; seed <= 10; seed++ ) {
+		checkUpstreamFlowNodes(createNetwork(seed, 300), null);
+	}
+}
+
+/**
+Test branched networks where other nodes are also treated as upstream flow nodes (see UpstreamFlowNodeI).
+*/
+public void testBranchedNetworksWithUpstreamFlowNodeI ()
+{	UpstreamFlowNodeI upstreamFlowNodeI = new UpstreamFlowNodeI() {
+		public int isSetprfTarget ( String commonID ) {
+			// Treat every fifth node as an upstream flow node.
+			if ( !commonID.startsWith("N") ) {
+				return -1;
+			}
+			int number = Integer.parseInt(commonID.substring(1));
+			return ((number % 5) == 0) ? number : -1;
+		}
+	};
+	for ( long seed = 1; seed <= 10; seed++ ) {
+		checkUpstreamFlowNodes(createNetwork(seed, 300), upstreamFlowNodeI);
+	}
+}
+
+/**
+Test a network with only a main stem.
+*/
+public void testMainStem ()
+{	Random random = new Random(1);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 50; i++ ) {
+		downstreamNode = createNode(nodes, getRandomNodeType(random), random, downstreamNode);
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	checkUpstreamFlowNodes(network, null);
+}
+
+}
@@ -0,0 +1,264 @@
+// HydrologyNodeNetworkUpstreamNodesTest - tests for finding the nodes upstream of many nodes at once
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+Tests that HydrologyNodeNetwork.findUpstreamNodesForNodes() gives the same results as calling
+findUpstreamNodes() for each node, with and without stop nodes, and that the UpstreamNodeRanges conversions agree.
+*/
+public class HydrologyNodeNetworkUpstreamNodesTest extends TestCase
+{
+
+public HydrologyNodeNetworkUpstreamNodesTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that a result has the expected nodes, using each of the ways to access the nodes.
+@param network the network.
+@param expected the expected nodes, in order.
+@param ranges the result to check.
+*/
+private void checkRanges ( HydrologyNodeNetwork network, List<HydrologyNode> expected, UpstreamNodeRanges ranges )
+{	assertEquals(expected, ranges.toList());
+	assertEquals(expected.size(), ranges.size());
+	int [] indexes = ranges.toIndexArray();
+	BitSet bitSet = ranges.toBitSet();
+	assertEquals(expected.size(), indexes.length);
+	assertEquals(expected.size(), bitSet.cardinality());
+	int count = 0;
+	for ( int range = 0; range < ranges.getRangeCount(); range++ ) {
+		assertTrue(ranges.getRangeEnd(range) >= ranges.getRangeStart(range));
+		for ( int pos = ranges.getRangeStart(range); pos < ranges.getRangeEnd(range); pos++ ) {
+			HydrologyNode node = expected.get(count);
+			assertSame(node, ranges.getNode(pos));
+			assertEquals(network.getComputationalIndex(node), ranges.getNodeIndex(pos));
+			assertEquals(indexes[count], ranges.getNodeIndex(pos));
+			assertTrue(bitSet.get(indexes[count]));
+			++count;
+		}
+	}
+	assertEquals(expected.size(), count);
+}
+
+/**
+Check the upstream nodes for all nodes against the results for each node.
+@param network the network to check.
+@param addFirstNode whether to include each node in its result.
+@param stopLists the stop list for each node, or null.
+*/
+private void checkUpstreamNodes ( HydrologyNodeNetwork network, boolean addFirstNode, List<List<String>> stopLists )
+{	List<HydrologyNode> nodes = network.getNodeList();
+	for ( int pass = 0; pass < 2; pass++ ) {
+		UpstreamNodeRanges [] results = network.findUpstreamNodesForNodes(nodes, addFirstNode, stopLists, pass == 1);
+		assertEquals(nodes.size(), results.length);
+		for ( int i = 0; i < nodes.size(); i++ ) {
+			List<HydrologyNode> expected = network.findUpstreamNodes(new ArrayList<HydrologyNode>(), nodes.get(i),
+				addFirstNode, (stopLists == null) ? null : stopLists.get(i));
+			checkRanges(network, expected, results[i]);
+		}
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 10; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, downstreamNode);
+		int length = 1 + random.nextInt(5);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes,
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Create a random stop list.
+@param random random number generator.
+@param nodeCount number of nodes in the network.
+@return the stop list, with some identifiers having the "-" prefix and some identifiers in lower case.
+*/
+private List<String> createStopList ( Random random, int nodeCount )
+{	List<String> stopList = new ArrayList<String>();
+	int size = 1 + random.nextInt(6);
+	for ( int i = 0; i < size; i++ ) {
+		String id = "N" + (1 + random.nextInt(nodeCount - 1));
+		if ( random.nextInt(4) == 0 ) {
+			id = id.toLowerCase();
+		}
+		if ( random.nextInt(3) == 0 ) {
+			id = "-" + id;
+		}
+		stopList.add(id);
+	}
+	return stopList;
+}
+
+/**
+Test a network that is not a proper tree, for which findUpstreamNodes() is used for the nodes that are not in the
+upstream tree, and nodes that are not in the computational order are omitted.
+*/
+public void testInconsistentTributaryNumber ()
+{	HydrologyNodeNetwork network = createNetwork(5, 200);
+	List<HydrologyNode> nodes = network.getNodeList();
+	for ( HydrologyNode node : nodes ) {
+		if ( node.getNumUpstreamNodes() > 1 ) {
+			node.getUpstreamNode(0).setTributaryNumber(2);
+			break;
+		}
+	}
+	nodes = network.getNodeList();
+	UpstreamNodeRanges [] results = network.findUpstreamNodesForNodes(nodes, true, null, false);
+	int notInTree = 0;
+	for ( HydrologyNode node : nodes ) {
+		if ( network.getUpstreamTreeStart(node) < 0 ) {
+			++notInTree;
+		}
+	}
+	assertTrue(notInTree > 0);
+	for ( int i = 0; i < nodes.size(); i++ ) {
+		List<HydrologyNode> expected = new ArrayList<HydrologyNode>();
+		for ( HydrologyNode node : network.findUpstreamNodes(new ArrayList<HydrologyNode>(), nodes.get(i), true, null) ) {
+			if ( network.getComputationalIndex(node) >= 0 ) {
+				expected.add(node);
+			}
+		}
+		checkRanges(network, expected, results[i]);
+	}
+}
+
+/**
+Test that the stop lists must match the nodes.
+*/
+public void testStopListCount ()
+{	HydrologyNodeNetwork network = createNetwork(1, 50);
+	List<HydrologyNode> nodes = network.getNodeList();
+	List<List<String>> stopLists = new ArrayList<List<String>>();
+	stopLists.add(null);
+	try {
+		network.findUpstreamNodesForNodes(nodes, true, stopLists, false);
+		fail("Expected IllegalArgumentException for the wrong number of stop lists");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+}
+
+/**
+Test with stop lists that are shared between nodes, that are different for each node, and that are null or empty.
+*/
+public void testStopNodes ()
+{	for ( long seed = 1; seed <= 3; seed++ ) {
+		HydrologyNodeNetwork network = createNetwork(seed, 300);
+		Random random = new Random(seed);
+		int nodeCount = network.getNodeList().size();
+		List<List<String>> sharedLists = new ArrayList<List<String>>();
+		for ( int i = 0; i < 4; i++ ) {
+			sharedLists.add(createStopList(random, nodeCount));
+		}
+		sharedLists.add(null);
+		sharedLists.add(new ArrayList<String>());
+		List<List<String>> stopLists = new ArrayList<List<String>>();
+		for ( int i = 0; i < nodeCount; i++ ) {
+			if ( random.nextBoolean() ) {
+				stopLists.add(sharedLists.get(random.nextInt(sharedLists.size())));
+			}
+			else {
+				stopLists.add(createStopList(random, nodeCount));
+			}
+		}
+		checkUpstreamNodes(network, true, stopLists);
+		checkUpstreamNodes(network, false, stopLists);
+	}
+}
+
+/**
+Test without stop nodes, and with a stop node that is the starting node.
+*/
+public void testWithoutStopNodes ()
+{	HydrologyNodeNetwork network = createNetwork(4, 500);
+	checkUpstreamNodes(network, true, null);
+	checkUpstreamNodes(network, false, null);
+	// A stop list that is the same node as the starting node.
+	List<HydrologyNode> nodes = network.getNodeList();
+	HydrologyNode node = nodes.get(nodes.size()/2);
+	List<List<String>> stopLists = new ArrayList<List<String>>();
+	stopLists.add(Arrays.asList(node.getCommonID()));
+	UpstreamNodeRanges [] results = network.findUpstreamNodesForNodes(Arrays.asList(node), true, stopLists, false);
+	checkRanges(network, Arrays.asList(node), results[0]);
+	stopLists.set(0, Arrays.asList("-" + node.getCommonID()));
+	results = network.findUpstreamNodesForNodes(Arrays.asList(node), true, stopLists, false);
+	assertEquals(0, results[0].size());
+}
+
+}
@@ -0,0 +1,188 @@
+// HydrologyNodeNetworkXMLReaderTest - tests for reading XML network files
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import RTi.Util.IO.PropList;
+
+import junit.framework.TestCase;
+
+/**
+Tests that a network written with HydrologyNodeNetwork.writeXML() is read by HydrologyNodeNetworkXMLReader,
+including the page layouts, and that the page layouts are unchanged when the network is written again.
+*/
+public class HydrologyNodeNetworkXMLReaderTest extends TestCase
+{
+
+/**
+XML file used by each test.
+*/
+private File __file;
+
+public HydrologyNodeNetworkXMLReaderTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that a network has a single default page layout.
+@param network the network that was read.
+*/
+private void checkDefaultLayout ( HydrologyNodeNetwork network )
+{	List<PropList> layouts = network.getLayoutList();
+	assertEquals(1, layouts.size());
+	PropList layout = layouts.get(0);
+	assertEquals("Page Layout #1", layout.getValue("ID"));
+	assertEquals("True", layout.getValue("IsDefault"));
+	assertEquals("C", layout.getValue("PaperSize"));
+	assertEquals("Landscape", layout.getValue("PageOrientation"));
+	assertEquals("10", layout.getValue("NodeLabelFontSize"));
+	assertEquals("20", layout.getValue("NodeSize"));
+}
+
+/**
+Check that a network has the same nodes and connections as the network that was written.
+@param expected the network that was written.
+@param actual the network that was read.
+*/
+private void checkNodes ( HydrologyNodeNetwork expected, HydrologyNodeNetwork actual )
+{	HydrologyNode [] expectedNodes = expected.getComputationalOrderNodes();
+	HydrologyNode [] actualNodes = actual.getComputationalOrderNodes();
+	assertEquals(expectedNodes.length, actualNodes.length);
+	for ( int i = 0; i < expectedNodes.length; i++ ) {
+		assertEquals(expectedNodes[i].getCommonID(), actualNodes[i].getCommonID());
+		assertEquals(expectedNodes[i].getType(), actualNodes[i].getType());
+		assertEquals(expectedNodes[i].getX(), actualNodes[i].getX(), 1.0e-6);
+		assertEquals(expectedNodes[i].getY(), actualNodes[i].getY(), 1.0e-6);
+		assertEquals(expectedNodes[i].getNumUpstreamNodes(), actualNodes[i].getNumUpstreamNodes());
+	}
+}
+
+/**
+Create a network with a main stem and one tributary.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ()
+{	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	HydrologyNode stem1 = createNode(nodes, "STEM1", HydrologyNode.NODE_TYPE_FLOW, end);
+	HydrologyNode stem2 = createNode(nodes, "STEM2", HydrologyNode.NODE_TYPE_DIV, stem1);
+	createNode(nodes, "STEM3", HydrologyNode.NODE_TYPE_FLOW, stem2);
+	HydrologyNode confluence = createNode(nodes, "CONF", HydrologyNode.NODE_TYPE_CONFLUENCE, stem1);
+	createNode(nodes, "TRIB1", HydrologyNode.NODE_TYPE_FLOW, confluence);
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param id node identifier.
+@param type node type.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, String id, int type, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setX(10.0*nodes.size());
+	node.setY(5.0*nodes.size());
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+protected void setUp ()
+throws Exception
+{	__file = File.createTempFile("HydrologyNodeNetworkXMLReaderTest", ".net");
+}
+
+protected void tearDown ()
+{	__file.delete();
+}
+
+/**
+Test that the IsDefault attribute of the default page layout is kept when a network is written, read,
+written and read again.
+*/
+public void testDefaultLayoutRoundTrip ()
+throws Exception
+{	HydrologyNodeNetwork network = createNetwork();
+	network.writeXML(__file.getPath());
+	HydrologyNodeNetwork network1 = HydrologyNodeNetworkXMLReader.readXML(__file.getPath());
+	checkNodes(network, network1);
+	checkDefaultLayout(network1);
+	network1.writeXML(__file.getPath());
+	HydrologyNodeNetwork network2 = HydrologyNodeNetworkXMLReader.readXML(__file.getPath());
+	checkNodes(network, network2);
+	checkDefaultLayout(network2);
+}
+
+/**
+Test that the IsDefault attribute of the default page layout is read from files written by older versions,
+which wrote the attribute after the end of the PageLayout element.
+*/
+public void testOldDefaultLayout ()
+throws Exception
+{	String xml =
+		"<StateMod_Network XMin = \"0\" YMin = \"0\" XMax = \"100\" YMax = \"100\">\n" +
+		"    <PageLayout ID = \"Page Layout #1\"\n" +
+		"        PaperSize = \"C\"\n" +
+		"        PageOrientation = \"Landscape\"\n" +
+		"        NodeLabelFontSize = \"10\"\n" +
+		"        NodeSize = \"20\"/>\n" +
+		"        IsDefault = \"True\"/>\n" +
+		"    <PageLayout ID = \"Page Layout #2\"\n" +
+		"        IsDefault = \"False\"\n" +
+		"        PaperSize = \"D\"\n" +
+		"        PageOrientation = \"Portrait\"\n" +
+		"        NodeLabelFontSize = \"12\"\n" +
+		"        NodeSize = \"24\"/>\n" +
+		"    <Node ID = \"STEM1\" Type = \"Stream\" X = \"10\" Y = \"10\">\n" +
+		"        <DownstreamNode ID = \"END\"/>\n" +
+		"    </Node>\n" +
+		"    <Node ID = \"END\" Type = \"End\" X = \"0\" Y = \"0\">\n" +
+		"        <UpstreamNode ID = \"STEM1\"/>\n" +
+		"    </Node>\n" +
+		"</StateMod_Network>\n";
+	HydrologyNodeNetwork network = HydrologyNodeNetworkXMLReader.readXML(new StringReader(xml));
+	List<PropList> layouts = network.getLayoutList();
+	assertEquals(2, layouts.size());
+	assertEquals("True", layouts.get(0).getValue("IsDefault"));
+	assertEquals("20", layouts.get(0).getValue("NodeSize"));
+	assertEquals("False", layouts.get(1).getValue("IsDefault"));
+	assertEquals("D", layouts.get(1).getValue("PaperSize"));
+	assertEquals(2, network.getComputationalOrderNodes().length);
+}
+
+}
@@ -0,0 +1,317 @@
+// HydrologyNodeSpatialIndexTest - tests for finding network nodes by location
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import RTi.GR.GRLimits;
+
+import junit.framework.TestCase;
+
+/**
+Tests that the network queries that use the grid index of node positions give the same results as checking
+every node, including after nodes are moved and after the network structure changes, and that the network extent
+that is maintained by the index is the same as the extent of every node's coordinates.
+*/
+public class HydrologyNodeSpatialIndexTest extends TestCase
+{
+
+public HydrologyNodeSpatialIndexTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check the network extent against the extent of every node's coordinates, ignoring missing (NaN) coordinates.
+@param network the network.
+*/
+private void checkExtent ( HydrologyNodeNetwork network )
+{	double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+	double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+	for ( HydrologyNode node : network.getComputationalOrderNodes() ) {
+		if ( !Double.isNaN(node.getX()) ) {
+			minX = Math.min(minX, node.getX());
+			maxX = Math.max(maxX, node.getX());
+		}
+		if ( !Double.isNaN(node.getY()) ) {
+			minY = Math.min(minY, node.getY());
+			maxY = Math.max(maxY, node.getY());
+		}
+	}
+	GRLimits extent = network.determineExtentFromNetworkData();
+	assertEquals(minX, extent.getLeftX(), 0.0);
+	assertEquals(minY, extent.getBottomY(), 0.0);
+	assertEquals(maxX, extent.getRightX(), 0.0);
+	assertEquals(maxY, extent.getTopY(), 0.0);
+}
+
+/**
+Check the location queries at random points against checking every node.
+@param network the network.
+@param random random number generator for the points.
+*/
+private void checkQueries ( HydrologyNodeNetwork network, Random random )
+{	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	for ( int i = 0; i < 200; i++ ) {
+		double x = random.nextDouble()*1200.0 - 100.0;
+		double y = random.nextDouble()*1200.0 - 100.0;
+		if ( (i % 4) == 0 ) {
+			// Check points on nodes, which are otherwise rarely found.
+			HydrologyNode node = nodes[random.nextInt(nodes.length)];
+			x = node.getX() + random.nextDouble()*4.0 - 2.0;
+			y = node.getY() + random.nextDouble()*4.0 - 2.0;
+		}
+		// Nodes that contain the point.
+		List<HydrologyNode> expected = new ArrayList<HydrologyNode>();
+		for ( HydrologyNode node : nodes ) {
+			if ( node.contains(x, y) ) {
+				expected.add(node);
+			}
+		}
+		assertEquals(expected, network.findNodesAt(x, y));
+		assertSame((expected.size() == 0) ? null : expected.get(0), network.findNodeAt(x, y));
+		// Nearest node.
+		double maxDistance = random.nextDouble()*100.0;
+		HydrologyNode nearest = null;
+		double nearestDistance = maxDistance;
+		for ( HydrologyNode node : nodes ) {
+			double distance = Math.hypot(node.getX() - x, node.getY() - y);
+			if ( distance < nearestDistance ) {
+				nearest = node;
+				nearestDistance = distance;
+			}
+		}
+		HydrologyNode found = network.findNearestNode(x, y, maxDistance);
+		if ( nearest == null ) {
+			assertNull(found);
+		}
+		else {
+			assertNotNull(found);
+			assertEquals(nearestDistance, Math.hypot(found.getX() - x, found.getY() - y), 1.0e-9);
+		}
+		// Nodes in a range.
+		double width = random.nextDouble()*200.0;
+		double height = random.nextDouble()*200.0;
+		expected.clear();
+		for ( HydrologyNode node : nodes ) {
+			if ( (node.getX() >= x) && (node.getX() <= x + width) && (node.getY() >= y) && (node.getY() <= y + height) ) {
+				expected.add(node);
+			}
+		}
+		assertEquals(expected, network.findNodesInRange(x, y, x + width, y + height));
+		// Nodes within limits, for scaled limits.
+		double scale = 0.5 + random.nextDouble();
+		GRLimits limits = new GRLimits(x*scale, y*scale, (x + width)*scale, (y + height)*scale);
+		expected.clear();
+		for ( HydrologyNode node : nodes ) {
+			if ( node.isWithinLimits(limits, scale) ) {
+				expected.add(node);
+			}
+		}
+		assertEquals(expected, network.findNodesWithinLimits(limits, scale));
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node,
+with nodes at random positions.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 10; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, random, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, random, downstreamNode);
+		int length = 1 + random.nextInt(5);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes,
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, random, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	for ( HydrologyNode node : nodes ) {
+		node.setX(random.nextDouble()*1000.0);
+		node.setY(random.nextDouble()*1000.0);
+		node.calculateExtents(null);
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param random random number generator, used for the node data.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, Random random, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setDataDiameter(2.0 + random.nextInt(20));
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Test that the queries find nodes that are added to the network.
+*/
+public void testAddedNodes ()
+{	HydrologyNodeNetwork network = createNetwork(3, 200);
+	Random random = new Random(3);
+	checkQueries(network, random);
+	HydrologyNode node = network.addNode("ADDED", HydrologyNode.NODE_TYPE_FLOW, "N2", "N1", false, false);
+	node.setX(321.0);
+	node.setY(654.0);
+	node.calculateExtents(null);
+	assertTrue(network.findNodesAt(321.0, 654.0).contains(node));
+	assertSame(node, network.findNearestNode(321.0, 654.0, 1.0e-6));
+	checkQueries(network, random);
+}
+
+/**
+Test that the network extent is maintained as nodes are moved outward and inward, including nodes at the edge of
+the extent, and as nodes are added and deleted.
+*/
+public void testExtent ()
+{	HydrologyNodeNetwork network = createNetwork(4, 200);
+	Random random = new Random(4);
+	checkExtent(network);
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	for ( int i = 0; i < 200; i++ ) {
+		HydrologyNode node = nodes[random.nextInt(nodes.length)];
+		if ( (i % 5) == 0 ) {
+			// Move the node at the edge of the extent inward.
+			GRLimits extent = network.determineExtentFromNetworkData();
+			for ( HydrologyNode node2 : nodes ) {
+				if ( node2.getX() == extent.getRightX() ) {
+					node = node2;
+				}
+			}
+			node.setX(extent.getLeftX() + random.nextDouble()*extent.getWidth());
+		}
+		else {
+			node.setX(random.nextDouble()*1400.0 - 200.0);
+			node.setY(random.nextDouble()*1400.0 - 200.0);
+		}
+		checkExtent(network);
+	}
+	network.addNode("ADDED", HydrologyNode.NODE_TYPE_FLOW, "N2", "N1", false, false).setX(5000.0);
+	checkExtent(network);
+	network.deleteNode("ADDED");
+	checkExtent(network);
+	assertTrue(network.determineExtentFromNetworkData().getRightX() < 5000.0);
+}
+
+/**
+Test that missing (NaN) coordinates are ignored in the network extent, and that the extent is 0 to 1 if no node
+has coordinates.
+*/
+public void testExtentMissingCoordinates ()
+{	HydrologyNodeNetwork network = createNetwork(5, 50);
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	nodes[0].setX(-500.0);
+	nodes[1].setY(2000.0);
+	checkExtent(network);
+	nodes[0].setX(Double.NaN);
+	nodes[1].setY(Double.NaN);
+	checkExtent(network);
+	for ( HydrologyNode node : nodes ) {
+		node.setX(Double.NaN);
+		node.setY(Double.NaN);
+	}
+	GRLimits extent = network.determineExtentFromNetworkData();
+	assertEquals(0.0, extent.getLeftX(), 0.0);
+	assertEquals(0.0, extent.getBottomY(), 0.0);
+	assertEquals(1.0, extent.getRightX(), 0.0);
+	assertEquals(1.0, extent.getTopY(), 0.0);
+	nodes[3].setX(10.0);
+	nodes[3].setY(20.0);
+	extent = network.determineExtentFromNetworkData();
+	assertEquals(10.0, extent.getLeftX(), 0.0);
+	assertEquals(20.0, extent.getTopY(), 0.0);
+}
+
+/**
+Test that the queries find nodes that have been moved, including outside of the original grid,
+and that moving a node that has been removed from the network does not affect the queries.
+*/
+public void testMovedNodes ()
+{	HydrologyNodeNetwork network = createNetwork(2, 300);
+	Random random = new Random(2);
+	checkQueries(network, random);
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	for ( int i = 0; i < 100; i++ ) {
+		HydrologyNode node = nodes[random.nextInt(nodes.length)];
+		if ( (i % 10) == 0 ) {
+			node.setPosition(random.nextDouble()*1400.0 - 200.0, random.nextDouble()*1400.0 - 200.0,
+				node.getWidth(), node.getHeight());
+		}
+		else {
+			node.setX(random.nextDouble()*1000.0);
+			node.setY(random.nextDouble()*1000.0);
+		}
+	}
+	checkQueries(network, random);
+	HydrologyNode node = network.findNode("N20");
+	node.setX(500.0);
+	node.setY(500.0);
+	assertTrue(network.findNodesAt(500.0, 500.0).contains(node));
+	network.deleteNode("N20");
+	node.setX(600.0);
+	node.setY(600.0);
+	assertFalse(network.findNodesAt(600.0, 600.0).contains(node));
+	assertFalse(network.findNodesInRange(0.0, 0.0, 1000.0, 1000.0).contains(node));
+	checkQueries(network, random);
+}
+
+/**
+Test the queries against checking every node.
+*/
+public void testQueries ()
+{	checkQueries(createNetwork(1, 500), new Random(1));
+}
+
+}
@@ -0,0 +1,110 @@
+// HydrologyNodeSymbolTest - tests for the node symbols determined when node extents are calculated
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import RTi.GR.GRSymbol;
+
+import junit.framework.TestCase;
+
+/**
+Tests that node symbols are shared between nodes, are only determined again when the node type, flags or icon
+diameter change, and that getSymbol() does not return a shared symbol.
+*/
+public class HydrologyNodeSymbolTest extends TestCase
+{
+
+public HydrologyNodeSymbolTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Create a node.
+@param type node type.
+@return the node.
+*/
+private HydrologyNode createNode ( int type )
+{	HydrologyNode node = new HydrologyNode();
+	node.setType(type);
+	node.setDataDiameter(8.0);
+	return node;
+}
+
+/**
+Test that recalculating the extent keeps the symbol unless the type or icon diameter changes.
+*/
+public void testExtentKeepsSymbol ()
+{	HydrologyNode node = createNode(HydrologyNode.NODE_TYPE_FLOW);
+	node.calculateExtents(null);
+	GRSymbol symbol = node.getSymbolForDrawing();
+	assertNotNull(symbol);
+	node.setBoundsCalculated(false);
+	node.calculateExtents(null);
+	assertSame(symbol, node.getSymbolForDrawing());
+	node.setType(HydrologyNode.NODE_TYPE_DIV);
+	node.calculateExtents(null);
+	assertNotSame(symbol, node.getSymbolForDrawing());
+	assertEquals("D", node.getSymbolText());
+	symbol = node.getSymbolForDrawing();
+	node.setIconDiameter(node.getIconDiameter()*2);
+	node.calculateExtents(null);
+	assertEquals(symbol.getSize()*2, node.getSymbolForDrawing().getSize(), 0.0);
+}
+
+/**
+Test that confluence extents are adjusted in the same way whether or not the symbol is determined again.
+*/
+public void testExtentSize ()
+{	HydrologyNode node1 = createNode(HydrologyNode.NODE_TYPE_CONFLUENCE);
+	node1.calculateExtents(null);
+	assertEquals(4.0, node1.getWidth(), 0.0);
+	node1.setDataDiameter(8.0);
+	node1.calculateExtents(null);
+	assertEquals(4.0, node1.getWidth(), 0.0);
+	assertEquals(4.0, node1.getHeight(), 0.0);
+}
+
+/**
+Test that nodes of the same type share a symbol for drawing, and that getSymbol() returns a symbol that is
+only used by the node.
+*/
+public void testSharedSymbol ()
+{	HydrologyNode node1 = createNode(HydrologyNode.NODE_TYPE_RES);
+	HydrologyNode node2 = createNode(HydrologyNode.NODE_TYPE_RES);
+	node1.calculateExtents(null);
+	node2.calculateExtents(null);
+	GRSymbol shared = node2.getSymbolForDrawing();
+	assertSame(node1.getSymbolForDrawing(), shared);
+	GRSymbol symbol1 = node1.getSymbol();
+	assertNotSame(shared, symbol1);
+	assertSame(symbol1, node1.getSymbol());
+	assertSame(symbol1, node1.getSymbolForDrawing());
+	assertEquals(shared.getShapeType(), symbol1.getShapeType());
+	assertEquals(shared.getSize(), symbol1.getSize(), 0.0);
+	assertSame(shared, node2.getSymbolForDrawing());
+	// The node keeps its own symbol when the extent is recalculated.
+	node1.calculateExtents(null);
+	assertSame(symbol1, node1.getSymbolForDrawing());
+}
+
+}
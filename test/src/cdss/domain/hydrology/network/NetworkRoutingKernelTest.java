@@ -0,0 +1,215 @@
+// NetworkRoutingKernelTest - tests for evaluating routing operators over a network
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+Tests that NetworkRoutingKernel gives the same results, sequentially and in parallel, as evaluating the nodes
+one at a time in computational order.
+*/
+public class NetworkRoutingKernelTest extends TestCase
+{
+
+/**
+Pool used for the parallel tests.
+*/
+private ForkJoinPool __pool;
+
+public NetworkRoutingKernelTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check the kernel results for an operator against the sequential evaluation.
+@param network the network.
+@param kernel the kernel to check.
+@param inputs input time series for each node.
+@param operator the operator.
+*/
+private void checkRoute ( CompactNetwork network, NetworkRoutingKernel kernel, double [][] inputs,
+	NodeRoutingOperatorI operator )
+{	double [][] expected = route(network, inputs, operator);
+	double [][] flows = kernel.route(inputs, operator);
+	assertEquals(expected.length, flows.length);
+	for ( int i = 0; i < expected.length; i++ ) {
+		for ( int t = 0; t < expected[i].length; t++ ) {
+			assertEquals("Node " + i + " time step " + t, expected[i][t], flows[i][t],
+				1.0e-9*Math.max(1.0, Math.abs(expected[i][t])));
+		}
+	}
+	// Reusing the result arrays gives the same results.
+	kernel.route(inputs, operator, flows);
+	for ( int i = 0; i < expected.length; i++ ) {
+		for ( int t = 0; t < expected[i].length; t++ ) {
+			assertEquals(expected[i][t], flows[i][t], 1.0e-9*Math.max(1.0, Math.abs(expected[i][t])));
+		}
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 20; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, random, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, random, downstreamNode);
+		int length = 1 + random.nextInt(8);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes,
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, random, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create input time series for each node, with some nodes having no input.
+@param network the network.
+@param seed random number seed.
+@param timeStepCount number of time steps.
+@return the input time series for each node.
+*/
+private double [][] createInputs ( CompactNetwork network, long seed, int timeStepCount )
+{	Random random = new Random(seed);
+	double [][] inputs = new double[network.getNodeCount()][];
+	for ( int i = 0; i < inputs.length; i++ ) {
+		if ( random.nextInt(4) != 0 ) {
+			inputs[i] = new double[timeStepCount];
+			for ( int t = 0; t < timeStepCount; t++ ) {
+				inputs[i][t] = random.nextDouble()*100.0;
+			}
+		}
+	}
+	return inputs;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param random random number generator, used for the node data.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, Random random, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setProrationFactor(random.nextDouble());
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Evaluate an operator one node at a time in computational order (node index order),
+adding the outflow of each node to the inflow of its downstream node.
+@param network the network.
+@param inputs input time series for each node.
+@param operator the operator.
+@return the outflow for each node.
+*/
+private double [][] route ( CompactNetwork network, double [][] inputs, NodeRoutingOperatorI operator )
+{	int n = network.getNodeCount();
+	int timeStepCount = 0;
+	for ( int i = 0; i < n; i++ ) {
+		if ( inputs[i] != null ) {
+			timeStepCount = inputs[i].length;
+		}
+	}
+	double [][] flows = new double[n][timeStepCount];
+	for ( int i = 0; i < n; i++ ) {
+		operator.route(network, i, inputs[i], flows[i], 0, timeStepCount);
+		int downstream = network.getDownstreamIndex(i);
+		if ( downstream >= 0 ) {
+			// Computational order evaluates each node after the nodes upstream of it.
+			assertTrue(downstream > i);
+			for ( int t = 0; t < timeStepCount; t++ ) {
+				flows[downstream][t] += flows[i][t];
+			}
+		}
+	}
+	return flows;
+}
+
+protected void setUp ()
+{	__pool = new ForkJoinPool(4);
+}
+
+protected void tearDown ()
+{	__pool.shutdown();
+}
+
+/**
+Test the kernel in parallel with small subtrees and time step blocks, so that many tasks and blocks are used.
+*/
+public void testParallel ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(1, 2000));
+	double [][] inputs = createInputs(network, 2, 100);
+	NetworkRoutingKernel kernel = new NetworkRoutingKernel(network, __pool, 16, 7);
+	checkRoute(network, kernel, inputs, NetworkRoutingKernel.ACCUMULATE);
+	checkRoute(network, kernel, inputs, NetworkRoutingKernel.PRORATE_GAINS);
+	checkRoute(network, kernel, inputs, NetworkRoutingKernel.SUBTRACT_DIVERSIONS);
+}
+
+/**
+Test the kernel without a pool and with the default sizes.
+*/
+public void testSequential ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(3, 500));
+	double [][] inputs = createInputs(network, 4, 300);
+	checkRoute(network, new NetworkRoutingKernel(network, null, 1, 1), inputs, NetworkRoutingKernel.ACCUMULATE);
+	NetworkRoutingKernel kernel = new NetworkRoutingKernel(network);
+	checkRoute(network, kernel, inputs, NetworkRoutingKernel.ACCUMULATE);
+	checkRoute(network, kernel, inputs, NetworkRoutingKernel.PRORATE_GAINS);
+	checkRoute(network, kernel, inputs, NetworkRoutingKernel.SUBTRACT_DIVERSIONS);
+}
+
+}
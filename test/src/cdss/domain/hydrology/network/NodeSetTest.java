@@ -0,0 +1,343 @@
+// NodeSetTest - tests for sets of nodes in a network
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+Tests that node sets remain usable while node attributes change and are rejected once the computational order
+of the network changes, that the network queries that fill sets find the same nodes as the queries that
+return lists, and that the set operations are correct.
+*/
+public class NodeSetTest extends TestCase
+{
+
+public NodeSetTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check that an operation on a set fails because the network has changed.
+@param nodeSet the set.
+@param node a node in the network.
+*/
+private void checkChanged ( NodeSet nodeSet, HydrologyNode node )
+{	try {
+		nodeSet.contains(node);
+		fail("Expected IllegalArgumentException from contains()");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	try {
+		nodeSet.add(node);
+		fail("Expected IllegalArgumentException from add()");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	try {
+		nodeSet.union(new NodeSet(nodeSet.getNetwork()));
+		fail("Expected IllegalArgumentException from union()");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+}
+
+/**
+Check that a set has the same nodes as a list.
+@param network the network.
+@param expected the expected nodes, in any order.
+@param nodeSet the set to check.
+*/
+private void checkNodes ( HydrologyNodeNetwork network, List<HydrologyNode> expected, NodeSet nodeSet )
+{	BitSet bits = new BitSet();
+	for ( HydrologyNode node : expected ) {
+		bits.set(network.getComputationalIndex(node));
+	}
+	assertEquals(bits, nodeSet.toBitSet());
+	assertEquals(bits.cardinality(), nodeSet.cardinality());
+	for ( HydrologyNode node : expected ) {
+		assertTrue(nodeSet.contains(node));
+	}
+}
+
+/**
+Create a network with a main stem and one tributary.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ()
+{	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	HydrologyNode stem1 = createNode(nodes, "STEM1", HydrologyNode.NODE_TYPE_FLOW, end);
+	HydrologyNode stem2 = createNode(nodes, "STEM2", HydrologyNode.NODE_TYPE_DIV, stem1);
+	createNode(nodes, "STEM3", HydrologyNode.NODE_TYPE_FLOW, stem2);
+	HydrologyNode confluence = createNode(nodes, "CONF", HydrologyNode.NODE_TYPE_CONFLUENCE, stem1);
+	HydrologyNode trib1 = createNode(nodes, "TRIB1", HydrologyNode.NODE_TYPE_FLOW, confluence);
+	createNode(nodes, "TRIB2", HydrologyNode.NODE_TYPE_DIV, trib1);
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 10; i++ ) {
+		downstreamNode = createNode(nodes, "N" + nodes.size(), HydrologyNode.NODE_TYPE_FLOW, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, "N" + nodes.size(), HydrologyNode.NODE_TYPE_CONFLUENCE, downstreamNode);
+		int length = 1 + random.nextInt(5);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes, "N" + nodes.size(),
+				random.nextBoolean() ? HydrologyNode.NODE_TYPE_FLOW : HydrologyNode.NODE_TYPE_DIV, downstreamNode);
+			downstreamNode.setIsNaturalFlow(random.nextInt(3) == 0);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param id node identifier.
+@param type node type.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, String id, int type, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Test that a set can still be used after node identifiers, types and flags change.
+*/
+public void testAttributeChangesKeepSet ()
+{	HydrologyNodeNetwork network = createNetwork();
+	HydrologyNode conf = network.findNode("CONF");
+	HydrologyNode stem3 = network.findNode("STEM3");
+	NodeSet upstreamOfConf = network.findUpstreamNodes(new NodeSet(network), conf, true, null);
+	assertEquals(3, upstreamOfConf.cardinality());
+	network.findNode("TRIB1").setCommonID("TRIB1X");
+	network.findNode("TRIB2").setType(HydrologyNode.NODE_TYPE_ISF);
+	stem3.setIsNaturalFlow(true);
+	stem3.setIsImport(true);
+	assertTrue(upstreamOfConf.contains(network.findNode("TRIB1X")));
+	assertFalse(upstreamOfConf.contains(stem3));
+	assertTrue(upstreamOfConf.add(stem3));
+	assertTrue(upstreamOfConf.contains(stem3));
+	assertEquals(4, upstreamOfConf.cardinality());
+	NodeSet isfNodes = network.getNodesForType(null, HydrologyNode.NODE_TYPE_ISF);
+	assertEquals(1, upstreamOfConf.intersection(isfNodes).cardinality());
+	assertEquals(upstreamOfConf.toList().size(), upstreamOfConf.cardinality());
+}
+
+/**
+Test that the queries that fill sets find the same nodes as the queries that return lists.
+*/
+public void testQueries ()
+{	HydrologyNodeNetwork network = createNetwork(1, 300);
+	List<HydrologyNode> nodes = network.getNodeList();
+	Random random = new Random(1);
+	for ( HydrologyNode node : nodes ) {
+		checkNodes(network, network.findUpstreamNodes(new ArrayList<HydrologyNode>(), node, true, null),
+			network.findUpstreamNodes(new NodeSet(network), node, true, null));
+		checkNodes(network, network.findUpstreamNodes(new ArrayList<HydrologyNode>(), node, false, null),
+			network.findUpstreamNodes((NodeSet)null, node, false, null));
+		checkNodes(network, network.findUpstreamFlowNodes(new ArrayList<HydrologyNode>(), node, null, false),
+			network.findUpstreamFlowNodes(new NodeSet(network), node, null));
+		HydrologyNode node2 = nodes.get(random.nextInt(nodes.size()));
+		checkNodes(network, network.getNodeSequence(node, node2), network.getNodeSequence(null, node, node2));
+	}
+	int [] types = { -1, HydrologyNode.NODE_TYPE_FLOW, HydrologyNode.NODE_TYPE_DIV, HydrologyNode.NODE_TYPE_CONFLUENCE,
+		HydrologyNode.NODE_TYPE_RES };
+	for ( int type : types ) {
+		checkNodes(network, network.getNodesForType(type), network.getNodesForType(new NodeSet(network), type));
+	}
+	// Adding to an existing set keeps the nodes in the set.
+	NodeSet nodeSet = network.getNodesForType(null, HydrologyNode.NODE_TYPE_DIV);
+	network.getNodesForType(nodeSet, HydrologyNode.NODE_TYPE_FLOW);
+	List<HydrologyNode> expected = new ArrayList<HydrologyNode>(network.getNodesForType(HydrologyNode.NODE_TYPE_DIV));
+	expected.addAll(network.getNodesForType(HydrologyNode.NODE_TYPE_FLOW));
+	checkNodes(network, expected, nodeSet);
+}
+
+/**
+Test the set operations, iteration and conversions against BitSet.
+*/
+public void testSetOperations ()
+{	HydrologyNodeNetwork network = createNetwork(2, 200);
+	List<HydrologyNode> nodes = network.getNodeList();
+	Random random = new Random(2);
+	NodeSet set1 = new NodeSet(network);
+	NodeSet set2 = new NodeSet(network);
+	BitSet bits1 = new BitSet();
+	BitSet bits2 = new BitSet();
+	for ( int i = 0; i < 80; i++ ) {
+		int index = random.nextInt(nodes.size());
+		assertEquals(!bits1.get(index), set1.add(nodes.get(index)));
+		bits1.set(index);
+		index = random.nextInt(nodes.size());
+		assertEquals(!bits2.get(index), set2.addIndex(index));
+		bits2.set(index);
+	}
+	BitSet expected = (BitSet)bits1.clone();
+	expected.or(bits2);
+	assertEquals(expected, set1.union(set2).toBitSet());
+	expected = (BitSet)bits1.clone();
+	expected.and(bits2);
+	assertEquals(expected, set1.intersection(set2).toBitSet());
+	expected = (BitSet)bits1.clone();
+	expected.andNot(bits2);
+	assertEquals(expected, set1.difference(set2).toBitSet());
+	// The operations do not change the sets.
+	assertEquals(bits1, set1.toBitSet());
+	assertEquals(bits2, set2.toBitSet());
+	// Iteration is in computational order.
+	List<HydrologyNode> list = set1.toList();
+	assertEquals(bits1.cardinality(), list.size());
+	Iterator<HydrologyNode> it = set1.iterator();
+	int i = set1.nextIndex(0);
+	for ( HydrologyNode node : list ) {
+		assertSame(node, it.next());
+		assertSame(node, set1.getNode(i));
+		assertEquals(network.getComputationalIndex(node), i);
+		assertTrue(set1.containsIndex(i));
+		i = set1.nextIndex(i + 1);
+	}
+	assertEquals(-1, i);
+	assertFalse(it.hasNext());
+	try {
+		it.next();
+		fail("Expected NoSuchElementException");
+	}
+	catch ( NoSuchElementException e ) {
+		// Expected.
+	}
+	// Remove and clear.
+	HydrologyNode node = list.get(0);
+	assertTrue(set1.remove(node));
+	assertFalse(set1.remove(node));
+	assertFalse(set1.contains(node));
+	assertEquals(bits1.cardinality() - 1, set1.cardinality());
+	set1.clear();
+	assertTrue(set1.isEmpty());
+	try {
+		set1.addIndex(nodes.size());
+		fail("Expected IndexOutOfBoundsException");
+	}
+	catch ( IndexOutOfBoundsException e ) {
+		// Expected.
+	}
+	// Sets for different networks cannot be combined, and nodes from other networks are not in a set.
+	HydrologyNodeNetwork network2 = createNetwork(2, 200);
+	NodeSet other = network2.getNodesForType(null, -1);
+	try {
+		set2.union(other);
+		fail("Expected IllegalArgumentException for a set from another network");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	assertFalse(set2.contains(network2.getNodeList().get(0)));
+	try {
+		set2.add(network2.getNodeList().get(0));
+		fail("Expected IllegalArgumentException for a node from another network");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+}
+
+/**
+Test that a set can no longer be used after a node is added to or removed from the network.
+*/
+public void testStructureChangesRejectSet ()
+{	HydrologyNodeNetwork network = createNetwork();
+	HydrologyNode conf = network.findNode("CONF");
+	NodeSet upstreamOfConf = network.findUpstreamNodes(new NodeSet(network), conf, true, null);
+	network.addNode("TRIB3", HydrologyNode.NODE_TYPE_FLOW, null, "TRIB2", false, false);
+	checkChanged(upstreamOfConf, conf);
+	NodeSet upstreamOfConf2 = network.findUpstreamNodes(new NodeSet(network), conf, true, null);
+	assertEquals(4, upstreamOfConf2.cardinality());
+	network.deleteNode("TRIB3");
+	checkChanged(upstreamOfConf2, conf);
+	// A node that is connected directly also changes the computational order.
+	NodeSet upstreamOfConf3 = network.findUpstreamNodes(new NodeSet(network), conf, true, null);
+	HydrologyNode node = new HydrologyNode();
+	node.setCommonID("TRIB4");
+	network.findNode("TRIB2").addUpstreamNode(node);
+	checkChanged(upstreamOfConf3, conf);
+}
+
+/**
+Test that a set can still be used after a structure change that does not change the computational order.
+*/
+public void testUnchangedOrderKeepsSet ()
+{	HydrologyNodeNetwork network = createNetwork();
+	HydrologyNode conf = network.findNode("CONF");
+	HydrologyNode [] nodes = network.getComputationalOrderNodes();
+	NodeSet upstreamOfConf = network.findUpstreamNodes(new NodeSet(network), conf, true, null);
+	conf.setTributaryNumber(conf.getTributaryNumber());
+	assertSame(nodes, network.getComputationalOrderNodes());
+	assertTrue(upstreamOfConf.contains(conf));
+	assertTrue(upstreamOfConf.add(network.findNode("END")));
+}
+
+}
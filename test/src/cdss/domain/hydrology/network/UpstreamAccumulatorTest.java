@@ -0,0 +1,255 @@
+// UpstreamAccumulatorTest - tests for accumulating node values over upstream nodes
+
+/* NoticeStart
+
+CDSS Java Library
+CDSS Java Library is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 1994-2019 Colorado Department of Natural Resources
+
+CDSS Java Library is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    CDSS Java Library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CDSS Java Library.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+
+package cdss.domain.hydrology.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+Tests that UpstreamAccumulator gives the same results, sequentially and in parallel, as adding each node value
+to the node and each node downstream of it, and that the results cannot be modified.
+*/
+public class UpstreamAccumulatorTest extends TestCase
+{
+
+/**
+Pool used for the parallel tests.
+*/
+private ForkJoinPool __pool;
+
+public UpstreamAccumulatorTest ( String testName )
+{	super ( testName );
+}
+
+/**
+Check accumulation results against the results of walking downstream from each node.
+@param network the network.
+@param values the values that were accumulated.
+@param result the accumulation results.
+*/
+private void checkResult ( CompactNetwork network, double [] values, UpstreamAccumulation result )
+{	int n = network.getNodeCount();
+	double [] sums = new double[n];
+	double [] mins = new double[n];
+	double [] maxs = new double[n];
+	for ( int i = 0; i < n; i++ ) {
+		mins[i] = Double.POSITIVE_INFINITY;
+		maxs[i] = Double.NEGATIVE_INFINITY;
+	}
+	for ( int i = 0; i < n; i++ ) {
+		for ( int node = i; node >= 0; node = network.getDownstreamIndex(node) ) {
+			sums[node] += values[i];
+			mins[node] = Math.min(mins[node], values[i]);
+			maxs[node] = Math.max(maxs[node], values[i]);
+		}
+	}
+	assertEquals(n, result.getNodeCount());
+	for ( int i = 0; i < n; i++ ) {
+		assertEquals("Node " + i, sums[i], result.getSum(i), 1.0e-9*Math.max(1.0, Math.abs(sums[i])));
+		assertEquals("Node " + i, mins[i], result.getMinimum(i), 0.0);
+		assertEquals("Node " + i, maxs[i], result.getMaximum(i), 0.0);
+	}
+}
+
+/**
+Create a network with tributaries, each joining the main stem or another tributary through a confluence node.
+@param seed random number seed.
+@param nodeCount approximate number of nodes.
+@return the network.
+*/
+private HydrologyNodeNetwork createNetwork ( long seed, int nodeCount )
+{	Random random = new Random(seed);
+	List<HydrologyNode> nodes = new ArrayList<HydrologyNode>();
+	HydrologyNode end = new HydrologyNode();
+	end.setCommonID("END");
+	end.setType(HydrologyNode.NODE_TYPE_END);
+	nodes.add(end);
+	List<HydrologyNode> joinNodes = new ArrayList<HydrologyNode>();
+	HydrologyNode downstreamNode = end;
+	for ( int i = 0; i < 20; i++ ) {
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, random, downstreamNode);
+		joinNodes.add(downstreamNode);
+	}
+	while ( nodes.size() < nodeCount ) {
+		downstreamNode = joinNodes.get(random.nextInt(joinNodes.size()));
+		downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_CONFLUENCE, random, downstreamNode);
+		int length = 1 + random.nextInt(8);
+		for ( int i = 0; i < length; i++ ) {
+			downstreamNode = createNode(nodes, HydrologyNode.NODE_TYPE_FLOW, random, downstreamNode);
+			joinNodes.add(downstreamNode);
+		}
+	}
+	HydrologyNodeNetwork network = new HydrologyNodeNetwork();
+	network.calculateNetworkNodeData(nodes, true);
+	return network;
+}
+
+/**
+Create a node that is connected by identifier to a downstream node.
+@param nodes list of nodes to add the node to.
+@param type node type.
+@param random random number generator, used for the node data.
+@param downstreamNode downstream node.
+@return the node.
+*/
+private HydrologyNode createNode ( List<HydrologyNode> nodes, int type, Random random, HydrologyNode downstreamNode )
+{	HydrologyNode node = new HydrologyNode();
+	String id = "N" + nodes.size();
+	node.setCommonID(id);
+	node.setType(type);
+	node.setArea(random.nextDouble()*100.0);
+	node.setDownstreamNodeID(downstreamNode.getCommonID());
+	downstreamNode.addUpstreamNodeID(id);
+	nodes.add(node);
+	return node;
+}
+
+/**
+Create random values for each node.
+@param network the network.
+@param seed random number seed.
+@return the value for each node.
+*/
+private double [] createValues ( CompactNetwork network, long seed )
+{	Random random = new Random(seed);
+	double [] values = new double[network.getNodeCount()];
+	for ( int i = 0; i < values.length; i++ ) {
+		values[i] = random.nextDouble()*200.0 - 100.0;
+	}
+	return values;
+}
+
+protected void setUp ()
+{	__pool = new ForkJoinPool(4);
+}
+
+protected void tearDown ()
+{	__pool.shutdown();
+}
+
+/**
+Test accumulating a node attribute.
+*/
+public void testAttribute ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(5, 300));
+	double [] areas = new double[network.getNodeCount()];
+	for ( int i = 0; i < areas.length; i++ ) {
+		areas[i] = network.getArea(i);
+	}
+	UpstreamAccumulator accumulator = new UpstreamAccumulator(network, __pool, 16);
+	checkResult(network, areas, accumulator.accumulate(UpstreamAccumulator.ATTRIBUTE_AREA));
+	try {
+		accumulator.accumulate(0);
+		fail("Expected IllegalArgumentException for an unknown attribute");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+	try {
+		accumulator.accumulate(new double[areas.length + 1]);
+		fail("Expected IllegalArgumentException for the wrong number of values");
+	}
+	catch ( IllegalArgumentException e ) {
+		// Expected.
+	}
+}
+
+/**
+Test that results cannot be changed through the returned arrays and are not changed by later calls.
+*/
+public void testImmutableResult ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(6, 200));
+	double [] values = createValues(network, 7);
+	UpstreamAccumulator accumulator = new UpstreamAccumulator(network, __pool, 8);
+	UpstreamAccumulation result = accumulator.accumulate(values);
+	double [] sums = result.getSums();
+	double [] mins = result.getMinimums();
+	double [] maxs = result.getMaximums();
+	assertNotSame(sums, result.getSums());
+	for ( int i = 0; i < sums.length; i++ ) {
+		assertEquals(sums[i], result.getSum(i), 0.0);
+		assertEquals(mins[i], result.getMinimum(i), 0.0);
+		assertEquals(maxs[i], result.getMaximum(i), 0.0);
+		sums[i] = Double.NaN;
+		mins[i] = Double.NaN;
+		maxs[i] = Double.NaN;
+	}
+	double [] values2 = createValues(network, 8);
+	UpstreamAccumulation result2 = accumulator.accumulate(values2);
+	assertNotSame(result, result2);
+	checkResult(network, values, result);
+	checkResult(network, values2, result2);
+	// The values passed to accumulate() are not changed.
+	assertEquals(createValues(network, 7)[0], values[0], 0.0);
+}
+
+/**
+Test that a NaN value results in NaN for the node and all nodes downstream of it, and no other nodes.
+*/
+public void testMissingValue ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(9, 200));
+	double [] values = createValues(network, 10);
+	int missing = network.getIndex("N30");
+	values[missing] = Double.NaN;
+	UpstreamAccumulation result = new UpstreamAccumulator(network, __pool, 4).accumulate(values);
+	boolean [] downstream = new boolean[network.getNodeCount()];
+	for ( int node = missing; node >= 0; node = network.getDownstreamIndex(node) ) {
+		downstream[node] = true;
+	}
+	for ( int i = 0; i < downstream.length; i++ ) {
+		assertEquals("Node " + i, downstream[i], Double.isNaN(result.getSum(i)));
+	}
+}
+
+/**
+Test accumulation in parallel with small subtrees, so that many tasks are used, and with the default sizes.
+*/
+public void testParallel ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(1, 3000));
+	double [] values = createValues(network, 2);
+	checkResult(network, values, new UpstreamAccumulator(network, __pool, 16).accumulate(values));
+	checkResult(network, values, new UpstreamAccumulator(network, __pool, 1).accumulate(values));
+	checkResult(network, values, new UpstreamAccumulator(network).accumulate(values));
+}
+
+/**
+Test accumulation without a pool, which gives the same results as CompactNetwork.accumulate().
+*/
+public void testSequential ()
+{	CompactNetwork network = new CompactNetwork(createNetwork(3, 500));
+	double [] values = createValues(network, 4);
+	UpstreamAccumulation result = new UpstreamAccumulator(network, null, 32).accumulate(values);
+	checkResult(network, values, result);
+	double [] sums = network.accumulate(values);
+	for ( int i = 0; i < sums.length; i++ ) {
+		assertEquals(sums[i], result.getSum(i), 1.0e-9*Math.max(1.0, Math.abs(sums[i])));
+	}
+}
+
+}